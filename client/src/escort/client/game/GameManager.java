@@ -27,7 +27,9 @@ import escort.common.game.weapons.Bullet;
 import escort.common.game.weapons.Grenade;
 import escort.common.game.weapons.MachineGun;
 import escort.common.game.weapons.Pistol;
+import escort.common.network.Message;
 import escort.common.powerups.PowerUp;
+import escort.common.systime.SimulationClock;
 import escort.common.systime.SystemTime;
 
 /**
@@ -99,6 +101,11 @@ public class GameManager {
 	 */
 	private HUDManager hud;
 
+	/**
+	 * The ID of the newest world snapshot applied.
+	 */
+	private int lastSnapshotID = -1;
+
 	/**
 	 * Instantiates a new game manager object.
 	 * 
@@ -127,10 +134,12 @@ public class GameManager {
 			return;
 		}
 
-		// Update all non-dead units.
+		// Advance the clock of the game and update all non-dead units.
+		SimulationClock clock = data.getClock();
+		clock.advance();
 		for (Unit unit : units.values()) {
 			if (!unit.isDead()) {
-				unit.update();
+				unit.update(clock);
 			}
 		}
 	}
@@ -163,6 +172,7 @@ public class GameManager {
 
 		// Clear the units map
 		units.clear();
+		lastSnapshotID = -1;
 
 		data = new GameData(gameMap, units);
 
@@ -222,7 +232,7 @@ public class GameManager {
 				throw new RuntimeException();
 			}
 			updateBasedOnInfo(info, unit);
-			units.put(info.unitID, unit);
+			data.addUnit(info.unitID, unit);
 		}
 	}
 
@@ -435,6 +445,40 @@ public class GameManager {
 		unit.setYVel(yVel);
 	}
 
+	/**
+	 * Applies a world snapshot from the server and acknowledges it. Snapshots
+	 * older than the newest one applied are dropped.
+	 * 
+	 * @param ints
+	 *            The snapshot ID, the base snapshot ID and the IDs of the
+	 *            units in the snapshot.
+	 * @param doubles
+	 *            The position, direction and velocity of each unit in the
+	 *            snapshot.
+	 */
+	public void applySnapshot(int[] ints, double[] doubles) {
+		if (ints == null || doubles == null || ints.length < 2 || doubles.length != (ints.length - 2) * 5) {
+			return;
+		}
+		int snapshotID = ints[0];
+		if (snapshotID <= lastSnapshotID) {
+			return;
+		}
+		lastSnapshotID = snapshotID;
+
+		for (int i = 2; i < ints.length; i++) {
+			int d = (i - 2) * 5;
+			if (units.containsKey(ints[i])) {
+				updateRemoteUnit(ints[i], doubles[d], doubles[d + 1], doubles[d + 2], doubles[d + 3], doubles[d + 4],
+						false);
+			}
+		}
+
+		// Tell the server which snapshot we now have, so the next one can be
+		// sent as a delta against it.
+		client.getNetworkManager().getSender().put(new Message(Message.SNAPSHOT_ACK, new int[] { snapshotID }));
+	}
+
 	/**
 	 * Called when a unit has respawned
 	 * 
@@ -86,8 +86,8 @@ public class Radar extends Panel {
 	private void renderAllUnits(Graphics2D g) {
 		for (Unit unit : gameData.getUnits().values()) {
 			g.setColor(getUnitColor(unit));
-			int x = convertHorizontal((int) unit.getX() + unit.getCollisionBounds().x);
-			int y = convertVertical((int) unit.getY() + unit.getCollisionBounds().y);
+			int x = convertHorizontal((int) unit.getX() + unit.getCollisionX());
+			int y = convertVertical((int) unit.getY() + unit.getCollisionY());
 			g.fillRect(x * Scale.factor, y * Scale.factor, mapScale*2, mapScale*2);
 		}
 	}
@@ -92,6 +92,11 @@ public class ClientMessageQueuer {
 				double yVel = msg.getDoubles()[4];
 				client.getGameManager().updateRemoteUnit(unitID, x, y, dir, xVel, yVel, force);
 				break;
+			case Message.WORLD_SNAPSHOT:
+				// The positions of all units that moved since our last
+				// acknowledged snapshot.
+				client.getGameManager().applySnapshot(msg.getInts(), msg.getDoubles());
+				break;
 			case Message.PRES_FOLLOW:
 				// The president is following a unit.
 				client.getGameManager().presidentFollow(msg.getInts()[0], msg.getInts()[1]);
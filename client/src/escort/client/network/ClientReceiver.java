@@ -53,7 +53,18 @@ public class ClientReceiver implements Runnable {
 		try {
 			while (true) {
 				Message msg = control.receiveMessage();
-				client.getMessageQueuer().add(msg);
+				if (msg.messageType == Message.BUNDLE) {
+					// the server sends the messages of one tick together
+					if (msg.getBundle() != null) {
+						for (Message inner : msg.getBundle()) {
+							if (inner != null) {
+								client.getMessageQueuer().add(inner);
+							}
+						}
+					}
+				} else {
+					client.getMessageQueuer().add(msg);
+				}
 			}
 		} catch (IOException e) {
 			netManager.getClient().serverDisconnected();
@@ -41,6 +41,13 @@ public final class ClientGeneric {
 			return tcp;
 		}
 
+		// the server delivers critical messages reliably over UDP, the TCP
+		// connection was only needed to verify the server
+		if (udp.getReliableChannel() != null) {
+			tcp.close();
+			return udp;
+		}
+
 		// request protocol switch
 		tcp.sendMessage(new Message(Message.PROTOCOL_SWITCH, null, null));
 
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.channels.DatagramChannel;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -55,7 +56,9 @@ public final class ClientUDP {
 			throws CertificateException, InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException,
 			InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException, IOException {
 		// Initialize socket and set receive timeout to 2 seconds
-		DatagramSocket socket = new DatagramSocket();
+		// the handshake uses the socket view of the channel for the timeout
+		DatagramChannel channel = DatagramChannel.open();
+		DatagramSocket socket = channel.socket();
 		InetAddress address = InetAddress.getByName(server);
 		socket.connect(address, port);
 		socket.setSoTimeout(2000);
@@ -96,20 +99,27 @@ public final class ClientUDP {
 		byte[] aeskey = new byte[16];
 		rand.nextBytes(aeskey);
 
-		// Send the encrypted AES key to the server
+		// Send the encrypted AES key to the server, followed by the packet mode
+		// and the options requested
+		byte[] keyblock = Arrays.copyOf(aeskey, 18);
+		keyblock[16] = MessageControlUDP.MODE_GCM;
+		keyblock[17] = MessageControlUDP.OPTION_RELIABLE;
 		Cipher cipher = Cipher.getInstance("RSA");
 		cipher.init(Cipher.ENCRYPT_MODE, publickey);
-		byte[] aescipher = cipher.doFinal(aeskey);
+		byte[] aescipher = cipher.doFinal(keyblock);
 		socket.send(new DatagramPacket(aescipher, aescipher.length, address, port));
 
-		// Wait for server response
+		// Wait for server response, which carries the packet mode and the
+		// options accepted
 		byte[] ackbytes = new byte[UDPConfig.UDP_BUFFER_SIZE];
 		DatagramPacket ack = new DatagramPacket(ackbytes, ackbytes.length);
 		socket.receive(ack);
+		byte mode = ack.getLength() >= 3 ? ackbytes[2] : MessageControlUDP.MODE_CBC;
+		byte options = ack.getLength() == 4 ? ackbytes[3] : 0;
 		
 		// Set receive timeout to indefinite and create message control
 		socket.setSoTimeout(0);
-		MessageControlUDP control = new MessageControlUDP(socket, address, port, true, aeskey);
+		MessageControlUDP control = new MessageControlUDP(channel, address, port, true, aeskey, mode, options);
 		
 		return control;
 	}
@@ -0,0 +1,151 @@
+package escort.common.game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Line2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.entities.Entity;
+import escort.common.game.entities.units.Assassin;
+import escort.common.game.entities.units.Unit;
+import escort.common.game.map.GameMap;
+import escort.common.game.map.MapLoader;
+import escort.common.game.map.Tile;
+
+public class SpatialGridTest {
+
+	private static final int COLUMNS = 20;
+	private static final int ROWS = 15;
+
+	private SpatialGrid<Entity> grid;
+	private List<Entity> entities;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		grid = new SpatialGrid<>(COLUMNS, ROWS);
+		entities = new ArrayList<>();
+		random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			Entity entity = new Entity(randomX(), randomY(), 10 + random.nextInt(30), 10 + random.nextInt(30), null);
+			grid.add(entity);
+			entities.add(entity);
+		}
+	}
+
+	// positions partly outside of the map
+	private double randomX() {
+		return random.nextDouble() * (COLUMNS + 4) * Tile.TILE_WIDTH - 2 * Tile.TILE_WIDTH;
+	}
+
+	private double randomY() {
+		return random.nextDouble() * (ROWS + 4) * Tile.TILE_HEIGHT - 2 * Tile.TILE_HEIGHT;
+	}
+
+	private void moveAll() {
+		for (Entity entity : entities) {
+			entity.setX(randomX());
+			entity.setY(randomY());
+			grid.moved(entity);
+		}
+	}
+
+	@Test
+	public void testRectMatchesFullScan() {
+		List<Entity> result = new ArrayList<>();
+		for (int n = 0; n < 50; n++) {
+			moveAll();
+			double x = randomX();
+			double y = randomY();
+			double w = random.nextDouble() * 200;
+			double h = random.nextDouble() * 200;
+			HashSet<Entity> expected = new HashSet<>();
+			for (Entity e : entities) {
+				if (e.getX() < x + w && e.getX() + e.getWidth() > x && e.getY() < y + h
+						&& e.getY() + e.getHeight() > y) {
+					expected.add(e);
+				}
+			}
+			grid.queryRect(x, y, x + w, y + h, result);
+			assertEquals(expected, new HashSet<>(result));
+		}
+	}
+
+	@Test
+	public void testRadiusMatchesFullScan() {
+		List<Entity> result = new ArrayList<>();
+		for (int n = 0; n < 50; n++) {
+			moveAll();
+			double x = randomX();
+			double y = randomY();
+			double radius = random.nextDouble() * 300;
+			HashSet<Entity> expected = new HashSet<>();
+			for (Entity e : entities) {
+				double dx = e.getX() + e.getWidth() / 2.0 - x;
+				double dy = e.getY() + e.getHeight() / 2.0 - y;
+				if (dx * dx + dy * dy <= radius * radius) {
+					expected.add(e);
+				}
+			}
+			grid.queryRadius(x, y, radius, result);
+			assertEquals(expected, new HashSet<>(result));
+		}
+	}
+
+	@Test
+	public void testSegmentMatchesFullScan() {
+		List<Entity> result = new ArrayList<>();
+		for (int n = 0; n < 100; n++) {
+			moveAll();
+			Line2D.Double line = new Line2D.Double(randomX(), randomY(), randomX(), randomY());
+			if (n % 4 == 0) {
+				// horizontal and vertical segments
+				line.y2 = n % 8 == 0 ? line.y1 : line.y2;
+				line.x2 = n % 8 == 4 ? line.x1 : line.x2;
+			}
+			HashSet<Entity> expected = new HashSet<>();
+			for (Entity e : entities) {
+				if (e.getHitbox().intersectsLine(line)) {
+					expected.add(e);
+				}
+			}
+			grid.querySegment(line.x1, line.y1, line.x2, line.y2, result);
+			assertEquals(expected, new HashSet<>(result));
+		}
+	}
+
+	@Test
+	public void testUnitMovesUpdateGameData() throws IOException {
+		new MapLoader().load();
+		GameData data = new GameData(GameMap.loadFromID(0), new HashMap<Integer, Unit>());
+		Unit unit = new Assassin(data, null, 1);
+		data.addUnit(1, unit);
+		unit.setX(500);
+		unit.setY(400);
+		List<Unit> result = new ArrayList<>();
+		data.getUnitGrid().queryRadius(unit.getX() + unit.getWidth() / 2.0, unit.getY() + unit.getHeight() / 2.0, 1,
+				result);
+		assertEquals(1, result.size());
+		data.getUnitGrid().queryRect(0, 0, 100, 100, result);
+		assertTrue(result.isEmpty());
+	}
+
+	@Test
+	public void testRemove() {
+		Entity entity = entities.get(0);
+		grid.remove(entity);
+		assertEquals(-1, entity.getGridCell());
+		List<Entity> result = new ArrayList<>();
+		grid.queryRect(entity.getX(), entity.getY(), entity.getX() + 1, entity.getY() + 1, result);
+		assertTrue(!result.contains(entity));
+	}
+}
@@ -3,13 +3,16 @@ package escort.common.game.entities;
 import static org.junit.Assert.assertTrue;
 
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.io.IOException;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import escort.common.game.GameData;
+import escort.common.game.entities.units.Escort;
 import escort.common.game.map.GameMap;
 import escort.common.game.map.MapLoader;
 
@@ -106,4 +109,31 @@ public class EntityTest {
     	entity2.setY(41);
     	assertTrue(!entity1.collision(entity2));
     }
-}
\ No newline at end of file
+    
+    @Test
+    public void primitiveBoundsMatchRectangles() {
+    	Entity unit = new Escort(gameData, null, 0);
+    	Random random = new Random(3);
+    	for (Entity entity : new Entity[] { entity1, unit }) {
+    		for (int n = 0; n < 1000; n++) {
+    			entity.setX(random.nextDouble() * 1000);
+    			entity.setY(random.nextDouble() * 1000);
+    			Rectangle bounds = entity.getAbsoluteBounds();
+    			assertTrue(bounds.equals(new Rectangle(entity.getMinX(), entity.getMinY(),
+    					entity.getMaxX() - entity.getMinX(), entity.getMaxY() - entity.getMinY())));
+    			assertTrue(entity.getAbsoluteBoundsInTiles().equals(new Rectangle(entity.getTileX(), entity.getTileY(),
+    					entity.getTileWidth(), entity.getTileHeight())));
+    			assertTrue(entity.getCenterPoint().equals(new Point(entity.getCenterX(), entity.getCenterY())));
+
+    			Rectangle other = new Rectangle(random.nextInt(1000), random.nextInt(1000), random.nextInt(60),
+    					random.nextInt(60));
+    			assertTrue(bounds.intersects(other) == entity.intersects(other.x, other.y, other.x + other.width,
+    					other.y + other.height));
+    			assertTrue(bounds.contains(other.x, other.y) == entity.contains(other.x, other.y));
+    			assertTrue(entity.getHitbox().intersectsLine(other.x, other.y, other.x + other.width,
+    					other.y + other.height) == entity.hitboxIntersectsLine(other.x, other.y,
+    							other.x + other.width, other.y + other.height));
+    		}
+    	}
+    }
+}
@@ -0,0 +1,104 @@
+package escort.common.game.map;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineOfSightTest {
+
+	private Random random = new Random(17);
+	private GameMap map;
+
+	@Before
+	public void setUp() throws IOException {
+		new MapLoader().load();
+		map = GameMap.loadFromID(GameMap.HOTEL_ID);
+	}
+
+	/**
+	 * Tests every tile near the line for intersection
+	 */
+	private boolean scanLineOfSight(int x0, int y0, int x1, int y1) {
+		Line2D.Double line = new Line2D.Double(x0, y0, x1, y1);
+		for (int i = Math.floorDiv(Math.min(x0, x1), Tile.TILE_WIDTH) - 1; i <= Math.floorDiv(Math.max(x0, x1),
+				Tile.TILE_WIDTH) + 1; i++) {
+			for (int j = Math.floorDiv(Math.min(y0, y1), Tile.TILE_HEIGHT) - 1; j <= Math.floorDiv(Math.max(y0, y1),
+					Tile.TILE_HEIGHT) + 1; j++) {
+				if (!map.walkableInTiles(i, j) && new Rectangle(i * Tile.TILE_WIDTH, j * Tile.TILE_HEIGHT,
+						Tile.TILE_WIDTH, Tile.TILE_HEIGHT).intersectsLine(line)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private int coordinate(int size, int tile) {
+		// often on a tile edge, to test the lines touching walls
+		int c = random.nextInt(size);
+		return random.nextInt(4) == 0 ? c - c % tile : c;
+	}
+
+	@Test
+	public void testMatchesScan() {
+		int width = map.getWidthInPx();
+		int height = map.getHeightInPx();
+		for (int n = 0; n < 20000; n++) {
+			int x0 = coordinate(width, Tile.TILE_WIDTH);
+			int y0 = coordinate(height, Tile.TILE_HEIGHT);
+			int x1;
+			int y1;
+			switch (n % 4) {
+			case 0:
+				x1 = x0;
+				y1 = coordinate(height, Tile.TILE_HEIGHT);
+				break;
+			case 1:
+				x1 = coordinate(width, Tile.TILE_WIDTH);
+				y1 = y0;
+				break;
+			case 2:
+				// diagonals through tile corners
+				int steps = random.nextInt(8) - 4;
+				x1 = x0 + steps * Tile.TILE_WIDTH;
+				y1 = y0 + steps * Tile.TILE_HEIGHT;
+				break;
+			default:
+				x1 = x0 + random.nextInt(400) - 200;
+				y1 = y0 + random.nextInt(400) - 200;
+			}
+			assertEquals(scanLineOfSight(x0, y0, x1, y1), map.traceLineOfSight(x0, y0, x1, y1));
+			assertEquals(map.traceLineOfSight(x0, y0, x1, y1), map.traceLineOfSight(x1, y1, x0, y0));
+		}
+	}
+
+	@Test
+	public void testVisibilityCache() {
+		TileVisibility visibility = new TileVisibility(map);
+		for (int n = 0; n < 5000; n++) {
+			int x0 = random.nextInt(map.getWidthInTiles());
+			int y0 = random.nextInt(map.getHeightInTiles());
+			int x1 = Math.min(map.getWidthInTiles() - 1, Math.max(0, x0 + random.nextInt(11) - 5));
+			int y1 = Math.min(map.getHeightInTiles() - 1, Math.max(0, y0 + random.nextInt(11) - 5));
+			boolean expected = map.traceLineOfSight(x0 * Tile.TILE_WIDTH + Tile.TILE_WIDTH / 2,
+					y0 * Tile.TILE_HEIGHT + Tile.TILE_HEIGHT / 2, x1 * Tile.TILE_WIDTH + Tile.TILE_WIDTH / 2,
+					y1 * Tile.TILE_HEIGHT + Tile.TILE_HEIGHT / 2);
+			assertEquals(expected, visibility.visible(x0, y0, x1, y1));
+			// answered from the table, in either order
+			assertEquals(expected, visibility.visible(x0, y0, x1, y1));
+			assertEquals(expected, visibility.visible(x1, y1, x0, y0));
+		}
+
+		map.setVisibilityCached(true);
+		Rectangle a = new Rectangle(5 * Tile.TILE_WIDTH, 5 * Tile.TILE_HEIGHT, 20, 20);
+		Rectangle b = new Rectangle(9 * Tile.TILE_WIDTH, 7 * Tile.TILE_HEIGHT, 20, 20);
+		assertEquals(TileVisibility.getShared(map).visible(5, 5, 9, 7), map.lineOfSight(a, b));
+		map.setVisibilityCached(false);
+	}
+}
@@ -0,0 +1,134 @@
+package escort.common.game.routePlanning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.GameData;
+import escort.common.game.entities.units.Assassin;
+import escort.common.game.entities.units.Unit;
+import escort.common.game.map.GameMap;
+import escort.common.game.map.MapLoader;
+import escort.common.game.map.Tile;
+import escort.common.systime.SimulationClock;
+
+public class FlowFieldTest {
+
+	private PlanningMap map;
+	private Random random;
+
+	@Before
+	public void setUp() throws IOException {
+		new MapLoader().load();
+		map = PlanningMap.getShared(GameMap.loadFromID(GameMap.HOTEL_ID));
+		random = new Random(17);
+	}
+
+	private Rectangle randomFree() {
+		Rectangle r = new Rectangle(0, 0, 0, 1);
+		do {
+			r.x = random.nextInt(map.getWidth());
+			r.y = random.nextInt(map.getHeight() - 1);
+		} while (map.obstacle(r));
+		return r;
+	}
+
+	private static double cost(List<Rectangle> route) {
+		double cost = 0;
+		for (int i = 1; i < route.size(); i++) {
+			Rectangle a = route.get(i - 1);
+			Rectangle b = route.get(i);
+			cost += Math.hypot((b.x - a.x) * Tile.TILE_WIDTH, (b.y - a.y) * Tile.TILE_HEIGHT);
+		}
+		return cost;
+	}
+
+	@Test
+	public void testStepsFollowShortestRoutes() {
+		GridAStarSearch reference = new GridAStarSearch();
+		reference.setMap(map);
+		FlowField field = new FlowField(map, 0, 1);
+		Rectangle goal = randomFree();
+		field.setGoals(Arrays.asList(goal));
+		for (int n = 0; n < 200; n++) {
+			Rectangle start = randomFree();
+			List<Rectangle> expected = reference.route(start, goal);
+			List<Rectangle> route = field.route(start);
+			assertEquals(expected.isEmpty(), route.isEmpty());
+			if (route.isEmpty()) {
+				continue;
+			}
+			assertEquals(start, route.get(0));
+			assertEquals(goal, route.get(route.size() - 1));
+			assertEquals(cost(expected), cost(route), 1e-6);
+			if (route.size() > 1) {
+				assertEquals(route.get(1), field.next(start));
+			}
+		}
+		assertNull(field.next(goal));
+	}
+
+	@Test
+	public void testNearestGoal() {
+		GridAStarSearch reference = new GridAStarSearch();
+		reference.setMap(map);
+		List<Rectangle> goals = Arrays.asList(randomFree(), randomFree(), randomFree());
+		FlowField field = new FlowField(map, 0, 1);
+		field.setGoals(goals);
+		for (int n = 0; n < 50; n++) {
+			Rectangle start = randomFree();
+			double best = Double.POSITIVE_INFINITY;
+			for (Rectangle goal : goals) {
+				List<Rectangle> route = reference.route(start, goal);
+				if (!route.isEmpty()) {
+					best = Math.min(best, cost(route));
+				}
+			}
+			List<Rectangle> route = field.route(start);
+			if (route.isEmpty()) {
+				assertTrue(best == Double.POSITIVE_INFINITY);
+			} else {
+				assertTrue(field.isGoal(route.get(route.size() - 1)));
+				assertEquals(best, cost(route), 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void testSharedFieldTowardsUnit() {
+		GameData data = new GameData(GameMap.loadFromID(GameMap.HOTEL_ID), new HashMap<Integer, Unit>());
+		Unit target = new Assassin(data, null, 1);
+		Rectangle goal = randomFree();
+		target.setX(goal.x * Tile.TILE_WIDTH);
+		target.setY(goal.y * Tile.TILE_HEIGHT - target.getCollisionBounds().y);
+		Rectangle position = target.getAbsoluteBoundsInTiles();
+
+		FlowFieldService service = data.getFlowFields();
+		FlowField field = service.towards(target, 0, 1);
+		assertTrue(field == service.towards(target, 0, 1));
+		assertTrue(field.isGoal(position));
+
+		// a moving target is followed at most once per update interval
+		Rectangle moved = randomFree();
+		target.setX(moved.x * Tile.TILE_WIDTH);
+		target.setY(moved.y * Tile.TILE_HEIGHT - target.getCollisionBounds().y);
+		service.towards(target, 0, 1);
+		assertTrue(field.isGoal(position));
+
+		for (long t = SimulationClock.toTicks(FlowFieldService.UPDATE_INTERVAL); t > 0; t--) {
+			data.getClock().advance();
+		}
+		service.towards(target, 0, 1);
+		assertTrue(field.isGoal(target.getAbsoluteBoundsInTiles()));
+	}
+}
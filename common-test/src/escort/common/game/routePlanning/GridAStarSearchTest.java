@@ -0,0 +1,122 @@
+package escort.common.game.routePlanning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.map.Tile;
+
+public class GridAStarSearchTest {
+
+	private static final int SIZE = 20;
+
+	private PlanningMap planningMap;
+	private GridAStarSearch search;
+	private AStarSearch reference;
+	private Random random;
+
+	@Before
+	public void setUp() {
+		random = new Random(7);
+		List<Point> obstacles = new ArrayList<Point>();
+		for (int i = 0; i < SIZE; i++) {
+			obstacles.add(new Point(i, 0));
+			obstacles.add(new Point(i, SIZE - 1));
+			obstacles.add(new Point(0, i));
+			obstacles.add(new Point(SIZE - 1, i));
+		}
+		for (int i = 0; i < 60; i++) {
+			obstacles.add(new Point(random.nextInt(SIZE), random.nextInt(SIZE)));
+		}
+		planningMap = new PlanningMap(SIZE, SIZE, obstacles.toArray(new Point[obstacles.size()]));
+		search = new GridAStarSearch();
+		search.setMap(planningMap);
+		reference = new AStarSearch();
+		reference.setMap(planningMap);
+	}
+
+	private Rectangle randomFree(int footprint) {
+		Rectangle r = new Rectangle(0, 0, footprint, footprint);
+		do {
+			r.x = random.nextInt(SIZE - footprint);
+			r.y = random.nextInt(SIZE - footprint);
+		} while (planningMap.obstacle(r));
+		return r;
+	}
+
+	private static double cost(List<Rectangle> route) {
+		double cost = 0;
+		for (int i = 1; i < route.size(); i++) {
+			Rectangle a = route.get(i - 1);
+			Rectangle b = route.get(i);
+			cost += Math.hypot((b.x - a.x) * Tile.TILE_WIDTH, (b.y - a.y) * Tile.TILE_HEIGHT);
+		}
+		return cost;
+	}
+
+	@Test
+	public void testSettingOfMap() {
+		assertTrue(planningMap == search.getMap());
+		assertNull(new GridAStarSearch().route(new Rectangle(), new Rectangle()));
+	}
+
+	@Test
+	public void testRoutesMatchAStarSearch() {
+		int compared = 0;
+		for (int n = 0; n < 2000; n++) {
+			int footprint = n % 2;
+			Rectangle start = randomFree(footprint);
+			Rectangle end = randomFree(footprint);
+			List<Rectangle> route = search.route(start, end);
+
+			if (route.isEmpty()) {
+				continue;
+			}
+			assertEquals(start, route.get(0));
+			assertEquals(end, route.get(route.size() - 1));
+			Rectangle previous = start;
+			for (Rectangle current : route) {
+				assertTrue(!planningMap.obstacle(current));
+				assertTrue(Math.abs(previous.x - current.x) <= 1 && Math.abs(previous.y - current.y) <= 1);
+				previous = current;
+			}
+			// the reference search throws when the goal is unreachable, so
+			// only compare reachable goals
+			assertEquals(cost(reference.route(start, end)), cost(route), 1e-6);
+			compared++;
+		}
+		assertTrue(compared > 1000);
+	}
+
+	@Test
+	public void testUnreachableGoal() {
+		Point[] wall = new Point[SIZE];
+		for (int i = 0; i < SIZE; i++) {
+			wall[i] = new Point(SIZE / 2, i);
+		}
+		planningMap.setObstacles(wall);
+		List<Rectangle> route = search.route(new Rectangle(2, 2, 0, 0), new Rectangle(SIZE - 3, 2, 0, 0));
+		assertTrue(route.isEmpty());
+
+		// goal on an obstacle or out of the map
+		assertTrue(search.route(new Rectangle(2, 2, 0, 0), new Rectangle(SIZE / 2, 5, 0, 0)).isEmpty());
+		assertTrue(search.route(new Rectangle(2, 2, 0, 0), new Rectangle(SIZE, 5, 0, 0)).isEmpty());
+	}
+
+	@Test
+	public void testStartIsGoal() {
+		Rectangle start = randomFree(1);
+		List<Rectangle> route = search.route(start, new Rectangle(start));
+		assertEquals(1, route.size());
+		assertEquals(start, route.get(0));
+	}
+}
@@ -0,0 +1,121 @@
+package escort.common.game.routePlanning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.map.GameMap;
+import escort.common.game.map.MapLoader;
+import escort.common.game.map.Tile;
+
+public class HierarchicalSearchTest {
+
+	private Random random = new Random(11);
+
+	@Before
+	public void setUp() throws IOException {
+		new MapLoader().load();
+	}
+
+	private Rectangle randomFree(PlanningMap map, int footprint) {
+		Rectangle r = new Rectangle(0, 0, footprint, footprint);
+		do {
+			r.x = random.nextInt(map.getWidth() - footprint);
+			r.y = random.nextInt(map.getHeight() - footprint);
+		} while (map.obstacle(r));
+		return r;
+	}
+
+	private static double cost(List<Rectangle> route) {
+		double cost = 0;
+		for (int i = 1; i < route.size(); i++) {
+			Rectangle a = route.get(i - 1);
+			Rectangle b = route.get(i);
+			cost += Math.hypot((b.x - a.x) * Tile.TILE_WIDTH, (b.y - a.y) * Tile.TILE_HEIGHT);
+		}
+		return cost;
+	}
+
+	private static void assertValid(PlanningMap map, Rectangle start, Rectangle end, List<Rectangle> route) {
+		assertEquals(start, route.get(0));
+		assertEquals(end, route.get(route.size() - 1));
+		Rectangle previous = start;
+		for (Rectangle current : route.subList(1, route.size())) {
+			assertTrue(!map.obstacle(current));
+			assertTrue(Math.abs(previous.x - current.x) <= 1 && Math.abs(previous.y - current.y) <= 1);
+			assertTrue(!current.equals(previous));
+			if (previous.x != current.x && previous.y != current.y) {
+				assertTrue(!map.obstacle(new Rectangle(current.x, previous.y, start.width, start.height)));
+				assertTrue(!map.obstacle(new Rectangle(previous.x, current.y, start.width, start.height)));
+			}
+			previous = current;
+		}
+	}
+
+	private void compareWithGridSearch(PlanningMap map) {
+		HierarchicalSearch search = new HierarchicalSearch();
+		search.setMap(map);
+		GridAStarSearch reference = new GridAStarSearch();
+		reference.setMap(map);
+		double total = 0;
+		double optimal = 0;
+		for (int n = 0; n < 1000; n++) {
+			int footprint = n % 2;
+			Rectangle start = randomFree(map, footprint);
+			Rectangle end = randomFree(map, footprint);
+			List<Rectangle> expected = reference.route(start, end);
+			List<Rectangle> route = search.route(start, end);
+			assertEquals(expected.isEmpty(), route.isEmpty());
+			if (route.isEmpty()) {
+				continue;
+			}
+			assertValid(map, start, end, route);
+			assertTrue(cost(route) >= cost(expected) - 1e-6);
+			total += cost(route);
+			optimal += cost(expected);
+		}
+		// routes are near optimal
+		assertTrue(total <= optimal * 1.15);
+	}
+
+	@Test
+	public void testHotel() {
+		compareWithGridSearch(PlanningMap.getShared(GameMap.loadFromID(GameMap.HOTEL_ID)));
+	}
+
+	@Test
+	public void testUniversity() {
+		compareWithGridSearch(PlanningMap.getShared(GameMap.loadFromID(GameMap.UNIVERSITY_ID)));
+	}
+
+	@Test
+	public void testUnreachableGoal() {
+		// a wall between the clusters, with a gap which is closed later
+		int size = 3 * HierarchicalSearch.CLUSTER_SIZE;
+		List<Point> obstacles = new ArrayList<Point>();
+		for (int i = 1; i < size; i++) {
+			obstacles.add(new Point(size / 2, i));
+		}
+		PlanningMap map = new PlanningMap(size, size, obstacles.toArray(new Point[obstacles.size()]));
+		HierarchicalSearch search = new HierarchicalSearch();
+		search.setMap(map);
+		Rectangle start = new Rectangle(2, size - 2, 0, 0);
+		Rectangle end = new Rectangle(size - 2, size - 2, 0, 0);
+		List<Rectangle> route = search.route(start, end);
+		assertValid(map, start, end, route);
+		assertTrue(route.contains(new Rectangle(size / 2, 0, 0, 0)));
+
+		map.setObstacle(size / 2, 0);
+		search.setMap(map);
+		assertTrue(search.route(start, end).isEmpty());
+	}
+}
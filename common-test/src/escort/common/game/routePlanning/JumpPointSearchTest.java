@@ -0,0 +1,94 @@
+package escort.common.game.routePlanning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.map.GameMap;
+import escort.common.game.map.MapLoader;
+import escort.common.game.map.Tile;
+
+public class JumpPointSearchTest {
+
+	private Random random;
+
+	@Before
+	public void setUp() throws IOException {
+		new MapLoader().load();
+		random = new Random(13);
+	}
+
+	private Rectangle randomFree(PlanningMap map, int width, int height) {
+		Rectangle r = new Rectangle(0, 0, width, height);
+		do {
+			r.x = random.nextInt(map.getWidth() - width);
+			r.y = random.nextInt(map.getHeight() - height);
+		} while (map.obstacle(r));
+		return r;
+	}
+
+	private static double cost(List<Rectangle> route) {
+		double cost = 0;
+		for (int i = 1; i < route.size(); i++) {
+			Rectangle a = route.get(i - 1);
+			Rectangle b = route.get(i);
+			cost += Math.hypot((b.x - a.x) * Tile.TILE_WIDTH, (b.y - a.y) * Tile.TILE_HEIGHT);
+		}
+		return cost;
+	}
+
+	private void compareWithAStarSearch(int mapID) {
+		PlanningMap map = PlanningMap.createFromGameMap(GameMap.loadFromID(mapID));
+		JumpPointSearch search = new JumpPointSearch();
+		search.setMap(map);
+		AStarSearch reference = new AStarSearch();
+		reference.setMap(map);
+		int[][] footprints = { { 0, 0 }, { 0, 1 }, { 1, 1 } };
+		for (int n = 0; n < 3000; n++) {
+			int[] footprint = footprints[n % footprints.length];
+			Rectangle start = randomFree(map, footprint[0], footprint[1]);
+			Rectangle end = randomFree(map, footprint[0], footprint[1]);
+			List<Rectangle> expected;
+			try {
+				expected = reference.route(start, end);
+			} catch (NoSuchElementException e) {
+				// the reference search throws when the goal is unreachable
+				assertTrue(search.route(start, end).isEmpty());
+				continue;
+			}
+			List<Rectangle> route = search.route(start, end);
+			assertEquals(start, route.get(0));
+			assertEquals(end, route.get(route.size() - 1));
+			Rectangle previous = start;
+			for (Rectangle current : route.subList(1, route.size())) {
+				assertTrue(!map.obstacle(current));
+				assertTrue(Math.abs(previous.x - current.x) <= 1 && Math.abs(previous.y - current.y) <= 1);
+				if (previous.x != current.x && previous.y != current.y) {
+					assertTrue(!map.obstacle(new Rectangle(current.x, previous.y, start.width, start.height)));
+					assertTrue(!map.obstacle(new Rectangle(previous.x, current.y, start.width, start.height)));
+				}
+				previous = current;
+			}
+			// the reference search orders nodes by rounded costs
+			assertEquals(cost(expected), cost(route), 1.0);
+		}
+	}
+
+	@Test
+	public void testHotel() {
+		compareWithAStarSearch(GameMap.HOTEL_ID);
+	}
+
+	@Test
+	public void testUniversity() {
+		compareWithAStarSearch(GameMap.UNIVERSITY_ID);
+	}
+}
@@ -108,4 +108,41 @@ public class PlanningMapTest {
 
     }
 
+    @Test
+    public void testFootprintMatchesTiles() {
+        for(int w = 0; w < 3; w++) {
+            for(int h = 0; h < 3; h++) {
+                for(int i = 0; i + w < planningMap.getWidth(); i++) {
+                    for(int j = 0; j + h < planningMap.getHeight(); j++) {
+                        boolean expected = false;
+                        for(int x = i; x <= i + w; x++) {
+                            for(int y = j; y <= j + h; y++) {
+                                expected |= !mapToCreate.walkableTile(x, y);
+                            }
+                        }
+                        assertTrue(expected == planningMap.obstacle(new Rectangle(i, j, w, h)));
+                    }
+                }
+            }
+        }
+
+        // the tables are rebuilt when an obstacle is added
+        planningMap = new PlanningMap(5, 5);
+        assertTrue(!planningMap.obstacle(new Rectangle(1, 1, 1, 1)));
+        planningMap.setObstacle(2, 2);
+        assertTrue(planningMap.obstacle(new Rectangle(1, 1, 1, 1)));
+    }
+
+    @Test
+    public void testSharedMap() {
+        PlanningMap shared = PlanningMap.getShared(mapToCreate);
+        assertTrue(shared == PlanningMap.getShared(GameMap.loadFromID(GameMap.HOTEL_ID)));
+        assertTrue(shared != PlanningMap.getShared(GameMap.loadFromID(GameMap.UNIVERSITY_ID)));
+        try {
+            shared.setObstacle(1, 1);
+            assertTrue(false);
+        } catch(UnsupportedOperationException e) {
+        }
+    }
+
 }
@@ -0,0 +1,131 @@
+package escort.common.game.routePlanning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.map.GameMap;
+import escort.common.game.map.MapLoader;
+
+public class RouteCacheTest {
+
+	private Random random = new Random(5);
+	private PlanningMap map;
+	private GridAStarSearch reference;
+	private RouteCache cache;
+	private int searches;
+
+	@Before
+	public void setUp() throws IOException {
+		new MapLoader().load();
+		map = PlanningMap.getShared(GameMap.loadFromID(GameMap.HOTEL_ID));
+		reference = new GridAStarSearch();
+		reference.setMap(map);
+		searches = 0;
+		GridAStarSearch counted = new GridAStarSearch() {
+			@Override
+			public List<Rectangle> route(Rectangle start, Rectangle end) {
+				searches++;
+				return super.route(start, end);
+			}
+		};
+		cache = new RouteCache(counted, 4);
+		cache.setMap(map);
+	}
+
+	private Rectangle randomFree() {
+		Rectangle r = new Rectangle(0, 0, 0, 0);
+		do {
+			r.x = random.nextInt(map.getWidth());
+			r.y = random.nextInt(map.getHeight());
+		} while (map.obstacle(r));
+		return r;
+	}
+
+	private List<Rectangle> longRoute() {
+		List<Rectangle> route;
+		do {
+			route = reference.route(randomFree(), randomFree());
+		} while (route.size() < 10);
+		return route;
+	}
+
+	@Test
+	public void testHit() {
+		List<Rectangle> expected = longRoute();
+		Rectangle start = expected.get(0);
+		Rectangle end = expected.get(expected.size() - 1);
+
+		List<Rectangle> first = cache.route(start, end);
+		List<Rectangle> second = cache.route(start, end);
+		assertEquals(1, searches);
+		assertEquals(first, second);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRate(), 1e-9);
+
+		// callers can change the routes they are given
+		assertNotSame(first, second);
+		second.clear();
+		assertEquals(first, cache.route(start, end));
+	}
+
+	@Test
+	public void testSuffixReused() {
+		List<Rectangle> expected = longRoute();
+		Rectangle end = expected.get(expected.size() - 1);
+		List<Rectangle> route = cache.route(expected.get(0), end);
+
+		int middle = route.size() / 2;
+		List<Rectangle> suffix = cache.route(route.get(middle), end);
+		assertEquals(1, searches);
+		assertEquals(1, cache.getPartialHits());
+		assertEquals(route.subList(middle, route.size()), suffix);
+
+		// a different footprint is planned on its own
+		Rectangle wide = new Rectangle(route.get(middle).x, route.get(middle).y, 1, 1);
+		cache.route(wide, new Rectangle(end.x, end.y, 1, 1));
+		assertEquals(2, searches);
+	}
+
+	@Test
+	public void testEviction() {
+		List<Rectangle> oldest = longRoute();
+		Rectangle start = oldest.get(0);
+		Rectangle end = oldest.get(oldest.size() - 1);
+		cache.route(start, end);
+		for (int i = 0; i < 4; i++) {
+			Rectangle other;
+			do {
+				other = randomFree();
+			} while (other.equals(end));
+			cache.route(randomFree(), other);
+		}
+		assertEquals(4, cache.size());
+		assertEquals(1, cache.getEvictions());
+
+		cache.route(start, end);
+		assertEquals(6, searches);
+		assertEquals(2, cache.getEvictions());
+	}
+
+	@Test
+	public void testUnreachableCached() {
+		Rectangle start = randomFree();
+		Rectangle blocked = new Rectangle(0, 0, 0, 0);
+		while (!map.obstacle(blocked)) {
+			blocked.x++;
+		}
+		assertTrue(cache.route(start, blocked).isEmpty());
+		assertTrue(cache.route(start, blocked).isEmpty());
+		assertEquals(1, searches);
+	}
+}
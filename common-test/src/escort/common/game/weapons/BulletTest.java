@@ -0,0 +1,114 @@
+package escort.common.game.weapons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.GameData;
+import escort.common.game.entities.units.Assassin;
+import escort.common.game.entities.units.Escort;
+import escort.common.game.entities.units.Unit;
+import escort.common.game.map.GameMap;
+import escort.common.game.map.MapLoader;
+import escort.common.game.map.Tile;
+
+public class BulletTest {
+
+	// the wall column of the test map
+	private static final int WALL = 20;
+
+	private GameData gameData;
+	private Unit shooter;
+	private List<Unit> hits;
+
+	@Before
+	public void setUp() throws IOException {
+		new MapLoader().load();
+		int[][] mapData = new int[20][30];
+		for (int j = 0; j < mapData.length; j++) {
+			for (int i = 0; i < mapData[j].length; i++) {
+				mapData[j][i] = i == WALL ? Tile.STONE_WALL : Tile.GRASS;
+			}
+		}
+		gameData = new GameData(new GameMap(mapData, "test", -1), new HashMap<>());
+		shooter = addUnit(new Escort(gameData, null, 0), 10, 100);
+		hits = new ArrayList<>();
+	}
+
+	private Unit addUnit(Unit unit, double x, double y) {
+		unit.setX(x);
+		unit.setY(y);
+		gameData.addUnit(unit.getUnitID(), unit);
+		return unit;
+	}
+
+	private Bullet fire(double x, double y, double xVel, double yVel) {
+		Bullet bullet = new Bullet(gameData, shooter, 10);
+		bullet.setX(x);
+		bullet.setY(y);
+		bullet.setXVel(xVel);
+		bullet.setYVel(yVel);
+		bullet.addListener(hits::add);
+		return bullet;
+	}
+
+	@Test
+	public void testNearestUnitHit() {
+		// the lower ID is further along the path
+		Unit far = addUnit(new Assassin(gameData, null, 1), 300, 100);
+		Unit near = addUnit(new Assassin(gameData, null, 2), 200, 100);
+		Bullet bullet = fire(100, 120, 1, 0);
+		for (int i = 0; i < 100 && hits.isEmpty(); i++) {
+			bullet.update(gameData.getClock());
+		}
+		assertEquals(1, hits.size());
+		assertTrue(hits.get(0) == near);
+		assertTrue(!far.isDead());
+	}
+
+	@Test
+	public void testTrailNotHit() {
+		Bullet bullet = fire(100, 120, 1, 0);
+		for (int i = 0; i < 20; i++) {
+			bullet.update(gameData.getClock());
+		}
+		// a unit walking into the path behind the bullet
+		addUnit(new Assassin(gameData, null, 1), 120, 100);
+		for (int i = 0; i < 20; i++) {
+			bullet.update(gameData.getClock());
+		}
+		assertTrue(hits.isEmpty());
+	}
+
+	@Test
+	public void testWallStopsBullet() {
+		int wallX = WALL * Tile.TILE_WIDTH;
+		addUnit(new Assassin(gameData, null, 1), wallX + Tile.TILE_WIDTH + 10, 100);
+		Bullet bullet = fire(wallX - 100, 120, 1, 0);
+		for (int i = 0; i < 100; i++) {
+			bullet.update(gameData.getClock());
+		}
+		assertTrue(hits.isEmpty());
+		assertTrue(bullet.getX() < wallX);
+		assertEquals(0, bullet.getXVel(), 0);
+	}
+
+	@Test
+	public void testFastBulletStopsAtWall() {
+		// the step is longer than the wall is thick
+		int wallX = WALL * Tile.TILE_WIDTH;
+		addUnit(new Assassin(gameData, null, 1), wallX + Tile.TILE_WIDTH + 10, 100);
+		Bullet bullet = fire(wallX - 10, 120, 1, 0);
+		bullet.setSpeed(3 * Tile.TILE_WIDTH);
+		bullet.update(gameData.getClock());
+		assertTrue(hits.isEmpty());
+		assertEquals(0, bullet.getXVel(), 0);
+	}
+}
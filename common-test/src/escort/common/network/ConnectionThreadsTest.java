@@ -0,0 +1,61 @@
+package escort.common.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectionThreadsTest {
+
+	@After
+	public void tearDown() {
+		ConnectionThreads.setVirtual(false);
+	}
+
+	private void assertRuns(String name) throws InterruptedException {
+		CountDownLatch ran = new CountDownLatch(1);
+		Thread thread = ConnectionThreads.newThread(name, ran::countDown);
+		assertEquals(name, thread.getName());
+		thread.start();
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testPlatformThreads() throws InterruptedException {
+		ConnectionThreads.setVirtual(false);
+		assertTrue(!ConnectionThreads.isVirtual());
+		assertRuns("Player");
+	}
+
+	@Test
+	public void testVirtualThreadsWhenSupported() throws InterruptedException {
+		ConnectionThreads.setVirtual(true);
+		// runtimes without virtual threads keep using platform threads
+		assertEquals(ConnectionThreads.isVirtualSupported(), ConnectionThreads.isVirtual());
+		assertRuns("PlayerSender");
+	}
+
+	@Test
+	public void testBlockedWriterDoesNotHoldUpOthers() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch blocked = new CountDownLatch(1);
+		ConnectionThreads.getWriters().execute(() -> {
+			blocked.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		});
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		// another connection's write and the scheduler still run
+		CountDownLatch wrote = new CountDownLatch(1);
+		ConnectionThreads.getScheduler().execute(() -> ConnectionThreads.getWriters().execute(wrote::countDown));
+		assertTrue(wrote.await(5, TimeUnit.SECONDS));
+		release.countDown();
+	}
+}
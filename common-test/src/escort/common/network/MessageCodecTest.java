@@ -0,0 +1,145 @@
+package escort.common.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.GameState;
+import escort.common.game.entities.units.UnitInfo;
+import escort.common.network.udp.MessageStamp;
+
+public class MessageCodecTest {
+
+	private MessageCodec codec;
+
+	@Before
+	public void setUp() {
+		codec = new MessageCodec();
+	}
+
+	private Message roundTrip(Message msg) throws MalformedMessageException {
+		int length = codec.encode(msg);
+		return codec.decodeMessage(codec.getBuffer(), 0, length);
+	}
+
+	@Test
+	public void testAllSections() throws MalformedMessageException {
+		Message msg = new Message(Message.LOBBY_MESSAGE, new int[] { 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE },
+				new String[] { "name", null, "\u00e9\u6f22" }, new double[] { 1.5, -0.0, Double.NaN });
+		Message result = roundTrip(msg);
+		assertEquals(msg.messageType, result.messageType);
+		assertArrayEquals(msg.getInts(), result.getInts());
+		assertArrayEquals(msg.getStrings(), result.getStrings());
+		assertArrayEquals(msg.getDoubles(), result.getDoubles(), 0);
+		assertNull(result.getGameState());
+	}
+
+	@Test
+	public void testNullSections() throws MalformedMessageException {
+		Message result = roundTrip(new Message(Message.KEEP_ALIVE, null, null));
+		assertEquals(Message.KEEP_ALIVE, result.messageType);
+		assertNull(result.getInts());
+		assertNull(result.getStrings());
+		assertNull(result.getDoubles());
+	}
+
+	@Test
+	public void testUnitMovedIsSmall() {
+		Message msg = new Message(Message.UNIT_MOVED, new int[] { 3, 0 }, null,
+				new double[] { 100.5, 200.25, 1.2, 0.5, -0.5 });
+		// header + ints + 5 raw doubles
+		assertTrue(codec.encode(msg) <= 50);
+	}
+
+	@Test
+	public void testGameState() throws MalformedMessageException {
+		HashMap<Integer, UnitInfo> units = new HashMap<>();
+		units.put(4, new UnitInfo(2, 4, "bob", 1, 2, 3, 4, 5, 100, 1, 2, 30, 90));
+		Message msg = new Message(Message.GAME_READY, new int[] { 4 }, null);
+		msg.setGameState(new GameState(units, 1));
+
+		GameState state = roundTrip(msg).getGameState();
+		assertEquals(1, state.getMapID());
+		UnitInfo info = state.getUnitsInfo().get(4);
+		assertEquals("bob", info.username);
+		assertEquals(2, info.unitType);
+		assertEquals(5, info.yVel, 0);
+		assertEquals(90, info.mgBulletsInBag);
+	}
+
+	@Test
+	public void testStamp() throws MalformedMessageException {
+		MessageStamp stamp = new MessageStamp(123456789L, 42L,
+				new Message(Message.RELOAD, new int[] { 7 }), true, 99L);
+		int length = codec.encode(stamp);
+		MessageStamp result = codec.decodeStamp(codec.getBuffer(), 0, length);
+		assertEquals(stamp.seq, result.seq);
+		assertEquals(stamp.time, result.time);
+		assertEquals(stamp.ack, result.ack);
+		assertEquals(stamp.ackseq, result.ackseq);
+		assertEquals(7, result.msg.getInts()[0]);
+	}
+
+	@Test
+	public void testReliableStamp() throws MalformedMessageException {
+		MessageStamp stamp = new MessageStamp(5L, 42L, null, true, 10L, 11L, 1L << 63);
+		int length = codec.encode(stamp);
+		MessageStamp result = codec.decodeStamp(codec.getBuffer(), 0, length);
+		assertEquals(10L, result.ackseq);
+		assertEquals(11L, result.rseq);
+		assertEquals(1L << 63, result.sack);
+		assertNull(result.msg);
+	}
+
+	@Test
+	public void testBundle() throws MalformedMessageException {
+		Message bundle = new Message(Message.BUNDLE, null, null);
+		bundle.setBundle(new Message[] { new Message(Message.HP_LEFT, new int[] { 1, 50 }),
+				new Message(Message.SYSTEM_MESSAGE, null, new String[] { "hi" }) });
+		Message result = roundTrip(bundle);
+		assertEquals(Message.BUNDLE, result.messageType);
+		assertEquals(2, result.getBundle().length);
+		assertEquals(50, result.getBundle()[0].getInts()[1]);
+		assertEquals("hi", result.getBundle()[1].getStrings()[0]);
+	}
+
+	@Test(expected = MalformedMessageException.class)
+	public void testNestedBundle() throws MalformedMessageException {
+		Message inner = new Message(Message.BUNDLE, null, null);
+		inner.setBundle(new Message[0]);
+		Message outer = new Message(Message.BUNDLE, null, null);
+		outer.setBundle(new Message[] { inner });
+		roundTrip(outer);
+	}
+
+	@Test
+	public void testEncodedSize() {
+		HashMap<Integer, UnitInfo> units = new HashMap<>();
+		units.put(4, new UnitInfo(2, 4, "b\u00f6b\ud83d\ude00", 1, 2, 3, 4, 5, -100, 1, 2, 30, 90000));
+		Message state = new Message(Message.GAME_READY, new int[] { 4, -70000 }, new String[] { null, "\u6f22" },
+				new double[] { 1 });
+		state.setGameState(new GameState(units, 1));
+		Message bundle = new Message(Message.BUNDLE, null, null);
+		bundle.setBundle(new Message[] { state, new Message(Message.KEEP_ALIVE, null, null) });
+
+		assertEquals(codec.encode(state), MessageCodec.encodedSize(state));
+		assertEquals(codec.encode(bundle), MessageCodec.encodedSize(bundle));
+	}
+
+	@Test(expected = MalformedMessageException.class)
+	public void testTruncated() throws MalformedMessageException {
+		int length = codec.encode(new Message(Message.PRINT, null, new String[] { "hello" }));
+		codec.decodeMessage(codec.getBuffer(), 0, length - 1);
+	}
+
+	@Test(expected = MalformedMessageException.class)
+	public void testUnknownVersion() throws MalformedMessageException {
+		codec.decodeMessage(new byte[] { (byte) (MessageCodec.VERSION + 1), 0, 0 }, 0, 3);
+	}
+}
@@ -0,0 +1,226 @@
+package escort.common.network.udp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.network.MalformedMessageException;
+import escort.common.network.Message;
+import escort.common.network.MessageCodec;
+
+public class MessageControlUDPTest {
+
+	private static final byte[] KEY = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+
+	private DatagramChannel senderChannel;
+	private DatagramChannel receiverChannel;
+	private MessageControlUDP sender;
+	private MessageControlUDP receiver;
+	private PacketBufferPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		receiverChannel = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+		pool = new PacketBufferPool(2, UDPConfig.UDP_BUFFER_SIZE);
+		connect(MessageControlUDP.MODE_CBC);
+	}
+
+	private void connect(byte mode) throws Exception {
+		connect(mode, (byte) 0);
+	}
+
+	private void connect(byte mode, byte options) throws Exception {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		if (sender != null) {
+			// stop the receiving thread of the previous client control
+			sender.close();
+		}
+		senderChannel = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+		int receiverPort = ((InetSocketAddress) receiverChannel.getLocalAddress()).getPort();
+		int senderPort = ((InetSocketAddress) senderChannel.getLocalAddress()).getPort();
+		// the sender acts as the client so the nonce directions differ
+		sender = new MessageControlUDP(senderChannel, loopback, receiverPort, true, KEY, mode, options);
+		receiver = new MessageControlUDP(receiverChannel, loopback, senderPort, false, KEY, mode, options);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sender.close();
+		receiver.close();
+		senderChannel.close();
+		receiverChannel.close();
+	}
+
+	private ByteBuffer receive() throws Exception {
+		ByteBuffer buffer = pool.acquire();
+		receiverChannel.receive(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	private void assertRoundTrip() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			sender.sendMessage(new Message(Message.UNIT_MOVED, new int[] { i, 0 }, null,
+					new double[] { 1, 2, 3, 4, 5 }));
+			ByteBuffer buffer = receive();
+			receiver.receivePacket(buffer);
+			pool.release(buffer);
+
+			Message msg = receiver.receiveMessage();
+			assertEquals(Message.UNIT_MOVED, msg.messageType);
+			assertEquals(i, msg.getInts()[0]);
+			assertEquals(5, msg.getDoubles()[4], 0);
+		}
+		assertEquals(2, pool.available());
+	}
+
+	private void deliver() throws Exception {
+		ByteBuffer buffer = receive();
+		receiver.receivePacket(buffer);
+		pool.release(buffer);
+	}
+
+	private void tamper(int index) throws Exception {
+		sender.sendMessage(new Message(Message.KEEP_ALIVE, null, null));
+		ByteBuffer buffer = receive();
+		buffer.put(index, (byte) (buffer.get(index) ^ 1));
+		receiver.receivePacket(buffer);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		assertRoundTrip();
+	}
+
+	@Test
+	public void testGCMRoundTrip() throws Exception {
+		connect(MessageControlUDP.MODE_GCM);
+		assertRoundTrip();
+	}
+
+	@Test(expected = MalformedMessageException.class)
+	public void testTamperedPacket() throws Exception {
+		tamper(40);
+	}
+
+	@Test(expected = MalformedMessageException.class)
+	public void testGCMTamperedPacket() throws Exception {
+		connect(MessageControlUDP.MODE_GCM);
+		tamper(20);
+	}
+
+	@Test(expected = MalformedMessageException.class)
+	public void testGCMTamperedSequence() throws Exception {
+		connect(MessageControlUDP.MODE_GCM);
+		tamper(7);
+	}
+
+	@Test
+	public void testReliableRetransmission() throws Exception {
+		connect(MessageControlUDP.MODE_GCM, MessageControlUDP.OPTION_RELIABLE);
+		sender.sendMessage(new Message(Message.GAME_READY, new int[] { 1 }, null));
+		// the first packet is lost
+		pool.release(receive());
+		sender.sendMessage(new Message(Message.GAME_READY, new int[] { 2 }, null));
+		deliver();
+		// the acknowledgement of the second message goes back to the sender,
+		// the first message is sent again after the retransmission timeout
+		deliver();
+
+		assertEquals(1, receiver.receiveMessage().getInts()[0]);
+		assertEquals(2, receiver.receiveMessage().getInts()[0]);
+		assertEquals(1, sender.getReliableChannel().getRetransmissionCount());
+	}
+
+	@Test
+	public void testReliableLargeLobbyList() throws Exception {
+		connect(MessageControlUDP.MODE_GCM, MessageControlUDP.OPTION_RELIABLE);
+		int lobbies = 500;
+		int[] values = new int[lobbies * 4];
+		String[] texts = new String[lobbies * 2];
+		for (int i = 0; i < lobbies; i++) {
+			values[i * 4] = i + 1;
+			values[i * 4 + 1] = i % 8;
+			values[i * 4 + 2] = 8;
+			values[i * 4 + 3] = i % 2;
+			texts[i * 2] = "Lobby number " + i;
+			texts[i * 2 + 1] = "Map " + (i % 3);
+		}
+		Message list = new Message(Message.LOBBY_LIST_RESULT, values, texts);
+		int length = MessageCodec.encodedSize(list);
+		assertTrue(length > MessageControlUDP.MAX_RELIABLE_SIZE);
+
+		sender.sendMessage(list);
+		int fragments = (length + MessageControlUDP.FRAGMENT_SIZE - 1) / MessageControlUDP.FRAGMENT_SIZE;
+		for (int i = 0; i < fragments; i++) {
+			deliver();
+		}
+
+		Message msg = receiver.receiveMessage();
+		assertEquals(Message.LOBBY_LIST_RESULT, msg.messageType);
+		assertArrayEquals(values, msg.getInts());
+		assertArrayEquals(texts, msg.getStrings());
+	}
+
+	@Test
+	public void testLargeUnreliableMessage() throws Exception {
+		Message snapshot = largeSnapshot();
+		sender.sendMessage(snapshot);
+		// without a reliable channel it is dropped rather than truncated
+		assertEquals(1, sender.getOversizedCount());
+
+		connect(MessageControlUDP.MODE_GCM, MessageControlUDP.OPTION_RELIABLE);
+		sender.sendMessage(snapshot);
+		int length = MessageCodec.encodedSize(snapshot);
+		for (int i = 0; i < (length + MessageControlUDP.FRAGMENT_SIZE - 1) / MessageControlUDP.FRAGMENT_SIZE; i++) {
+			deliver();
+		}
+		Message msg = receiver.receiveMessage();
+		assertEquals(Message.WORLD_SNAPSHOT, msg.messageType);
+		assertArrayEquals(snapshot.getDoubles(), msg.getDoubles(), 0);
+		assertEquals(0, sender.getOversizedCount());
+	}
+
+	private Message largeSnapshot() {
+		int units = 200;
+		int[] ints = new int[2 + units];
+		double[] doubles = new double[units * 5];
+		for (int i = 0; i < units; i++) {
+			ints[2 + i] = i;
+			for (int j = 0; j < 5; j++) {
+				doubles[i * 5 + j] = i + j / 10.0;
+			}
+		}
+		return new Message(Message.WORLD_SNAPSHOT, ints, null, doubles);
+	}
+
+	@Test
+	public void testReliableKeepAliveIsUnreliable() throws Exception {
+		connect(MessageControlUDP.MODE_GCM, MessageControlUDP.OPTION_RELIABLE);
+		sender.sendMessage(new Message(Message.KEEP_ALIVE, null, null));
+		sender.sendMessage(new Message(Message.UNIT_MOVED, new int[] { 1, 0 }, null, new double[] { 1, 2, 3, 4, 5 }));
+		assertEquals(0, sender.getReliableChannel().getPendingCount());
+	}
+
+	@Test
+	public void testPoolFallback() {
+		ByteBuffer a = pool.acquire();
+		ByteBuffer b = pool.acquire();
+		ByteBuffer c = pool.acquire();
+		assertTrue(a != c && b != c);
+		pool.release(a);
+		pool.release(b);
+		pool.release(c);
+		assertEquals(2, pool.available());
+	}
+}
@@ -0,0 +1,112 @@
+package escort.common.network.udp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.network.Message;
+import escort.common.systime.SystemTime;
+
+public class ReliableChannelTest {
+
+	private ReliableChannel channel;
+
+	@Before
+	public void setUp() {
+		channel = new ReliableChannel();
+	}
+
+	private Message msg(int value) {
+		return new Message(Message.GAME_READY, new int[] { value }, null);
+	}
+
+	@Test
+	public void testInOrderDelivery() {
+		assertTrue(channel.receive(2, msg(2), 0).isEmpty());
+		assertTrue(channel.receive(3, msg(3), 0).isEmpty());
+		assertEquals(6L, channel.getSack());
+
+		List<Message> ready = channel.receive(1, msg(1), 0);
+		assertEquals(3, ready.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(i + 1, ready.get(i).getInts()[0]);
+		}
+		assertEquals(3L, channel.takeAck());
+		assertEquals(0L, channel.getSack());
+
+		// duplicates are only acknowledged again
+		assertTrue(channel.receive(2, msg(2), 0).isEmpty());
+		assertTrue(channel.isAckDue(100));
+	}
+
+	@Test
+	public void testStampMatchesSackToAck() {
+		channel.receive(1, msg(1), 0);
+		channel.receive(3, msg(3), 0);
+		MessageStamp stamp = channel.stamp(1, 0, null, 0);
+		assertEquals(1L, stamp.ackseq);
+		// message 3 is the second after the next expected one
+		assertEquals(2L, stamp.sack);
+		assertTrue(stamp.ack);
+	}
+
+	@Test
+	public void testSelectiveAck() throws Exception {
+		for (int i = 1; i <= 4; i++) {
+			channel.register(msg(i), 0);
+		}
+		// 1 and 3 received, 2 and 4 still missing
+		channel.acknowledged(1, 2L, 0);
+		assertEquals(2, channel.getPendingCount());
+		channel.acknowledged(4, 0, 0);
+		assertEquals(0, channel.getPendingCount());
+	}
+
+	@Test
+	public void testRetransmissionBackoff() throws Exception {
+		channel.register(msg(1), 0);
+		long start = SystemTime.milliTime();
+		assertNull(channel.due(start));
+		long rto = channel.getRTO();
+		assertEquals(1, channel.due(start + rto).size());
+		// the timeout doubles after every transmission
+		assertNull(channel.due(start + 2 * rto));
+		assertEquals(1, channel.due(start + 3 * rto).size());
+		assertEquals(2, channel.getRetransmissionCount());
+	}
+
+	@Test(expected = IOException.class)
+	public void testConnectionLost() throws Exception {
+		channel.register(msg(1), 0);
+		long now = SystemTime.milliTime();
+		for (int i = 0; i < ReliableChannel.MAX_TRANSMISSIONS; i++) {
+			now += 10000;
+			channel.due(now);
+		}
+	}
+
+	@Test
+	public void testRTTEstimate() throws Exception {
+		long now = SystemTime.milliTime();
+		for (int i = 1; i <= 20; i++) {
+			channel.register(msg(i), 0);
+			channel.acknowledged(i, 0, now + 60);
+		}
+		// converges towards the measured round trip time
+		assertTrue(channel.getRTO() >= 60 && channel.getRTO() < 120);
+	}
+
+	@Test
+	public void testWindowFull() throws Exception {
+		for (int i = 0; i < ReliableChannel.WINDOW; i++) {
+			channel.register(msg(i), 0);
+		}
+		assertNull(channel.register(msg(0), 10));
+	}
+}
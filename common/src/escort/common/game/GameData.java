@@ -2,15 +2,23 @@ package escort.common.game;
 
 import java.util.Map;
 
+import escort.common.game.entities.Entity;
 import escort.common.game.entities.units.President;
 import escort.common.game.entities.units.Unit;
 import escort.common.game.map.GameMap;
+import escort.common.game.routePlanning.FlowFieldService;
+import escort.common.powerups.PowerUp;
+import escort.common.systime.SimulationClock;
 
 public class GameData {
 
 	private final GameMap map;
 	private final Map<Integer, Unit> units;
 	private President president;
+	private final SpatialGrid<Unit> unitGrid;
+	private final SpatialGrid<PowerUp> powerUpGrid;
+	private FlowFieldService flowFields;
+	private final SimulationClock clock;
 
 	/**
 	 * Create the game data object to store all the units and the map of the
@@ -24,6 +32,21 @@ public class GameData {
 	public GameData(GameMap map, Map<Integer, Unit> units) {
 		this.map = map;
 		this.units = units;
+		this.clock = new SimulationClock();
+		int columns = map == null ? 1 : map.getWidthInTiles();
+		int rows = map == null ? 1 : map.getHeightInTiles();
+		this.unitGrid = new SpatialGrid<>(columns, rows);
+		this.powerUpGrid = new SpatialGrid<>(columns, rows);
+		if (units != null) {
+			for (Unit unit : units.values()) {
+				unitGrid.add(unit);
+			}
+		}
+		if (map != null) {
+			for (PowerUp powerUp : map.getPowerUps()) {
+				powerUpGrid.add(powerUp);
+			}
+		}
 	}
 
 	/**
@@ -35,6 +58,15 @@ public class GameData {
 		return map;
 	}
 
+	/**
+	 * Get the clock of the game, advanced once on every tick
+	 * 
+	 * @return The simulation clock
+	 */
+	public SimulationClock getClock() {
+		return clock;
+	}
+
 	/**
 	 * Return all the units in the game
 	 * 
@@ -44,6 +76,64 @@ public class GameData {
 		return units;
 	}
 
+	/**
+	 * Add a unit to the game
+	 * 
+	 * @param unitID
+	 *            The ID of the unit
+	 * @param unit
+	 *            The unit
+	 */
+	public void addUnit(int unitID, Unit unit) {
+		units.put(unitID, unit);
+		unitGrid.add(unit);
+	}
+
+	/**
+	 * Get the flow fields towards the goals shared by the units of the game,
+	 * created when first used
+	 * 
+	 * @return The flow fields, null if there is no map
+	 */
+	public FlowFieldService getFlowFields() {
+		if (flowFields == null && map != null) {
+			flowFields = new FlowFieldService(map, clock);
+		}
+		return flowFields;
+	}
+
+	/**
+	 * Get the spatial index of the units in the game
+	 * 
+	 * @return The grid of units
+	 */
+	public SpatialGrid<Unit> getUnitGrid() {
+		return unitGrid;
+	}
+
+	/**
+	 * Get the spatial index of the power ups on the map
+	 * 
+	 * @return The grid of power ups
+	 */
+	public SpatialGrid<PowerUp> getPowerUpGrid() {
+		return powerUpGrid;
+	}
+
+	/**
+	 * Update the spatial index of an entity which has moved
+	 * 
+	 * @param entity
+	 *            The entity
+	 */
+	public void entityMoved(Entity entity) {
+		if (entity instanceof Unit) {
+			unitGrid.moved(entity);
+		} else if (entity instanceof PowerUp) {
+			powerUpGrid.moved(entity);
+		}
+	}
+
 	/**
 	 * Get the president object in the game
 	 * 
@@ -0,0 +1,251 @@
+package escort.common.game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import escort.common.game.entities.Entity;
+import escort.common.game.map.Tile;
+
+/**
+ * A uniform grid of map tiles indexing entities by the tile their centre is
+ * in, so that the entities in an area can be found without looking at every
+ * entity in the game. Entities outside of the map are kept in the nearest
+ * tile at the edge. The index of a moving entity is updated by Entity.setX
+ * and Entity.setY.
+ *
+ * @param <T>
+ *            The type of entity indexed
+ */
+public class SpatialGrid<T extends Entity> {
+
+	private final int columns;
+	private final int rows;
+	private final List<List<T>> cells;
+	private int maxWidth;
+	private int maxHeight;
+
+	/**
+	 * Create an empty grid
+	 *
+	 * @param columns
+	 *            The width of the map in tiles
+	 * @param rows
+	 *            The height of the map in tiles
+	 */
+	public SpatialGrid(int columns, int rows) {
+		this.columns = Math.max(1, columns);
+		this.rows = Math.max(1, rows);
+		this.cells = new ArrayList<>(this.columns * this.rows);
+		for (int i = 0; i < this.columns * this.rows; i++) {
+			cells.add(new ArrayList<>(2));
+		}
+		this.maxWidth = 0;
+		this.maxHeight = 0;
+	}
+
+	/**
+	 * Add an entity to the grid
+	 *
+	 * @param entity
+	 *            The entity
+	 */
+	public void add(T entity) {
+		if (entity.getGridCell() >= 0) {
+			return;
+		}
+		maxWidth = Math.max(maxWidth, entity.getWidth());
+		maxHeight = Math.max(maxHeight, entity.getHeight());
+		int cell = cellOf(entity);
+		cells.get(cell).add(entity);
+		entity.setGridCell(cell);
+	}
+
+	/**
+	 * Remove an entity from the grid
+	 *
+	 * @param entity
+	 *            The entity
+	 */
+	public void remove(T entity) {
+		int cell = entity.getGridCell();
+		if (cell < 0) {
+			return;
+		}
+		cells.get(cell).remove(entity);
+		entity.setGridCell(-1);
+	}
+
+	/**
+	 * Move an entity to the tile of its current position
+	 *
+	 * @param entity
+	 *            An entity of this grid which has moved
+	 */
+	@SuppressWarnings("unchecked")
+	public void moved(Entity entity) {
+		int oldCell = entity.getGridCell();
+		if (oldCell < 0) {
+			return;
+		}
+		int cell = cellOf(entity);
+		if (cell != oldCell) {
+			cells.get(oldCell).remove(entity);
+			cells.get(cell).add((T) entity);
+			entity.setGridCell(cell);
+		}
+	}
+
+	/**
+	 * Find the entities whose hit box intersects a rectangle
+	 *
+	 * @param minX
+	 *            The left of the rectangle
+	 * @param minY
+	 *            The top of the rectangle
+	 * @param maxX
+	 *            The right of the rectangle
+	 * @param maxY
+	 *            The bottom of the rectangle
+	 * @param result
+	 *            The list to put the entities in, cleared first
+	 * @return The result list
+	 */
+	public List<T> queryRect(double minX, double minY, double maxX, double maxY, List<T> result) {
+		result.clear();
+		int firstRow = row(minY - maxHeight / 2.0);
+		int lastRow = row(maxY + maxHeight / 2.0);
+		int firstColumn = column(minX - maxWidth / 2.0);
+		int lastColumn = column(maxX + maxWidth / 2.0);
+		for (int j = firstRow; j <= lastRow; j++) {
+			for (int i = firstColumn; i <= lastColumn; i++) {
+				for (T entity : cells.get(i + j * columns)) {
+					if (entity.getX() < maxX && entity.getX() + entity.getWidth() > minX && entity.getY() < maxY
+							&& entity.getY() + entity.getHeight() > minY) {
+						result.add(entity);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Find the entities whose centre is within a distance of a point
+	 *
+	 * @param x
+	 *            The x position of the point
+	 * @param y
+	 *            The y position of the point
+	 * @param radius
+	 *            The distance
+	 * @param result
+	 *            The list to put the entities in, cleared first
+	 * @return The result list
+	 */
+	public List<T> queryRadius(double x, double y, double radius, List<T> result) {
+		result.clear();
+		int firstRow = row(y - radius);
+		int lastRow = row(y + radius);
+		int firstColumn = column(x - radius);
+		int lastColumn = column(x + radius);
+		double radiusSq = radius * radius;
+		for (int j = firstRow; j <= lastRow; j++) {
+			for (int i = firstColumn; i <= lastColumn; i++) {
+				for (T entity : cells.get(i + j * columns)) {
+					double dx = entity.getX() + entity.getWidth() / 2.0 - x;
+					double dy = entity.getY() + entity.getHeight() / 2.0 - y;
+					if (dx * dx + dy * dy <= radiusSq) {
+						result.add(entity);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Find the entities whose hit box intersects a line segment. Only the
+	 * tiles along the segment are visited.
+	 *
+	 * @param x1
+	 *            The x position of the start of the segment
+	 * @param y1
+	 *            The y position of the start of the segment
+	 * @param x2
+	 *            The x position of the end of the segment
+	 * @param y2
+	 *            The y position of the end of the segment
+	 * @param result
+	 *            The list to put the entities in, cleared first
+	 * @return The result list
+	 */
+	public List<T> querySegment(double x1, double y1, double x2, double y2, List<T> result) {
+		result.clear();
+		// hit boxes are rounded to whole pixels
+		double halfWidth = maxWidth / 2.0 + 1;
+		double halfHeight = maxHeight / 2.0 + 1;
+		int firstRow = row(Math.min(y1, y2) - halfHeight);
+		int lastRow = row(Math.max(y1, y2) + halfHeight);
+		for (int j = firstRow; j <= lastRow; j++) {
+			// the part of the segment near enough to the centres in this row,
+			// the edge rows also hold the entities outside of the map
+			double top = j == 0 ? Double.NEGATIVE_INFINITY : j * Tile.TILE_HEIGHT - halfHeight;
+			double bottom = j == rows - 1 ? Double.POSITIVE_INFINITY : (j + 1) * Tile.TILE_HEIGHT + halfHeight;
+			double tStart = 0;
+			double tEnd = 1;
+			if (y1 == y2) {
+				if (y1 < top || y1 > bottom) {
+					continue;
+				}
+			} else {
+				double tTop = (top - y1) / (y2 - y1);
+				double tBottom = (bottom - y1) / (y2 - y1);
+				tStart = Math.max(0, Math.min(tTop, tBottom));
+				tEnd = Math.min(1, Math.max(tTop, tBottom));
+				if (tStart > tEnd) {
+					continue;
+				}
+			}
+			double xStart = x1 + (x2 - x1) * tStart;
+			double xEnd = x1 + (x2 - x1) * tEnd;
+			int firstColumn = column(Math.min(xStart, xEnd) - halfWidth);
+			int lastColumn = column(Math.max(xStart, xEnd) + halfWidth);
+			for (int i = firstColumn; i <= lastColumn; i++) {
+				for (T entity : cells.get(i + j * columns)) {
+					if (entity.hitboxIntersectsLine(x1, y1, x2, y2)) {
+						result.add(entity);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the cell of the centre of an entity
+	 */
+	private int cellOf(Entity entity) {
+		return column(entity.getX() + entity.getWidth() / 2.0)
+				+ row(entity.getY() + entity.getHeight() / 2.0) * columns;
+	}
+
+	/**
+	 * Get the column of an x position, clamped to the map
+	 */
+	private int column(double x) {
+		if (Double.isNaN(x)) {
+			return 0;
+		}
+		return (int) Math.max(0, Math.min(columns - 1, Math.floor(x / Tile.TILE_WIDTH)));
+	}
+
+	/**
+	 * Get the row of a y position, clamped to the map
+	 */
+	private int row(double y) {
+		if (Double.isNaN(y)) {
+			return 0;
+		}
+		return (int) Math.max(0, Math.min(rows - 1, Math.floor(y / Tile.TILE_HEIGHT)));
+	}
+}
@@ -5,6 +5,7 @@ import java.awt.Rectangle;
 
 import escort.common.game.GameData;
 import escort.common.game.map.Tile;
+import escort.common.systime.SimulationClock;
 
 /**
  * An Entity object.
@@ -21,6 +22,7 @@ public class Entity {
 	private int width;
 	private int height;
 	private GameData gameData;
+	private int gridCell = -1;
 
 	/**
 	 * Create an entity (thing) in the game
@@ -56,8 +58,11 @@ public class Entity {
 
 	/**
 	 * Update the entity on every game loop
+	 * 
+	 * @param clock
+	 *            The clock of the game, at the tick being updated
 	 */
-	public void update() {
+	public void update(SimulationClock clock) {
 	}
 
 	/**
@@ -66,9 +71,7 @@ public class Entity {
 	 * @return The centre point of the entity
 	 */
 	public Point getCenterPoint() {
-		int centerX = (int) (x) + width / 2;
-		int centerY = (int) (y) + height / 2;
-		return new Point(centerX, centerY);
+		return new Point(getCenterX(), getCenterY());
 	}
 
 	/**
@@ -97,6 +100,9 @@ public class Entity {
 	 */
 	public void setX(double x) {
 		this.x = x;
+		if (gridCell >= 0 && gameData != null) {
+			gameData.entityMoved(this);
+		}
 	}
 
 	/**
@@ -107,6 +113,29 @@ public class Entity {
 	 */
 	public void setY(double y) {
 		this.y = y;
+		if (gridCell >= 0 && gameData != null) {
+			gameData.entityMoved(this);
+		}
+	}
+
+	/**
+	 * Get the cell of the spatial grid the entity is indexed in
+	 * 
+	 * @return The cell, -1 if the entity is not indexed
+	 */
+	public int getGridCell() {
+		return gridCell;
+	}
+
+	/**
+	 * Set the cell of the spatial grid the entity is indexed in. Only used by
+	 * the spatial grid.
+	 * 
+	 * @param gridCell
+	 *            The cell, -1 if the entity is no longer indexed
+	 */
+	public void setGridCell(int gridCell) {
+		this.gridCell = gridCell;
 	}
 
 	/**
@@ -135,7 +164,7 @@ public class Entity {
 	 * @return Whether the two entities have collided
 	 */
 	public boolean collision(Entity entity) {
-		return getAbsoluteBounds().intersects(entity.getAbsoluteBounds());
+		return intersects(entity.getMinX(), entity.getMinY(), entity.getMaxX(), entity.getMaxY());
 	}
 
 	/**
@@ -153,7 +182,7 @@ public class Entity {
 	 * position.
 	 */
 	public Rectangle getCollisionBounds() {
-		return new Rectangle(0, 0, width, height);
+		return new Rectangle(getCollisionX(), getCollisionY(), getCollisionWidth(), getCollisionHeight());
 	}
 
 	/**
@@ -163,12 +192,7 @@ public class Entity {
 	 * @return The bounds in tiles of the entity
 	 */
 	public Rectangle getAbsoluteBoundsInTiles() {
-		Rectangle bounds = getCollisionBounds();
-		bounds.x = (int) Math.floor((bounds.x + x) / Tile.TILE_WIDTH);
-		bounds.y = (int) Math.floor((bounds.y + y) / Tile.TILE_HEIGHT);
-		bounds.width = (int) Math.floor(bounds.width / Tile.TILE_WIDTH);
-		bounds.height = (int) Math.floor(bounds.height / Tile.TILE_HEIGHT);
-		return bounds;
+		return new Rectangle(getTileX(), getTileY(), getTileWidth(), getTileHeight());
 	}
 
 	/**
@@ -177,10 +201,184 @@ public class Entity {
 	 * @return The hit box around the entity
 	 */
 	public Rectangle getAbsoluteBounds() {
-		Rectangle bounds = getCollisionBounds();
-		bounds.x = (int) Math.floor(bounds.x + x);
-		bounds.y = (int) Math.floor(bounds.y + y);
-		return bounds;
+		return new Rectangle(getMinX(), getMinY(), getCollisionWidth(), getCollisionHeight());
+	}
+
+	// PRIMITIVE BOUNDS //
+	// The same bounds as above without creating a Point or Rectangle, for the
+	// code run every tick.
+
+	/**
+	 * @return The x position of the collision bounds relative to the entity
+	 */
+	public int getCollisionX() {
+		return 0;
+	}
+
+	/**
+	 * @return The y position of the collision bounds relative to the entity
+	 */
+	public int getCollisionY() {
+		return 0;
+	}
+
+	/**
+	 * @return The width of the collision bounds
+	 */
+	public int getCollisionWidth() {
+		return width;
+	}
+
+	/**
+	 * @return The height of the collision bounds
+	 */
+	public int getCollisionHeight() {
+		return height;
+	}
+
+	/**
+	 * @return The left of the absolute bounds in pixels
+	 */
+	public int getMinX() {
+		return (int) Math.floor(getCollisionX() + x);
+	}
+
+	/**
+	 * @return The top of the absolute bounds in pixels
+	 */
+	public int getMinY() {
+		return (int) Math.floor(getCollisionY() + y);
+	}
+
+	/**
+	 * @return The right of the absolute bounds in pixels
+	 */
+	public int getMaxX() {
+		return getMinX() + getCollisionWidth();
+	}
+
+	/**
+	 * @return The bottom of the absolute bounds in pixels
+	 */
+	public int getMaxY() {
+		return getMinY() + getCollisionHeight();
+	}
+
+	/**
+	 * @return The x position of the absolute bounds in tiles
+	 */
+	public int getTileX() {
+		return (int) Math.floor((getCollisionX() + x) / Tile.TILE_WIDTH);
+	}
+
+	/**
+	 * @return The y position of the absolute bounds in tiles
+	 */
+	public int getTileY() {
+		return (int) Math.floor((getCollisionY() + y) / Tile.TILE_HEIGHT);
+	}
+
+	/**
+	 * @return The width of the absolute bounds in tiles
+	 */
+	public int getTileWidth() {
+		return getCollisionWidth() / Tile.TILE_WIDTH;
+	}
+
+	/**
+	 * @return The height of the absolute bounds in tiles
+	 */
+	public int getTileHeight() {
+		return getCollisionHeight() / Tile.TILE_HEIGHT;
+	}
+
+	/**
+	 * @return The x position of the centre point of the entity
+	 */
+	public int getCenterX() {
+		return (int) (x) + width / 2;
+	}
+
+	/**
+	 * @return The y position of the centre point of the entity
+	 */
+	public int getCenterY() {
+		return (int) (y) + height / 2;
+	}
+
+	/**
+	 * Whether the absolute bounds of this entity intersect an area, in the
+	 * same way as Rectangle.intersects
+	 * 
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area
+	 * @param maxY
+	 *            The bottom of the area
+	 * @return True iff they intersect
+	 */
+	public boolean intersects(int minX, int minY, int maxX, int maxY) {
+		int left = getMinX();
+		int top = getMinY();
+		int right = left + getCollisionWidth();
+		int bottom = top + getCollisionHeight();
+		return right > left && bottom > top && maxX > minX && maxY > minY && left < maxX && minX < right
+				&& top < maxY && minY < bottom;
+	}
+
+	/**
+	 * Whether the absolute bounds of this entity contain a point, in the same
+	 * way as Rectangle.contains
+	 * 
+	 * @param px
+	 *            The x position of the point
+	 * @param py
+	 *            The y position of the point
+	 * @return True iff the point is inside
+	 */
+	public boolean contains(int px, int py) {
+		int left = getMinX();
+		int top = getMinY();
+		return px >= left && py >= top && px < left + getCollisionWidth() && py < top + getCollisionHeight();
+	}
+
+	/**
+	 * Whether a line crosses the hit box of this entity, in the same way as
+	 * getHitbox().intersectsLine
+	 * 
+	 * @param x1
+	 *            The x position of the start of the line
+	 * @param y1
+	 *            The y position of the start of the line
+	 * @param x2
+	 *            The x position of the end of the line
+	 * @param y2
+	 *            The y position of the end of the line
+	 * @return True iff the line crosses the hit box
+	 */
+	public boolean hitboxIntersectsLine(double x1, double y1, double x2, double y2) {
+		return EntityUtils.intersectsLine((int) x, (int) y, width, height, x1, y1, x2, y2);
+	}
+
+	/**
+	 * Find where a line first touches the hit box of this entity
+	 * 
+	 * @param x1
+	 *            The x position of the start of the line
+	 * @param y1
+	 *            The y position of the start of the line
+	 * @param x2
+	 *            The x position of the end of the line
+	 * @param y2
+	 *            The y position of the end of the line
+	 * @return The fraction of the way from the start to the end at which the
+	 *         hit box is touched, infinity if it is not
+	 */
+	public double hitboxLineEntry(double x1, double y1, double x2, double y2) {
+		return EntityUtils.lineEntry((int) x, (int) y, width, height, x1, y1, x2, y2);
 	}
 
-}
\ No newline at end of file
+}
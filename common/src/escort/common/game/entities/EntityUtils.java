@@ -125,4 +125,133 @@ public final class EntityUtils {
 	private static Point2D.Double getCentre(Rectangle r) {
 		return new Point2D.Double(r.getCenterX(), r.getCenterY());
 	}
+
+	/**
+	 * Whether a line crosses a rectangle, as Rectangle.intersectsLine without
+	 * creating the rectangle
+	 * 
+	 * @param rx
+	 *            The x position of the rectangle
+	 * @param ry
+	 *            The y position of the rectangle
+	 * @param rw
+	 *            The width of the rectangle
+	 * @param rh
+	 *            The height of the rectangle
+	 * @param x1
+	 *            The x position of the start of the line
+	 * @param y1
+	 *            The y position of the start of the line
+	 * @param x2
+	 *            The x position of the end of the line
+	 * @param y2
+	 *            The y position of the end of the line
+	 * @return True iff the line crosses the rectangle
+	 */
+	public static boolean intersectsLine(int rx, int ry, int rw, int rh, double x1, double y1, double x2,
+			double y2) {
+		int out1;
+		int out2 = outcode(rx, ry, rw, rh, x2, y2);
+		if (out2 == 0) {
+			return true;
+		}
+		// clip the start of the line to the edges of the rectangle
+		while ((out1 = outcode(rx, ry, rw, rh, x1, y1)) != 0) {
+			if ((out1 & out2) != 0) {
+				return false;
+			}
+			if ((out1 & (Rectangle.OUT_LEFT | Rectangle.OUT_RIGHT)) != 0) {
+				double x = rx;
+				if ((out1 & Rectangle.OUT_RIGHT) != 0) {
+					x += rw;
+				}
+				y1 = y1 + (x - x1) * (y2 - y1) / (x2 - x1);
+				x1 = x;
+			} else {
+				double y = ry;
+				if ((out1 & Rectangle.OUT_BOTTOM) != 0) {
+					y += rh;
+				}
+				x1 = x1 + (y - y1) * (x2 - x1) / (y2 - y1);
+				y1 = y;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find where a line first touches a rectangle, with the edges of the
+	 * rectangle included as in intersectsLine
+	 * 
+	 * @param rx
+	 *            The x position of the rectangle
+	 * @param ry
+	 *            The y position of the rectangle
+	 * @param rw
+	 *            The width of the rectangle
+	 * @param rh
+	 *            The height of the rectangle
+	 * @param x1
+	 *            The x position of the start of the line
+	 * @param y1
+	 *            The y position of the start of the line
+	 * @param x2
+	 *            The x position of the end of the line
+	 * @param y2
+	 *            The y position of the end of the line
+	 * @return The fraction of the way from the start to the end at which the
+	 *         rectangle is touched, infinity if it is not
+	 */
+	public static double lineEntry(int rx, int ry, int rw, int rh, double x1, double y1, double x2, double y2) {
+		if (rw <= 0 || rh <= 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double enter = 0;
+		double exit = 1;
+		double dx = x2 - x1;
+		if (dx == 0) {
+			if (x1 < rx || x1 > rx + (double) rw) {
+				return Double.POSITIVE_INFINITY;
+			}
+		} else {
+			double a = (rx - x1) / dx;
+			double b = (rx + (double) rw - x1) / dx;
+			enter = Math.max(enter, Math.min(a, b));
+			exit = Math.min(exit, Math.max(a, b));
+		}
+		double dy = y2 - y1;
+		if (dy == 0) {
+			if (y1 < ry || y1 > ry + (double) rh) {
+				return Double.POSITIVE_INFINITY;
+			}
+		} else {
+			double a = (ry - y1) / dy;
+			double b = (ry + (double) rh - y1) / dy;
+			enter = Math.max(enter, Math.min(a, b));
+			exit = Math.min(exit, Math.max(a, b));
+		}
+		return enter <= exit ? enter : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * The side of a rectangle a point is on, as Rectangle.outcode
+	 */
+	private static int outcode(int rx, int ry, int rw, int rh, double x, double y) {
+		int out = 0;
+		if (rw <= 0) {
+			out |= Rectangle.OUT_LEFT | Rectangle.OUT_RIGHT;
+		} else if (x < rx) {
+			out |= Rectangle.OUT_LEFT;
+		} else if (x > rx + (double) rw) {
+			out |= Rectangle.OUT_RIGHT;
+		}
+		if (rh <= 0) {
+			out |= Rectangle.OUT_TOP | Rectangle.OUT_BOTTOM;
+		} else if (y < ry) {
+			out |= Rectangle.OUT_TOP;
+		} else if (y > ry + (double) rh) {
+			out |= Rectangle.OUT_BOTTOM;
+		}
+		return out;
+	}
 }
@@ -1,9 +1,8 @@
 package escort.common.game.entities;
 
-import java.awt.Rectangle;
-
 import escort.common.game.GameData;
 import escort.common.game.map.GameMap;
+import escort.common.systime.SimulationClock;
 
 /**
  * Any Entity that moves
@@ -60,8 +59,8 @@ public abstract class Mob extends Entity {
 	 * Calls the super update method and calls move.
 	 */
 	@Override
-	public void update() {
-		super.update();
+	public void update(SimulationClock clock) {
+		super.update(clock);
 		move();
 	}
 
@@ -96,13 +95,16 @@ public abstract class Mob extends Entity {
 		// movement (and therefore multiplied by root 2 / 2. But this is a
 		// feature of entity movement.)
 
-		Rectangle bounds = getCollisionBounds();
+		int boundsX = getCollisionX();
+		int boundsY = getCollisionY();
+		int boundsWidth = getCollisionWidth();
+		int boundsHeight = getCollisionHeight();
 
-		boolean currentlyInWall = !map.walkable((int) (bounds.x + getX()), (int) (bounds.y + getY()), bounds.width,
-				bounds.height);
+		boolean currentlyInWall = !map.walkable((int) (boundsX + getX()), (int) (boundsY + getY()), boundsWidth,
+				boundsHeight);
 
 		if (currentlyInWall
-				|| map.walkable((int) (bounds.x + newX), (int) (bounds.y + getY()), bounds.width, bounds.height)) {
+				|| map.walkable((int) (boundsX + newX), (int) (boundsY + getY()), boundsWidth, boundsHeight)) {
 			setX(newX);
 		} else {
 			smoothX = oldSmoothX;
@@ -110,7 +112,7 @@ public abstract class Mob extends Entity {
 		}
 
 		if (currentlyInWall
-				|| map.walkable((int) (bounds.x + getX()), (int) (bounds.y + newY), bounds.width, bounds.height)) {
+				|| map.walkable((int) (boundsX + getX()), (int) (boundsY + newY), boundsWidth, boundsHeight)) {
 			setY(newY);
 		} else {
 			smoothY = oldSmoothY;
@@ -63,6 +63,10 @@ public class Escort extends Unit {
 	 * Escort requests president to follow
 	 */
 	public void follow() {
+		if (commands != null) {
+			commands.follow(this);
+			return;
+		}
 		sendMessage(new Message(Message.UNIT_FOLLOW, new int[] { getUnitID() }, null));
 	}
 
@@ -70,6 +74,10 @@ public class Escort extends Unit {
 	 * Escort requests president to unfollow.
 	 */
 	public void unfollow() {
+		if (commands != null) {
+			commands.unfollow(this);
+			return;
+		}
 		sendMessage(new Message(Message.UNIT_UNFOLLOW, new int[] { getUnitID() }, null));
 	}
 
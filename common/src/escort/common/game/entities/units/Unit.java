@@ -1,7 +1,6 @@
 package escort.common.game.entities.units;
 
 import java.awt.Point;
-import java.awt.Rectangle;
 import java.util.Collection;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -15,7 +14,7 @@ import escort.common.game.weapons.MachineGun;
 import escort.common.game.weapons.Pistol;
 import escort.common.network.Message;
 import escort.common.network.Sender;
-import escort.common.systime.SystemTime;
+import escort.common.systime.SimulationClock;
 
 /**
  * A unit
@@ -88,18 +87,24 @@ public abstract class Unit extends Mob {
 	private int maxHP;
 	private final int unitType;
 	protected Sender sender;
+	protected UnitCommands commands;
 
 	private String username;
 
-	private long msSinceBusy = SystemTime.milliTime(); // time since last
-	// busy
+	private long tickBusy; // tick of the last time busy
 	private boolean isReloadPistol = false; // prevent shooting and throwing
 											// grenades
 	// while doing an action (like
 	// reloading)
 	private boolean isReloadMG = false;
 
-	private long timeSinceSent = 0;
+	private long tickSent = -1;
+
+	/**
+	 * The time between two messages of the position of a unit, in
+	 * milliseconds
+	 */
+	public static final int MOVED_INTERVAL = 50;
 	
 	private long lastMoveFrame = 0;
 
@@ -123,6 +128,7 @@ public abstract class Unit extends Mob {
 	 */
 	public Unit(GameData data, Sender sender, int unitID, int x, int y, int hp, int unitType) {
 		super(data, x, y, UNIT_WIDTH, UNIT_HEIGHT);
+		this.tickBusy = data.getClock().getTick();
 		this.unitID = unitID;
 		this.sender = sender;
 		this.hp = hp;
@@ -134,8 +140,8 @@ public abstract class Unit extends Mob {
 	/**
 	 * Detail how a unit should be updated.
 	 */
-	public void update() {
-		super.update();
+	public void update(SimulationClock clock) {
+		super.update(clock);
 
 		if (controller != null) {
 			controller.control();
@@ -146,34 +152,35 @@ public abstract class Unit extends Mob {
 			int offsetBase = 24;
 			int xOffset = (int) (offsetBase * Math.cos(d));
 			int yOffset = (int) (offsetBase * Math.sin(d));
-			heldGrenade.setX(getCenterPoint().x - heldGrenade.getWidth() / 2 + xOffset);
-			heldGrenade.setY(getCenterPoint().y - heldGrenade.getHeight() / 2 + yOffset);
-			heldGrenade.update();
+			heldGrenade.setX(getCenterX() - heldGrenade.getWidth() / 2 + xOffset);
+			heldGrenade.setY(getCenterY() - heldGrenade.getHeight() / 2 + yOffset);
+			heldGrenade.update(clock);
 		}
 
 		for (Grenade airborne : airborneGrenades) {
-			airborne.update();
+			airborne.update(clock);
 		}
 
 		if (pistol != null) {
 			for (Bullet bullet : pistol.getFiredBullets()) {
-				bullet.update();
+				bullet.update(clock);
 			}
 		}
 
 		if (mg != null) {
 			for (Bullet bullet : mg.getFiredBullets()) {
-				bullet.update();
+				bullet.update(clock);
 			}
 		}
 
-		delayReload(Unit.PISTOL);
-		delayReload(Unit.MACHINE_GUN);
+		delayReload(Unit.PISTOL, clock);
+		delayReload(Unit.MACHINE_GUN, clock);
 
-		if (SystemTime.milliTime() - timeSinceSent >= 50) {
+		// units with commands are moved by the server, so it already knows
+		if (commands == null && (tickSent < 0 || clock.elapsed(tickSent, MOVED_INTERVAL))) {
 			sendMessage(new Message(Message.UNIT_MOVED, new int[] { getUnitID(),0 }, null,
 					new double[] { getX(), getY(), getDir(), getXVel(), getYVel()}));
-			timeSinceSent = SystemTime.milliTime();
+			tickSent = clock.getTick();
 		}
 	}
 
@@ -182,19 +189,21 @@ public abstract class Unit extends Mob {
 	 * 
 	 * @param weapon
 	 *            The weapon to reload
+	 * @param clock
+	 *            The clock of the game
 	 */
-	private void delayReload(int weapon) {
+	private void delayReload(int weapon, SimulationClock clock) {
 		switch (weapon) {
 		case Unit.PISTOL:
 			if (isReloadPistol) {
-				if (SystemTime.milliTime() - msSinceBusy >= pistol.getReloadSpeed()) {
+				if (clock.elapsed(tickBusy, pistol.getReloadSpeed())) {
 					isReloadPistol = false;
 					pistol.reload();
 				}
 			}
 		case Unit.MACHINE_GUN:
 			if (isReloadMG) {
-				if (SystemTime.milliTime() - msSinceBusy >= mg.getReloadSpeed()) {
+				if (clock.elapsed(tickBusy, mg.getReloadSpeed())) {
 					isReloadMG = false;
 					mg.reload();
 				}
@@ -336,6 +345,10 @@ public abstract class Unit extends Mob {
 	 * weapon
 	 */
 	public void requestReloadToServer() {
+		if (commands != null) {
+			commands.reload(this);
+			return;
+		}
 		sendMessage(new Message(Message.RELOAD, new int[] { getUnitID() }));
 	}
 
@@ -346,7 +359,7 @@ public abstract class Unit extends Mob {
 		if (isBusy()) {
 			return;
 		}
-		msSinceBusy = SystemTime.milliTime();
+		tickBusy = getGameData().getClock().getTick();
 		switch (weaponSlot) {
 		case Unit.MACHINE_GUN:
 			isReloadMG = true;
@@ -376,13 +389,27 @@ public abstract class Unit extends Mob {
 	}
 
 	/**
-	 * Gets the boundaries of this unit, relative to this unit's top left
+	 * The boundaries of a unit are its legs, relative to its top left
 	 * position.
 	 */
 	@Override
-	public Rectangle getCollisionBounds() {
-		return new Rectangle((UNIT_WIDTH - UNIT_LEGS_WIDTH) / 2, UNIT_HEAD_HEIGHT + UNIT_TORSO_HEIGHT, UNIT_LEGS_WIDTH,
-				UNIT_LEGS_HEIGHT);
+	public int getCollisionX() {
+		return (UNIT_WIDTH - UNIT_LEGS_WIDTH) / 2;
+	}
+
+	@Override
+	public int getCollisionY() {
+		return UNIT_HEAD_HEIGHT + UNIT_TORSO_HEIGHT;
+	}
+
+	@Override
+	public int getCollisionWidth() {
+		return UNIT_LEGS_WIDTH;
+	}
+
+	@Override
+	public int getCollisionHeight() {
+		return UNIT_LEGS_HEIGHT;
 	}
 
 	/**
@@ -457,6 +484,10 @@ public abstract class Unit extends Mob {
 	 *            The int code of the weapon.
 	 */
 	public void switchWeaponServer(int weapon) {
+		if (commands != null) {
+			commands.switchWeapon(this, weapon);
+			return;
+		}
 		sendMessage(new Message(Message.UNIT_WEAPON_SWITCH, new int[] { getUnitID(), weapon }));
 	}
 
@@ -505,6 +536,26 @@ public abstract class Unit extends Mob {
 		this.sender = sender;
 	}
 
+	/**
+	 * Set the commands carrying out the actions of a unit controlled on the
+	 * server, instead of sending them as messages
+	 * 
+	 * @param commands
+	 *            The commands, null to send messages
+	 */
+	public void setCommands(UnitCommands commands) {
+		this.commands = commands;
+	}
+
+	/**
+	 * Get the commands carrying out the actions of the unit
+	 * 
+	 * @return The commands, null if the unit sends messages
+	 */
+	public UnitCommands getCommands() {
+		return commands;
+	}
+
 	/**
 	 * Create a new grenade with a grenade id and is holding the grenade. Reduce
 	 * the number of grenades left
@@ -593,7 +644,11 @@ public abstract class Unit extends Mob {
 		}
 
 		holdingGrenade = true;
-		sendMessage(new Message(Message.REQUEST_GRENADE_ID, new int[] { unitID }, null));
+		if (commands != null) {
+			commands.grenadeHeld(this);
+		} else {
+			sendMessage(new Message(Message.REQUEST_GRENADE_ID, new int[] { unitID }, null));
+		}
 		return true;
 	}
 
@@ -605,7 +660,11 @@ public abstract class Unit extends Mob {
 			return;
 		}
 
-		sendMessage(new Message(Message.THROW_GRENADE, new int[] { unitID }, null));
+		if (commands != null) {
+			commands.grenadeReleased(this);
+		} else {
+			sendMessage(new Message(Message.THROW_GRENADE, new int[] { unitID }, null));
+		}
 		holdingGrenade = false;
 	}
 
@@ -768,9 +827,21 @@ public abstract class Unit extends Mob {
 	 * @return The angle between the unit and the point
 	 */
 	public double angleFromPoint(Point p) {
-		Point center1 = getCenterPoint();
-		double dx = p.x - center1.x;
-		double dy = center1.y - p.y;
+		return angleFromPoint(p.x, p.y);
+	}
+
+	/**
+	 * Get the angle between the unit and a point
+	 * 
+	 * @param x
+	 *            The x position of the point
+	 * @param y
+	 *            The y position of the point
+	 * @return The angle between the unit and the point
+	 */
+	public double angleFromPoint(int x, int y) {
+		double dx = x - getCenterX();
+		double dy = getCenterY() - y;
 
 		double newDir = Math.atan2(dx, dy);
 		if (newDir < 0) {
@@ -0,0 +1,75 @@
+package escort.common.game.entities.units;
+
+/**
+ * The actions of units controlled on the server itself, carried out in the
+ * game at once. Units without commands send their actions to the server as
+ * messages instead, to be checked and carried out on the next tick.
+ */
+public interface UnitCommands {
+
+	/**
+	 * Ask the president touching an escort to follow it
+	 *
+	 * @param escort
+	 *            The escort
+	 */
+	void follow(Escort escort);
+
+	/**
+	 * Ask the president following an escort to stop following it
+	 *
+	 * @param escort
+	 *            The escort
+	 */
+	void unfollow(Escort escort);
+
+	/**
+	 * Fire a pistol bullet
+	 *
+	 * @param unit
+	 *            The unit shooting
+	 */
+	void shootPistol(Unit unit);
+
+	/**
+	 * Fire a machine gun bullet
+	 *
+	 * @param unit
+	 *            The unit shooting
+	 */
+	void shootMG(Unit unit);
+
+	/**
+	 * Reload the weapon held by a unit
+	 *
+	 * @param unit
+	 *            The unit
+	 */
+	void reload(Unit unit);
+
+	/**
+	 * Switch the weapon held by a unit
+	 *
+	 * @param unit
+	 *            The unit
+	 * @param weapon
+	 *            The weapon slot to switch to
+	 */
+	void switchWeapon(Unit unit, int weapon);
+
+	/**
+	 * Give a grenade to a unit which has started holding one
+	 *
+	 * @param unit
+	 *            The unit
+	 */
+	void grenadeHeld(Unit unit);
+
+	/**
+	 * Throw the grenade held by a unit
+	 *
+	 * @param unit
+	 *            The unit
+	 */
+	void grenadeReleased(Unit unit);
+}
@@ -52,4 +52,52 @@ public class UnitInfo implements Serializable {
 			mgBulletsInBag = 0;
 		}
 	}
+
+	/**
+	 * Create information relating to a unit from values received over the
+	 * network.
+	 * 
+	 * @param unitType
+	 *            The type of the unit
+	 * @param unitID
+	 *            The unit ID
+	 * @param username
+	 *            The user name
+	 * @param x
+	 *            The x position
+	 * @param y
+	 *            The y position
+	 * @param dir
+	 *            The direction
+	 * @param xVel
+	 *            The x velocity
+	 * @param yVel
+	 *            The y velocity
+	 * @param hpLeft
+	 *            The hit points left
+	 * @param weaponSlot
+	 *            The held weapon
+	 * @param grenadesLeft
+	 *            The number of grenades left
+	 * @param mgBulletsInMag
+	 *            Machine gun bullets in the magazine
+	 * @param mgBulletsInBag
+	 *            Machine gun bullets in the bag
+	 */
+	public UnitInfo(int unitType, int unitID, String username, double x, double y, double dir, double xVel,
+			double yVel, int hpLeft, int weaponSlot, int grenadesLeft, int mgBulletsInMag, int mgBulletsInBag) {
+		this.unitType = unitType;
+		this.unitID = unitID;
+		this.username = username;
+		this.x = x;
+		this.y = y;
+		this.dir = dir;
+		this.xVel = xVel;
+		this.yVel = yVel;
+		this.hpLeft = hpLeft;
+		this.weaponSlot = weaponSlot;
+		this.grenadesLeft = grenadesLeft;
+		this.mgBulletsInMag = mgBulletsInMag;
+		this.mgBulletsInBag = mgBulletsInBag;
+	}
 }
@@ -1,7 +1,6 @@
 package escort.common.game.map;
 
 import java.awt.Rectangle;
-import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
 import java.util.HashSet;
 import java.util.Set;
@@ -42,6 +41,8 @@ public class GameMap {
 
 	private int mapID;
 
+	private volatile TileVisibility visibility;
+
 	/**
 	 * Instantiates a new GameMap
 	 * 
@@ -225,32 +226,207 @@ public class GameMap {
 	/**
 	 * Test whether an entity is in line of sight of you by testing if there is
 	 * a wall in the way. If there is a wall in the way, return false otherwise
-	 * return true
+	 * return true. With the visibility cache in use, the tiles of the centres
+	 * are tested instead.
 	 * 
-	 * @param entity
-	 *            An entity to test if you are in line of sight of
+	 * @param thisBounds
+	 *            Your bounds
+	 * @param otherBounds
+	 *            The bounds of the entity to test if you are in line of sight
+	 *            of
 	 * @return Whether you are in line of sight of the entity
 	 */
 	public boolean lineOfSight(Rectangle thisBounds, Rectangle otherBounds) {
-		Line2D.Double lineOfSight = new Line2D.Double(thisBounds.x + thisBounds.width / 2,
-				thisBounds.y + thisBounds.height / 2, otherBounds.x + otherBounds.width / 2,
-				otherBounds.y + otherBounds.height / 2);
-
-		int upperLeftX = Math.min(thisBounds.x, otherBounds.x);
-		int upperLeftY = Math.min(thisBounds.y, otherBounds.y);
-		int lowerRightX = Math.max(thisBounds.x, otherBounds.x);
-		int lowerRightY = Math.max(thisBounds.y, otherBounds.y);
-		for (int i = (upperLeftX / Tile.TILE_WIDTH) - 1; i <= (lowerRightX / Tile.TILE_WIDTH) + 1; i++) {
-			for (int j = (upperLeftY / Tile.TILE_HEIGHT) - 1; j <= (lowerRightY / Tile.TILE_HEIGHT) + 1; j++) {
-				if (!walkableInTiles(i, j)) {
-					if (new Rectangle(i * Tile.TILE_WIDTH, j * Tile.TILE_HEIGHT, Tile.TILE_WIDTH, Tile.TILE_HEIGHT)
-							.intersectsLine(lineOfSight)) {
-						return false;
-					}
+		return lineOfSight(thisBounds.x + thisBounds.width / 2, thisBounds.y + thisBounds.height / 2,
+				otherBounds.x + otherBounds.width / 2, otherBounds.y + otherBounds.height / 2);
+	}
+
+	/**
+	 * Test whether there is a wall in the way between two points. With the
+	 * visibility cache in use, the tiles of the points are tested instead.
+	 * 
+	 * @param x0
+	 *            The x coordinate of the start in pixels
+	 * @param y0
+	 *            The y coordinate of the start in pixels
+	 * @param x1
+	 *            The x coordinate of the end in pixels
+	 * @param y1
+	 *            The y coordinate of the end in pixels
+	 * @return True iff no wall is in the way
+	 */
+	public boolean lineOfSight(int x0, int y0, int x1, int y1) {
+		TileVisibility visibility = this.visibility;
+		if (visibility != null) {
+			return visibility.visible(Math.floorDiv(x0, Tile.TILE_WIDTH), Math.floorDiv(y0, Tile.TILE_HEIGHT),
+					Math.floorDiv(x1, Tile.TILE_WIDTH), Math.floorDiv(y1, Tile.TILE_HEIGHT));
+		}
+		return traceLineOfSight(x0, y0, x1, y1);
+	}
+
+	/**
+	 * Test whether a line between two points touches no wall, without the
+	 * visibility cache. The tiles the
+	 * line passes through are walked in order (Amanatides and Woo), so only
+	 * those tiles are tested. A tile which the line only touches at an edge or
+	 * corner blocks it as well.
+	 * 
+	 * @param x0
+	 *            The x coordinate of the start in pixels
+	 * @param y0
+	 *            The y coordinate of the start in pixels
+	 * @param x1
+	 *            The x coordinate of the end in pixels
+	 * @param y1
+	 *            The y coordinate of the end in pixels
+	 * @return True iff no wall is in the way
+	 */
+	public boolean traceLineOfSight(int x0, int y0, int x1, int y1) {
+		final int w = Tile.TILE_WIDTH;
+		final int h = Tile.TILE_HEIGHT;
+		int stepX = Integer.signum(x1 - x0);
+		int stepY = Integer.signum(y1 - y0);
+		long dx = Math.abs((long) x1 - x0);
+		long dy = Math.abs((long) y1 - y0);
+
+		// a point on a tile edge is in the tiles on both sides. When moving
+		// forwards, start in the tile behind the edge and cross it at once.
+		int i = Math.floorDiv(x0, w);
+		int j = Math.floorDiv(y0, h);
+		boolean edgeX = Math.floorMod(x0, w) == 0;
+		boolean edgeY = Math.floorMod(y0, h) == 0;
+		if (edgeX && stepX > 0) {
+			i--;
+		}
+		if (edgeY && stepY > 0) {
+			j--;
+		}
+		// the distance to the next edge crossed on each axis, in pixels
+		long toX = stepX > 0 ? (long) (i + 1) * w - x0 : x0 - (long) i * w;
+		long toY = stepY > 0 ? (long) (j + 1) * h - y0 : y0 - (long) j * h;
+		// a line along an edge touches the tiles on both sides of it
+		int besideX = stepX == 0 && edgeX ? -1 : 0;
+		int besideY = stepY == 0 && edgeY ? -1 : 0;
+
+		if (blocked(i, j, besideX, besideY)) {
+			return false;
+		}
+		while (true) {
+			boolean crossX = stepX != 0 && toX <= dx;
+			boolean crossY = stepY != 0 && toY <= dy;
+			if (!crossX && !crossY) {
+				return true;
+			}
+			// compare the fractions of the line at which the edges are crossed
+			long order = crossX && crossY ? toX * dy - toY * dx : (crossX ? -1 : 1);
+			if (order < 0) {
+				i += stepX;
+				toX += w;
+			} else if (order > 0) {
+				j += stepY;
+				toY += h;
+			} else {
+				// through a corner, touching the tiles on either side
+				if (!walkableInTiles(i + stepX, j) || !walkableInTiles(i, j + stepY)) {
+					return false;
 				}
+				i += stepX;
+				j += stepY;
+				toX += w;
+				toY += h;
+			}
+			if (blocked(i, j, besideX, besideY)) {
+				return false;
 			}
 		}
-		return true;
+	}
+
+	/**
+	 * Find where a moving point first enters a wall. The tiles the point moves
+	 * through are walked in order (Amanatides and Woo), and the tile it starts
+	 * in is not tested, so a point already in a wall can leave it.
+	 * 
+	 * @param x0
+	 *            The x coordinate of the start in pixels
+	 * @param y0
+	 *            The y coordinate of the start in pixels
+	 * @param x1
+	 *            The x coordinate of the end in pixels
+	 * @param y1
+	 *            The y coordinate of the end in pixels
+	 * @return The fraction of the way from the start to the end at which a
+	 *         wall is entered, infinity if there is none on the way
+	 */
+	public double firstWall(double x0, double y0, double x1, double y1) {
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		int i = (int) Math.floor(x0 / Tile.TILE_WIDTH);
+		int j = (int) Math.floor(y0 / Tile.TILE_HEIGHT);
+		int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+		int stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+		// the fraction of the way at which the next edge is crossed, and
+		// between two edges, on each axis
+		double nextX = Double.POSITIVE_INFINITY;
+		double deltaX = Double.POSITIVE_INFINITY;
+		if (stepX != 0) {
+			double edge = stepX > 0 ? (i + 1) * Tile.TILE_WIDTH : i * Tile.TILE_WIDTH;
+			nextX = (edge - x0) / dx;
+			deltaX = Tile.TILE_WIDTH / Math.abs(dx);
+		}
+		double nextY = Double.POSITIVE_INFINITY;
+		double deltaY = Double.POSITIVE_INFINITY;
+		if (stepY != 0) {
+			double edge = stepY > 0 ? (j + 1) * Tile.TILE_HEIGHT : j * Tile.TILE_HEIGHT;
+			nextY = (edge - y0) / dy;
+			deltaY = Tile.TILE_HEIGHT / Math.abs(dy);
+		}
+		while (true) {
+			double t;
+			if (nextX < nextY) {
+				t = nextX;
+				i += stepX;
+				nextX += deltaX;
+			} else {
+				t = nextY;
+				j += stepY;
+				nextY += deltaY;
+			}
+			if (t > 1) {
+				return Double.POSITIVE_INFINITY;
+			}
+			if (!walkableInTiles(i, j)) {
+				return t;
+			}
+		}
+	}
+
+	/**
+	 * Whether a tile, or one of the tiles beside it that a line along its edge
+	 * touches, is a wall
+	 */
+	private boolean blocked(int i, int j, int besideX, int besideY) {
+		return !walkableInTiles(i, j) || !walkableInTiles(i + besideX, j) || !walkableInTiles(i, j + besideY)
+				|| !walkableInTiles(i + besideX, j + besideY);
+	}
+
+	/**
+	 * Answer line of sight queries from a visibility table shared by every
+	 * map with the same ID, which is filled in as tiles are asked about. The
+	 * answers are only as precise as the tiles the two centres are in.
+	 * 
+	 * @param cached
+	 *            Whether to use the visibility table
+	 */
+	public void setVisibilityCached(boolean cached) {
+		this.visibility = cached ? TileVisibility.getShared(this) : null;
+	}
+
+	/**
+	 * @return Whether line of sight queries are answered from the visibility
+	 *         table
+	 */
+	public boolean isVisibilityCached() {
+		return visibility != null;
 	}
 
 	// GETTERS AND SETTERS //
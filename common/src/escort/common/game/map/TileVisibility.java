@@ -0,0 +1,88 @@
+package escort.common.game.map;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A table of which tiles of a map can be seen from which other tiles, between
+ * the centres of the tiles. Each pair of tiles is traced once, when it is
+ * first asked about, and the answer is kept in a bitset with two bits per
+ * pair: whether it is known and whether it is visible. One table is shared by
+ * every map with the same ID, and it can be read and filled in by any number
+ * of threads.
+ */
+public class TileVisibility {
+
+	private static final Map<Integer, TileVisibility> SHARED = new ConcurrentHashMap<>();
+
+	private final GameMap map;
+	private final int width;
+	private final int height;
+	private final AtomicLongArray bits;
+
+	/**
+	 * Create an empty visibility table of a map
+	 *
+	 * @param map
+	 *            The game map
+	 */
+	public TileVisibility(GameMap map) {
+		this.map = map;
+		this.width = map.getWidthInTiles();
+		this.height = map.getHeightInTiles();
+		long tiles = (long) width * height;
+		this.bits = new AtomicLongArray((int) ((tiles * (tiles + 1) + 63) / 64));
+	}
+
+	/**
+	 * Get the visibility table shared by the maps with the ID of a map
+	 *
+	 * @param map
+	 *            The game map
+	 * @return The visibility table
+	 */
+	public static TileVisibility getShared(GameMap map) {
+		return SHARED.computeIfAbsent(map.getMapID(), id -> new TileVisibility(map));
+	}
+
+	/**
+	 * Whether the centre of a tile can be seen from the centre of another
+	 *
+	 * @param fromX
+	 *            The x coordinate of the first tile
+	 * @param fromY
+	 *            The y coordinate of the first tile
+	 * @param toX
+	 *            The x coordinate of the second tile
+	 * @param toY
+	 *            The y coordinate of the second tile
+	 * @return True iff no wall is in the way. Tiles outside of the map cannot
+	 *         be seen.
+	 */
+	public boolean visible(int fromX, int fromY, int toX, int toY) {
+		if (fromX < 0 || fromY < 0 || toX < 0 || toY < 0 || fromX >= width || toX >= width || fromY >= height
+				|| toY >= height) {
+			return false;
+		}
+		int from = fromX + fromY * width;
+		int to = toX + toY * width;
+		// visibility is symmetric, so both orders share the same bits
+		long low = Math.min(from, to);
+		long high = Math.max(from, to);
+		long pair = high * (high + 1) / 2 + low;
+		int word = (int) (pair >>> 5);
+		int shift = (int) (pair & 31) << 1;
+		long known = bits.get(word) >>> shift;
+		if ((known & 1) != 0) {
+			return (known & 2) != 0;
+		}
+
+		boolean visible = map.traceLineOfSight(fromX * Tile.TILE_WIDTH + Tile.TILE_WIDTH / 2,
+				fromY * Tile.TILE_HEIGHT + Tile.TILE_HEIGHT / 2, toX * Tile.TILE_WIDTH + Tile.TILE_WIDTH / 2,
+				toY * Tile.TILE_HEIGHT + Tile.TILE_HEIGHT / 2);
+		long set = (visible ? 3L : 1L) << shift;
+		bits.accumulateAndGet(word, set, (a, b) -> a | b);
+		return visible;
+	}
+}
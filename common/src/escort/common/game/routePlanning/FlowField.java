@@ -0,0 +1,178 @@
+package escort.common.game.routePlanning;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A flow field of a footprint towards a set of goal positions, which any
+ * number of units can read their next step from. The field is a Dijkstra
+ * search outwards from the goals, which is only expanded as far as the
+ * positions asked about, and resumed when a unit further away asks. Moves are
+ * symmetric, so the position a cell was reached from is the next step from
+ * that cell towards the nearest goal.
+ */
+public class FlowField {
+
+	private final PlanningMap map;
+	private final int w;
+	private final int h;
+	private final SearchState state;
+	private int[] goals;
+
+	/**
+	 * Create a flow field without goals
+	 *
+	 * @param map
+	 *            The planning map
+	 * @param w
+	 *            The width of the footprint
+	 * @param h
+	 *            The height of the footprint
+	 */
+	public FlowField(PlanningMap map, int w, int h) {
+		this.map = map;
+		this.w = w;
+		this.h = h;
+		this.state = new SearchState();
+		this.state.reset(map.getWidth() * map.getHeight());
+		this.goals = new int[0];
+	}
+
+	/**
+	 * Restart the field towards new goals. Goals which are out of bounds or on
+	 * an obstacle are ignored.
+	 *
+	 * @param positions
+	 *            The goal positions in tiles
+	 */
+	public void setGoals(List<Rectangle> positions) {
+		int columns = map.getWidth();
+		state.reset(columns * map.getHeight());
+		List<Integer> cells = new ArrayList<>();
+		for (Rectangle p : positions) {
+			if (map.inBounds(p.x, p.y, w, h) && !map.obstacle(p.x, p.y, w, h)) {
+				int cell = p.x + p.y * columns;
+				cells.add(cell);
+				state.push(cell, -1, 0, 0);
+			}
+		}
+		goals = new int[cells.size()];
+		for (int i = 0; i < goals.length; i++) {
+			goals[i] = cells.get(i);
+		}
+	}
+
+	/**
+	 * Get the next step from a position towards the nearest goal. A unit
+	 * standing partly on an obstacle is sent to the best position next to it.
+	 *
+	 * @param position
+	 *            The position in tiles, only x and y are used
+	 * @return The next position, null if the position is a goal or no goal
+	 *         can be reached
+	 */
+	public Rectangle next(Rectangle position) {
+		if (!map.inBounds(position.x, position.y, w, h)) {
+			return null;
+		}
+		int columns = map.getWidth();
+		int cell = position.x + position.y * columns;
+		int next = -1;
+		if (!map.obstacle(position.x, position.y, w, h) && settle(cell)) {
+			next = state.getParent(cell);
+		} else {
+			// off the field, choose the neighbour closest to a goal
+			double best = Double.POSITIVE_INFINITY;
+			for (int i = position.x - 1; i <= position.x + 1; i++) {
+				for (int j = position.y - 1; j <= position.y + 1; j++) {
+					if (!map.inBounds(i, j, w, h) || map.obstacle(i, j, w, h)) {
+						continue;
+					}
+					if (i != position.x && j != position.y
+							&& (map.obstacle(i, position.y, w, h) || map.obstacle(position.x, j, w, h))) {
+						continue;
+					}
+					int n = i + j * columns;
+					if (settle(n) && state.getCost(n) < best) {
+						best = state.getCost(n);
+						next = n;
+					}
+				}
+			}
+		}
+		return next < 0 ? null : new Rectangle(next % columns, next / columns, w, h);
+	}
+
+	/**
+	 * Get the whole route from a position to the nearest goal
+	 *
+	 * @param position
+	 *            The position in tiles
+	 * @return The route starting with the position, empty if no goal can be
+	 *         reached
+	 */
+	public List<Rectangle> route(Rectangle position) {
+		List<Rectangle> route = new ArrayList<>();
+		Rectangle next = next(position);
+		if (next == null) {
+			if (isGoal(position)) {
+				route.add(new Rectangle(position.x, position.y, w, h));
+			}
+			return route;
+		}
+		route.add(new Rectangle(position.x, position.y, w, h));
+		int columns = map.getWidth();
+		for (int cell = next.x + next.y * columns; cell >= 0; cell = state.getParent(cell)) {
+			route.add(new Rectangle(cell % columns, cell / columns, w, h));
+		}
+		return route;
+	}
+
+	/**
+	 * Whether a position is one of the goals
+	 *
+	 * @param position
+	 *            The position in tiles
+	 * @return True if the position is a goal
+	 */
+	public boolean isGoal(Rectangle position) {
+		int cell = position.x + position.y * map.getWidth();
+		for (int goal : goals) {
+			if (goal == cell) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Expand the field until a cell is reached
+	 *
+	 * @param cell
+	 *            The cell
+	 * @return True if the cell is reachable from a goal
+	 */
+	private boolean settle(int cell) {
+		while (!state.isClosed(cell) && !state.isEmpty()) {
+			int settled = state.pop();
+			GridAStarSearch.expand(map, state, w, h, settled, -1, -1, 0, 0, map.getWidth() - 1,
+					map.getHeight() - 1);
+		}
+		return state.isClosed(cell);
+	}
+
+	/**
+	 * @return The width of the footprint
+	 */
+	public int getWidth() {
+		return w;
+	}
+
+	/**
+	 * @return The height of the footprint
+	 */
+	public int getHeight() {
+		return h;
+	}
+}
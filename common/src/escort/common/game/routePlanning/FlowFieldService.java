@@ -0,0 +1,140 @@
+package escort.common.game.routePlanning;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import escort.common.game.entities.Entity;
+import escort.common.game.map.GameMap;
+import escort.common.game.map.Tile;
+import escort.common.systime.SimulationClock;
+
+/**
+ * The flow fields of the goals shared by the units of a game, such as the
+ * president and the end zones. Every unit heading for the same goal with the
+ * same footprint reads the same field, instead of searching a route of its
+ * own. A field towards a moving entity is not updated incrementally: when the
+ * entity has moved to another tile, the field is thrown away and its search
+ * restarted from the new tile, at most once per update interval. In between,
+ * the field leads to the tile the entity was on at the last restart, up to
+ * UPDATE_INTERVAL old. The fields are used from the game thread only.
+ */
+public class FlowFieldService {
+
+	/**
+	 * The minimum time between two restarts of the field towards a moving
+	 * entity, in milliseconds
+	 */
+	public static final long UPDATE_INTERVAL = 250;
+
+	private final PlanningMap map;
+	private final List<Rectangle> endZones;
+	private final Map<Entity, Map<Long, Tracked>> targets;
+	private final Map<Long, FlowField> endZoneFields;
+	private final SimulationClock clock;
+
+	/**
+	 * Create the flow fields of a game map
+	 *
+	 * @param gameMap
+	 *            The game map
+	 * @param clock
+	 *            The clock of the game
+	 */
+	public FlowFieldService(GameMap gameMap, SimulationClock clock) {
+		this.map = PlanningMap.getShared(gameMap);
+		List<Rectangle> zones = new ArrayList<>();
+		for (Rectangle zone : gameMap.getEndZones()) {
+			zones.add(new Rectangle(zone.x / Tile.TILE_WIDTH, zone.y / Tile.TILE_HEIGHT, 0, 0));
+		}
+		this.endZones = Collections.unmodifiableList(zones);
+		this.targets = new IdentityHashMap<>();
+		this.endZoneFields = new HashMap<>();
+		this.clock = clock;
+	}
+
+	/**
+	 * Get the field towards the position of an entity, restarted from its
+	 * current tile if it has moved and the update interval has passed
+	 *
+	 * @param target
+	 *            The entity
+	 * @param w
+	 *            The width of the footprint of the units heading there
+	 * @param h
+	 *            The height of the footprint of the units heading there
+	 * @return The flow field
+	 */
+	public FlowField towards(Entity target, int w, int h) {
+		Map<Long, Tracked> fields = targets.get(target);
+		if (fields == null) {
+			fields = new HashMap<>();
+			targets.put(target, fields);
+		}
+		Long key = key(w, h);
+		Tracked tracked = fields.get(key);
+		if (tracked == null) {
+			tracked = new Tracked(new FlowField(map, w, h));
+			fields.put(key, tracked);
+		}
+
+		int x = target.getTileX();
+		int y = target.getTileY();
+		long now = clock.getTick();
+		if ((x != tracked.x || y != tracked.y)
+				&& (tracked.updated < 0 || clock.elapsed(tracked.updated, UPDATE_INTERVAL))
+				&& map.inBounds(x, y, w, h) && !map.obstacle(x, y, w, h)) {
+			tracked.field.setGoals(Collections.singletonList(new Rectangle(x, y, w, h)));
+			tracked.x = x;
+			tracked.y = y;
+			tracked.updated = now;
+		}
+		return tracked.field;
+	}
+
+	/**
+	 * Get the field towards the nearest end zone
+	 *
+	 * @param w
+	 *            The width of the footprint of the units heading there
+	 * @param h
+	 *            The height of the footprint of the units heading there
+	 * @return The flow field
+	 */
+	public FlowField towardsEndZones(int w, int h) {
+		Long key = key(w, h);
+		FlowField field = endZoneFields.get(key);
+		if (field == null) {
+			field = new FlowField(map, w, h);
+			field.setGoals(endZones);
+			endZoneFields.put(key, field);
+		}
+		return field;
+	}
+
+	private static Long key(int w, int h) {
+		return ((long) w << 32) | (h & 0xffffffffL);
+	}
+
+	/**
+	 * A field towards an entity, and the position it was last restarted at
+	 */
+	private static final class Tracked {
+
+		private final FlowField field;
+		private int x;
+		private int y;
+		private long updated;
+
+		private Tracked(FlowField field) {
+			this.field = field;
+			this.x = -1;
+			this.y = -1;
+			this.updated = -1;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package escort.common.game.routePlanning;
+
+import escort.common.game.map.Tile;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Performs A* search between two positions represented as rectangles (x, y,
+ * width, height), with the same moves, costs and footprint rules as
+ * AStarSearch. Positions are indexed by the cell of the planning map, the
+ * open set is a binary heap of cell indices and the closed set is a bit set,
+ * so a search allocates nothing but the route it returns. The search state is
+ * kept per thread and reused by every search on that thread.
+ */
+public class GridAStarSearch implements RoutePlanner {
+
+	static final double DIAGONAL_COST = Math
+			.sqrt(Math.pow(Tile.TILE_HEIGHT, 2) + Math.pow(Tile.TILE_WIDTH, 2));
+
+	private static final ThreadLocal<SearchState> STATE = ThreadLocal.withInitial(SearchState::new);
+
+	private PlanningMap map;
+
+	/**
+	 * Set the planning map.
+	 *
+	 * @param map
+	 *            The planning map.
+	 */
+	public void setMap(PlanningMap map) {
+		this.map = map;
+	}
+
+	/**
+	 * Get the planning map.
+	 *
+	 * @return The map.
+	 */
+	@Override
+	public PlanningMap getMap() {
+		return map;
+	}
+
+	/**
+	 * Generate a route from a given position to the goal position. The goal
+	 * is reached when the footprint of the start position is at the position
+	 * of the goal.
+	 *
+	 * @param start
+	 *            The starting position.
+	 * @param end
+	 *            The goal position.
+	 * @return A list of positions of the route in order, starting with the
+	 *         start position. The list is empty if the goal cannot be reached.
+	 */
+	public List<Rectangle> route(Rectangle start, Rectangle end) {
+		if (map == null)
+			return null;
+
+		List<Rectangle> route = new ArrayList<>();
+		int w = start.width;
+		int h = start.height;
+		if (!map.inBounds(start.x, start.y, w, h) || !map.inBounds(end.x, end.y, w, h)) {
+			return route;
+		}
+		if (start.x == end.x && start.y == end.y) {
+			route.add(new Rectangle(start.x, start.y, w, h));
+			return route;
+		}
+
+		if (map.obstacle(end.x, end.y, w, h)) {
+			return route;
+		}
+
+		int columns = map.getWidth();
+		SearchState s = STATE.get();
+		int goal = end.x + end.y * columns;
+		if (!search(map, s, w, h, start.x, start.y, end.x, end.y, 0, 0, columns - 1, map.getHeight() - 1)) {
+			// frontier exhausted, the goal is unreachable
+			return route;
+		}
+		for (int cell = goal; cell >= 0; cell = s.getParent(cell)) {
+			route.add(new Rectangle(cell % columns, cell / columns, w, h));
+		}
+		Collections.reverse(route);
+		return route;
+	}
+
+	/**
+	 * Search the positions of a footprint within an area of the map. Nodes of
+	 * the search state are map cells (x + y * map width).
+	 *
+	 * @param map
+	 *            The planning map
+	 * @param s
+	 *            The search state, reset by this search
+	 * @param w
+	 *            The width of the footprint
+	 * @param h
+	 *            The height of the footprint
+	 * @param startX
+	 *            The x coordinate of the start
+	 * @param startY
+	 *            The y coordinate of the start
+	 * @param goalX
+	 *            The x coordinate of the goal, -1 to expand every position of
+	 *            the area reachable from the start
+	 * @param goalY
+	 *            The y coordinate of the goal
+	 * @param minX
+	 *            The left of the area
+	 * @param minY
+	 *            The top of the area
+	 * @param maxX
+	 *            The right of the area, inclusive
+	 * @param maxY
+	 *            The bottom of the area, inclusive
+	 * @return True if the goal was reached
+	 */
+	static boolean search(PlanningMap map, SearchState s, int w, int h, int startX, int startY, int goalX,
+			int goalY, int minX, int minY, int maxX, int maxY) {
+		int columns = map.getWidth();
+		int goal = goalX < 0 ? -1 : goalX + goalY * columns;
+		s.reset(columns * map.getHeight());
+		s.push(startX + startY * columns, -1, 0, heuristic(startX, startY, goalX, goalY));
+
+		while (!s.isEmpty()) {
+			int cell = s.pop();
+			if (cell == goal) {
+				return true;
+			}
+			expand(map, s, w, h, cell, goalX, goalY, minX, minY, maxX, maxY);
+		}
+		return false;
+	}
+
+	/**
+	 * Add the positions a footprint can move to from a cell to the open set
+	 *
+	 * @param map
+	 *            The planning map
+	 * @param s
+	 *            The search state
+	 * @param w
+	 *            The width of the footprint
+	 * @param h
+	 *            The height of the footprint
+	 * @param cell
+	 *            The cell moved from
+	 * @param goalX
+	 *            The x coordinate of the goal, -1 if there is no goal
+	 * @param goalY
+	 *            The y coordinate of the goal
+	 * @param minX
+	 *            The left of the area searched
+	 * @param minY
+	 *            The top of the area searched
+	 * @param maxX
+	 *            The right of the area searched, inclusive
+	 * @param maxY
+	 *            The bottom of the area searched, inclusive
+	 */
+	static void expand(PlanningMap map, SearchState s, int w, int h, int cell, int goalX, int goalY, int minX,
+			int minY, int maxX, int maxY) {
+		int columns = map.getWidth();
+		int x = cell % columns;
+		int y = cell / columns;
+		for (int i = x - 1; i <= x + 1; i++) {
+			for (int j = y - 1; j <= y + 1; j++) {
+				if (i == x && j == y) {
+					continue;
+				}
+				if (i < minX || j < minY || i > maxX || j > maxY || !map.inBounds(i, j, w, h)) {
+					continue;
+				}
+				int next = i + j * columns;
+				if (s.isClosed(next)) {
+					continue;
+				}
+				if (map.obstacle(i, j, w, h)) {
+					continue;
+				}
+				double cost;
+				if (i != x && j != y) {
+					// no cutting corners of obstacles
+					if (map.obstacle(i, y, w, h) || map.obstacle(x, j, w, h)) {
+						continue;
+					}
+					cost = DIAGONAL_COST;
+				} else if (i != x) {
+					cost = Tile.TILE_WIDTH;
+				} else {
+					cost = Tile.TILE_HEIGHT;
+				}
+				s.push(next, cell, s.getCost(cell) + cost, heuristic(i, j, goalX, goalY));
+			}
+		}
+	}
+
+	/**
+	 * Calculate the distance from a cell to the goal in actual pixels (the
+	 * heuristic)
+	 *
+	 * @param x
+	 *            The x coordinate of the cell
+	 * @param y
+	 *            The y coordinate of the cell
+	 * @param goalX
+	 *            The x coordinate of the goal, -1 if there is no goal
+	 * @param goalY
+	 *            The y coordinate of the goal
+	 * @return The distance.
+	 */
+	static double heuristic(int x, int y, int goalX, int goalY) {
+		if (goalX < 0) {
+			return 0;
+		}
+		double dx = (double) (x - goalX) * Tile.TILE_WIDTH;
+		double dy = (double) (y - goalY) * Tile.TILE_HEIGHT;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+}
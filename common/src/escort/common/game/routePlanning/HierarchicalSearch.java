@@ -0,0 +1,463 @@
+package escort.common.game.routePlanning;
+
+import escort.common.game.map.Tile;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Performs hierarchical A* search (HPA*) between two positions represented as
+ * rectangles (x, y, width, height). The planning map is split into square
+ * clusters, and the entrances between neighbouring clusters and the paths
+ * between the entrances of each cluster are computed once per footprint size.
+ * A route is planned on the graph of entrances, after searching only the
+ * clusters of the start and the goal, and is then refined from the stored
+ * paths. Routes are close to, but not always, the shortest. The planning map
+ * must not be changed after it is set, which holds for shared planning maps.
+ */
+public class HierarchicalSearch implements RoutePlanner {
+
+	/**
+	 * The width and height of a cluster in tiles
+	 */
+	public static final int CLUSTER_SIZE = 10;
+
+	// entrances at least this wide get a transition at each end instead of
+	// one in the middle
+	private static final int WIDE_ENTRANCE = 6;
+
+	private static final ThreadLocal<SearchState> LOCAL_STATE = ThreadLocal.withInitial(SearchState::new);
+	private static final ThreadLocal<SearchState> ABSTRACT_STATE = ThreadLocal.withInitial(SearchState::new);
+
+	private PlanningMap map;
+	private final GridAStarSearch fallback = new GridAStarSearch();
+	// the abstract graph of every footprint size, built when first used
+	private Map<Long, AbstractGraph> graphs = new ConcurrentHashMap<>();
+
+	/**
+	 * Set the planning map.
+	 *
+	 * @param map
+	 *            The planning map.
+	 */
+	public void setMap(PlanningMap map) {
+		this.map = map;
+		this.fallback.setMap(map);
+		this.graphs = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Get the planning map.
+	 *
+	 * @return The map.
+	 */
+	@Override
+	public PlanningMap getMap() {
+		return map;
+	}
+
+	/**
+	 * Generate a route from a given position to the goal position. The goal
+	 * is reached when the footprint of the start position is at the position
+	 * of the goal.
+	 *
+	 * @param start
+	 *            The starting position.
+	 * @param end
+	 *            The goal position.
+	 * @return A list of positions of the route in order, starting with the
+	 *         start position. The list is empty if the goal cannot be reached.
+	 */
+	public List<Rectangle> route(Rectangle start, Rectangle end) {
+		PlanningMap map = this.map;
+		if (map == null)
+			return null;
+
+		List<Rectangle> route = new ArrayList<>();
+		int w = start.width;
+		int h = start.height;
+		if (!map.inBounds(start.x, start.y, w, h) || !map.inBounds(end.x, end.y, w, h)) {
+			return route;
+		}
+		if (start.x == end.x && start.y == end.y) {
+			route.add(new Rectangle(start.x, start.y, w, h));
+			return route;
+		}
+		if (map.obstacle(end.x, end.y, w, h)) {
+			return route;
+		}
+		if (w < 0 || h < 0) {
+			return fallback.route(start, end);
+		}
+
+		AbstractGraph graph = graphs.computeIfAbsent(((long) w << 32) | (h & 0xffffffffL),
+				key -> new AbstractGraph(map, w, h));
+		int columns = map.getWidth();
+		int startCluster = graph.clusterOf(start.x, start.y);
+		int goalCluster = graph.clusterOf(end.x, end.y);
+		SearchState local = LOCAL_STATE.get();
+
+		// the links from the start to the entrances of its cluster
+		graph.searchCluster(local, start.x, start.y, startCluster);
+		int goalCell = end.x + end.y * columns;
+		if (startCluster == goalCluster && local.isClosed(goalCell)) {
+			return toRoute(start, pathTo(local, goalCell), columns);
+		}
+		List<Integer> startNodes = graph.clusterNodes.get(startCluster);
+		double[] startCosts = new double[startNodes.size()];
+		int[][] startPaths = new int[startNodes.size()][];
+		for (int k = 0; k < startNodes.size(); k++) {
+			int cell = graph.cells[startNodes.get(k)];
+			if (local.isClosed(cell)) {
+				startCosts[k] = local.getCost(cell);
+				startPaths[k] = pathTo(local, cell);
+			}
+		}
+
+		// the links from the entrances of the cluster of the goal to the goal
+		graph.searchCluster(local, end.x, end.y, goalCluster);
+		List<Integer> goalNodes = graph.clusterNodes.get(goalCluster);
+		Map<Integer, Integer> goalLinks = new HashMap<>();
+		double[] goalCosts = new double[goalNodes.size()];
+		int[][] goalPaths = new int[goalNodes.size()][];
+		for (int k = 0; k < goalNodes.size(); k++) {
+			int cell = graph.cells[goalNodes.get(k)];
+			if (local.isClosed(cell)) {
+				goalLinks.put(goalNodes.get(k), k);
+				goalCosts[k] = local.getCost(cell);
+				goalPaths[k] = pathFrom(local, cell);
+			}
+		}
+
+		// A* over the entrances, with the start and goal as extra nodes
+		int startNode = graph.size;
+		int goalNode = graph.size + 1;
+		SearchState s = ABSTRACT_STATE.get();
+		s.reset(graph.size + 2);
+		s.push(startNode, -1, 0, 0);
+		boolean found = false;
+		while (!s.isEmpty()) {
+			int node = s.pop();
+			if (node == goalNode) {
+				found = true;
+				break;
+			}
+			if (node == startNode) {
+				for (int k = 0; k < startNodes.size(); k++) {
+					if (startPaths[k] != null) {
+						int next = startNodes.get(k);
+						s.push(next, node, startCosts[k], graph.heuristic(next, end, columns));
+					}
+				}
+				continue;
+			}
+			for (Edge e : graph.edges.get(node)) {
+				if (!s.isClosed(e.to)) {
+					s.push(e.to, node, s.getCost(node) + e.cost, graph.heuristic(e.to, end, columns));
+				}
+			}
+			Integer k = goalLinks.get(node);
+			if (k != null) {
+				s.push(goalNode, node, s.getCost(node) + goalCosts[k], 0);
+			}
+		}
+		if (!found) {
+			// every passage between clusters has an entrance, so this only
+			// confirms that the goal is unreachable
+			return fallback.route(start, end);
+		}
+
+		// refine the route from the stored paths
+		List<int[]> segments = new ArrayList<>();
+		int node = s.getParent(goalNode);
+		segments.add(goalPaths[goalLinks.get(node)]);
+		while (s.getParent(node) != startNode) {
+			int previous = s.getParent(node);
+			segments.add(graph.edge(previous, node).path);
+			node = previous;
+		}
+		segments.add(startPaths[startNodes.indexOf(node)]);
+		route.add(new Rectangle(start.x, start.y, w, h));
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			for (int cell : segments.get(i)) {
+				route.add(new Rectangle(cell % columns, cell / columns, w, h));
+			}
+		}
+		return route;
+	}
+
+	/**
+	 * Convert a path of cells to a route
+	 *
+	 * @param start
+	 *            The start position
+	 * @param path
+	 *            The cells after the start
+	 * @param columns
+	 *            The width of the map
+	 * @return The route
+	 */
+	private static List<Rectangle> toRoute(Rectangle start, int[] path, int columns) {
+		List<Rectangle> route = new ArrayList<>(path.length + 1);
+		route.add(new Rectangle(start.x, start.y, start.width, start.height));
+		for (int cell : path) {
+			route.add(new Rectangle(cell % columns, cell / columns, start.width, start.height));
+		}
+		return route;
+	}
+
+	/**
+	 * Get the path from the start of a search to a cell
+	 *
+	 * @param s
+	 *            The search state
+	 * @param cell
+	 *            A cell reached by the search
+	 * @return The cells after the start up to and including the cell
+	 */
+	private static int[] pathTo(SearchState s, int cell) {
+		int length = 0;
+		for (int c = cell; s.getParent(c) >= 0; c = s.getParent(c)) {
+			length++;
+		}
+		int[] path = new int[length];
+		for (int c = cell; s.getParent(c) >= 0; c = s.getParent(c)) {
+			path[--length] = c;
+		}
+		return path;
+	}
+
+	/**
+	 * Get the path from a cell back to the start of a search
+	 *
+	 * @param s
+	 *            The search state
+	 * @param cell
+	 *            A cell reached by the search
+	 * @return The cells after the cell up to and including the start
+	 */
+	private static int[] pathFrom(SearchState s, int cell) {
+		int length = 0;
+		for (int c = s.getParent(cell); c >= 0; c = s.getParent(c)) {
+			length++;
+		}
+		int[] path = new int[length];
+		int i = 0;
+		for (int c = s.getParent(cell); c >= 0; c = s.getParent(c)) {
+			path[i++] = c;
+		}
+		return path;
+	}
+
+	/**
+	 * A move between two entrances
+	 */
+	private static final class Edge {
+
+		private final int to;
+		private final double cost;
+		// the cells after the entrance moved from, up to the one moved to
+		private final int[] path;
+
+		private Edge(int to, double cost, int[] path) {
+			this.to = to;
+			this.cost = cost;
+			this.path = path;
+		}
+	}
+
+	/**
+	 * The clusters and entrances of a planning map for one footprint size.
+	 * Nodes are the positions just either side of a cluster border, connected
+	 * across the border and to the other nodes of their cluster.
+	 */
+	private static final class AbstractGraph {
+
+		private final PlanningMap map;
+		private final int w;
+		private final int h;
+		// the number of positions of the footprint across and down the map
+		private final int positionsX;
+		private final int positionsY;
+		private final int clustersX;
+		private final List<List<Integer>> clusterNodes = new ArrayList<>();
+		private final Map<Integer, Integer> nodeAt = new HashMap<>();
+		private final List<Integer> nodeCells = new ArrayList<>();
+		private final List<List<Edge>> edges = new ArrayList<>();
+		private final int[] cells;
+		private final int size;
+
+		/**
+		 * Build the graph
+		 *
+		 * @param map
+		 *            The planning map
+		 * @param w
+		 *            The width of the footprint
+		 * @param h
+		 *            The height of the footprint
+		 */
+		private AbstractGraph(PlanningMap map, int w, int h) {
+			this.map = map;
+			this.w = w;
+			this.h = h;
+			this.positionsX = Math.max(0, map.getWidth() - Math.max(0, w));
+			this.positionsY = Math.max(0, map.getHeight() - Math.max(0, h));
+			this.clustersX = (positionsX + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+			int clustersY = (positionsY + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+			for (int i = 0; i < clustersX * clustersY; i++) {
+				clusterNodes.add(new ArrayList<>());
+			}
+
+			// entrances across the borders between columns of clusters
+			for (int x = CLUSTER_SIZE; x < positionsX; x += CLUSTER_SIZE) {
+				for (int from = 0; from < positionsY; from += CLUSTER_SIZE) {
+					int to = Math.min(positionsY, from + CLUSTER_SIZE);
+					int run = 0;
+					for (int y = from; y <= to; y++) {
+						if (y < to && open(x - 1, y) && open(x, y)) {
+							run++;
+						} else if (run > 0) {
+							for (int t : transitions(y - run, run)) {
+								link(x - 1, t, x, t, Tile.TILE_WIDTH);
+							}
+							run = 0;
+						}
+					}
+				}
+			}
+			// entrances across the borders between rows of clusters
+			for (int y = CLUSTER_SIZE; y < positionsY; y += CLUSTER_SIZE) {
+				for (int from = 0; from < positionsX; from += CLUSTER_SIZE) {
+					int to = Math.min(positionsX, from + CLUSTER_SIZE);
+					int run = 0;
+					for (int x = from; x <= to; x++) {
+						if (x < to && open(x, y - 1) && open(x, y)) {
+							run++;
+						} else if (run > 0) {
+							for (int t : transitions(x - run, run)) {
+								link(t, y - 1, t, y, Tile.TILE_HEIGHT);
+							}
+							run = 0;
+						}
+					}
+				}
+			}
+
+			this.size = nodeCells.size();
+			this.cells = new int[size];
+			for (int i = 0; i < size; i++) {
+				cells[i] = nodeCells.get(i);
+			}
+
+			// paths between the entrances of each cluster
+			SearchState s = new SearchState();
+			int columns = map.getWidth();
+			for (int cluster = 0; cluster < clusterNodes.size(); cluster++) {
+				List<Integer> nodes = clusterNodes.get(cluster);
+				for (int a : nodes) {
+					searchCluster(s, cells[a] % columns, cells[a] / columns, cluster);
+					for (int b : nodes) {
+						if (a != b && s.isClosed(cells[b]) && edge(a, b) == null) {
+							edges.get(a).add(new Edge(b, s.getCost(cells[b]), pathTo(s, cells[b])));
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Whether the footprint fits at a position
+		 */
+		private boolean open(int x, int y) {
+			return !map.obstacle(x, y, w, h);
+		}
+
+		/**
+		 * Choose where an entrance is crossed
+		 *
+		 * @param first
+		 *            The first row or column of the entrance
+		 * @param length
+		 *            The width of the entrance
+		 * @return The rows or columns crossed
+		 */
+		private static int[] transitions(int first, int length) {
+			if (length < WIDE_ENTRANCE) {
+				return new int[] { first + length / 2 };
+			}
+			return new int[] { first, first + length - 1 };
+		}
+
+		/**
+		 * Connect two neighbouring positions in different clusters
+		 */
+		private void link(int x1, int y1, int x2, int y2, double cost) {
+			int a = node(x1, y1);
+			int b = node(x2, y2);
+			int columns = map.getWidth();
+			edges.get(a).add(new Edge(b, cost, new int[] { x2 + y2 * columns }));
+			edges.get(b).add(new Edge(a, cost, new int[] { x1 + y1 * columns }));
+		}
+
+		/**
+		 * Get the node at a position, adding it if there is none
+		 */
+		private int node(int x, int y) {
+			int cell = x + y * map.getWidth();
+			Integer node = nodeAt.get(cell);
+			if (node == null) {
+				node = nodeCells.size();
+				nodeAt.put(cell, node);
+				nodeCells.add(cell);
+				edges.add(new ArrayList<>());
+				clusterNodes.get(clusterOf(x, y)).add(node);
+			}
+			return node;
+		}
+
+		/**
+		 * Get the edge between two nodes
+		 *
+		 * @return The edge, null if there is none
+		 */
+		private Edge edge(int from, int to) {
+			for (Edge e : edges.get(from)) {
+				if (e.to == to) {
+					return e;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Get the cluster of a position
+		 */
+		private int clusterOf(int x, int y) {
+			return x / CLUSTER_SIZE + (y / CLUSTER_SIZE) * clustersX;
+		}
+
+		/**
+		 * Expand every position of a cluster reachable from a position
+		 */
+		private void searchCluster(SearchState s, int x, int y, int cluster) {
+			int minX = (cluster % clustersX) * CLUSTER_SIZE;
+			int minY = (cluster / clustersX) * CLUSTER_SIZE;
+			int maxX = Math.min(positionsX, minX + CLUSTER_SIZE) - 1;
+			int maxY = Math.min(positionsY, minY + CLUSTER_SIZE) - 1;
+			GridAStarSearch.search(map, s, w, h, x, y, -1, -1, minX, minY, maxX, maxY);
+		}
+
+		/**
+		 * The distance from a node to the goal in actual pixels
+		 */
+		private double heuristic(int node, Rectangle goal, int columns) {
+			return GridAStarSearch.heuristic(cells[node] % columns, cells[node] / columns, goal.x, goal.y);
+		}
+	}
+
+}
@@ -0,0 +1,267 @@
+package escort.common.game.routePlanning;
+
+import escort.common.game.map.Tile;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Performs Jump Point Search between two positions represented as rectangles
+ * (x, y, width, height), with the same moves, costs and footprint rules as
+ * AStarSearch. Straight and diagonal runs without a choice of route are
+ * skipped over, so only the positions where the route may turn (the jump
+ * points) are added to the open set. Routes are as short as those of
+ * AStarSearch, with the positions between jump points filled in.
+ */
+public class JumpPointSearch implements RoutePlanner {
+
+	private static final ThreadLocal<SearchState> STATE = ThreadLocal.withInitial(SearchState::new);
+
+	private PlanningMap map;
+
+	/**
+	 * Set the planning map.
+	 *
+	 * @param map
+	 *            The planning map.
+	 */
+	public void setMap(PlanningMap map) {
+		this.map = map;
+	}
+
+	/**
+	 * Get the planning map.
+	 *
+	 * @return The map.
+	 */
+	@Override
+	public PlanningMap getMap() {
+		return map;
+	}
+
+	/**
+	 * Generate a route from a given position to the goal position. The goal
+	 * is reached when the footprint of the start position is at the position
+	 * of the goal.
+	 *
+	 * @param start
+	 *            The starting position.
+	 * @param end
+	 *            The goal position.
+	 * @return A list of positions of the route in order, starting with the
+	 *         start position. The list is empty if the goal cannot be reached.
+	 */
+	public List<Rectangle> route(Rectangle start, Rectangle end) {
+		PlanningMap map = this.map;
+		if (map == null)
+			return null;
+
+		List<Rectangle> route = new ArrayList<>();
+		int w = start.width;
+		int h = start.height;
+		if (!map.inBounds(start.x, start.y, w, h) || !map.inBounds(end.x, end.y, w, h)) {
+			return route;
+		}
+		if (start.x == end.x && start.y == end.y) {
+			route.add(new Rectangle(start.x, start.y, w, h));
+			return route;
+		}
+		if (map.obstacle(end.x, end.y, w, h)) {
+			return route;
+		}
+
+		Search search = new Search(map, w, h, end.x + end.y * map.getWidth());
+		SearchState s = STATE.get();
+		if (!search.run(s, start.x, start.y)) {
+			return route;
+		}
+
+		// fill in the positions between the jump points
+		int columns = map.getWidth();
+		for (int cell = search.goal; s.getParent(cell) >= 0; cell = s.getParent(cell)) {
+			int parent = s.getParent(cell);
+			int x = cell % columns;
+			int y = cell / columns;
+			int dx = Integer.signum(parent % columns - x);
+			int dy = Integer.signum(parent / columns - y);
+			while (x + y * columns != parent) {
+				route.add(new Rectangle(x, y, w, h));
+				x += dx;
+				y += dy;
+			}
+		}
+		route.add(new Rectangle(start.x, start.y, w, h));
+		Collections.reverse(route);
+		return route;
+	}
+
+	/**
+	 * A search for one footprint and goal
+	 */
+	private static final class Search {
+
+		private final PlanningMap map;
+		private final int w;
+		private final int h;
+		private final int columns;
+		private final int goal;
+		private final int goalX;
+		private final int goalY;
+
+		private Search(PlanningMap map, int w, int h, int goal) {
+			this.map = map;
+			this.w = w;
+			this.h = h;
+			this.columns = map.getWidth();
+			this.goal = goal;
+			this.goalX = goal % columns;
+			this.goalY = goal / columns;
+		}
+
+		/**
+		 * Whether the footprint fits at a position
+		 */
+		private boolean walkable(int x, int y) {
+			return map.inBounds(x, y, w, h) && !map.obstacle(x, y, w, h);
+		}
+
+		/**
+		 * Search from a start position
+		 *
+		 * @return True if the goal was reached
+		 */
+		private boolean run(SearchState s, int startX, int startY) {
+			s.reset(columns * map.getHeight());
+			s.push(startX + startY * columns, -1, 0, GridAStarSearch.heuristic(startX, startY, goalX, goalY));
+			while (!s.isEmpty()) {
+				int cell = s.pop();
+				if (cell == goal) {
+					return true;
+				}
+				int x = cell % columns;
+				int y = cell / columns;
+				int parent = s.getParent(cell);
+				if (parent < 0) {
+					for (int dx = -1; dx <= 1; dx++) {
+						for (int dy = -1; dy <= 1; dy++) {
+							if ((dx != 0 || dy != 0) && (dx == 0 || dy == 0 || canMoveDiagonally(x, y, dx, dy))) {
+								jumpFrom(s, cell, x, y, dx, dy);
+							}
+						}
+					}
+					continue;
+				}
+				int dx = Integer.signum(x - parent % columns);
+				int dy = Integer.signum(y - parent / columns);
+				if (dx != 0 && dy != 0) {
+					jumpFrom(s, cell, x, y, 0, dy);
+					jumpFrom(s, cell, x, y, dx, 0);
+					if (canMoveDiagonally(x, y, dx, dy)) {
+						jumpFrom(s, cell, x, y, dx, dy);
+					}
+				} else if (dx != 0) {
+					// the sides are kept as the run may have stopped beside
+					// the end of an obstacle
+					jumpFrom(s, cell, x, y, dx, 0);
+					for (int side = -1; side <= 1; side += 2) {
+						if (walkable(x, y + side)) {
+							jumpFrom(s, cell, x, y, 0, side);
+							if (walkable(x + dx, y)) {
+								jumpFrom(s, cell, x, y, dx, side);
+							}
+						}
+					}
+				} else {
+					jumpFrom(s, cell, x, y, 0, dy);
+					for (int side = -1; side <= 1; side += 2) {
+						if (walkable(x + side, y)) {
+							jumpFrom(s, cell, x, y, side, 0);
+							if (walkable(x, y + dy)) {
+								jumpFrom(s, cell, x, y, side, dy);
+							}
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Whether a diagonal move does not cut the corner of an obstacle
+		 */
+		private boolean canMoveDiagonally(int x, int y, int dx, int dy) {
+			return walkable(x + dx, y) && walkable(x, y + dy);
+		}
+
+		/**
+		 * Jump from a position in a direction, and add the jump point found
+		 * to the open set
+		 */
+		private void jumpFrom(SearchState s, int cell, int x, int y, int dx, int dy) {
+			int next = jump(x + dx, y + dy, dx, dy);
+			if (next < 0 || s.isClosed(next)) {
+				return;
+			}
+			int nx = next % columns;
+			int ny = next / columns;
+			int steps = Math.max(Math.abs(nx - x), Math.abs(ny - y));
+			double cost;
+			if (dx != 0 && dy != 0) {
+				cost = steps * GridAStarSearch.DIAGONAL_COST;
+			} else if (dx != 0) {
+				cost = steps * Tile.TILE_WIDTH;
+			} else {
+				cost = steps * Tile.TILE_HEIGHT;
+			}
+			s.push(next, cell, s.getCost(cell) + cost, GridAStarSearch.heuristic(nx, ny, goalX, goalY));
+		}
+
+		/**
+		 * Move from a position in a direction until a jump point is found
+		 *
+		 * @param x
+		 *            The x coordinate of the first position moved to
+		 * @param y
+		 *            The y coordinate of the first position moved to
+		 * @param dx
+		 *            The horizontal direction
+		 * @param dy
+		 *            The vertical direction
+		 * @return The cell of the jump point, -1 if there is none
+		 */
+		private int jump(int x, int y, int dx, int dy) {
+			while (true) {
+				if (!walkable(x, y)) {
+					return -1;
+				}
+				int cell = x + y * columns;
+				if (cell == goal) {
+					return cell;
+				}
+				if (dx != 0 && dy != 0) {
+					if (jump(x + dx, y, dx, 0) >= 0 || jump(x, y + dy, 0, dy) >= 0) {
+						return cell;
+					}
+					if (!canMoveDiagonally(x, y, dx, dy)) {
+						return -1;
+					}
+				} else if (dx != 0) {
+					if ((walkable(x, y - 1) && !walkable(x - dx, y - 1))
+							|| (walkable(x, y + 1) && !walkable(x - dx, y + 1))) {
+						return cell;
+					}
+				} else {
+					if ((walkable(x - 1, y) && !walkable(x - 1, y - dy))
+							|| (walkable(x + 1, y) && !walkable(x + 1, y - dy))) {
+						return cell;
+					}
+				}
+				x += dx;
+				y += dy;
+			}
+		}
+	}
+
+}
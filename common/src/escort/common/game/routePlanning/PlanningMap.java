@@ -4,17 +4,29 @@ import escort.common.game.map.GameMap;
 
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * A planning map used for path finding.
+ * A planning map used for path finding. For every footprint size used, a
+ * clearance table records which positions of the footprint touch an
+ * obstacle, so checking a footprint is a single array lookup. The tables are
+ * built when a footprint size is first used.
  * 
  * @author Brendan Hart
  */
 public class PlanningMap {
 
+	// one immutable planning map per game map ID
+	private static final Map<Integer, PlanningMap> SHARED = new ConcurrentHashMap<>();
+
 	private int width;
 	private int height;
 	private boolean grid[][];
+	private boolean shared;
+	private final Map<Long, Clearance> clearance = new ConcurrentHashMap<>();
+	// the table used last, units of a game all have the same footprint
+	private volatile Clearance lastClearance;
 
 	/**
 	 * Instantiates a new planning map object
@@ -56,6 +68,7 @@ public class PlanningMap {
 	 *            y coodinate
 	 */
 	public void setObstacle(int x, int y) {
+		checkMutable();
 		if (inBounds(new Rectangle(x, y, 0, 0)))
 			this.grid[x][y] = true;
 	}
@@ -67,6 +80,7 @@ public class PlanningMap {
 	 *            The array of points
 	 */
 	public void setObstacles(Point[] points) {
+		checkMutable();
 		for (Point p : points)
 			if (inBounds(new Rectangle((int) p.getX(), (int) p.getY(), 0, 0)))
 				this.grid[(int) p.getX()][(int) p.getY()] = true;
@@ -88,6 +102,35 @@ public class PlanningMap {
 		return map;
 	}
 
+	/**
+	 * Gets the shared planning map of a game map, which is created once per
+	 * map ID and cannot be changed
+	 * 
+	 * @param gm
+	 *            The game map object
+	 * @return The shared planning map object
+	 */
+	public static PlanningMap getShared(GameMap gm) {
+		return SHARED.computeIfAbsent(gm.getMapID(), id -> {
+			PlanningMap map = createFromGameMap(gm);
+			map.shared = true;
+			return map;
+		});
+	}
+
+	/**
+	 * Throws if this map is shared, and drops the clearance tables otherwise
+	 * as the obstacles are about to change
+	 * 
+	 * @throws UnsupportedOperationException
+	 */
+	private void checkMutable() throws UnsupportedOperationException {
+		if (shared)
+			throw new UnsupportedOperationException("Shared planning maps cannot be changed!");
+		clearance.clear();
+		lastClearance = null;
+	}
+
 	/**
 	 * Determines if a rectangle is in bounds of the map
 	 * 
@@ -96,7 +139,24 @@ public class PlanningMap {
 	 * @return True if the rectangle is in bounds
 	 */
 	public boolean inBounds(Rectangle r) {
-		return (r.x >= 0 && r.y >= 0 && (r.x + r.width) < width && (r.y + r.height) < height);
+		return inBounds(r.x, r.y, r.width, r.height);
+	}
+
+	/**
+	 * Determines if a footprint is in bounds of the map
+	 * 
+	 * @param x
+	 *            The x coordinate of the footprint
+	 * @param y
+	 *            The y coordinate of the footprint
+	 * @param w
+	 *            The width of the footprint
+	 * @param h
+	 *            The height of the footprint
+	 * @return True if the footprint is in bounds
+	 */
+	public boolean inBounds(int x, int y, int w, int h) {
+		return (x >= 0 && y >= 0 && (x + w) < width && (y + h) < height);
 	}
 
 	/**
@@ -108,15 +168,77 @@ public class PlanningMap {
 	 * @throws ArrayIndexOutOfBoundsException
 	 */
 	public boolean obstacle(Rectangle r) throws ArrayIndexOutOfBoundsException {
-		if (!inBounds(r))
+		return obstacle(r.x, r.y, r.width, r.height);
+	}
+
+	/**
+	 * Returns true if a specified footprint is on an obstacle
+	 * 
+	 * @param x
+	 *            The x coordinate of the footprint
+	 * @param y
+	 *            The y coordinate of the footprint
+	 * @param w
+	 *            The width of the footprint
+	 * @param h
+	 *            The height of the footprint
+	 * @return True iff the footprint is on an obstacle
+	 * @throws ArrayIndexOutOfBoundsException
+	 */
+	public boolean obstacle(int x, int y, int w, int h) throws ArrayIndexOutOfBoundsException {
+		if (!inBounds(x, y, w, h))
 			throw new ArrayIndexOutOfBoundsException("Out of map bounds!");
-		for (int i = r.x; i <= (r.x + r.width); i++) {
-			for (int j = r.y; j <= (r.y + r.height); j++) {
-				if (grid[i][j])
-					return true;
+		Clearance c = lastClearance;
+		if (c == null || c.w != w || c.h != h) {
+			c = clearance.computeIfAbsent(((long) w << 32) | h, key -> new Clearance(w, h));
+			lastClearance = c;
+		}
+		return c.blocked[x + y * width];
+	}
+
+	/**
+	 * The clearance table of one footprint size, which records for every
+	 * position whether the footprint there touches an obstacle
+	 */
+	private final class Clearance {
+
+		private final int w;
+		private final int h;
+		private final boolean[] blocked;
+
+		/**
+		 * Builds the table from a summed area table of the obstacles
+		 * 
+		 * @param w
+		 *            The width of the footprint
+		 * @param h
+		 *            The height of the footprint
+		 */
+		private Clearance(int w, int h) {
+			this.w = w;
+			this.h = h;
+			this.blocked = new boolean[width * height];
+			if (w < 0 || h < 0) {
+				// an empty footprint touches nothing
+				return;
+			}
+			int stride = width + 1;
+			int[] sum = new int[stride * (height + 1)];
+			for (int j = 0; j < height; j++) {
+				for (int i = 0; i < width; i++) {
+					sum[(i + 1) + (j + 1) * stride] = (grid[i][j] ? 1 : 0) + sum[i + (j + 1) * stride]
+							+ sum[(i + 1) + j * stride] - sum[i + j * stride];
+				}
+			}
+			for (int j = 0; j + h < height; j++) {
+				for (int i = 0; i + w < width; i++) {
+					int x2 = i + w + 1;
+					int y2 = j + h + 1;
+					blocked[i + j * width] = sum[x2 + y2 * stride] - sum[i + y2 * stride] - sum[x2 + j * stride]
+							+ sum[i + j * stride] > 0;
+				}
 			}
 		}
-		return false;
 	}
 
 	/**
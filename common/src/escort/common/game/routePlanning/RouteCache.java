@@ -0,0 +1,256 @@
+package escort.common.game.routePlanning;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A route planner which remembers the routes planned by another planner, so
+ * units asking for the same route within a short time share one search. The
+ * least recently used routes are evicted once the cache is full. A route
+ * which passes through the start of a request for the same goal and footprint
+ * is reused from there, as the rest of a shortest route is a shortest route
+ * itself. The cache can be shared by the planner threads of every game on a
+ * map.
+ */
+public class RouteCache implements RoutePlanner {
+
+	/**
+	 * The number of routes remembered by default
+	 */
+	public static final int DEFAULT_CAPACITY = 512;
+
+	// cells and footprints are packed into the keys, larger maps are not cached
+	private static final int MAX_CELLS = 1 << 24;
+
+	private final RoutePlanner planner;
+	private final int capacity;
+	private final LinkedHashMap<Long, Entry> routes;
+	private final Map<Long, Map<Long, Entry>> byGoal;
+
+	private long hits;
+	private long partialHits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Create a route cache with the default capacity
+	 *
+	 * @param planner
+	 *            The planner of the routes which are not cached
+	 */
+	public RouteCache(RoutePlanner planner) {
+		this(planner, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a route cache
+	 *
+	 * @param planner
+	 *            The planner of the routes which are not cached
+	 * @param capacity
+	 *            The maximum number of routes remembered
+	 */
+	public RouteCache(RoutePlanner planner, int capacity) {
+		this.planner = planner;
+		this.capacity = capacity;
+		this.routes = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				if (size() <= RouteCache.this.capacity) {
+					return false;
+				}
+				unindex(eldest.getKey());
+				evictions++;
+				return true;
+			}
+		};
+		this.byGoal = new HashMap<>();
+	}
+
+	/**
+	 * Set the planning map of the planner, forgetting every route
+	 *
+	 * @param map
+	 *            The planning map
+	 */
+	@Override
+	public synchronized void setMap(PlanningMap map) {
+		planner.setMap(map);
+		routes.clear();
+		byGoal.clear();
+	}
+
+	/**
+	 * Get the planning map of the planner
+	 *
+	 * @return The planning map
+	 */
+	@Override
+	public PlanningMap getMap() {
+		return planner.getMap();
+	}
+
+	/**
+	 * Get a route from a start to an end, from the cache if it is known
+	 *
+	 * @param start
+	 *            The start position
+	 * @param end
+	 *            The goal position
+	 * @return A new list of the positions of the route, as returned by the
+	 *         planner
+	 */
+	@Override
+	public List<Rectangle> route(Rectangle start, Rectangle end) {
+		PlanningMap map = planner.getMap();
+		int w = start.width;
+		int h = start.height;
+		if (map == null || w < 0 || h < 0 || w > 0xff || h > 0xff || map.getWidth() * map.getHeight() > MAX_CELLS
+				|| !map.inBounds(start.x, start.y, w, h) || !map.inBounds(end.x, end.y, w, h)) {
+			return planner.route(start, end);
+		}
+		int columns = map.getWidth();
+		int startCell = start.x + start.y * columns;
+		long goal = goalKey(end.x + end.y * columns, w, h);
+		long key = ((long) startCell << 40) | goal;
+
+		synchronized (this) {
+			Entry entry = routes.get(key);
+			if (entry != null) {
+				hits++;
+				return entry.toRoute(0, columns, w, h);
+			}
+			Map<Long, Entry> sameGoal = byGoal.get(goal);
+			if (sameGoal != null) {
+				for (Map.Entry<Long, Entry> other : sameGoal.entrySet()) {
+					int from = other.getValue().indexOf(startCell);
+					if (from >= 0) {
+						partialHits++;
+						// the longer route was used, so it is kept for longer
+						routes.get(other.getKey());
+						return other.getValue().toRoute(from, columns, w, h);
+					}
+				}
+			}
+			misses++;
+		}
+
+		List<Rectangle> route = planner.route(start, end);
+		if (route == null) {
+			return null;
+		}
+		Entry entry = new Entry(route, columns);
+		synchronized (this) {
+			routes.put(key, entry);
+			Map<Long, Entry> sameGoal = byGoal.get(goal);
+			if (sameGoal == null) {
+				sameGoal = new HashMap<>();
+				byGoal.put(goal, sameGoal);
+			}
+			sameGoal.put(key, entry);
+		}
+		return route;
+	}
+
+	private static long goalKey(int goalCell, int w, int h) {
+		return ((long) goalCell << 16) | (w << 8) | h;
+	}
+
+	/**
+	 * Remove a route from the index of the routes by goal
+	 */
+	private void unindex(Long key) {
+		Long goal = key & 0xffffffffffL;
+		Map<Long, Entry> sameGoal = byGoal.get(goal);
+		if (sameGoal != null) {
+			sameGoal.remove(key);
+			if (sameGoal.isEmpty()) {
+				byGoal.remove(goal);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of routes found in the cache
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of routes reused from a longer route to the same goal
+	 */
+	public synchronized long getPartialHits() {
+		return partialHits;
+	}
+
+	/**
+	 * @return The number of routes which were planned
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of routes evicted to make room for others
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return The fraction of the routes served from the cache, whole or in
+	 *         part
+	 */
+	public synchronized double getHitRate() {
+		long served = hits + partialHits;
+		long total = served + misses;
+		return total == 0 ? 0 : (double) served / total;
+	}
+
+	/**
+	 * @return The number of routes remembered
+	 */
+	public synchronized int size() {
+		return routes.size();
+	}
+
+	/**
+	 * A remembered route, stored as the cells of its positions
+	 */
+	private static final class Entry {
+
+		private final int[] cells;
+
+		private Entry(List<Rectangle> route, int columns) {
+			this.cells = new int[route.size()];
+			for (int i = 0; i < cells.length; i++) {
+				Rectangle r = route.get(i);
+				cells[i] = r.x + r.y * columns;
+			}
+		}
+
+		private int indexOf(int cell) {
+			for (int i = 0; i < cells.length; i++) {
+				if (cells[i] == cell) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private List<Rectangle> toRoute(int from, int columns, int w, int h) {
+			List<Rectangle> route = new ArrayList<>(cells.length - from);
+			for (int i = from; i < cells.length; i++) {
+				route.add(new Rectangle(cells[i] % columns, cells[i] / columns, w, h));
+			}
+			return route;
+		}
+	}
+}
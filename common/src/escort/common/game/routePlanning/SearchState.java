@@ -0,0 +1,175 @@
+package escort.common.game.routePlanning;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The reusable state of a best first search over integer indexed nodes: an
+ * open set kept as a binary heap of node indices, a closed set kept as a bit
+ * set, and the cost and parent of every node. Entries of the per node arrays
+ * are only valid when their stamp is the generation of the current search, so
+ * nothing has to be cleared between searches.
+ */
+final class SearchState {
+
+	private int generation;
+	private int[] stamp = new int[0];
+	private double[] g = new double[0];
+	private double[] f = new double[0];
+	private int[] parent = new int[0];
+	// position of a node in the heap, -1 once removed
+	private int[] heapIndex = new int[0];
+	private final BitSet closed = new BitSet();
+	private int[] heap = new int[0];
+	private int size;
+
+	/**
+	 * Prepare for a new search
+	 *
+	 * @param nodes
+	 *            The number of nodes searched
+	 */
+	void reset(int nodes) {
+		if (stamp.length < nodes) {
+			stamp = new int[nodes];
+			g = new double[nodes];
+			f = new double[nodes];
+			parent = new int[nodes];
+			heapIndex = new int[nodes];
+			heap = new int[nodes];
+			generation = 0;
+		}
+		generation++;
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(stamp, 0);
+			generation = 1;
+		}
+		closed.clear();
+		size = 0;
+	}
+
+	/**
+	 * Add a node to the open set, or lower its cost if it is already open
+	 * with a higher one
+	 *
+	 * @param node
+	 *            The node
+	 * @param from
+	 *            The node it is reached from, -1 for the start
+	 * @param cost
+	 *            The cost of reaching the node
+	 * @param estimate
+	 *            The estimated cost from the node to the goal
+	 */
+	void push(int node, int from, double cost, double estimate) {
+		if (stamp[node] == generation) {
+			if (cost >= g[node] || heapIndex[node] < 0) {
+				return;
+			}
+		} else {
+			stamp[node] = generation;
+			heapIndex[node] = size;
+			heap[size++] = node;
+		}
+		g[node] = cost;
+		f[node] = cost + estimate;
+		parent[node] = from;
+		siftUp(heapIndex[node]);
+	}
+
+	/**
+	 * Remove the open node with the lowest estimated total cost and close it
+	 *
+	 * @return The node
+	 */
+	int pop() {
+		int top = heap[0];
+		heapIndex[top] = -1;
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			heapIndex[heap[0]] = 0;
+			siftDown(0);
+		}
+		closed.set(top);
+		return top;
+	}
+
+	/**
+	 * @return True if no node is open
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param node
+	 *            The node
+	 * @return True if the node has been expanded in this search
+	 */
+	boolean isClosed(int node) {
+		return closed.get(node);
+	}
+
+	/**
+	 * @param node
+	 *            A node reached in this search
+	 * @return The cost of reaching the node
+	 */
+	double getCost(int node) {
+		return g[node];
+	}
+
+	/**
+	 * @param node
+	 *            A node reached in this search
+	 * @return The node it is reached from, -1 for the start
+	 */
+	int getParent(int node) {
+		return parent[node];
+	}
+
+	/**
+	 * Whether node a is expanded before node b. Ties are broken towards the
+	 * node closer to the goal.
+	 */
+	private boolean before(int a, int b) {
+		return f[a] < f[b] || (f[a] == f[b] && g[a] > g[b]);
+	}
+
+	private void siftUp(int i) {
+		int node = heap[i];
+		while (i > 0) {
+			int up = (i - 1) >>> 1;
+			if (!before(node, heap[up])) {
+				break;
+			}
+			heap[i] = heap[up];
+			heapIndex[heap[i]] = i;
+			i = up;
+		}
+		heap[i] = node;
+		heapIndex[node] = i;
+	}
+
+	private void siftDown(int i) {
+		int node = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], node)) {
+				break;
+			}
+			heap[i] = heap[child];
+			heapIndex[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = node;
+		heapIndex[node] = i;
+	}
+}
@@ -1,12 +1,15 @@
 package escort.common.game.weapons;
 
-import java.awt.geom.Line2D;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import escort.common.game.GameData;
 import escort.common.game.entities.Mob;
 import escort.common.game.entities.units.Unit;
+import escort.common.game.map.GameMap;
+import escort.common.systime.SimulationClock;
 
 /**
  * A class describing a Bullet object.
@@ -16,6 +19,7 @@ import escort.common.game.entities.units.Unit;
 public class Bullet extends Mob {
 
 	private final Set<BulletListener> listeners = new HashSet<>();
+	private final List<Unit> unitsOnPath = new ArrayList<>();
 
 	public static final int BULLET_WIDTH = 5;
 	public static final int BULLET_HEIGHT = 5;
@@ -25,6 +29,7 @@ public class Bullet extends Mob {
 	private double dir;
 	private final double xStart;
 	private final double yStart;
+	private boolean ended;
 
 	/**
 	 * Appearance of a bullet
@@ -47,23 +52,51 @@ public class Bullet extends Mob {
 	}
 
 	/**
-	 * Custom update method for bullet. Should check whether it should deal damage or not.
+	 * Custom update method for bullet. Should check whether it should deal
+	 * damage or not. Only the step made during this update is tested, against
+	 * the units and the walls it passes, and whichever is reached first stops
+	 * the bullet.
 	 */
 	@Override
-	public void update() {
-		super.update();
-		Line2D.Double line = new Line2D.Double(getxStart(), getyStart(), getX(), getY());
-		for (Unit unit : getGameData().getUnits().values()) {
+	public void update(SimulationClock clock) {
+		double fromX = getX();
+		double fromY = getY();
+		super.update(clock);
+		double toX = getX();
+		double toY = getY();
+
+		// a corner of the bullet entering a wall, including steps longer than
+		// the wall is thick, which the tile checks of the move jump over
+		GameMap map = getGameData().getMap();
+		double wall = Double.POSITIVE_INFINITY;
+		for (int corner = 0; corner < 4; corner++) {
+			double offsetX = (corner & 1) == 0 ? 0 : getCollisionWidth();
+			double offsetY = (corner & 2) == 0 ? 0 : getCollisionHeight();
+			wall = Math.min(wall, map.firstWall(fromX + offsetX, fromY + offsetY, toX + offsetX, toY + offsetY));
+		}
+
+		getGameData().getUnitGrid().querySegment(fromX, fromY, toX, toY, unitsOnPath);
+		// the unit reached first is hit, the one with the lowest ID on a tie
+		Unit hit = null;
+		double hitAt = wall;
+		for (Unit unit : unitsOnPath) {
 			if (unit.isDead() || unit.getUnitID() == shooter.getUnitID()
 					|| (!shooter.canTarget(unit) && unit.getUnitType() != Unit.CIVILIAN_TYPE)) {
 				continue;
 			}
-			if (unit.getHitbox().intersectsLine(line)) {
-				listeners.forEach(listener -> listener.bulletCollision(unit));
-				bulletEnd();
-				return;
+			double at = unit.hitboxLineEntry(fromX, fromY, toX, toY);
+			if (at < hitAt || (at == hitAt && hit != null && unit.getUnitID() < hit.getUnitID())) {
+				hit = unit;
+				hitAt = at;
 			}
 		}
+		if (hit != null) {
+			Unit target = hit;
+			listeners.forEach(listener -> listener.bulletCollision(target));
+			end();
+		} else if (wall <= 1) {
+			hitSomething();
+		}
 	}
 
 	/**
@@ -145,7 +178,17 @@ public class Bullet extends Mob {
 	private void hitSomething() {
 		setXVel(0);
 		setYVel(0);
-		bulletEnd();
+		end();
+	}
+
+	/**
+	 * End the bullet once, however many things it hits in the same update.
+	 */
+	private void end() {
+		if (!ended) {
+			ended = true;
+			bulletEnd();
+		}
 	}
 
 	/**
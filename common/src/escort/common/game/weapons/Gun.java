@@ -1,11 +1,10 @@
 package escort.common.game.weapons;
 
-import java.awt.Point;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import escort.common.game.entities.units.Unit;
-import escort.common.systime.SystemTime;
+import escort.common.systime.SimulationClock;
 
 /**
  * A general class describing for describing weapons.
@@ -20,7 +19,7 @@ public abstract class Gun {
 	private int bulletsInBag; // total number of bullets
 	private int reloadSpeed; // reload speed in milliseconds
 	protected Unit owner; // unit carrying the gun
-	private long timeLastShot; // milliseconds since last shot was fired
+	private long timeLastShot; // tick when the last shot was fired
 	private Queue<Bullet> firedBullets = new ConcurrentLinkedQueue<>(); // track
 																		// bullets
 																		// fired
@@ -45,7 +44,7 @@ public abstract class Gun {
 		bulletsInBag = 0;
 		this.reloadSpeed = reloadSpeed;
 		this.owner = owner;
-		this.timeLastShot = SystemTime.milliTime();
+		this.timeLastShot = clock().getTick();
 	}
 
 	/**
@@ -53,7 +52,7 @@ public abstract class Gun {
 	 */
 	public void shoot() {
 		if (canShoot()) {
-			timeLastShot = SystemTime.milliTime();
+			timeLastShot = clock().getTick();
 			requestID();
 		}
 	}
@@ -63,10 +62,9 @@ public abstract class Gun {
 	 * @return Whether the gun can be shot or not.
 	 */
 	public boolean canShoot() {
-		long diff = SystemTime.milliTime() - timeLastShot;
-		double rate = (1.0 / rateFire) * 1000;
+		long rate = 1000 / rateFire;
 
-		if (diff < rate || getBulletsInMag() == 0) {
+		if (!clock().elapsed(timeLastShot, rate) || getBulletsInMag() == 0) {
 			return false;
 		}
 		return true;
@@ -83,13 +81,11 @@ public abstract class Gun {
 	 * @param bullet The bullet to fire.
 	 */
 	public void fire(Bullet bullet) {
-		Point ownerCenter = this.owner.getCenterPoint();
 		int baseOffset = 20;
-		ownerCenter.x += baseOffset * Math.sin(owner.getDir());
-		bullet.setX(ownerCenter.x);
-		bullet.setY(ownerCenter.y);
+		bullet.setX((int) (owner.getCenterX() + baseOffset * Math.sin(owner.getDir())));
+		bullet.setY(owner.getCenterY());
 		bullet.fireBullet();
-		timeLastShot = SystemTime.milliTime();
+		timeLastShot = clock().getTick();
 		firedBullets.add(bullet);
 		magBullets--;
 	}
@@ -165,12 +161,21 @@ public abstract class Gun {
 	/**
 	 * Return the time when the gun was last shot.
 	 * 
-	 * @return The time when the gun was last shot in nanoseconds.
+	 * @return The tick when the gun was last shot.
 	 */
 	public long getTimeLastShot() {
 		return this.timeLastShot;
 	}
 
+	/**
+	 * Get the clock of the game of the owner.
+	 * 
+	 * @return The simulation clock.
+	 */
+	private SimulationClock clock() {
+		return owner.getGameData().getClock();
+	}
+
 	/**
 	 * Change the rate of fire.
 	 * 
@@ -31,6 +31,10 @@ public class MachineGun extends Gun {
 	 * Request a bullet ID from the server.
 	 */
 	public void requestID() {
+		if (owner.getCommands() != null) {
+			owner.getCommands().shootMG(owner);
+			return;
+		}
 		owner.sendMessage(new Message(Message.REQUEST_MG_BULLET, new int[] { owner.getUnitID() }, null));
 	}
 
@@ -39,6 +39,10 @@ public class Pistol extends Gun {
 	 * @param amount The number of magazines to add.
 	 */
 	public void requestID() {
+		if (owner.getCommands() != null) {
+			owner.getCommands().shootPistol(owner);
+			return;
+		}
 		owner.sendMessage(new Message(Message.REQUEST_PISTOL_BULLET, new int[] { owner.getUnitID() }, null));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package escort.common.network;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads serving the connections, one receiver and one sender
+ * per connection. They can be run as virtual threads by setting the system
+ * property escort.virtualThreads to true, so that idle connections do not
+ * each hold a platform thread. Virtual threads are only used when the runtime
+ * supports them, otherwise platform threads are created as before. The
+ * connection threads wait on locks rather than monitors, as a virtual thread
+ * waiting inside a monitor holds on to its carrier thread. The
+ * periodic work of every connection, such as keep-alives, is timed by one
+ * shared scheduler rather than a sleeping thread each. Anything which may
+ * block, such as writing to a socket, is handed from the scheduler to the
+ * writers, so that a connection which stops reading only holds up itself.
+ */
+public final class ConnectionThreads {
+
+	/**
+	 * The system property which enables virtual threads
+	 */
+	public static final String VIRTUAL_PROPERTY = "escort.virtualThreads";
+
+	private static final ThreadFactory VIRTUAL = virtualFactory();
+
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "Connection Scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static volatile boolean virtual = Boolean.getBoolean(VIRTUAL_PROPERTY);
+
+	private static final ExecutorService WRITERS = Executors.newCachedThreadPool(r -> {
+		Thread thread = newThread("Connection Writer", r);
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private ConnectionThreads() {
+	}
+
+	/**
+	 * Create a thread for a connection, which is not started
+	 *
+	 * @param name
+	 *            The name of the thread
+	 * @param task
+	 *            The task run by the thread
+	 * @return A virtual thread if enabled and supported, a platform thread
+	 *         otherwise
+	 */
+	public static Thread newThread(String name, Runnable task) {
+		if (isVirtual()) {
+			Thread thread = VIRTUAL.newThread(task);
+			thread.setName(name);
+			return thread;
+		}
+		return new Thread(task, name);
+	}
+
+	/**
+	 * Get the scheduler shared by the connections for their periodic work.
+	 * Its tasks must not block for long.
+	 *
+	 * @return The shared scheduler
+	 */
+	public static ScheduledExecutorService getScheduler() {
+		return SCHEDULER;
+	}
+
+	/**
+	 * Get the writers shared by the connections for the writes started by the
+	 * scheduler. A blocked write holds up a writer of its own, never the
+	 * other connections.
+	 *
+	 * @return The shared writers
+	 */
+	public static ExecutorService getWriters() {
+		return WRITERS;
+	}
+
+	/**
+	 * Whether new connection threads are virtual threads
+	 *
+	 * @return True iff virtual threads are enabled and supported
+	 */
+	public static boolean isVirtual() {
+		return virtual && VIRTUAL != null;
+	}
+
+	/**
+	 * Whether the runtime supports virtual threads
+	 *
+	 * @return True iff virtual threads can be created
+	 */
+	public static boolean isVirtualSupported() {
+		return VIRTUAL != null;
+	}
+
+	/**
+	 * Enable or disable virtual threads for the connections created from now
+	 * on
+	 *
+	 * @param enabled
+	 *            Whether to use virtual threads when supported
+	 */
+	public static void setVirtual(boolean enabled) {
+		virtual = enabled;
+	}
+
+	/**
+	 * Get the factory of virtual threads of the runtime, looked up by name as
+	 * they are missing from older runtimes
+	 *
+	 * @return The factory, null if virtual threads are not supported
+	 */
+	private static ThreadFactory virtualFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+}
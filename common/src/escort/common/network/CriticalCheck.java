@@ -1,25 +1,81 @@
-	package escort.common.network;
+package escort.common.network;
+
+import java.util.HashMap;
+import java.util.Map;
 
 /**
- * Determine if the Message is critical
+ * Determine if the Message is critical, and whether a queued message may be
+ * superseded by a newer one carrying the same state
  * @author Kwong Hei Tsang
  *
  */
 public final class CriticalCheck {
 
+	/**
+	 * The supersede key length of messages that are never superseded
+	 */
+	public static final int NEVER_SUPERSEDED = -1;
+
+	// message type -> {critical (1) or not (0), supersede key length}
+	private static final Map<Integer, int[]> POLICIES = new HashMap<Integer, int[]>();
+
+	static {
+		// Message type, critical, number of leading ints identifying the
+		// state a newer message replaces (0: the type alone)
+		policy(Message.UNIT_MOVED, false, 2); // unit ID, forced correction
+		policy(Message.WORLD_SNAPSHOT, false, 0); // deltas against the acknowledged base
+		policy(Message.SNAPSHOT_ACK, false, NEVER_SUPERSEDED);
+		policy(Message.HP_LEFT, true, 1); // unit ID
+		policy(Message.SHIELD_HP_LEFT, true, 1); // unit ID
+	}
+
+	/**
+	 * Add an entry to the policy table
+	 * @param messageType The message type
+	 * @param critical Whether it has to be sent reliably
+	 * @param keyLength The number of leading ints identifying the state
+	 */
+	private static void policy(int messageType, boolean critical, int keyLength){
+		POLICIES.put(messageType, new int[]{critical ? 1 : 0, keyLength});
+	}
+
 	/**
 	 * Determine if the Message is critical
 	 * @param msg The message
 	 * @return whether it is critical or not
 	 */
 	public static final boolean isCritical(Message msg){
-		//specific type of message should return true
-		switch(msg.messageType){
-		case Message.UNIT_MOVED:
+		if(msg.messageType == Message.BUNDLE && msg.getBundle() != null){
+			// a bundle is critical if any of its messages is
+			for(Message inner : msg.getBundle()){
+				if(inner != null && isCritical(inner)){
+					return true;
+				}
+			}
 			return false;
 		}
-		
+		int[] policy = POLICIES.get(msg.messageType);
+
 		//normally true
-		return true;
+		return policy == null || policy[0] == 1;
+	}
+
+	/**
+	 * Get the number of leading ints which, together with the message type,
+	 * identify the state carried by the message. A queued message is
+	 * superseded by a newer one with the same type and key.
+	 * @param msg The message
+	 * @return The key length, or NEVER_SUPERSEDED
+	 */
+	public static final int getSupersedeKeyLength(Message msg){
+		int[] policy = POLICIES.get(msg.messageType);
+		if(policy == null || policy[1] == NEVER_SUPERSEDED){
+			return NEVER_SUPERSEDED;
+		}
+		if(policy[1] > 0 && (msg.getInts() == null || msg.getInts().length < policy[1])){
+			// malformed, never drop it in favour of another message
+			return NEVER_SUPERSEDED;
+		}
+		return policy[1];
 	}
 }
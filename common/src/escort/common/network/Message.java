@@ -21,6 +21,8 @@ public class Message implements Serializable {
 	// unit_moved (to be renamed to mob_moved)
 	// unit_reload
 	// unit_weapon_switch
+	// world_snapshot
+	// snapshot_ack
 
 	// protocol control messages, never touch
 	public static final int PROTOCOL_SWITCH = 201;
@@ -28,6 +30,8 @@ public class Message implements Serializable {
 	public static final int PROTOCOL_SWITCH_FIND = 203;
 	public static final int PROTOCOL_SWITCH_DONE = 204;
 	public static final int MESSAGE_TOO_FREQUENT = 205;
+	public static final int BUNDLE = 206;
+	public static final int FRAGMENT = 207;
 
 	// common messages
 	public static final int EXIT = 1;
@@ -82,6 +86,7 @@ public class Message implements Serializable {
 	public static final int POWERUP_USED = 51;
 	public static final int SYSTEM_MESSAGE = 52;
 	public static final int SHIELD_HP_LEFT = 53;
+	public static final int WORLD_SNAPSHOT = 54;
 
 	// client to server
 	public static final int PLAYER_REQUESTID = 1000;
@@ -103,12 +108,14 @@ public class Message implements Serializable {
 	public static final int SHOOT_GUN = 1018;
 	public static final int REQUEST_PISTOL_BULLET = 1019;
 	public static final int REQUEST_MG_BULLET = 1020;
+	public static final int SNAPSHOT_ACK = 1021;
 
 	private final double[] doubles;
 	private final int[] ints;
 	private final String[] strings;
 	public final int messageType;
 	private GameState gameState;
+	private Message[] bundle;
 
 	/**
 	 * Construct a message
@@ -201,6 +208,25 @@ public class Message implements Serializable {
 		this.gameState = gameState;
 	}
 
+	/**
+	 * Get the messages carried by a BUNDLE message
+	 * 
+	 * @return The bundled messages, null if this is not a bundle
+	 */
+	public Message[] getBundle() {
+		return bundle;
+	}
+
+	/**
+	 * Set the messages carried by a BUNDLE message
+	 * 
+	 * @param bundle
+	 *            The messages, each sent as if on its own
+	 */
+	public void setBundle(Message[] bundle) {
+		this.bundle = bundle;
+	}
+
 	/**
 	 * Get the String representation of the message
 	 */
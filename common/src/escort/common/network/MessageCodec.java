@@ -0,0 +1,558 @@
+package escort.common.network;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import escort.common.game.GameState;
+import escort.common.game.entities.units.UnitInfo;
+import escort.common.network.udp.MessageStamp;
+
+/**
+ * Compact binary wire format for Message objects, replacing Java
+ * serialization on both transports. Every frame starts with a version byte and
+ * a flag byte telling which sections follow the message type. Integers are
+ * written as zigzag varints, doubles as raw 8 byte values and strings as UTF-8.
+ *
+ * One codec should be owned by each connection direction as the output buffer
+ * is reused between messages. The codec is not thread-safe.
+ */
+public final class MessageCodec {
+
+	/**
+	 * The version of the wire format
+	 */
+	public static final int VERSION = 1;
+
+	// section flags
+	private static final int HAS_INTS = 1;
+	private static final int HAS_STRINGS = 2;
+	private static final int HAS_DOUBLES = 4;
+	private static final int HAS_GAMESTATE = 8;
+	private static final int HAS_BUNDLE = 16;
+
+	// stamp flags, a legacy stamp only sets STAMP_ACK
+	private static final int STAMP_ACK = 1;
+	private static final int STAMP_RELIABLE = 2;
+	private static final int STAMP_SACK = 4;
+	private static final int STAMP_NO_MESSAGE = 8;
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	// output buffer
+	private byte[] out;
+	private int outpos;
+
+	// input buffer
+	private byte[] in;
+	private int inpos;
+	private int inlimit;
+
+	/**
+	 * Construct a message codec
+	 */
+	public MessageCodec() {
+		this.out = new byte[INITIAL_BUFFER_SIZE];
+		this.outpos = 0;
+	}
+
+	/**
+	 * Encode a message, replacing the content of the output buffer
+	 *
+	 * @param msg
+	 *            The message
+	 * @return The number of bytes written to the output buffer
+	 */
+	public int encode(Message msg) {
+		this.outpos = 0;
+		writeMessage(msg);
+		return this.outpos;
+	}
+
+	/**
+	 * Encode a stamped message, replacing the content of the output buffer
+	 *
+	 * @param stamp
+	 *            The stamped message
+	 * @return The number of bytes written to the output buffer
+	 */
+	public int encode(MessageStamp stamp) {
+		this.outpos = 0;
+		writeVarLong(stamp.seq);
+		writeVarLong(stamp.time);
+		int flags = 0;
+		if (stamp.ack)
+			flags |= STAMP_ACK;
+		if (stamp.rseq != 0)
+			flags |= STAMP_RELIABLE;
+		if (stamp.sack != 0)
+			flags |= STAMP_SACK;
+		if (stamp.msg == null)
+			flags |= STAMP_NO_MESSAGE;
+		writeByte(flags);
+		writeVarLong(stamp.ackseq);
+		if (stamp.rseq != 0) {
+			writeVarLong(stamp.rseq);
+		}
+		if (stamp.sack != 0) {
+			writeVarLong(stamp.sack);
+		}
+		if (stamp.msg != null) {
+			writeMessage(stamp.msg);
+		}
+		return this.outpos;
+	}
+
+	/**
+	 * Get the output buffer. Only the first n bytes returned by the last
+	 * encode are valid.
+	 *
+	 * @return The output buffer
+	 */
+	public byte[] getBuffer() {
+		return this.out;
+	}
+
+	/**
+	 * Decode a message
+	 *
+	 * @param data
+	 *            The buffer
+	 * @param offset
+	 *            The offset of the frame
+	 * @param length
+	 *            The length of the frame
+	 * @return The message
+	 * @throws MalformedMessageException
+	 *             The frame is truncated or of an unknown version
+	 */
+	public Message decodeMessage(byte[] data, int offset, int length) throws MalformedMessageException {
+		startReading(data, offset, length);
+		Message msg = readMessage(true);
+		endReading();
+		return msg;
+	}
+
+	/**
+	 * Decode a stamped message
+	 *
+	 * @param data
+	 *            The buffer
+	 * @param offset
+	 *            The offset of the frame
+	 * @param length
+	 *            The length of the frame
+	 * @return The stamped message
+	 * @throws MalformedMessageException
+	 *             The frame is truncated or of an unknown version
+	 */
+	public MessageStamp decodeStamp(byte[] data, int offset, int length) throws MalformedMessageException {
+		startReading(data, offset, length);
+		long seq = readVarLong();
+		long time = readVarLong();
+		int flags = readByte();
+		if ((flags & ~(STAMP_ACK | STAMP_RELIABLE | STAMP_SACK | STAMP_NO_MESSAGE)) != 0) {
+			throw new MalformedMessageException();
+		}
+		long ackseq = readVarLong();
+		long rseq = (flags & STAMP_RELIABLE) != 0 ? readVarLong() : 0;
+		long sack = (flags & STAMP_SACK) != 0 ? readVarLong() : 0;
+		Message msg = (flags & STAMP_NO_MESSAGE) != 0 ? null : readMessage(true);
+		endReading();
+		return new MessageStamp(seq, time, msg, (flags & STAMP_ACK) != 0, ackseq, rseq, sack);
+	}
+
+	/**
+	 * Write the message part of a frame
+	 *
+	 * @param msg
+	 *            The message
+	 */
+	private void writeMessage(Message msg) {
+		int[] ints = msg.getInts();
+		String[] strings = msg.getStrings();
+		double[] doubles = msg.getDoubles();
+		GameState state = msg.getGameState();
+		Message[] bundle = msg.getBundle();
+
+		int flags = 0;
+		if (ints != null)
+			flags |= HAS_INTS;
+		if (strings != null)
+			flags |= HAS_STRINGS;
+		if (doubles != null)
+			flags |= HAS_DOUBLES;
+		if (state != null)
+			flags |= HAS_GAMESTATE;
+		if (bundle != null)
+			flags |= HAS_BUNDLE;
+
+		writeByte(VERSION);
+		writeByte(flags);
+		writeVarInt(msg.messageType);
+
+		if (ints != null) {
+			writeUnsignedVarInt(ints.length);
+			for (int value : ints) {
+				writeVarInt(value);
+			}
+		}
+		if (strings != null) {
+			writeUnsignedVarInt(strings.length);
+			for (String text : strings) {
+				writeString(text);
+			}
+		}
+		if (doubles != null) {
+			writeUnsignedVarInt(doubles.length);
+			for (double value : doubles) {
+				writeDouble(value);
+			}
+		}
+		if (state != null) {
+			writeGameState(state);
+		}
+		if (bundle != null) {
+			writeUnsignedVarInt(bundle.length);
+			for (Message inner : bundle) {
+				writeMessage(inner);
+			}
+		}
+	}
+
+	/**
+	 * Read the message part of a frame
+	 *
+	 * @param allowBundle
+	 *            Whether the message may be a bundle, bundles do not nest
+	 * @return The message
+	 * @throws MalformedMessageException
+	 */
+	private Message readMessage(boolean allowBundle) throws MalformedMessageException {
+		if (readByte() != VERSION) {
+			throw new MalformedMessageException();
+		}
+		int flags = readByte();
+		int messageType = readVarInt();
+
+		int[] ints = null;
+		String[] strings = null;
+		double[] doubles = null;
+
+		if ((flags & HAS_INTS) != 0) {
+			ints = new int[readLength(1)];
+			for (int i = 0; i < ints.length; i++) {
+				ints[i] = readVarInt();
+			}
+		}
+		if ((flags & HAS_STRINGS) != 0) {
+			strings = new String[readLength(1)];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = readString();
+			}
+		}
+		if ((flags & HAS_DOUBLES) != 0) {
+			doubles = new double[readLength(8)];
+			for (int i = 0; i < doubles.length; i++) {
+				doubles[i] = readDouble();
+			}
+		}
+
+		Message msg = new Message(messageType, ints, strings, doubles);
+		if ((flags & HAS_GAMESTATE) != 0) {
+			msg.setGameState(readGameState());
+		}
+		if ((flags & HAS_BUNDLE) != 0) {
+			if (!allowBundle) {
+				throw new MalformedMessageException();
+			}
+			// version, flags and type take at least 3 bytes
+			Message[] bundle = new Message[readLength(3)];
+			for (int i = 0; i < bundle.length; i++) {
+				bundle[i] = readMessage(false);
+			}
+			msg.setBundle(bundle);
+		}
+		return msg;
+	}
+
+	/**
+	 * Write the game state section
+	 *
+	 * @param state
+	 *            The game state
+	 */
+	private void writeGameState(GameState state) {
+		writeVarInt(state.getMapID());
+		Map<Integer, UnitInfo> units = state.getUnitsInfo();
+		writeUnsignedVarInt(units.size());
+		for (UnitInfo info : units.values()) {
+			writeVarInt(info.unitType);
+			writeVarInt(info.unitID);
+			writeString(info.username);
+			writeDouble(info.x);
+			writeDouble(info.y);
+			writeDouble(info.dir);
+			writeDouble(info.xVel);
+			writeDouble(info.yVel);
+			writeVarInt(info.hpLeft);
+			writeVarInt(info.weaponSlot);
+			writeVarInt(info.grenadesLeft);
+			writeVarInt(info.mgBulletsInMag);
+			writeVarInt(info.mgBulletsInBag);
+		}
+	}
+
+	/**
+	 * Read the game state section
+	 *
+	 * @return The game state
+	 * @throws MalformedMessageException
+	 */
+	private GameState readGameState() throws MalformedMessageException {
+		int mapID = readVarInt();
+		int count = readLength(1);
+		Map<Integer, UnitInfo> units = new HashMap<>();
+		for (int i = 0; i < count; i++) {
+			UnitInfo info = new UnitInfo(readVarInt(), readVarInt(), readString(), readDouble(), readDouble(),
+					readDouble(), readDouble(), readDouble(), readVarInt(), readVarInt(), readVarInt(), readVarInt(),
+					readVarInt());
+			units.put(info.unitID, info);
+		}
+		return new GameState(units, mapID);
+	}
+
+	/**
+	 * Compute the encoded size of a message without encoding it
+	 *
+	 * @param msg
+	 *            The message
+	 * @return The number of bytes encode(msg) would write
+	 */
+	public static int encodedSize(Message msg) {
+		int size = 2 + varIntSize(zigzag(msg.messageType));
+		if (msg.getInts() != null) {
+			size += varIntSize(msg.getInts().length);
+			for (int value : msg.getInts()) {
+				size += varIntSize(zigzag(value));
+			}
+		}
+		if (msg.getStrings() != null) {
+			size += varIntSize(msg.getStrings().length);
+			for (String text : msg.getStrings()) {
+				size += stringSize(text);
+			}
+		}
+		if (msg.getDoubles() != null) {
+			size += varIntSize(msg.getDoubles().length) + 8 * msg.getDoubles().length;
+		}
+		if (msg.getGameState() != null) {
+			GameState state = msg.getGameState();
+			size += varIntSize(zigzag(state.getMapID())) + varIntSize(state.getUnitsInfo().size());
+			for (UnitInfo info : state.getUnitsInfo().values()) {
+				size += varIntSize(zigzag(info.unitType)) + varIntSize(zigzag(info.unitID)) + stringSize(info.username)
+						+ 5 * 8 + varIntSize(zigzag(info.hpLeft)) + varIntSize(zigzag(info.weaponSlot))
+						+ varIntSize(zigzag(info.grenadesLeft)) + varIntSize(zigzag(info.mgBulletsInMag))
+						+ varIntSize(zigzag(info.mgBulletsInBag));
+			}
+		}
+		if (msg.getBundle() != null) {
+			size += varIntSize(msg.getBundle().length);
+			for (Message inner : msg.getBundle()) {
+				size += encodedSize(inner);
+			}
+		}
+		return size;
+	}
+
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int varIntSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static int stringSize(String text) {
+		if (text == null) {
+			return 1;
+		}
+		// UTF-8 length without encoding the string
+		int length = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+					&& Character.isLowSurrogate(text.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// an unpaired surrogate is replaced by '?'
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return varIntSize(length + 1) + length;
+	}
+
+	// WRITING PRIMITIVES //
+
+	private void ensureCapacity(int extra) {
+		if (this.outpos + extra > this.out.length) {
+			byte[] larger = new byte[Math.max(this.out.length * 2, this.outpos + extra)];
+			System.arraycopy(this.out, 0, larger, 0, this.outpos);
+			this.out = larger;
+		}
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		this.out[this.outpos++] = (byte) value;
+	}
+
+	private void writeUnsignedVarInt(int value) {
+		ensureCapacity(5);
+		while ((value & ~0x7F) != 0) {
+			this.out[this.outpos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.out[this.outpos++] = (byte) value;
+	}
+
+	private void writeVarInt(int value) {
+		writeUnsignedVarInt(zigzag(value));
+	}
+
+	private void writeVarLong(long value) {
+		ensureCapacity(10);
+		value = (value << 1) ^ (value >> 63);
+		while ((value & ~0x7FL) != 0) {
+			this.out[this.outpos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.out[this.outpos++] = (byte) value;
+	}
+
+	private void writeDouble(double value) {
+		ensureCapacity(8);
+		long bits = Double.doubleToRawLongBits(value);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			this.out[this.outpos++] = (byte) (bits >>> shift);
+		}
+	}
+
+	private void writeString(String text) {
+		// 0 for null, otherwise length + 1
+		if (text == null) {
+			writeUnsignedVarInt(0);
+			return;
+		}
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		writeUnsignedVarInt(bytes.length + 1);
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, this.out, this.outpos, bytes.length);
+		this.outpos += bytes.length;
+	}
+
+	// READING PRIMITIVES //
+
+	private void startReading(byte[] data, int offset, int length) throws MalformedMessageException {
+		if (data == null || offset < 0 || length < 0 || offset + length > data.length) {
+			throw new MalformedMessageException();
+		}
+		this.in = data;
+		this.inpos = offset;
+		this.inlimit = offset + length;
+	}
+
+	private void endReading() {
+		this.in = null;
+	}
+
+	private int readByte() throws MalformedMessageException {
+		if (this.inpos >= this.inlimit) {
+			throw new MalformedMessageException();
+		}
+		return this.in[this.inpos++] & 0xFF;
+	}
+
+	private int readUnsignedVarInt() throws MalformedMessageException {
+		int result = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new MalformedMessageException();
+	}
+
+	private int readVarInt() throws MalformedMessageException {
+		int raw = readUnsignedVarInt();
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	private long readVarLong() throws MalformedMessageException {
+		long raw = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			long b = readByte();
+			raw |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (raw >>> 1) ^ -(raw & 1);
+			}
+		}
+		throw new MalformedMessageException();
+	}
+
+	/**
+	 * Read an array length, rejecting lengths that cannot fit the remaining
+	 * bytes so a forged frame cannot make us allocate a huge array.
+	 *
+	 * @param minElementSize
+	 *            The minimum encoded size of an element
+	 * @return The length
+	 * @throws MalformedMessageException
+	 */
+	private int readLength(int minElementSize) throws MalformedMessageException {
+		int length = readUnsignedVarInt();
+		if (length < 0 || (long) length * minElementSize > this.inlimit - this.inpos) {
+			throw new MalformedMessageException();
+		}
+		return length;
+	}
+
+	private double readDouble() throws MalformedMessageException {
+		if (this.inlimit - this.inpos < 8) {
+			throw new MalformedMessageException();
+		}
+		long bits = 0;
+		for (int i = 0; i < 8; i++) {
+			bits = (bits << 8) | (this.in[this.inpos++] & 0xFF);
+		}
+		return Double.longBitsToDouble(bits);
+	}
+
+	private String readString() throws MalformedMessageException {
+		int length = readUnsignedVarInt();
+		if (length == 0) {
+			return null;
+		}
+		length--;
+		if (length < 0 || length > this.inlimit - this.inpos) {
+			throw new MalformedMessageException();
+		}
+		String text = new String(this.in, this.inpos, length, StandardCharsets.UTF_8);
+		this.inpos += length;
+		return text;
+	}
+}
@@ -1,15 +1,23 @@
 package escort.common.network.tcp;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.security.cert.Certificate;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.SSLPeerUnverifiedException;
 import javax.net.ssl.SSLSocket;
 
+import escort.common.network.ConnectionThreads;
 import escort.common.network.MalformedMessageException;
 import escort.common.network.Message;
+import escort.common.network.MessageCodec;
 import escort.common.network.MessageControl;
 
 /**
@@ -19,11 +27,25 @@ import escort.common.network.MessageControl;
  */
 public class MessageControlTCP implements MessageControl{
 
+	// the largest frame accepted from the remote end
+	private static final int MAX_FRAME_SIZE = 1 << 20;
+
+	// the time between two keep alive messages in milliseconds
+	private static final long KEEP_ALIVE_INTERVAL = 3000;
+	private static final Message KEEP_ALIVE = new Message(Message.KEEP_ALIVE, null, null);
+
 	private final SSLSocket socket;
-	private final ObjectInputStream input;
-	private final ObjectOutputStream output;
-	private final Object inputLock;
-	private final Object outputLock;
+	private final DataInputStream input;
+	private final DataOutputStream output;
+	// locks instead of monitors, so that a virtual thread blocked on the
+	// socket does not pin its carrier
+	private final ReentrantLock inputLock;
+	private final ReentrantLock outputLock;
+	private final MessageCodec encoder;
+	private final MessageCodec decoder;
+	private byte[] inputBuffer;
+	private final AtomicBoolean keepAlivePending;
+	private volatile ScheduledFuture<?> keepAlive;
 	
 	/**
 	 * Create a message control with TCP
@@ -34,12 +56,29 @@ public class MessageControlTCP implements MessageControl{
 		this.socket = socket;
 		this.socket.setKeepAlive(true);
 		this.socket.setSoTimeout(10000);
-		this.output = new ObjectOutputStream(socket.getOutputStream());
-		this.input = new ObjectInputStream(socket.getInputStream());
-		this.inputLock = new Object();
-		this.outputLock = new Object();
+		this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.inputLock = new ReentrantLock();
+		this.outputLock = new ReentrantLock();
+		this.encoder = new MessageCodec();
+		this.decoder = new MessageCodec();
+		this.inputBuffer = new byte[256];
+		this.keepAlivePending = new AtomicBoolean(false);
+		this.keepAlive = null;
 		
-		new Thread(() -> this.keepAlive()).start();
+		// the first keep alive is due after an interval, once every field is set
+		this.startKeepAlive();
+	}
+	
+	/**
+	 * Start sending keep alive messages, unless closed already
+	 */
+	private synchronized void startKeepAlive(){
+		if(this.socket.isClosed()){
+			return;
+		}
+		this.keepAlive = ConnectionThreads.getScheduler().scheduleWithFixedDelay(() -> this.keepAlive(),
+				KEEP_ALIVE_INTERVAL, KEEP_ALIVE_INTERVAL, TimeUnit.MILLISECONDS);
 	}
 	
 	/**
@@ -47,8 +86,11 @@ public class MessageControlTCP implements MessageControl{
 	 */
 	@Override
 	public void sendMessage(Message Message) throws IOException{
-		synchronized(outputLock){
-			this.output.writeObject(Message);
+		outputLock.lock();
+		try{
+			this.writeFrame(Message);
+		}finally{
+			outputLock.unlock();
 		}
 	}
 
@@ -57,25 +99,55 @@ public class MessageControlTCP implements MessageControl{
 	 */
 	@Override
 	public Message receiveMessage() throws ClassNotFoundException, IOException, MalformedMessageException{
-		synchronized(inputLock){
-			Object message = null;
+		inputLock.lock();
+		try{
+			Message message = null;
 			
 			// keep alive
-			while((message = this.input.readObject()) instanceof Message && ((Message) message).messageType == Message.KEEP_ALIVE);
+			while((message = this.readFrame()).messageType == Message.KEEP_ALIVE);
 			
-			if(message instanceof Message){
-				return (Message)message;
-			}else{
-				throw new IOException("Protocol error");
-			}
+			return message;
+		}finally{
+			inputLock.unlock();
 		}
 	}
+	
+	/**
+	 * Write a length prefixed frame, holding the output lock
+	 * @param message The message
+	 * @throws IOException
+	 */
+	private void writeFrame(Message message) throws IOException{
+		int length = this.encoder.encode(message);
+		this.output.writeInt(length);
+		this.output.write(this.encoder.getBuffer(), 0, length);
+		this.output.flush();
+	}
+
+	/**
+	 * Read the next length prefixed frame
+	 * @return The message in the frame
+	 * @throws IOException
+	 * @throws MalformedMessageException
+	 */
+	private Message readFrame() throws IOException, MalformedMessageException{
+		int length = this.input.readInt();
+		if(length < 0 || length > MAX_FRAME_SIZE){
+			throw new IOException("Protocol error");
+		}
+		if(length > this.inputBuffer.length){
+			this.inputBuffer = new byte[Math.max(length, this.inputBuffer.length * 2)];
+		}
+		this.input.readFully(this.inputBuffer, 0, length);
+		return this.decoder.decodeMessage(this.inputBuffer, 0, length);
+	}
 
 	/**
 	 * Close the message control and required connections
 	 */
 	@Override
 	public synchronized void close() throws IOException{
+		this.stopKeepAlive();
 		this.input.close();
 		this.output.close();
 		this.socket.close();
@@ -93,18 +165,49 @@ public class MessageControlTCP implements MessageControl{
 		return this.socket.getSession().getPeerCertificates()[0];
 	}
 	
+	/**
+	 * Hand a keep alive message to a writer, run by the scheduler shared by
+	 * the connections. The scheduler never writes itself, so a connection
+	 * whose peer stops reading does not hold up the keep alives of the
+	 * others. No more keep alives are handed over while the last is waiting
+	 * to be written.
+	 */
 	private void keepAlive(){
-		Message keepalive = new Message(Message.KEEP_ALIVE, null, null);
-		
+		if(!this.keepAlivePending.compareAndSet(false, true)){
+			return;
+		}
+		ConnectionThreads.getWriters().execute(() -> this.writeKeepAlive());
+	}
+
+	/**
+	 * Write a keep alive message, run by a writer. Skipped while another
+	 * message is being sent, as the connection is not idle then.
+	 */
+	private void writeKeepAlive(){
 		try{
-			while(true){
-				this.sendMessage(keepalive);
-				
-				Thread.sleep(3000);
+			if(!outputLock.tryLock()){
+				return;
+			}
+			try{
+				this.writeFrame(KEEP_ALIVE);
+			}finally{
+				outputLock.unlock();
 			}
-		} catch (InterruptedException e){
 		} catch (IOException e) {
+			// connection lost
+			this.stopKeepAlive();
+		}finally{
+			this.keepAlivePending.set(false);
+		}
+	}
+
+	/**
+	 * Stop sending keep alive messages
+	 */
+	private void stopKeepAlive(){
+		ScheduledFuture<?> future = this.keepAlive;
+		if(future != null){
+			future.cancel(false);
 		}
-		
 	}
 }
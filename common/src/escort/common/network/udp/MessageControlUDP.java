@@ -1,31 +1,36 @@
 package escort.common.network.udp;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import escort.common.network.CriticalCheck;
 import escort.common.network.MalformedMessageException;
 import escort.common.network.Message;
+import escort.common.network.MessageCodec;
 import escort.common.network.MessageControl;
 import escort.common.systime.SystemTime;
 
@@ -36,149 +41,450 @@ import escort.common.systime.SystemTime;
  */
 public class MessageControlUDP implements MessageControl {
 
-	private final DatagramSocket socket;
+	/**
+	 * Legacy packet mode: AES-CBC with a separate CBC-MAC pass
+	 */
+	public static final byte MODE_CBC = 0;
+
+	/**
+	 * AEAD packet mode: AES-GCM with a nonce derived from the sequence number
+	 */
+	public static final byte MODE_GCM = 1;
+
+	/**
+	 * Handshake option: critical messages are sent on a reliable ordered
+	 * channel, so no TCP connection is needed alongside
+	 */
+	public static final byte OPTION_RELIABLE = 1;
+
+	/**
+	 * The maximum encoded size of a message sent in a single datagram, larger
+	 * messages are split into FRAGMENT messages on the reliable channel
+	 */
+	public static final int MAX_RELIABLE_SIZE = UDPConfig.UDP_BUFFER_SIZE - 128;
+
+	/**
+	 * The number of encoded bytes carried by a FRAGMENT message, four to an
+	 * int, so that a fragment stays below MAX_RELIABLE_SIZE even when every
+	 * int takes five bytes
+	 */
+	public static final int FRAGMENT_SIZE = 3072;
+
+	/**
+	 * The maximum encoded size of a reliable message put together from
+	 * fragments
+	 */
+	public static final int MAX_FRAGMENTED_SIZE = 1 << 20;
+
+	// CBC: iv and authentication code in front of the cipher text
+	private static final int HEADER_SIZE = 32;
+	// GCM: sequence number in front of the cipher text
+	private static final int GCM_HEADER_SIZE = 8;
+	private static final int GCM_TAG_BITS = 128;
+
+	private final DatagramChannel channel;
 	private final int port;
 	private final InetAddress addr;
+	private final InetSocketAddress remote;
 	private final Queue<Message> receivedMessages;
-	private final Object inputLock;
+	//locks instead of monitors, so that a waiting virtual thread does not pin its carrier
+	private final ReentrantLock inputLock;
+	private final Condition messageArrived;
 	//the thread calling read receiveMessage
 	private long message_seq;
 	private long message_seq_recv;
-	private final Object outputLock;
+	private final ReentrantLock outputLock;
 	//whether this control is the client
 	private final boolean isClient;
 	//the thread for listening on the socket
 	private final Thread clientReceivingThread;
-	//AES cipher
+	//AES ciphers, separate for sending and receiving
+	private final byte mode;
 	private final SecretKeySpec key;
 	private final SecureRandom rand;
+	private final Cipher enc;
+	private final Cipher dec;
 	private final Cipher auth;
+	private final Cipher verify;
+	//reused buffers for sending and receiving
+	private final byte[] sendIV;
+	private final byte[] recvIV;
+	private ByteBuffer sendBuffer;
+	private byte[] sendAuthBuffer;
+	private byte[] recvAuthBuffer;
 	//indicating whether this message control is closed
-	private boolean isClosed;
-	private boolean messageput;
+	private volatile boolean isClosed;
+	//binary codecs for each direction
+	private final MessageCodec encoder;
+	private final MessageCodec decoder;
+	//the reliable channel, null if not agreed in the handshake
+	private final ReliableChannel reliable;
+	private final ScheduledFuture<?> reliableTimer;
+	//unreliable messages too large for a datagram which were not sent
+	private final AtomicLong oversized;
+	//keeps the fragments of a message together in the reliable order
+	private final ReentrantLock reliableLock;
+	private final MessageCodec fragmentEncoder;
+	//the fragments received so far of the message being put together
+	private final Object fragmentLock;
+	private final MessageCodec fragmentDecoder;
+	private byte[] fragmentBuffer;
+	private int fragmentNext;
 	
 	/**
 	 * Construct a message control with UDP
-	 * @param socket the UDP socket
+	 * @param channel the UDP channel
 	 * @param addr The address of the remote end
 	 * @param port The port of the remote end
 	 * @param isClient whether this is the client
+	 * @param aeskey The AES key agreed in the handshake
+	 * @param mode The packet mode agreed in the handshake, MODE_CBC or MODE_GCM
+	 * @param options The options agreed in the handshake
 	 * @throws NoSuchPaddingException 
 	 * @throws NoSuchAlgorithmException 
 	 * @throws InvalidKeyException 
 	 * @throws InvalidAlgorithmParameterException 
 	 */
-	public MessageControlUDP(DatagramSocket socket, InetAddress addr, int port, boolean isClient, byte[] aeskey) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException{
-		//initialize the cipher
+	public MessageControlUDP(DatagramChannel channel, InetAddress addr, int port, boolean isClient, byte[] aeskey, byte mode, byte options) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException{
+		//initialize the ciphers
+		this.mode = mode;
 		this.rand = new SecureRandom();
 		this.key = new SecretKeySpec(aeskey,"AES");
-		this.auth = Cipher.getInstance("AES/CBC/PKCS5Padding");
-		byte[] zeroiv = new byte[16];
-		Arrays.fill( zeroiv, (byte) 0 );
-		this.auth.init(Cipher.ENCRYPT_MODE, this.key, new IvParameterSpec(zeroiv));
+		if(mode == MODE_GCM){
+			this.enc = Cipher.getInstance("AES/GCM/NoPadding");
+			this.dec = Cipher.getInstance("AES/GCM/NoPadding");
+			this.auth = null;
+			this.verify = null;
+			//nonce: direction of the packet followed by the sequence number
+			this.sendIV = new byte[12];
+			this.recvIV = new byte[12];
+			this.sendIV[0] = (byte) (isClient ? 1 : 0);
+			this.recvIV[0] = (byte) (isClient ? 0 : 1);
+		}else if(mode == MODE_CBC){
+			this.enc = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			this.dec = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			this.auth = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			this.verify = Cipher.getInstance("AES/CBC/PKCS5Padding");
+			byte[] zeroiv = new byte[16];
+			Arrays.fill( zeroiv, (byte) 0 );
+			this.auth.init(Cipher.ENCRYPT_MODE, this.key, new IvParameterSpec(zeroiv));
+			this.verify.init(Cipher.ENCRYPT_MODE, this.key, new IvParameterSpec(zeroiv));
+			this.sendIV = new byte[16];
+			this.recvIV = null;
+		}else{
+			throw new NoSuchAlgorithmException("Unknown packet mode");
+		}
+		this.sendBuffer = ByteBuffer.allocate(UDPConfig.UDP_BUFFER_SIZE);
+		this.sendAuthBuffer = new byte[UDPConfig.UDP_BUFFER_SIZE];
+		this.recvAuthBuffer = new byte[UDPConfig.UDP_BUFFER_SIZE];
 		
 		//initialize the Message Control
-		this.socket = socket;
+		this.channel = channel;
 		this.receivedMessages = new ConcurrentLinkedQueue<Message>();
 		this.addr = addr;
 		this.port = port;
-		this.inputLock = new Object();
+		this.remote = new InetSocketAddress(addr, port);
+		this.inputLock = new ReentrantLock();
+		this.messageArrived = this.inputLock.newCondition();
 		this.message_seq = 0;
 		this.message_seq_recv = 0;
-		this.outputLock = new Object();
+		this.outputLock = new ReentrantLock();
 		this.isClient = isClient;
 		this.isClosed = false;
+		this.encoder = new MessageCodec();
+		this.decoder = new MessageCodec();
+		this.reliableLock = new ReentrantLock();
+		this.oversized = new AtomicLong();
+		this.fragmentEncoder = new MessageCodec();
+		this.fragmentLock = new Object();
+		this.fragmentDecoder = new MessageCodec();
+		this.fragmentBuffer = null;
+		this.fragmentNext = 0;
+		if((options & OPTION_RELIABLE) != 0){
+			this.reliable = new ReliableChannel();
+			this.reliableTimer = ReliableChannel.schedule(() -> this.retransmit());
+		}else{
+			this.reliable = null;
+			this.reliableTimer = null;
+		}
 		if(this.isClient){
 			this.clientReceivingThread = new Thread(() -> this.clientReceiver(),"Client Packet Receiver");
 			this.clientReceivingThread.start();
 		}else{
 			this.clientReceivingThread = null;
 		}
-		this.messageput = false;
 	}
 	
 	/**
-	 * Send a message
+	 * Construct a message control with UDP without a reliable channel
+	 * @param channel the UDP channel
+	 * @param addr The address of the remote end
+	 * @param port The port of the remote end
+	 * @param isClient whether this is the client
+	 * @param aeskey The AES key agreed in the handshake
+	 * @param mode The packet mode agreed in the handshake, MODE_CBC or MODE_GCM
+	 * @throws NoSuchPaddingException 
+	 * @throws NoSuchAlgorithmException 
+	 * @throws InvalidKeyException 
+	 * @throws InvalidAlgorithmParameterException 
+	 */
+	public MessageControlUDP(DatagramChannel channel, InetAddress addr, int port, boolean isClient, byte[] aeskey, byte mode) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException{
+		this(channel, addr, port, isClient, aeskey, mode, (byte) 0);
+	}
+	
+	/**
+	 * Construct a message control with UDP using the legacy CBC packet mode
+	 * @param channel the UDP channel
+	 * @param addr The address of the remote end
+	 * @param port The port of the remote end
+	 * @param isClient whether this is the client
+	 * @param aeskey The AES key agreed in the handshake
+	 * @throws NoSuchPaddingException 
+	 * @throws NoSuchAlgorithmException 
+	 * @throws InvalidKeyException 
+	 * @throws InvalidAlgorithmParameterException 
+	 */
+	public MessageControlUDP(DatagramChannel channel, InetAddress addr, int port, boolean isClient, byte[] aeskey) throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException{
+		this(channel, addr, port, isClient, aeskey, MODE_CBC);
+	}
+	
+	/**
+	 * Send a message, critical messages go to the reliable channel if there is
+	 * one. Other messages too large for a single datagram go to the reliable
+	 * channel as well, or are dropped without one, as the receiver would
+	 * truncate them.
 	 */
 	@Override
 	public void sendMessage(Message command) throws IOException {
-		synchronized(this.outputLock){
+		int size = MessageCodec.encodedSize(command);
+		if(this.reliable == null || !isReliable(command)){
+			if(size <= MAX_RELIABLE_SIZE){
+				this.sendPacket(command, 0);
+				return;
+			}
+			if(this.reliable == null){
+				//dropped like a lost packet
+				this.oversized.incrementAndGet();
+				return;
+			}
+		}
+		
+		this.reliableLock.lock();
+		try{
+			if(size <= MAX_RELIABLE_SIZE){
+				this.sendReliable(command);
+				return;
+			}
+			
+			//split the encoded message, the fragments follow each other in the reliable order
+			int length = this.fragmentEncoder.encode(command);
+			if(length > MAX_FRAGMENTED_SIZE){
+				this.close();
+				throw new IOException("Message too large for UDP");
+			}
+			byte[] data = this.fragmentEncoder.getBuffer();
+			int count = (length + FRAGMENT_SIZE - 1) / FRAGMENT_SIZE;
+			for(int i = 0; i < count; i++){
+				int start = i * FRAGMENT_SIZE;
+				int end = Math.min(start + FRAGMENT_SIZE, length);
+				int[] values = new int[3 + (end - start + 3) / 4];
+				values[0] = i;
+				values[1] = count;
+				values[2] = length;
+				for(int j = start; j < end; j++){
+					values[3 + (j - start) / 4] |= (data[j] & 0xff) << (24 - 8 * ((j - start) % 4));
+				}
+				this.sendReliable(new Message(Message.FRAGMENT, values));
+			}
+		}finally{
+			this.reliableLock.unlock();
+		}
+	}
+	
+	/**
+	 * Send a message on the reliable channel
+	 * @param command The message, no larger than MAX_RELIABLE_SIZE
+	 * @throws IOException
+	 */
+	private void sendReliable(Message command) throws IOException {
+		//wait for a place in the window
+		ReliableChannel.Pending pending;
+		try{
+			pending = this.reliable.register(command, UDPConfig.UDP_MAX_INACTIVITY);
+		}catch(InterruptedException e){
+			throw new IOException("Sending thread interrupted");
+		}
+		if(pending == null){
+			this.close();
+			throw new IOException("Connection lost.");
+		}
+		this.sendPacket(command, pending.rseq);
+	}
+	
+	/**
+	 * Whether a message goes to the reliable channel
+	 * @param command The message
+	 * @return Whether it has to be sent reliably
+	 */
+	private static boolean isReliable(Message command){
+		return command.messageType != Message.KEEP_ALIVE && CriticalCheck.isCritical(command);
+	}
+	
+	/**
+	 * Send a packet, carrying the acknowledgements of the reliable channel
+	 * @param command The message, null to send acknowledgements only
+	 * @param rseq The reliable sequence number, 0 if unreliable
+	 * @throws IOException
+	 */
+	private void sendPacket(Message command, long rseq) throws IOException {
+		this.outputLock.lock();
+		try{
 			try{
-				//create stream Message
-				ByteArrayOutputStream byteStream = new ByteArrayOutputStream(UDPConfig.UDP_BUFFER_SIZE);
-				ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(byteStream));
-							
 				//write Message
-				os.flush();
-				os.writeObject(new MessageStamp(++this.message_seq,SystemTime.milliTime(),command,false,0));
-				os.flush();
-							
+				long seq = ++this.message_seq;
+				MessageStamp stamp;
+				if(this.reliable != null){
+					stamp = this.reliable.stamp(seq,SystemTime.milliTime(),command,rseq);
+				}else{
+					stamp = new MessageStamp(seq,SystemTime.milliTime(),command,false,0);
+				}
+				int length = this.encoder.encode(stamp);
+				
 				//encrypt message
-				byte[] sendBuf = byteStream.toByteArray();
-				byte[] iv = new byte[16];
-				this.rand.nextBytes(iv);
-				Cipher enc = Cipher.getInstance("AES/CBC/PKCS5Padding");
-				enc.init(Cipher.ENCRYPT_MODE, this.key, new IvParameterSpec(iv));
-				//create the packet content
-				byte[] cipher = enc.doFinal(sendBuf);
-				byte[] authcode = this.auth.doFinal(sendBuf);
-				byte[] packetcontent = new byte[iv.length+16+cipher.length];
-				System.arraycopy(iv, 0, packetcontent, 0, iv.length);
-				System.arraycopy(authcode, authcode.length-16, packetcontent, iv.length, 16);
-				System.arraycopy(cipher, 0, packetcontent, iv.length+16, cipher.length);
+				int packetLength;
+				if(this.mode == MODE_GCM){
+					packetLength = this.sealGCM(seq, length);
+				}else{
+					packetLength = this.sealCBC(length);
+				}
 				
 				//send the packet
-				DatagramPacket packet = new DatagramPacket(packetcontent, packetcontent.length, this.addr, this.port);
-				this.socket.send(packet);
-					
-				//close socket
-				os.close();
-				byteStream.close();
-			}catch(IOException | NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e){
+				this.sendBuffer.clear();
+				this.sendBuffer.limit(packetLength);
+				this.channel.send(this.sendBuffer, this.remote);
+			}catch(IOException | GeneralSecurityException e){
 				this.close();
 				throw new IOException("There is a problem with the UDP sending");
 			}
+		}finally{
+			this.outputLock.unlock();
 		}
 	}
 
 	/**
-	 * Receive the next message
+	 * Send the reliable messages whose retransmission timeout has expired, or
+	 * the acknowledgements no packet has carried in time. Run by the timer.
 	 */
-	@Override
-	public synchronized Message receiveMessage() throws ClassNotFoundException, IOException {
-		if(this.isClosed()){
-			throw new IOException("Socket closed");
-		}
-		
-		synchronized(inputLock){
-			//get message
-			Message msg = null;
-			msg = this.receivedMessages.poll();
-			
-			//Message received successfully
-			if(msg != null){
-				return msg;
+	private void retransmit(){
+		try{
+			long now = SystemTime.milliTime();
+			List<ReliableChannel.Pending> due = this.reliable.due(now);
+			if(due != null){
+				for(ReliableChannel.Pending pending : due){
+					this.sendPacket(pending.msg, pending.rseq);
+				}
+			}else if(this.reliable.isAckDue(now)){
+				this.sendPacket(null, 0);
 			}
-			
-			//has to wait
+		}catch(IOException e){
 			try{
-				this.messageput = false;
-				long starttime = SystemTime.milliTime();
-				while(!this.messageput){
-					long waittime = UDPConfig.UDP_MAX_INACTIVITY - (SystemTime.milliTime()-starttime);
-					if(waittime > 0 && !this.isClosed()){
-						this.wait(waittime);
-					}else{
-						this.close();
-						throw new IOException("Connection lost.");
-					}
+				this.close();
+			}catch(IOException e1){
+			}
+		}
+	}
+
+	/**
+	 * Encrypt the encoded message with AES-CBC and a CBC-MAC into the send
+	 * buffer
+	 * @param length The length of the encoded message
+	 * @return The length of the packet
+	 * @throws GeneralSecurityException
+	 */
+	private int sealCBC(int length) throws GeneralSecurityException{
+		byte[] plain = this.encoder.getBuffer();
+		this.rand.nextBytes(this.sendIV);
+		this.enc.init(Cipher.ENCRYPT_MODE, this.key, new IvParameterSpec(this.sendIV));
+		int cipherLength = this.enc.getOutputSize(length);
+		this.ensureSendCapacity(HEADER_SIZE + cipherLength);
+		if(this.sendAuthBuffer.length < cipherLength){
+			this.sendAuthBuffer = new byte[cipherLength];
+		}
+		
+		//create the packet content: iv, authentication code, cipher text
+		byte[] packetcontent = this.sendBuffer.array();
+		System.arraycopy(this.sendIV, 0, packetcontent, 0, 16);
+		int authLength = this.auth.doFinal(plain, 0, length, this.sendAuthBuffer, 0);
+		System.arraycopy(this.sendAuthBuffer, authLength-16, packetcontent, 16, 16);
+		return HEADER_SIZE + this.enc.doFinal(plain, 0, length, packetcontent, HEADER_SIZE);
+	}
+	
+	/**
+	 * Encrypt the encoded message with AES-GCM into the send buffer. The
+	 * sequence number is never reused, so it serves as the nonce.
+	 * @param seq The sequence number of the message
+	 * @param length The length of the encoded message
+	 * @return The length of the packet
+	 * @throws GeneralSecurityException
+	 */
+	private int sealGCM(long seq, int length) throws GeneralSecurityException{
+		putLong(this.sendIV, 4, seq);
+		this.enc.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(GCM_TAG_BITS, this.sendIV));
+		this.ensureSendCapacity(GCM_HEADER_SIZE + this.enc.getOutputSize(length));
+		
+		//create the packet content: sequence number, cipher text with tag
+		byte[] packetcontent = this.sendBuffer.array();
+		putLong(packetcontent, 0, seq);
+		return GCM_HEADER_SIZE + this.enc.doFinal(this.encoder.getBuffer(), 0, length, packetcontent, GCM_HEADER_SIZE);
+	}
+	
+	/**
+	 * Make sure the send buffer can hold a packet
+	 * @param size The packet size
+	 */
+	private void ensureSendCapacity(int size){
+		if(this.sendBuffer.capacity() < size){
+			this.sendBuffer = ByteBuffer.allocate(size);
+		}
+	}
+
+	/**
+	 * Receive the next message
+	 */
+	@Override
+	public Message receiveMessage() throws ClassNotFoundException, IOException {
+		this.inputLock.lock();
+		try{
+			long starttime = SystemTime.milliTime();
+			while(true){
+				if(this.isClosed()){
+					throw new IOException("Socket closed");
 				}
-			}catch(InterruptedException e){
-				throw new IOException("Receiving thread interrupted");
+				
+				//get message
+				Message msg = this.receivedMessages.poll();
+				
+				//Message received successfully
+				if(msg != null){
+					return msg;
+				}
+				
+				//has to wait
+				long waittime = UDPConfig.UDP_MAX_INACTIVITY - (SystemTime.milliTime()-starttime);
+				if(waittime <= 0){
+					break;
+				}
+				this.messageArrived.await(waittime, TimeUnit.MILLISECONDS);
 			}
-			
-			return receiveMessage();
+		}catch(InterruptedException e){
+			throw new IOException("Receiving thread interrupted");
+		}finally{
+			this.inputLock.unlock();
 		}
+		
+		//timed out, closed without holding the input lock
+		this.close();
+		throw new IOException("Connection lost.");
 	}
 	
 	///**
@@ -205,13 +511,27 @@ public class MessageControlUDP implements MessageControl {
 	 * Close the message control
 	 */
 	@Override
-	public synchronized void close() throws IOException {
-		this.isClosed = true;
-		this.notifyAll();
-		if(this.isClient){
-			this.clientReceivingThread.interrupt();
-			this.socket.close();
+	public void close() throws IOException {
+		synchronized(this){
+			this.isClosed = true;
+			if(this.reliableTimer != null){
+				this.reliableTimer.cancel(false);
+			}
+			if(this.isClient){
+				this.clientReceivingThread.interrupt();
+				this.channel.close();
+			}
 		}
+		this.signalReceiver();
+	}
+	
+	/**
+	 * Get the number of unreliable messages dropped as they were too large
+	 * for a datagram and there is no reliable channel to split them on
+	 * @return The number of dropped messages
+	 */
+	public long getOversizedCount(){
+		return this.oversized.get();
 	}
 	
 	/**
@@ -235,20 +555,226 @@ public class MessageControlUDP implements MessageControl {
 	 * @param msg The message control
 	 */
 	public void putMessage(MessageStamp msg){
-		if(msg.seq <= this.message_seq_recv){
-			//Prevent replay attack
-			return;
+		if(msg.rseq != 0){
+			//reliable message, duplicates are dropped by the reliable channel
+			if(this.reliable == null){
+				return;
+			}
+			this.reliable.acknowledged(msg.ackseq, msg.sack, SystemTime.milliTime());
+			List<Message> ready = this.reliable.receive(msg.rseq, msg.msg, SystemTime.milliTime());
+			if(ready.isEmpty()){
+				return;
+			}
+			for(Message m : ready){
+				if(m.messageType != Message.FRAGMENT){
+					this.receivedMessages.offer(m);
+					continue;
+				}
+				try{
+					Message whole = this.putFragment(m);
+					if(whole != null){
+						this.receivedMessages.offer(whole);
+					}
+				}catch(MalformedMessageException e){
+					//the reliable order cannot be recovered
+					try{
+						this.close();
+					}catch(IOException e1){
+					}
+					return;
+				}
+			}
 		}else{
-			this.message_seq_recv = msg.seq;
+			if(msg.seq <= this.message_seq_recv){
+				//Prevent replay attack
+				return;
+			}else{
+				this.message_seq_recv = msg.seq;
+			}
+			
+			if(this.reliable != null && msg.ack){
+				this.reliable.acknowledged(msg.ackseq, msg.sack, SystemTime.milliTime());
+			}
+			if(msg.msg == null){
+				//acknowledgements only
+				return;
+			}
+			this.receivedMessages.offer(msg.msg);
 		}
 		
-		this.receivedMessages.offer(msg.msg);
+		this.signalReceiver();
+	}
+	
+	/**
+	 * Wake up the thread waiting in receiveMessage
+	 */
+	private void signalReceiver(){
+		this.inputLock.lock();
+		try{
+			this.messageArrived.signalAll();
+		}finally{
+			this.inputLock.unlock();
+		}
+	}
+	
+	/**
+	 * Add a fragment received in order to the message being put together
+	 * @param fragment The FRAGMENT message
+	 * @return The whole message once its last fragment is added, null otherwise
+	 * @throws MalformedMessageException The fragment does not follow the previous one
+	 */
+	private Message putFragment(Message fragment) throws MalformedMessageException{
+		int[] values = fragment.getInts();
+		synchronized(this.fragmentLock){
+			if(values == null || values.length < 3){
+				throw new MalformedMessageException();
+			}
+			int index = values[0];
+			int count = values[1];
+			int length = values[2];
+			if(index == 0){
+				if(this.fragmentBuffer != null || length <= 0 || length > MAX_FRAGMENTED_SIZE
+						|| count != (length + FRAGMENT_SIZE - 1) / FRAGMENT_SIZE){
+					throw new MalformedMessageException();
+				}
+				this.fragmentBuffer = new byte[length];
+				this.fragmentNext = 0;
+			}
+			if(this.fragmentBuffer == null || index != this.fragmentNext
+					|| count != (this.fragmentBuffer.length + FRAGMENT_SIZE - 1) / FRAGMENT_SIZE
+					|| length != this.fragmentBuffer.length){
+				throw new MalformedMessageException();
+			}
+			int start = index * FRAGMENT_SIZE;
+			int end = Math.min(start + FRAGMENT_SIZE, length);
+			if(values.length != 3 + (end - start + 3) / 4){
+				throw new MalformedMessageException();
+			}
+			for(int j = start; j < end; j++){
+				this.fragmentBuffer[j] = (byte) (values[3 + (j - start) / 4] >>> (24 - 8 * ((j - start) % 4)));
+			}
+			this.fragmentNext++;
+			if(this.fragmentNext < count){
+				return null;
+			}
+			
+			//the last fragment, decode the whole message
+			byte[] data = this.fragmentBuffer;
+			this.fragmentBuffer = null;
+			this.fragmentNext = 0;
+			return this.fragmentDecoder.decodeMessage(data, 0, data.length);
+		}
+	}
+	
+	/**
+	 * Decrypt a received packet in place, check its authenticity and put its
+	 * message. The packet content is overwritten.
+	 * @param packet The packet content, between position and limit, backed by an array
+	 * @throws MalformedMessageException The packet is malformed or not authentic
+	 */
+	public void receivePacket(ByteBuffer packet) throws MalformedMessageException{
+		if(!packet.hasArray()){
+			throw new MalformedMessageException();
+		}
 		
-		synchronized(this){
-			this.messageput = true;
-			this.notifyAll();
+		MessageStamp msg;
+		synchronized(this.dec){
+			try{
+				if(this.mode == MODE_GCM){
+					msg = this.openGCM(packet);
+				}else{
+					msg = this.openCBC(packet);
+				}
+			}catch(GeneralSecurityException e){
+				throw new MalformedMessageException();
+			}
+		}
+		this.putMessage(msg);
+	}
+	
+	/**
+	 * Decrypt a CBC packet in place and check its authentication code
+	 * @param packet The packet
+	 * @return The stamped message
+	 * @throws GeneralSecurityException
+	 * @throws MalformedMessageException
+	 */
+	private MessageStamp openCBC(ByteBuffer packet) throws GeneralSecurityException, MalformedMessageException{
+		if(packet.remaining() < HEADER_SIZE){
+			throw new MalformedMessageException();
+		}
+		byte[] data = packet.array();
+		int start = packet.arrayOffset() + packet.position();
+		
+		//Decrypt the content in place
+		this.dec.init(Cipher.DECRYPT_MODE, this.key, new IvParameterSpec(data, start, 16));
+		packet.position(packet.position() + HEADER_SIZE);
+		ByteBuffer plain = packet.duplicate();
+		int plainLength = this.dec.doFinal(packet, plain);
+		
+		//check the authentication code
+		int authLength = this.verify.doFinal(data, start + HEADER_SIZE, plainLength, this.recvAuthBuffer, 0);
+		int diff = 0;
+		for(int i = 0; i < 16; i++){
+			diff |= data[start + 16 + i] ^ this.recvAuthBuffer[authLength - 16 + i];
+		}
+		if(diff != 0){
+			throw new MalformedMessageException();
 		}
 		
+		//read message
+		return this.decoder.decodeStamp(data, start + HEADER_SIZE, plainLength);
+	}
+	
+	/**
+	 * Decrypt a GCM packet in place, the tag is checked by the cipher
+	 * @param packet The packet
+	 * @return The stamped message
+	 * @throws GeneralSecurityException
+	 * @throws MalformedMessageException
+	 */
+	private MessageStamp openGCM(ByteBuffer packet) throws GeneralSecurityException, MalformedMessageException{
+		if(packet.remaining() < GCM_HEADER_SIZE + GCM_TAG_BITS / 8){
+			throw new MalformedMessageException();
+		}
+		byte[] data = packet.array();
+		int start = packet.arrayOffset() + packet.position();
+		
+		//Decrypt the content in place
+		long seq = getLong(data, start);
+		putLong(this.recvIV, 4, seq);
+		this.dec.init(Cipher.DECRYPT_MODE, this.key, new GCMParameterSpec(GCM_TAG_BITS, this.recvIV));
+		packet.position(packet.position() + GCM_HEADER_SIZE);
+		ByteBuffer plain = packet.duplicate();
+		int plainLength = this.dec.doFinal(packet, plain);
+		
+		//read message, the stamp has to carry the sequence number of the nonce
+		MessageStamp msg = this.decoder.decodeStamp(data, start + GCM_HEADER_SIZE, plainLength);
+		if(msg.seq != seq){
+			throw new MalformedMessageException();
+		}
+		return msg;
+	}
+	
+	/**
+	 * Write a long in big endian
+	 */
+	private static void putLong(byte[] buffer, int offset, long value){
+		for(int i = 7; i >= 0; i--){
+			buffer[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+	
+	/**
+	 * Read a long in big endian
+	 */
+	private static long getLong(byte[] buffer, int offset){
+		long value = 0;
+		for(int i = 0; i < 8; i++){
+			value = (value << 8) | (buffer[offset + i] & 0xFF);
+		}
+		return value;
 	}
 	
 	/**
@@ -256,62 +782,24 @@ public class MessageControlUDP implements MessageControl {
 	 */
 	private void clientReceiver(){
 		long lastKeepAlive = SystemTime.milliTime();
+		//only this thread receives, the buffer is reused for every packet
+		ByteBuffer buffer = ByteBuffer.allocate(UDPConfig.UDP_BUFFER_SIZE);
 		
 		while(true){
 			try {
-				//create buffer
-				byte[] buffer = new byte[UDPConfig.UDP_BUFFER_SIZE];
-				
 				//receive packet
-				DatagramPacket packet = new DatagramPacket(buffer,buffer.length);
-				//this.socket.setSoTimeout(UDPConfig.UDP_CLIENT_RECEIVE_MAXTIME);
-				this.socket.receive(packet);
-				
-				//get the packet content
-				if(packet.getLength() < 32){
-					throw new MalformedMessageException();
-				}
-				byte[] iv = new byte[16];
-				byte[] authcode = new byte[16];
-				byte[] cipher = new byte[packet.getLength()-32];
-				System.arraycopy(buffer, 0, iv, 0, 16);
-				System.arraycopy(buffer, 16, authcode, 0, 16);
-				System.arraycopy(buffer, 32, cipher, 0, packet.getLength()-32);
-				
-				//Decrypt the content
-				Cipher dec = Cipher.getInstance("AES/CBC/PKCS5Padding");
-				dec.init(Cipher.DECRYPT_MODE, this.key, new IvParameterSpec(iv));
-				byte[] plain = dec.doFinal(cipher);
-				byte[] authcodecipher = this.auth.doFinal(plain);
-				byte[] authcodecheck = new byte[16];
-				System.arraycopy(authcodecipher, authcodecipher.length-16, authcodecheck, 0, 16);
-				if(!Arrays.equals(authcode, authcodecheck)){
-					throw new MalformedMessageException();
-				}
-				
-				//read message
-				ByteArrayInputStream byteStream = new ByteArrayInputStream(plain);
-				ObjectInputStream input = new ObjectInputStream(byteStream);
-				MessageStamp msg = null;
-				Object obj = input.readObject();
-				if(obj instanceof MessageStamp){
-					msg = (MessageStamp)obj;
-				}else{
-					throw new MalformedMessageException();
-				}
-				
-				//close streams
-				input.close();
-				byteStream.close();
+				buffer.clear();
+				SocketAddress sender = this.channel.receive(buffer);
+				buffer.flip();
 				
 				//check if the remote address and port is correct
-				if(packet.getAddress().equals(this.addr) && packet.getPort() == this.port){
-					this.putMessage(msg);
+				if(this.remote.equals(sender)){
+					this.receivePacket(buffer);
 				}
 			} catch (Exception e){
 			}
 			
-			if(Thread.currentThread().isInterrupted()){
+			if(Thread.currentThread().isInterrupted() || !this.channel.isOpen()){
 				break;
 			}
 			
@@ -330,7 +818,10 @@ public class MessageControlUDP implements MessageControl {
 		}
 		
 		//close the socket
-		this.socket.close();
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+		}
 	}
 	
 	/**
@@ -349,6 +840,22 @@ public class MessageControlUDP implements MessageControl {
 		return this.port;
 	}
 	
+	/**
+	 * Get the reliable channel
+	 * @return The reliable channel, null if not agreed in the handshake
+	 */
+	public ReliableChannel getReliableChannel(){
+		return this.reliable;
+	}
+	
+	/**
+	 * Get the packet mode agreed in the handshake
+	 * @return MODE_CBC or MODE_GCM
+	 */
+	public byte getMode(){
+		return this.mode;
+	}
+	
 	/**
 	 * Get the AES encryption key
 	 * @return The AES encryption key
@@ -356,12 +863,4 @@ public class MessageControlUDP implements MessageControl {
 	public SecretKeySpec getAESKey(){
 		return this.key;
 	}
-
-	/**
-	 * Get the authentication cipher
-	 * @return The authentication cipher
-	 */
-	public Cipher getAuthCipher(){
-		return this.auth;
-	}
 }
@@ -20,6 +20,8 @@ public class MessageStamp implements Serializable{
 	public final Message msg;
 	public final boolean ack;
 	public final long ackseq;
+	public final long rseq;
+	public final long sack;
 	
 	/**
 	 * Create a message stamp for the message
@@ -30,10 +32,26 @@ public class MessageStamp implements Serializable{
 	 * @param ackseq Which message are you replying to
 	 */
 	public MessageStamp(long seq,long time,Message msg,boolean ack,long ackseq){
+		this(seq, time, msg, ack, ackseq, 0, 0);
+	}
+	
+	/**
+	 * Create a message stamp for the reliable channel
+	 * @param seq the sequence of this packet
+	 * @param time The time of this message being sent
+	 * @param msg The message, null for a packet only carrying acknowledgements
+	 * @param ack Whether ackseq and sack acknowledge reliable messages
+	 * @param ackseq The last reliable message received in order
+	 * @param rseq The reliable sequence of the message, 0 if unreliable
+	 * @param sack Bit i set if reliable message ackseq + 1 + i was received
+	 */
+	public MessageStamp(long seq,long time,Message msg,boolean ack,long ackseq,long rseq,long sack){
 		this.seq = seq;
 		this.time = time;
 		this.msg = msg;
 		this.ack = ack;
 		this.ackseq = ackseq;
+		this.rseq = rseq;
+		this.sack = sack;
 	}
 }
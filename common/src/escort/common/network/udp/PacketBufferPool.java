@@ -0,0 +1,71 @@
+package escort.common.network.udp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed ring of reusable receive buffers, so that receiving a datagram does
+ * not allocate a new buffer. When the ring is empty, a temporary buffer is
+ * allocated instead of blocking the receiver.
+ *
+ * The buffers are heap buffers: the channel receives through its own cached
+ * direct buffer, and both the cipher and the message codec work on the backing
+ * array without copying.
+ */
+public final class PacketBufferPool {
+
+	private final BlockingQueue<ByteBuffer> buffers;
+	private final int bufferSize;
+
+	/**
+	 * Construct a buffer pool
+	 *
+	 * @param count
+	 *            The number of buffers in the ring
+	 * @param bufferSize
+	 *            The size of each buffer
+	 */
+	public PacketBufferPool(int count, int bufferSize) {
+		this.buffers = new ArrayBlockingQueue<ByteBuffer>(count);
+		this.bufferSize = bufferSize;
+		for (int i = 0; i < count; i++) {
+			this.buffers.offer(ByteBuffer.allocate(bufferSize));
+		}
+	}
+
+	/**
+	 * Take a cleared buffer from the ring
+	 *
+	 * @return The buffer
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = this.buffers.poll();
+		if (buffer == null) {
+			// all buffers are in use
+			return ByteBuffer.allocate(this.bufferSize);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer to the ring
+	 *
+	 * @param buffer
+	 *            The buffer no longer used
+	 */
+	public void release(ByteBuffer buffer) {
+		// temporary buffers beyond the ring size are left to the GC
+		this.buffers.offer(buffer);
+	}
+
+	/**
+	 * Get the number of buffers available
+	 *
+	 * @return The number of free buffers
+	 */
+	public int available() {
+		return this.buffers.size();
+	}
+}
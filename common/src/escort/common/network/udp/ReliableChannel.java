@@ -0,0 +1,314 @@
+package escort.common.network.udp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import escort.common.network.Message;
+import escort.common.systime.SystemTime;
+
+/**
+ * The state of the reliable ordered channel of a UDP message control. Every
+ * reliable message has its own sequence number, separate from the packet
+ * sequence number, and is retransmitted until the remote end acknowledges it.
+ * Acknowledgements are cumulative with a bitmap of the 64 following messages,
+ * so a single lost packet does not cause the messages after it to be sent
+ * again. The retransmission timeout follows the round trip time estimated
+ * from the acknowledgements (RFC 6298).
+ */
+public final class ReliableChannel {
+
+	/**
+	 * The maximum number of reliable messages waiting for acknowledgement, and
+	 * the maximum distance of a message ahead of the next expected one
+	 */
+	public static final int WINDOW = 256;
+
+	/**
+	 * The number of transmissions of a message after which the connection is
+	 * considered lost
+	 */
+	public static final int MAX_TRANSMISSIONS = 12;
+
+	/**
+	 * The interval at which retransmissions and delayed acknowledgements are
+	 * checked, in milliseconds
+	 */
+	public static final long TICK = 10;
+
+	// acknowledgements not piggybacked within this time are sent on their own
+	private static final long ACK_DELAY = 20;
+	private static final long INITIAL_RTO = 250;
+	private static final long MIN_RTO = 50;
+	private static final long MAX_RTO = 3000;
+
+	// one timer thread drives every reliable channel
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "UDP Retransmission");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// sending side
+	private long nextSeq;
+	private final Map<Long, Pending> pending;
+	// free places in the window, waited for outside the monitor so that a
+	// waiting virtual thread does not pin its carrier
+	private final Semaphore window;
+	private double srtt;
+	private double rttvar;
+	private long rto;
+	private long retransmissions;
+
+	// receiving side
+	private long delivered;
+	private final Map<Long, Message> outOfOrder;
+	private long ackDueSince;
+
+	/**
+	 * Construct the state of a reliable channel
+	 */
+	public ReliableChannel() {
+		this.nextSeq = 1;
+		this.pending = new LinkedHashMap<Long, Pending>();
+		this.window = new Semaphore(WINDOW);
+		this.srtt = -1;
+		this.rttvar = 0;
+		this.rto = INITIAL_RTO;
+		this.retransmissions = 0;
+		this.delivered = 0;
+		this.outOfOrder = new HashMap<Long, Message>();
+		this.ackDueSince = -1;
+	}
+
+	/**
+	 * Run a task periodically on the shared timer thread
+	 * @param task The task
+	 * @return The future to cancel the task
+	 */
+	static ScheduledFuture<?> schedule(Runnable task) {
+		return TIMER.scheduleWithFixedDelay(task, TICK, TICK, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Assign a reliable sequence number to a message, waiting while the
+	 * window is full
+	 * @param msg The message
+	 * @param timeout The maximum time to wait
+	 * @return The pending message, null if the window stayed full
+	 * @throws InterruptedException
+	 */
+	public Pending register(Message msg, long timeout) throws InterruptedException {
+		if (!this.window.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+			return null;
+		}
+		synchronized (this) {
+			Pending p = new Pending(this.nextSeq++, msg, SystemTime.milliTime());
+			this.pending.put(p.rseq, p);
+			return p;
+		}
+	}
+
+	/**
+	 * Handle the acknowledgements carried by a received packet
+	 * @param ackseq The last message received in order by the remote end
+	 * @param sack Bit i set if message ackseq + 1 + i was received
+	 * @param now The current time
+	 */
+	public synchronized void acknowledged(long ackseq, long sack, long now) {
+		int before = this.pending.size();
+		Iterator<Map.Entry<Long, Pending>> it = this.pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long, Pending> entry = it.next();
+			long rseq = entry.getKey();
+			long bit = rseq - ackseq - 1;
+			if (rseq <= ackseq || (bit < 64 && (sack & (1L << bit)) != 0)) {
+				Pending p = entry.getValue();
+				// Karn's algorithm: the sample of a retransmitted message is ambiguous
+				if (p.transmissions == 1) {
+					this.sample(now - p.lastSent);
+				}
+				it.remove();
+			} else if (rseq > ackseq + 64) {
+				break;
+			}
+		}
+		if (this.pending.size() < before) {
+			this.window.release(before - this.pending.size());
+		}
+	}
+
+	/**
+	 * Update the round trip time estimation
+	 * @param rtt The measured round trip time
+	 */
+	private void sample(long rtt) {
+		if (this.srtt < 0) {
+			this.srtt = rtt;
+			this.rttvar = rtt / 2.0;
+		} else {
+			this.rttvar = 0.75 * this.rttvar + 0.25 * Math.abs(this.srtt - rtt);
+			this.srtt = 0.875 * this.srtt + 0.125 * rtt;
+		}
+		long value = (long) (this.srtt + Math.max(TICK, 4 * this.rttvar));
+		this.rto = Math.max(MIN_RTO, Math.min(MAX_RTO, value));
+	}
+
+	/**
+	 * Get the messages whose retransmission timeout has expired, with an
+	 * exponential backoff for every transmission
+	 * @param now The current time
+	 * @return The messages to be sent again
+	 * @throws IOException A message was sent too many times
+	 */
+	public synchronized List<Pending> due(long now) throws IOException {
+		List<Pending> due = null;
+		for (Pending p : this.pending.values()) {
+			long timeout = Math.min(MAX_RTO, this.rto << (p.transmissions - 1));
+			if (now - p.lastSent < timeout) {
+				continue;
+			}
+			if (p.transmissions >= MAX_TRANSMISSIONS) {
+				throw new IOException("Connection lost.");
+			}
+			p.transmissions++;
+			p.lastSent = now;
+			this.retransmissions++;
+			if (due == null) {
+				due = new ArrayList<Pending>();
+			}
+			due.add(p);
+		}
+		return due;
+	}
+
+	/**
+	 * Accept a received reliable message
+	 * @param rseq The reliable sequence number
+	 * @param msg The message
+	 * @param now The current time
+	 * @return The messages which can be delivered in order, may be empty
+	 */
+	public synchronized List<Message> receive(long rseq, Message msg, long now) {
+		List<Message> ready = new ArrayList<Message>();
+		if (this.ackDueSince < 0) {
+			this.ackDueSince = now;
+		}
+		if (rseq <= this.delivered || rseq > this.delivered + WINDOW || msg == null) {
+			// duplicate or too far ahead, only acknowledge again
+			return ready;
+		}
+		if (rseq != this.delivered + 1) {
+			this.outOfOrder.put(rseq, msg);
+			return ready;
+		}
+		ready.add(msg);
+		this.delivered = rseq;
+		Message next;
+		while ((next = this.outOfOrder.remove(this.delivered + 1)) != null) {
+			ready.add(next);
+			this.delivered++;
+		}
+		return ready;
+	}
+
+	/**
+	 * Get the last message received in order, and mark the acknowledgement
+	 * as sent
+	 * @return The cumulative acknowledgement
+	 */
+	public synchronized long takeAck() {
+		this.ackDueSince = -1;
+		return this.delivered;
+	}
+
+	/**
+	 * Get the bitmap of the messages received after the next expected one
+	 * @return Bit i set if message delivered + 1 + i was received
+	 */
+	public synchronized long getSack() {
+		long sack = 0;
+		for (long rseq : this.outOfOrder.keySet()) {
+			long bit = rseq - this.delivered - 1;
+			if (bit < 64) {
+				sack |= 1L << bit;
+			}
+		}
+		return sack;
+	}
+
+	/**
+	 * Stamp an outgoing message with the cumulative acknowledgement and the
+	 * bitmap built against it, and mark the acknowledgement as sent. Both are
+	 * read at once, as a bitmap going out with a later cumulative
+	 * acknowledgement would acknowledge messages never received.
+	 * @param seq The packet sequence number
+	 * @param time The sending time
+	 * @param msg The message, null to send acknowledgements only
+	 * @param rseq The reliable sequence number, 0 if unreliable
+	 * @return The stamped message
+	 */
+	public synchronized MessageStamp stamp(long seq, long time, Message msg, long rseq) {
+		long sack = this.getSack();
+		return new MessageStamp(seq, time, msg, true, this.takeAck(), rseq, sack);
+	}
+
+	/**
+	 * Whether an acknowledgement has waited too long for a packet to carry it
+	 * @param now The current time
+	 * @return Whether an acknowledgement has to be sent on its own
+	 */
+	public synchronized boolean isAckDue(long now) {
+		return this.ackDueSince >= 0 && now - this.ackDueSince >= ACK_DELAY;
+	}
+
+	/**
+	 * Get the number of messages waiting for acknowledgement
+	 * @return The number of unacknowledged messages
+	 */
+	public synchronized int getPendingCount() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Get the current retransmission timeout
+	 * @return The retransmission timeout in milliseconds
+	 */
+	public synchronized long getRTO() {
+		return this.rto;
+	}
+
+	/**
+	 * Get the number of retransmitted messages
+	 * @return The number of retransmissions
+	 */
+	public synchronized long getRetransmissionCount() {
+		return this.retransmissions;
+	}
+
+	/**
+	 * A reliable message waiting for acknowledgement
+	 */
+	public static final class Pending {
+		final long rseq;
+		final Message msg;
+		long lastSent;
+		int transmissions;
+
+		private Pending(long rseq, Message msg, long now) {
+			this.rseq = rseq;
+			this.msg = msg;
+			this.lastSent = now;
+			this.transmissions = 1;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package escort.common.systime;
+
+/**
+ * The clock of a game simulation, which advances in whole ticks of a fixed
+ * length instead of reading the time of the system. Timers of the game store
+ * the tick they were set on, so a game behaves the same however fast its ticks
+ * are run.
+ */
+public final class SimulationClock {
+
+	/**
+	 * The number of ticks in a second of game time
+	 */
+	public static final int TICKS_PER_SECOND = 60;
+
+	private volatile long tick;
+
+	/**
+	 * Create a clock at tick zero
+	 */
+	public SimulationClock() {
+		this.tick = 0;
+	}
+
+	/**
+	 * Advance the clock by one tick. Only called by the thread running the
+	 * simulation.
+	 */
+	public void advance() {
+		tick++;
+	}
+
+	/**
+	 * Get the current tick
+	 *
+	 * @return The number of ticks since the clock was created
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Get the game time of the current tick
+	 *
+	 * @return The time in milliseconds
+	 */
+	public long milliTime() {
+		return tick * 1000 / TICKS_PER_SECOND;
+	}
+
+	/**
+	 * Get the number of ticks since a tick
+	 *
+	 * @param since
+	 *            The earlier tick
+	 * @return The number of ticks
+	 */
+	public long ticksSince(long since) {
+		return tick - since;
+	}
+
+	/**
+	 * Whether a duration has passed since a tick
+	 *
+	 * @param since
+	 *            The tick the duration started on
+	 * @param millis
+	 *            The duration in milliseconds
+	 * @return True iff at least the ticks of the duration have passed
+	 */
+	public boolean elapsed(long since, long millis) {
+		return tick - since >= toTicks(millis);
+	}
+
+	/**
+	 * Convert a duration to a number of ticks, rounding up
+	 *
+	 * @param millis
+	 *            The duration in milliseconds
+	 * @return The number of ticks, at least as long as the duration
+	 */
+	public static long toTicks(long millis) {
+		return Math.floorDiv(millis * TICKS_PER_SECOND + 999, 1000);
+	}
+}
@@ -0,0 +1,82 @@
+package escort.server.game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import escort.common.network.Message;
+
+public class CommandRingTest {
+
+	@Test
+	public void testOrderAndCapacity() {
+		CommandRing ring = new CommandRing(4);
+		Message[] messages = new Message[5];
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = new Message(Message.RELOAD, new int[] { i });
+		}
+		for (int i = 0; i < 4; i++) {
+			assertTrue(ring.offer(messages[i]));
+		}
+		// full until the consumer frees a slot
+		assertTrue(!ring.offer(messages[4]));
+		assertTrue(ring.poll() == messages[0]);
+		assertTrue(ring.offer(messages[4]));
+		for (int i = 1; i < messages.length; i++) {
+			assertTrue(ring.poll() == messages[i]);
+		}
+		assertNull(ring.poll());
+	}
+
+	@Test
+	public void testManyProducers() throws InterruptedException {
+		CommandRing ring = new CommandRing(64);
+		int producers = 4;
+		int each = 10000;
+		List<Thread> threads = new ArrayList<>();
+		for (int p = 0; p < producers; p++) {
+			int producer = p;
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < each; i++) {
+					Message msg = new Message(Message.RELOAD, new int[] { producer, i });
+					while (!ring.offer(msg)) {
+						Thread.yield();
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		// the messages of each producer arrive in the order they were added
+		int[] next = new int[producers];
+		int received = 0;
+		while (received < producers * each) {
+			Message msg = ring.poll();
+			if (msg == null) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals(next[msg.getInts()[0]]++, msg.getInts()[1]);
+			received++;
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(ring.poll());
+	}
+
+	@Test
+	public void testCapacityPowerOfTwo() {
+		try {
+			new CommandRing(100);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package escort.server.game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.systime.SimulationClock;
+
+public class GameSchedulerTest {
+
+	private GameScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		scheduler = new GameScheduler(2);
+	}
+
+	@Test
+	public void testTickRate() throws InterruptedException {
+		AtomicInteger ticks = new AtomicInteger();
+		GameScheduler.Task task = scheduler.schedule(ticks::incrementAndGet, e -> {
+		});
+		Thread.sleep(1000);
+		task.cancel();
+		int ran = ticks.get();
+		assertTrue(ran > SimulationClock.TICKS_PER_SECOND / 2);
+		assertTrue(ran <= SimulationClock.TICKS_PER_SECOND + GameScheduler.MAX_CATCH_UP);
+		assertEquals(ran, task.getTicks());
+
+		// no more ticks once cancelled
+		Thread.sleep(100);
+		assertEquals(ran, ticks.get());
+		assertEquals(0, scheduler.size());
+	}
+
+	@Test
+	public void testTaskKeptBeforeFirstTick() throws InterruptedException {
+		AtomicReference<GameScheduler.Task> holder = new AtomicReference<>();
+		AtomicInteger ticks = new AtomicInteger();
+		// the first tick ends the game through the task it was given
+		GameScheduler.Task task = scheduler.create(() -> {
+			ticks.incrementAndGet();
+			holder.get().cancel();
+		}, e -> {
+		});
+		holder.set(task);
+		assertEquals(0, scheduler.size());
+		task.start();
+		Thread.sleep(200);
+		assertEquals(1, ticks.get());
+		assertTrue(task.isCancelled());
+		assertEquals(0, scheduler.size());
+
+		// a task cancelled before it is started never runs
+		GameScheduler.Task never = scheduler.create(ticks::incrementAndGet, e -> {
+		});
+		never.cancel();
+		never.start();
+		assertEquals(0, scheduler.size());
+	}
+
+	@Test
+	public void testSlowGameDoesNotHoldUpOthers() throws InterruptedException {
+		GameScheduler.Task slow = scheduler.schedule(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+			}
+		}, e -> {
+		});
+		AtomicInteger ticks = new AtomicInteger();
+		GameScheduler.Task fast = scheduler.schedule(ticks::incrementAndGet, e -> {
+		});
+		Thread.sleep(1000);
+		slow.cancel();
+		fast.cancel();
+
+		assertTrue(ticks.get() > SimulationClock.TICKS_PER_SECOND / 2);
+		assertTrue(slow.getOverruns() > 0);
+		assertTrue(slow.getDroppedTicks() > 0);
+		assertTrue(slow.getTicks() < SimulationClock.TICKS_PER_SECOND);
+	}
+
+	@Test
+	public void testGamesOfASlotTakeTurnsToStartFirst() throws InterruptedException {
+		// one worker runs the ticks in the order they were started
+		GameScheduler single = new GameScheduler(1);
+		List<Integer> started = Collections.synchronizedList(new ArrayList<>());
+		List<GameScheduler.Task> tasks = new ArrayList<>();
+		// two games per slot, game i sharing its slot with game i + SLOTS
+		for (int i = 0; i < 2 * GameScheduler.SLOTS; i++) {
+			int game = i;
+			tasks.add(single.schedule(() -> started.add(game), e -> {
+			}));
+		}
+		Thread.sleep(500);
+		for (GameScheduler.Task task : tasks) {
+			task.cancel();
+		}
+
+		int first = 0;
+		int second = 0;
+		synchronized (started) {
+			for (int i = 1; i < started.size(); i++) {
+				if (started.get(i - 1) == 0 && started.get(i) == GameScheduler.SLOTS) {
+					first++;
+				} else if (started.get(i - 1) == GameScheduler.SLOTS && started.get(i) == 0) {
+					second++;
+				}
+			}
+		}
+		assertTrue(first > 0);
+		assertTrue(second > 0);
+	}
+
+	@Test
+	public void testCrashCancels() throws InterruptedException {
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		RuntimeException thrown = new RuntimeException("tick failed");
+		GameScheduler.Task task = scheduler.schedule(() -> {
+			throw thrown;
+		}, error::set);
+		Thread.sleep(200);
+		assertTrue(error.get() == thrown);
+		assertTrue(task.isCancelled());
+		assertEquals(0, scheduler.size());
+	}
+}
@@ -11,6 +11,7 @@ import java.util.HashSet;
 
 import escort.common.game.entities.units.Unit;
 import escort.common.game.map.MapLoader;
+import escort.common.network.Message;
 import escort.server.lobby.LobbySettings;
 import escort.server.network.Player;
 import escort.server.network.ServerSide;
@@ -66,6 +67,41 @@ public class GameTest {
 
     }
 
+    @Test
+    public void testThatFloodingUnitIsRejected() {
+        game.setStarted(true);
+        int unitID = game.getGameData().getUnits().keySet().iterator().next();
+        int accepted = 0;
+        for (int i = 0; i < 2 * GameMessageQueuer.MAX_BURST; i++) {
+            if (game.getQueuer().add(new Message(Message.RELOAD, new int[] { unitID }))) {
+                accepted++;
+            }
+        }
+        // a few ticks may refill the budget while adding
+        assertTrue(accepted >= GameMessageQueuer.MAX_BURST);
+        assertTrue(accepted < 2 * GameMessageQueuer.MAX_BURST);
+        assertTrue(GameMessageQueuer.handles(Message.RELOAD));
+        assertTrue(!GameMessageQueuer.handles(Message.LOBBY_LIST));
+    }
+
+    @Test
+    public void testThatAICommandsTakeEffectAtOnce() {
+        Unit ai = null;
+        for (Unit u : game.getGameData().getUnits().values()) {
+            if (u.getUnitController() != null) {
+                ai = u;
+            }
+        }
+        assertTrue(ai != null);
+        assertTrue(ai.getCommands() == game.getQueuer());
+
+        // no message is queued, so the switch is seen before the next tick
+        ai.setWeapon(Unit.PISTOL);
+        ai.switchWeaponServer(Unit.MACHINE_GUN);
+        assertTrue(ai.getWeapon() == Unit.MACHINE_GUN);
+        assertTrue(game.getQueuer().getDroppedCount() == 0);
+    }
+
     @Test
     public void testThatSpawnsAreValid() {
         for(int i = 0; i < 10000; i++) {
@@ -0,0 +1,94 @@
+package escort.server.game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.entities.units.Unit;
+import escort.common.game.map.MapLoader;
+import escort.server.lobby.LobbySettings;
+import escort.server.network.Player;
+import escort.server.network.ServerSide;
+
+public class InterestManagerTest {
+
+	private Game game;
+	private InterestManager interest;
+	private Player player;
+	private Unit own;
+	private Unit other;
+
+	@Before
+	public void setUp() {
+		ServerSide ss = new ServerSide(null);
+		ArrayList<Player> players = new ArrayList<Player>();
+		players.add(new Player(null, ss));
+		players.add(new Player(null, ss));
+		LobbySettings settings = new LobbySettings();
+		settings.numAssassinsAI = 0;
+		settings.numPoliceAI = 1;
+		settings.numCivilianAI = 0;
+		try {
+			(new MapLoader()).load();
+		} catch (Exception e) {
+		}
+		game = new Game(players, ss.getLobbyManagement(), 1, settings);
+		interest = game.getInterest();
+		player = players.get(0);
+		own = game.getUnitFromID(player.getUnitID());
+		other = game.getUnitFromID(players.get(1).getUnitID());
+		own.setX(100);
+		own.setY(100);
+	}
+
+	private void placeOther(double distance) {
+		other.setX(own.getX() + distance);
+		other.setY(own.getY());
+	}
+
+	@Test
+	public void testTiers() {
+		assertEquals(InterestManager.FULL_RATE, interest.tier(player, own));
+
+		placeOther(InterestManager.FULL_RATE_RANGE / 2);
+		assertEquals(InterestManager.FULL_RATE, interest.tier(player, other));
+
+		placeOther((InterestManager.FULL_RATE_RANGE + InterestManager.LOW_RATE_RANGE) / 2);
+		assertEquals(InterestManager.LOW_RATE, interest.tier(player, other));
+
+		placeOther(InterestManager.LOW_RATE_RANGE * 2);
+		assertEquals(InterestManager.RADAR_ONLY, interest.tier(player, other));
+		assertTrue(!interest.audience(other).contains(player));
+		assertTrue(interest.audience(own).contains(player));
+	}
+
+	@Test
+	public void testLowRateIsSentLessOften() {
+		placeOther((InterestManager.FULL_RATE_RANGE + InterestManager.LOW_RATE_RANGE) / 2);
+		int due = 0;
+		for (int snapshotID = 0; snapshotID < 10 * InterestManager.LOW_RATE_INTERVAL; snapshotID++) {
+			if (interest.isDue(player, other, snapshotID)) {
+				due++;
+			}
+			assertTrue(interest.isDue(player, own, snapshotID));
+		}
+		assertEquals(10, due);
+	}
+
+	@Test
+	public void testFarUnitsStayOnTheRadar() {
+		// the radar shows the whole map, so no unit is left out for good
+		placeOther(InterestManager.LOW_RATE_RANGE * 2);
+		int due = 0;
+		for (int snapshotID = 0; snapshotID < 10 * InterestManager.RADAR_RATE_INTERVAL; snapshotID++) {
+			if (interest.isDue(player, other, snapshotID)) {
+				due++;
+			}
+		}
+		assertEquals(10, due);
+	}
+}
@@ -0,0 +1,137 @@
+package escort.server.game;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.entities.units.Unit;
+import escort.common.game.map.MapLoader;
+import escort.common.network.Message;
+import escort.server.lobby.LobbySettings;
+import escort.server.network.Player;
+import escort.server.network.ServerSide;
+
+public class SnapshotBroadcasterTest {
+
+	private ServerSide ss;
+	private SnapshotBroadcaster snapshots;
+	private FakeMessageControl control;
+	private Player player;
+	private Player otherPlayer;
+	private Unit other;
+
+	@Before
+	public void setUp() {
+		ss = new ServerSide(null);
+		control = new FakeMessageControl();
+		ArrayList<Player> players = new ArrayList<Player>();
+		players.add(new Player(control, ss));
+		players.add(new Player(new FakeMessageControl(), ss));
+		LobbySettings settings = new LobbySettings();
+		settings.numAssassinsAI = 0;
+		settings.numPoliceAI = 0;
+		settings.numCivilianAI = 0;
+		try {
+			(new MapLoader()).load();
+		} catch (Exception e) {
+		}
+		Game game = new Game(players, ss.getLobbyManagement(), 1, settings);
+		snapshots = game.getSnapshots();
+		player = players.get(0);
+		otherPlayer = players.get(1);
+		player.getSender().start();
+		otherPlayer.getSender().start();
+		Unit own = game.getUnitFromID(player.getUnitID());
+		other = game.getUnitFromID(otherPlayer.getUnitID());
+		own.setX(100);
+		own.setY(100);
+		moveOther(150);
+	}
+
+	@After
+	public void tearDown() {
+		player.getSender().interrupt();
+		otherPlayer.getSender().interrupt();
+		ss.shutdownServer();
+	}
+
+	private void moveOther(double x) {
+		other.setX(x);
+		other.setY(100);
+	}
+
+	/**
+	 * Take the next snapshot and get the message sent to the player
+	 */
+	private Message nextSnapshot() {
+		for (int i = 0; i < SnapshotBroadcaster.SNAPSHOT_INTERVAL; i++) {
+			snapshots.update();
+		}
+		player.getSender().flush();
+		while (true) {
+			Message msg = control.getMessage();
+			if (msg.messageType == Message.BUNDLE) {
+				for (Message inner : msg.getBundle()) {
+					if (inner.messageType == Message.WORLD_SNAPSHOT) {
+						return inner;
+					}
+				}
+			} else if (msg.messageType == Message.WORLD_SNAPSHOT) {
+				return msg;
+			}
+		}
+	}
+
+	private boolean lists(Message snapshot, Unit unit) {
+		int[] ints = snapshot.getInts();
+		for (int i = 2; i < ints.length; i++) {
+			if (ints[i] == unit.getUnitID()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test
+	public void testUnchangedUnitIsLeftOut() {
+		Message first = nextSnapshot();
+		assertEquals(-1, first.getInts()[1]);
+		assertTrue(lists(first, other));
+		snapshots.acknowledge(player.getUnitID(), first.getInts()[0]);
+
+		Message second = nextSnapshot();
+		assertEquals(first.getInts()[0], second.getInts()[1]);
+		assertTrue(!lists(second, other));
+	}
+
+	@Test
+	public void testOnlyNewerSentSnapshotsAreAcknowledged() {
+		int first = nextSnapshot().getInts()[0];
+		int second = nextSnapshot().getInts()[0];
+		assertTrue(!snapshots.acknowledge(player.getUnitID(), second + 1));
+		assertTrue(snapshots.acknowledge(player.getUnitID(), second));
+		assertTrue(!snapshots.acknowledge(player.getUnitID(), second));
+		assertTrue(!snapshots.acknowledge(player.getUnitID(), first));
+	}
+
+	@Test
+	public void testUnitBackToBaseValuesIsSent() {
+		Message base = nextSnapshot();
+		snapshots.acknowledge(player.getUnitID(), base.getInts()[0]);
+
+		// moved away in a snapshot the player has not acknowledged
+		moveOther(200);
+		assertTrue(lists(nextSnapshot(), other));
+
+		// back at the base position, but the player may have the other one
+		moveOther(150);
+		Message back = nextSnapshot();
+		assertEquals(base.getInts()[0], back.getInts()[1]);
+		assertTrue(lists(back, other));
+	}
+}
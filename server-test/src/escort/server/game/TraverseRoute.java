@@ -91,7 +91,7 @@ public class TraverseRoute {
 			while (!policeAI.getRoute().isEmpty()) {
                 System.out.println(police.getAbsoluteBoundsInTiles());
 				policeAI.traverseRoute();
-				police.update();
+				police.update(game.getGameData().getClock());
 			}
 
 			assertTrue(police.getAbsoluteBoundsInTiles().equals(nextTile));
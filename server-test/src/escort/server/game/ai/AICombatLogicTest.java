@@ -205,7 +205,7 @@ public class AICombatLogicTest {
 
 		while (!policeAI.getRoute().isEmpty()) {
 			policeAI.traverseRoute();
-			police.update();
+			police.update(game.getGameData().getClock());
 		}
 
 		assertTrue(police.getAbsoluteBoundsInTiles().equals(assassin.getAbsoluteBoundsInTiles()));
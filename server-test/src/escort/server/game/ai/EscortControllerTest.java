@@ -44,7 +44,7 @@ public class EscortControllerTest {
 		escort = (Escort) game.getGameData().getUnits().get(0);
 		escortController = new EscortController(game.getGameData(), escort, planner);
 		escort.setUnitController(escortController);
-		escort.setSender(new AISender(game.getQueuer()));
+		escort.setCommands(game.getQueuer());
 		game.setStarted(true);
 	}
 
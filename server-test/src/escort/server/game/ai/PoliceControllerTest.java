@@ -37,7 +37,7 @@ public class PoliceControllerTest {
 		police = (Police) game.getGameData().getUnits().get(1);
 		policeController = new PoliceController(game.getGameData(), police, null);
 		police.setUnitController(policeController);
-		police.setSender(new AISender(game.getQueuer()));
+		police.setCommands(game.getQueuer());
 		game.setStarted(true);
 	}
 
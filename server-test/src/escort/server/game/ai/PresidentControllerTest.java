@@ -44,8 +44,7 @@ public class PresidentControllerTest {
 		president = game.getGameData().getPresident();
 		PresidentController presidentController = new PresidentController(game.getGameData(), president, planner);
 		president.setUnitController(presidentController);
-		AISender sender = new AISender(game.getQueuer());
-		escort.setSender(sender);
+		escort.setCommands(game.getQueuer());
 		game.setStarted(true);
 		
 	}
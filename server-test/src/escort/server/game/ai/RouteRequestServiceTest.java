@@ -0,0 +1,145 @@
+package escort.server.game.ai;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.game.entities.units.Unit;
+import escort.common.game.map.MapLoader;
+import escort.common.game.routePlanning.GridAStarSearch;
+import escort.common.game.routePlanning.PlanningMap;
+import escort.common.game.routePlanning.RoutePlanner;
+import escort.server.game.Game;
+import escort.server.lobby.LobbySettings;
+
+/**
+ * Tests for planning the routes of AI controllers off the game thread
+ */
+public class RouteRequestServiceTest {
+
+	private Game game;
+	private Unit unit;
+	private RoutePlanner planner;
+	private RouteRequestService service;
+
+	@Before
+	public void setUp() {
+		LobbySettings settings = new LobbySettings();
+		settings.numAssassinsAI = 0;
+		settings.numPoliceAI = 0;
+		settings.numCivilianAI = 1;
+		try {
+			(new MapLoader()).load();
+		} catch (Exception e) {
+		}
+		// the game is not started, so this thread acts as the game thread
+		game = new Game(new ArrayList<>(), null, 1, settings);
+		unit = game.getUnitFromID(1);
+		planner = new GridAStarSearch();
+		planner.setMap(PlanningMap.getShared(game.getGameData().getMap()));
+		service = new RouteRequestService();
+	}
+
+	private AIController newController() {
+		AIController controller = new AIController(game.getGameData(), unit, planner) {
+			@Override
+			public void control() {
+				traverseRoute();
+			}
+		};
+		controller.setRouteRequests(service);
+		return controller;
+	}
+
+	private static Rectangle last(List<Rectangle> route) {
+		return route.get(route.size() - 1);
+	}
+
+	@Test
+	public void testBudget() {
+		for (int i = 0; i < RouteRequestService.ROUTES_PER_TICK; i++) {
+			assertTrue(service.takeBudget());
+		}
+		assertFalse(service.takeBudget());
+		service.startTick();
+		assertTrue(service.takeBudget());
+	}
+
+	@Test
+	public void testRouteAppliedOnLaterTick() throws InterruptedException {
+		AIController controller = newController();
+		Rectangle goal = controller.getRandomTile();
+		controller.generateRoute(goal);
+		assertTrue(controller.isRoutePending());
+
+		Thread.sleep(500);
+		controller.traverseRoute();
+		assertFalse(controller.isRoutePending());
+		List<Rectangle> expected = planner.route(unit.getAbsoluteBoundsInTiles(), goal);
+		assertEquals(expected.isEmpty(), controller.getRoute().isEmpty());
+		if (!expected.isEmpty()) {
+			assertEquals(goal, last(controller.getRoute()));
+		}
+	}
+
+	@Test
+	public void testGetRouteWaits() {
+		AIController controller = newController();
+		Rectangle goal;
+		do {
+			goal = controller.getRandomTile();
+		} while (planner.route(unit.getAbsoluteBoundsInTiles(), goal).isEmpty());
+		controller.generateRoute(goal);
+		assertEquals(goal, last(controller.getRoute()));
+		assertFalse(controller.isRoutePending());
+	}
+
+	@Test
+	public void testStaleRequestReplaced() throws InterruptedException {
+		AIController controller = newController();
+		Rectangle first = controller.getRandomTile();
+		Rectangle second;
+		do {
+			second = controller.getRandomTile();
+		} while (second.equals(first) || planner.route(unit.getAbsoluteBoundsInTiles(), second).isEmpty());
+		controller.generateRoute(first);
+		controller.generateRoute(second);
+
+		Thread.sleep(500);
+		controller.traverseRoute();
+		assertEquals(second, last(controller.getRoute()));
+	}
+
+	@Test
+	public void testResultsPerTick() throws InterruptedException {
+		Rectangle goal;
+		do {
+			goal = newController().getRandomTile();
+		} while (planner.route(unit.getAbsoluteBoundsInTiles(), goal).size() < 2);
+		List<AIController> controllers = new ArrayList<>();
+		for (int i = 0; i <= RouteRequestService.ROUTES_PER_TICK; i++) {
+			AIController controller = newController();
+			controller.generateRoute(goal);
+			controllers.add(controller);
+		}
+
+		Thread.sleep(500);
+		int applied = 0;
+		for (AIController controller : controllers) {
+			controller.traverseRoute();
+			applied += controller.isRoutePending() ? 0 : 1;
+		}
+		assertEquals(RouteRequestService.ROUTES_PER_TICK, applied);
+
+		service.startTick();
+		controllers.get(RouteRequestService.ROUTES_PER_TICK).traverseRoute();
+		assertFalse(controllers.get(RouteRequestService.ROUTES_PER_TICK).isRoutePending());
+	}
+}
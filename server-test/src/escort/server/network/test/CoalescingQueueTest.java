@@ -0,0 +1,72 @@
+package escort.server.network.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import escort.common.network.Message;
+import escort.server.network.CoalescingQueue;
+
+public class CoalescingQueueTest {
+
+	private CoalescingQueue queue;
+
+	@Before
+	public void setUp() {
+		queue = new CoalescingQueue();
+	}
+
+	private Message moved(int unitID, int forced) {
+		return new Message(Message.UNIT_MOVED, new int[] { unitID, forced }, null, new double[] { 1, 2, 3, 4, 5 });
+	}
+
+	@Test
+	public void testNewerStateReplacesQueuedState() {
+		Message chat = new Message(Message.SYSTEM_MESSAGE, null, new String[] { "hi" });
+		Message first = moved(1, 0);
+		Message other = moved(2, 0);
+		Message second = moved(1, 0);
+		queue.offer(first);
+		queue.offer(chat);
+		queue.offer(other);
+		queue.offer(second);
+
+		// the newer position takes the place of the older one
+		assertEquals(3, queue.size());
+		assertSame(second, queue.poll());
+		assertSame(chat, queue.poll());
+		assertSame(other, queue.poll());
+		assertNull(queue.poll());
+		assertEquals(1, queue.getSupersededCount());
+	}
+
+	@Test
+	public void testForcedMoveIsKept() {
+		queue.offer(moved(1, 1));
+		queue.offer(moved(1, 0));
+		assertEquals(2, queue.size());
+	}
+
+	@Test
+	public void testDequeuedStateIsNotReplaced() {
+		Message first = new Message(Message.HP_LEFT, new int[] { 1, 50 }, null);
+		Message second = new Message(Message.HP_LEFT, new int[] { 1, 40 }, null);
+		queue.offer(first);
+		assertSame(first, queue.poll());
+		queue.offer(second);
+		assertSame(second, queue.poll());
+		assertEquals(0, queue.getSupersededCount());
+	}
+
+	@Test
+	public void testCriticalMessagesAreNeverCoalesced() {
+		queue.offer(new Message(Message.GAME_READY, null, null));
+		queue.offer(new Message(Message.GAME_READY, null, null));
+		queue.offer(new Message(Message.HP_LEFT, null, null));
+		queue.offer(new Message(Message.HP_LEFT, null, null));
+		assertEquals(4, queue.size());
+	}
+}
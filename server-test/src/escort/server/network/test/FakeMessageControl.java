@@ -36,10 +36,19 @@ public class FakeMessageControl implements MessageControl {
 	
 	@Override
 	public void sendMessage(Message command) throws IOException {
+		// unpack messages sent together in one tick
+		if(command.messageType == Message.BUNDLE){
+			for(Message inner : command.getBundle()){
+				this.sendMessage(inner);
+			}
+			return;
+		}
+		
 		// filter game messages
 		switch(command.messageType){
 		case Message.PRES_FOLLOW:
 		case Message.UNIT_MOVED:
+		case Message.WORLD_SNAPSHOT:
 		case Message.PRES_UNFOLLOW:
 		case Message.GRENADE_ID:
 		case Message.THROW_GRENADE:
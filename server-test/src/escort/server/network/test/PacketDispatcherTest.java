@@ -0,0 +1,100 @@
+package escort.server.network.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import escort.server.network.ClientInfo;
+import escort.server.network.PacketDispatcher;
+
+/**
+ * Test for the UDP packet dispatcher
+ */
+public class PacketDispatcherTest {
+
+	@Test
+	public void testOrderPerClient() throws InterruptedException, UnknownHostException {
+		PacketDispatcher dispatcher = new PacketDispatcher(4);
+		ClientInfo c1 = new ClientInfo(InetAddress.getLoopbackAddress(), 1000);
+		ClientInfo c2 = new ClientInfo(InetAddress.getLoopbackAddress(), 1001);
+		List<Integer> l1 = Collections.synchronizedList(new ArrayList<Integer>());
+		List<Integer> l2 = Collections.synchronizedList(new ArrayList<Integer>());
+		CountDownLatch done = new CountDownLatch(100);
+
+		for(int i = 0; i < 50; i++){
+			int value = i;
+			assertTrue(dispatcher.dispatch(c1, () -> { l1.add(value); done.countDown(); }));
+			assertTrue(dispatcher.dispatch(c2, () -> { l2.add(value); done.countDown(); }));
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		for(int i = 0; i < 50; i++){
+			assertTrue(l1.get(i) == i);
+			assertTrue(l2.get(i) == i);
+		}
+		assertTrue(dispatcher.getHandledCount() == 100);
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void testFullLaneDrops() throws InterruptedException {
+		PacketDispatcher dispatcher = new PacketDispatcher(1);
+		ClientInfo c1 = new ClientInfo(InetAddress.getLoopbackAddress(), 1000);
+		CountDownLatch block = new CountDownLatch(1);
+
+		// block the only worker with the first packet
+		dispatcher.dispatch(c1, () -> {
+			try {
+				block.await();
+			} catch (InterruptedException e) {
+			}
+		});
+		Thread.sleep(100);
+		for(int i = 0; i < PacketDispatcher.MAX_LANE_DEPTH; i++){
+			assertTrue(dispatcher.dispatch(c1, () -> {}));
+		}
+		assertFalse(dispatcher.dispatch(c1, () -> {}));
+		assertTrue(dispatcher.getDroppedCount() == 1);
+		assertTrue(dispatcher.getMaxLaneDepth() == PacketDispatcher.MAX_LANE_DEPTH);
+
+		block.countDown();
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void testDispatchAfterShutdownDrops() throws InterruptedException {
+		PacketDispatcher dispatcher = new PacketDispatcher(1);
+		ClientInfo c1 = new ClientInfo(InetAddress.getLoopbackAddress(), 1000);
+		dispatcher.shutdown();
+
+		assertFalse(dispatcher.dispatch(c1, () -> {}));
+		assertFalse(dispatcher.dispatch(c1, () -> {}));
+		assertTrue(dispatcher.getDroppedCount() == 2);
+		assertTrue(dispatcher.getQueueDepth() == 0);
+	}
+
+	@Test
+	public void testPurge() throws InterruptedException {
+		PacketDispatcher dispatcher = new PacketDispatcher(1);
+		ClientInfo c1 = new ClientInfo(InetAddress.getLoopbackAddress(), 1000);
+		CountDownLatch done = new CountDownLatch(2);
+
+		dispatcher.dispatch(c1, done::countDown);
+		Thread.sleep(100);
+		dispatcher.purge(info -> true);
+		assertTrue(dispatcher.getLaneCount() == 0);
+
+		// a new lane is created for a returning client
+		dispatcher.dispatch(c1, done::countDown);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		dispatcher.shutdown();
+	}
+}
@@ -3,11 +3,18 @@ package escort.server.console;
 import java.security.cert.Certificate;
 import java.util.Base64;
 import java.util.Base64.Encoder;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.Scanner;
 
 import escort.common.game.Outcomes;
+import escort.common.game.routePlanning.RouteCache;
 import escort.server.game.Game;
+import escort.server.game.GameScheduler;
+import escort.server.game.ai.AIUnitFactory;
 import escort.server.lobby.Lobby;
+import escort.server.network.PacketDispatcher;
 import escort.server.network.Player;
 import escort.server.network.ServerSide;
 
@@ -90,6 +97,9 @@ public class ServerConsole implements Runnable {
 			System.out.println("player : show information of specific player");
 			System.out.println("lobbies : list lobbies");
 			System.out.println("end : Force end game");
+			System.out.println("network : show UDP packet handling statistics");
+			System.out.println("routes : show AI route cache statistics");
+			System.out.println("games : show game tick statistics");
 			System.out.println("exit : shutdown server");
 			System.out.print("#");
 			System.out.flush();
@@ -129,6 +139,36 @@ public class ServerConsole implements Runnable {
 					}
 					System.out.println("Lobby ID: " + lobby.getID() + ", Lobby name: " + lobby.getName() + ", Master: " + lobby.getMaster().getPlayerID() + ", List of players: " + players);
 				}
+			}else if(command.equals("network")){
+				if(this.ss.getServer() == null){
+					System.out.println("Network server not running");
+				}else{
+					PacketDispatcher dispatcher = this.ss.getServer().getPacketDispatcher();
+					System.out.println("UDP queue depth: " + dispatcher.getQueueDepth() + ", Deepest lane: " + dispatcher.getMaxLaneDepth() + ", Lanes: " + dispatcher.getLaneCount());
+					System.out.println("UDP packets handled: " + dispatcher.getHandledCount() + ", Dropped: " + dispatcher.getDroppedCount());
+				}
+			}else if(command.equals("routes")){
+				if(AIUnitFactory.getRouteCaches().isEmpty()){
+					System.out.println("No routes planned yet");
+				}
+				for(Map.Entry<Integer, RouteCache> entry : AIUnitFactory.getRouteCaches().entrySet()){
+					RouteCache cache = entry.getValue();
+					System.out.println("Map ID: " + entry.getKey() + ", Routes cached: " + cache.size() + ", Hit rate: " + String.format("%.1f%%", 100 * cache.getHitRate()));
+					System.out.println("Hits: " + cache.getHits() + ", Partial hits: " + cache.getPartialHits() + ", Misses: " + cache.getMisses() + ", Evictions: " + cache.getEvictions());
+				}
+			}else if(command.equals("games")){
+				Set<Game> games = new LinkedHashSet<Game>();
+				for(Player player : this.ss.getPlayers()){
+					Game game = player.getGame();
+					if(game != null){
+						games.add(game);
+					}
+				}
+				System.out.println("Games scheduled: " + GameScheduler.getShared().size());
+				for(Game game : games){
+					GameScheduler.Task task = game.getTask();
+					System.out.println("Lobby ID: " + game.getLobbyID() + ", Ticks: " + task.getTicks() + ", Overruns: " + task.getOverruns() + ", Dropped ticks: " + task.getDroppedTicks());
+				}
 			}else if(command.equals("exit")){
 				this.ss.shutdownServer();
 				System.exit(0);
@@ -0,0 +1,96 @@
+package escort.server.game;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import escort.common.network.Message;
+
+/**
+ * A bounded queue of the messages sent to a game, with any number of
+ * producers and the game thread as the single consumer. The slots are
+ * allocated once, and each carries a sequence number which tells the
+ * producers and the consumer whose turn it is to use it, so neither side
+ * takes a lock or allocates per message.
+ */
+public class CommandRing {
+
+	private final int mask;
+	private final Message[] slots;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail;
+	private long head;
+
+	/**
+	 * Create an empty ring
+	 *
+	 * @param capacity
+	 *            The number of slots, a power of two
+	 */
+	public CommandRing(int capacity) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+		}
+		this.mask = capacity - 1;
+		this.slots = new Message[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+		this.tail = new AtomicLong(0);
+		this.head = 0;
+	}
+
+	/**
+	 * Add a message, from any thread
+	 *
+	 * @param msg
+	 *            The message
+	 * @return True if the message was added, false if the ring is full
+	 */
+	public boolean offer(Message msg) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots[index] = msg;
+					// publishes the message to the consumer
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if (difference < 0) {
+				// the consumer has not freed the slot of the previous lap
+				return false;
+			}
+			// another producer took the slot, try the next one
+		}
+	}
+
+	/**
+	 * Take the oldest message, only called by the consumer
+	 *
+	 * @return The message, null if the ring is empty
+	 */
+	public Message poll() {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1) {
+			return null;
+		}
+		Message msg = slots[index];
+		slots[index] = null;
+		// frees the slot for the producers of the next lap
+		sequences.set(index, head + slots.length);
+		head++;
+		return msg;
+	}
+
+	/**
+	 * Get the number of slots
+	 *
+	 * @return The capacity of the ring
+	 */
+	public int capacity() {
+		return slots.length;
+	}
+}
@@ -2,6 +2,7 @@ package escort.server.game;
 
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,7 +28,9 @@ import escort.common.game.weapons.BlastShield;
 import escort.common.game.weapons.Grenade;
 import escort.common.network.Message;
 import escort.common.powerups.*;
+import escort.common.systime.SimulationClock;
 import escort.server.game.ai.AIUnitFactory;
+import escort.server.game.ai.RouteRequestService;
 import escort.server.game.combat.GrenadeTimer;
 import escort.server.lobby.LobbyManagement;
 import escort.server.lobby.LobbySettings;
@@ -44,9 +47,9 @@ import escort.server.network.Player;
  * @author Kwong Hei Tsang
  *
  */
-public class Game implements Runnable {
+public class Game {
 
-	public static final int FPS = 60;
+	public static final int FPS = SimulationClock.TICKS_PER_SECOND;
 
 	private final Map<Integer, Player> playerMap;
 	private final Map<Integer, Long> unitDeathTime;
@@ -57,16 +60,19 @@ public class Game implements Runnable {
 	private final GameData gameData;
 
 	// private final int MAX_PLAYERS = 12;
-	private boolean running = true;
 	private boolean started = false;
 	private final GameMessageQueuer queuer;
-	private Thread gameThread;
+	private final SnapshotBroadcaster snapshots;
+	private final InterestManager interest;
+	private final RouteRequestService routeRequests;
+	private final GameScheduler.Task task;
 	// private int actualFPS;
 	public int grenadeIDCounter = -1;
 	public int bulletIDCounter = -1;
 	private int unitIDCount = -1;
 
 	private Map<Grenade, GrenadeTimer> grenadeTimers = new ConcurrentHashMap<>();
+	private final List<PowerUp> nearbyPowerUps = new ArrayList<>();
 
 	/**
 	 * Construct a game object for game logic
@@ -89,25 +95,16 @@ public class Game implements Runnable {
 		gameData = new GameData(GameMap.loadFromID(settings.mapID), new HashMap<Integer, Unit>());
 
 		queuer = new GameMessageQueuer(this);
+		interest = new InterestManager(this);
+		snapshots = new SnapshotBroadcaster(this);
+		routeRequests = new RouteRequestService();
 		assignUnits(players, settings);
 		assignPowerUps();
 		// setupGame();
 		this.setStarted(false);
-		gameThread = new Thread(this);
-		gameThread.setUncaughtExceptionHandler((t, e) -> {
-			// print the error
-			e.printStackTrace();
-
-			// end the game
-			for (Player player : this.getPlayers())
-				player.getSender().put(new Message(Message.SYSTEM_MESSAGE, null,
-						new String[] { "Server game logic error. Game terminated." }));
-			this.endGame(Outcomes.OUTCOME_ERROR);
-
-			// Add a log
-			Logger.getLogger(Game.class.getName()).log(Level.SEVERE, "Game logic crashed.", e);
-		});
-		gameThread.start();
+		// the task is kept before its first tick, which may already end the game
+		task = GameScheduler.getShared().create(this::tick, this::crashed);
+		task.start();
 	}
 
 	/**
@@ -166,13 +163,13 @@ public class Game implements Runnable {
 		for (int i = 0; i < numEscorts; i++) {
 			Unit unit = new Escort(gameData, null, ++unitIDCount);
 			spawn(unit);
-			gameData.getUnits().put(unitIDCount, unit);
+			gameData.addUnit(unitIDCount, unit);
 		}
 
 		for (int i = 0; i < numAssassins; i++) {
 			Unit unit = new Assassin(gameData, null, ++unitIDCount);
 			spawn(unit);
-			gameData.getUnits().put(unitIDCount, unit);
+			gameData.addUnit(unitIDCount, unit);
 		}
 
 		for (int i = 0; i < numPresidents; i++) {
@@ -215,7 +212,7 @@ public class Game implements Runnable {
 		Unit unit = AIUnitFactory.makeUnit(this, unitType, ++unitIDCount, 0, 0);
 		unit.setUsername(username);
 		spawn(unit);
-		gameData.getUnits().put(unitIDCount, unit);
+		gameData.addUnit(unitIDCount, unit);
 		gameState.getUnitsInfo().put(unitIDCount, new UnitInfo(unit));
 		return unit;
 	}
@@ -291,78 +288,46 @@ public class Game implements Runnable {
 		return this.playerMap.values();
 	}
 
-	@Override
-	public void run() {
-		// Target nanoseconds between ticks (updates).
-		double nsPerUpdate = 1000000000 / FPS;
-
-		// A measure of update timing. Whether or not we are lagging, leading or
-		// spot on.
-		// delta < 1 -> Updating too often
-		// delta == 1 -> Perfect timing
-		// delta > 1 -> Updating too slowly
-		double delta = 0;
-
-		// The last time since we last looped
-		long lastLoopTime = System.nanoTime();
-
-		// A time that counts the number of frames updates per second.
-		long timer = 0;
-
-		// A counter of the number of frames updated and rendered in the past
-		// second.
-//		int frames = 0;
-		while (running) {
-			// Store the time now.
-			long now = System.nanoTime();
-
-			// Increment delta by the time in nanoseconds from now since the
-			// last time we looped divided by the nsPerUpdate.
-			delta += (now - lastLoopTime) / nsPerUpdate;
-
-			// The timer is incremented by the time since the last time we
-			// looped.
-			timer += now - lastLoopTime;
-
-			// Set the last loop time as now.
-			lastLoopTime = now;
-
-			// If we are updating on time or lagging, update.
-			if (delta >= 1) {
-				update();
-				// Increment the number of frames.
-//				frames++;
+	/**
+	 * Runs a single tick of the game, called by the game scheduler
+	 */
+	private void tick() {
+		update();
+		flushSenders();
+	}
 
-				// Decrement delta.
-				delta--;
-			} else {
-				// This is to reduce resources consumption on fast machines
-				try {
-					long sleeptime = lastLoopTime + (long) (nsPerUpdate) - System.nanoTime();
-					if (sleeptime > 0) {
-						Thread.sleep(sleeptime / 1000000, (int) (sleeptime % 1000000));
-					}
-				} catch (InterruptedException e) {
-				}
-			}
+	/**
+	 * Ends the game after its game logic has thrown an error
+	 * 
+	 * @param e
+	 *            The error
+	 */
+	private void crashed(Throwable e) {
+		// print the error
+		e.printStackTrace();
+
+		// end the game
+		for (Player player : this.getPlayers())
+			player.getSender().put(new Message(Message.SYSTEM_MESSAGE, null,
+					new String[] { "Server game logic error. Game terminated." }));
+		this.endGame(Outcomes.OUTCOME_ERROR);
+
+		// Add a log
+		Logger.getLogger(Game.class.getName()).log(Level.SEVERE, "Game logic crashed.", e);
+	}
 
-			// Every second, store the number of frames that we rendered for
-			// the second into actualFPS.
-			if (timer >= 1000000000) {
-				// actualFPS = frames;
-				// Reset the counters and delta.
-				if (delta > 1) {
-					delta = 1;
-				}
-//				frames = 0;
-				timer = 0;
-			}
-		}
+	/**
+	 * Stops running the ticks of the game
+	 */
+	private void stop() {
+		task.cancel();
 	}
 
 	/**
 	 * Updates the message queuer and all units in the game. Calls methods to
-	 * handle power ups and deaths
+	 * handle power ups and deaths. Each update advances the clock of the game by
+	 * one tick, so the game can be run faster than real time by calling it
+	 * directly.
 	 */
 	public void update() {
 		// Prevents moving before game actually start
@@ -370,23 +335,38 @@ public class Game implements Runnable {
 			return;
 		}
 
+		SimulationClock clock = gameData.getClock();
+		clock.advance();
+
 		queuer.update();
+		routeRequests.startTick();
 
 		for (Unit unit : gameData.getUnits().values()) {
 			if (unit.isDead()) { // notify all players
 				handleDeath(unit);
 			} else {
-				unit.update();
+				unit.update(clock);
 
 				// Handle collision with power ups
 				handlePowerUp(unit);
 			}
 		}
-		grenadeTimers.values().forEach(timer -> timer.update());
+		grenadeTimers.values().forEach(timer -> timer.update(clock));
+
+		snapshots.update();
 
 		detectEndGame();
 	}
 
+	/**
+	 * Sends the messages queued for the players during this tick
+	 */
+	private void flushSenders() {
+		for (Player player : playerMap.values()) {
+			player.getSender().flush();
+		}
+	}
+
 	/**
 	 * Checks for a unit if they are standing on a power up. If so, send a power
 	 * up used message and pick up the power up.
@@ -395,7 +375,9 @@ public class Game implements Runnable {
 	 *            The unit to check
 	 */
 	private void handlePowerUp(Unit unit) {
-		for (PowerUp powerUp : gameData.getMap().getPowerUps()) {
+		gameData.getPowerUpGrid().queryRect(unit.getMinX(), unit.getMinY(), unit.getMaxX(), unit.getMaxY(),
+				nearbyPowerUps);
+		for (PowerUp powerUp : nearbyPowerUps) {
 			if (unit.collision(powerUp)) {
 				if (powerUp.pickup(unit)) {
 					playerMap.values().forEach(p -> p.getSender()
@@ -412,12 +394,8 @@ public class Game implements Runnable {
 	private void detectEndGame() {
 		President pres = gameData.getPresident();
 
-		Rectangle presBounds = pres.getCollisionBounds();
-		presBounds.x += pres.getX();
-		presBounds.y += pres.getY();
-
 		for (Rectangle endZone : gameData.getMap().getEndZones()) {
-			if (endZone.intersects(presBounds)) {
+			if (pres.intersects(endZone.x, endZone.y, endZone.x + endZone.width, endZone.y + endZone.height)) {
 				endGame(Outcomes.OUTCOME_ESCORT_WIN);
 			}
 		}
@@ -433,8 +411,8 @@ public class Game implements Runnable {
 	 */
 	public void handleDeath(Unit unit) {
 		if (unitDeathTime.containsKey(unit.getUnitID())) {
-			double timeSinceDeath = (System.nanoTime() - unitDeathTime.get(unit.getUnitID())) / 1000000000.0;
-			if (timeSinceDeath > unit.getSpawnTime()) {
+			long ticksSinceDeath = gameData.getClock().ticksSince(unitDeathTime.get(unit.getUnitID()));
+			if (ticksSinceDeath > unit.getSpawnTime() * SimulationClock.TICKS_PER_SECOND) {
 				unitDeathTime.remove(unit.getUnitID());
 				respawn(unit);
 				return;
@@ -466,7 +444,7 @@ public class Game implements Runnable {
 						.put(new Message(Message.PRES_UNFOLLOW, new int[] { pres.getUnitID() }, null)));
 			}
 
-			unitDeathTime.put(unit.getUnitID(), System.nanoTime());
+			unitDeathTime.put(unit.getUnitID(), gameData.getClock().getTick());
 			if (gameData.getPresident().isDead()) {
 				endGame(Outcomes.OUTCOME_ASSASSIN_WIN);
 			}
@@ -505,10 +483,11 @@ public class Game implements Runnable {
 
 		// Remove the player
 		this.playerMap.remove(unitID);
+		this.snapshots.removePlayer(unitID);
 
 		// no more players left, end the game
 		if (this.playerMap.size() == 0) {
-			this.running = false;
+			this.stop();
 			return;
 		}
 
@@ -542,10 +521,11 @@ public class Game implements Runnable {
 	 *            The grenade that exploded
 	 */
 	public void grenadeExploded(Grenade grenade) {
-		for (Player player : playerMap.values()) {
+		for (Player player : interest.audience(grenade)) {
 			player.getSender().put(new Message(Message.GRENADE_EXPLODED,
 					new int[] { grenade.getThrower().getUnitID(), grenade.getGrenadeID() }, null));
 		}
+		interest.grenadeExploded(grenade);
 		grenadeTimers.remove(grenade);
 
 		Collection<Unit> units = gameData.getUnits().values();
@@ -557,7 +537,8 @@ public class Game implements Runnable {
 					&& unit.getUnitID() != grenade.getThrower().getUnitID())) {
 				continue;
 			}
-			double proximity = grenade.getCenterPoint().distance(unit.getCenterPoint());
+			double proximity = Point2D.distance(grenade.getCenterX(), grenade.getCenterY(), unit.getCenterX(),
+					unit.getCenterY());
 			int damageSoFar = Grenade.GRENADE_DAMAGE;
 
 			if (proximity >= Grenade.GRENADE_EFFECT_AREA) {
@@ -565,7 +546,9 @@ public class Game implements Runnable {
 			}
 
 			// Check obstacles and blast shield
-			if (!gameData.getMap().lineOfSight(grenade.getAbsoluteBounds(), unit.getAbsoluteBounds())) {
+			if (!gameData.getMap().lineOfSight(grenade.getMinX() + grenade.getCollisionWidth() / 2,
+					grenade.getMinY() + grenade.getCollisionHeight() / 2,
+					unit.getMinX() + unit.getCollisionWidth() / 2, unit.getMinY() + unit.getCollisionHeight() / 2)) {
 				continue;
 			}
 
@@ -642,10 +625,18 @@ public class Game implements Runnable {
 	 *            The outcome of the game.
 	 */
 	public void endGame(int outcome) {
-		running = false;
+		stop();
 		mgmt.endGame(this, outcome);
 	}
 
+	/**
+	 * @return The task running the ticks of the game, with its overruns and
+	 *         dropped ticks
+	 */
+	public GameScheduler.Task getTask() {
+		return task;
+	}
+
 	/**
 	 * Get lobby ID
 	 * 
@@ -694,6 +685,29 @@ public class Game implements Runnable {
 		return queuer;
 	}
 
+	/**
+	 * @return The snapshot broadcaster sending unit movement to players
+	 */
+	public SnapshotBroadcaster getSnapshots() {
+		return snapshots;
+	}
+
+	/**
+	 * @return The interest manager deciding which players are sent the
+	 *         updates of each unit
+	 */
+	public InterestManager getInterest() {
+		return interest;
+	}
+
+	/**
+	 * @return The service planning the routes of the AI units off the game
+	 *         thread
+	 */
+	public RouteRequestService getRouteRequests() {
+		return routeRequests;
+	}
+
 	/**
 	 * @return The game data object for this game.
 	 */
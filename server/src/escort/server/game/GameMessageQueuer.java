@@ -1,37 +1,69 @@
 package escort.server.game;
 
 import java.util.Collection;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import escort.common.game.entities.units.Escort;
 import escort.common.game.entities.units.President;
 import escort.common.game.entities.units.Unit;
+import escort.common.game.entities.units.UnitCommands;
 import escort.common.game.weapons.Bullet;
 import escort.common.game.weapons.MachineGun;
 import escort.common.game.weapons.Pistol;
 import escort.common.network.Message;
+import escort.common.systime.SimulationClock;
 import escort.server.game.combat.BulletWrap;
 import escort.server.network.Player;
 
 /**
  * Contains a queue for Message objects that are parsed and appropriate actions
- * are taken.
+ * are taken. The messages are queued in a bounded ring, and each unit may only
+ * queue a limited number of messages per second, so a flooding player is
+ * stopped when queueing rather than slowing down the game tick. The units
+ * controlled on the server use the commands directly, which are carried out at
+ * once without a message. The bullets and grenades of a unit are not sent to
+ * the players who the interest manager only shows the unit on the radar.
  * 
  * @author Ahmed Bhallo
  * @author Brendan Hart (Game logic/Message handling)
  *
  */
-public class GameMessageQueuer {
+public class GameMessageQueuer implements UnitCommands {
 	/**
 	 * The client object
 	 */
 	private Game game;
 	/**
-	 * A concurrent queue for messages.
+	 * The number of messages which can be waiting for the next tick
 	 */
-	private final ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue<>();
+	public static final int CAPACITY = 1024;
 
-	private long currentFrame = 0;
+	/**
+	 * The number of messages a unit may queue per second on average
+	 */
+	public static final int MAX_PER_SECOND = 40;
+
+	/**
+	 * The number of messages a unit may queue at once after being idle. Normal
+	 * play sends about 25 messages per second, so this allows for several
+	 * seconds of messages held up by the network arriving together, as the
+	 * 400 messages per 10 seconds allowed before did.
+	 */
+	public static final int MAX_BURST = 400;
+
+	/**
+	 * A bounded ring for messages.
+	 */
+	private final CommandRing queue = new CommandRing(CAPACITY);
+
+	/**
+	 * The message budgets of the units, by unit ID
+	 */
+	private final Map<Integer, Budget> budgets = new ConcurrentHashMap<>();
+
+	private final AtomicLong dropped = new AtomicLong();
 
 	/**
 	 * Instantiates a new Lobby Message Queuer object
@@ -47,9 +79,8 @@ public class GameMessageQueuer {
 	 */
 	public void update() {
 		// initial environment
-		this.currentFrame++;
+		long currentFrame = this.game.getGameData().getClock().getTick();
 		Message msg = null;
-		Collection<Player> players = game.getPlayerMap().values();
 
 		// obtain initial unit locations
 		Collection<Unit> units = this.game.getGameData().getUnits().values();
@@ -64,13 +95,12 @@ public class GameMessageQueuer {
 
 		while ((msg = queue.poll()) != null) {
 			int unitID = msg.getInts()[0];
-			Unit unit = game.getUnitFromID(unitID);
-			if (unit.isDead()) {
+			Unit unit = game.getGameData().getUnits().get(unitID);
+			if (unit == null || unit.isDead()) {
 				continue;
 			}
 
 			boolean valid = false;
-			Escort escort = null;
 
 			switch (msg.messageType) {
 			case Message.UNIT_MOVED:
@@ -93,9 +123,7 @@ public class GameMessageQueuer {
 					unit.setDir(msg.getDoubles()[2]);
 					unit.setXVel(msg.getDoubles()[3]);
 					unit.setYVel(msg.getDoubles()[4]);
-					for (Player player : players) {
-						player.getSender().put(msg);
-					}
+					// other players receive the move in the next snapshot
 				} else {
 					// System.err.println("Speed: " +
 					// Math.pow(locations[2*unit.getUnitID()] -
@@ -115,50 +143,14 @@ public class GameMessageQueuer {
 				break;
 			case Message.UNIT_FOLLOW:
 				// Check if the unit is an escort
-				if (unit.getUnitType() != Unit.ESCORT_TYPE) {
-					break;
-				}
-				escort = (Escort) unit;
-				President presCollision = escort.getPresidentCollision();
-				if (presCollision != null && !presCollision.isFollowing()) {
-					// Follow the escort
-					presCollision.follow(escort);
-					escort.setIsFollower(true);
-					// Update the players who the president is following
-					int[] vals = { presCollision.getUnitID(), escort.getUnitID() };
-					String[] strings = new String[0];
-					for (Player player : players) {
-						player.getSender().put(new Message(Message.PRES_FOLLOW, vals, strings));
-					}
+				if (unit.getUnitType() == Unit.ESCORT_TYPE) {
+					follow((Escort) unit);
 				}
 				break;
 			case Message.UNIT_UNFOLLOW:
 				// Check if the unit is an escort
-				if (unit.getUnitType() != Unit.ESCORT_TYPE) {
-					break;
-				}
-				escort = (Escort) unit;
-				// Loop through all units and check if they're a
-				// president
-				for (Unit unit1 : game.getGameData().getUnits().values()) {
-					if (unit1.getUnitType() != Unit.PRESIDENT_TYPE) {
-						continue;
-					}
-					President president = (President) unit1;
-					// Check if this president is following the escort
-					if (!president.isFollowing(escort)) {
-						continue;
-					}
-					// Unfollow the escort
-					president.unfollow();
-					escort.setIsFollower(false);
-					// Update all players that the president is no
-					// longer following
-					for (Player player : players) {
-						player.getSender()
-								.put(new Message(Message.PRES_UNFOLLOW, new int[] { president.getUnitID() }, null));
-					}
-					break;
+				if (unit.getUnitType() == Unit.ESCORT_TYPE) {
+					unfollow((Escort) unit);
 				}
 				break;
 			case Message.REQUEST_GRENADE_ID:
@@ -166,89 +158,25 @@ public class GameMessageQueuer {
 				if (unit.hasHeldGrenade() || !unit.holdGrenade()) {
 					break;
 				}
-
-				int grenadeID = ++game.grenadeIDCounter;
-				unit.createGrenade(grenadeID);
-				for (Player player : players) {
-					player.getSender()
-							.put(new Message(Message.GRENADE_ID, new int[] { msg.getInts()[0], grenadeID }, null));
-				}
-				game.newGrenadeTimer(game.getUnitFromID(unitID).getHeldGrenade());
+				grenadeHeld(unit);
 				break;
 			case Message.THROW_GRENADE:
-				if (!unit.hasHeldGrenade()) {
-					break;
-				}
-				for (Player player : players) {
-					player.getSender().put(new Message(Message.THROW_GRENADE, new int[] { msg.getInts()[0] }, null));
-					// add grenade to server unit
-					Unit unit1 = game.getUnitFromID(player.getUnitID());
-					if (player.getUnitID() == msg.getInts()[0]) {
-						unit1.grenadeThrownSuccessful();
-					}
-				}
-				// }
+				grenadeReleased(unit);
 				break;
 			case Message.REQUEST_PISTOL_BULLET:
-				// CHECK IF THEY HAVE A PISTOL BULLET IN THEIR MAGSIZE THING
-				// check if player is using correct weapon and have enough
-				// bullets
-				if (!(unit.getWeapon() == Unit.PISTOL) || !unit.canShoot()) {
-					break;
-				}
-
-				int bulletID = ++game.bulletIDCounter;
-				Bullet bullet1 = new Bullet(game.getGameData(), unit, Pistol.BULLET_DAMAGE);
-				BulletWrap listener1 = new BulletWrap(game, bullet1);
-				bullet1.addListener(listener1);
-				game.getUnitFromID(unitID).createPistolBullet(bullet1);
-				for (Player player : players) {
-					player.getSender()
-							.put(new Message(Message.PISTOL_BULLET, new int[] { msg.getInts()[0], bulletID }));
-				}
+				shootPistol(unit);
 				break;
 			case Message.REQUEST_MG_BULLET:
-				// CHECK IF THEY HAVE A PISTOL BULLET IN THEIR MAGSIZE THING
-				// check if player is using correct weapon and have enough
-				// bullets
-				if (!(unit.getWeapon() == Unit.MACHINE_GUN) || !unit.canShoot()) {
-					break;
-				}
-
-				int bulletIDMG = ++game.bulletIDCounter;
-				Bullet bullet = new Bullet(game.getGameData(), unit, MachineGun.BULLET_DAMAGE);
-				BulletWrap listener = new BulletWrap(game, bullet);
-				bullet.addListener(listener);
-				game.getUnitFromID(unitID).createMGBullet(bullet);
-				for (Player player : players) {
-					player.getSender().put(new Message(Message.MG_BULLET, new int[] { msg.getInts()[0], bulletIDMG }));
-				}
+				shootMG(unit);
 				break;
 			case Message.RELOAD:
-				// reload weapon
-				if (unit.isBusy()) {
-					break;
-				}
-				unit.reload();
-
-				// send to other players
-				for (Player player : players) {
-					player.getSender().put(new Message(Message.WEAPON_RELOAD_ACK, new int[] { unitID }, null));
-				}
+				reload(unit);
 				break;
 			case Message.UNIT_WEAPON_SWITCH:
-				// switch weapon
-
-				if (unit.isBusy() || msg.getInts() == null || msg.getInts().length != 2) {
+				if (msg.getInts() == null || msg.getInts().length != 2) {
 					break;
 				}
-				unit.setWeapon(msg.getInts()[1]);
-
-				// send to other players
-				for (Player player : players) {
-					player.getSender()
-							.put(new Message(Message.WEAPON_SWITCH_ACK, new int[] { unitID, msg.getInts()[1] }, null));
-				}
+				switchWeapon(unit, msg.getInts()[1]);
 				break;
 			default:
 				break;
@@ -258,23 +186,219 @@ public class GameMessageQueuer {
 		// Update unit moved frames
 		for (int i = 0; i < updateframes.length; i++) {
 			if (updateframes[i]) {
-				this.game.getGameData().getUnits().get(i).setLastMoveFrame(this.currentFrame);
+				this.game.getGameData().getUnits().get(i).setLastMoveFrame(currentFrame);
+			}
+		}
+	}
+
+	@Override
+	public void follow(Escort escort) {
+		President presCollision = escort.getPresidentCollision();
+		if (presCollision == null || presCollision.isFollowing()) {
+			return;
+		}
+		// Follow the escort
+		presCollision.follow(escort);
+		escort.setIsFollower(true);
+		// Update the players who the president is following
+		int[] vals = { presCollision.getUnitID(), escort.getUnitID() };
+		String[] strings = new String[0];
+		for (Player player : game.getPlayerMap().values()) {
+			player.getSender().put(new Message(Message.PRES_FOLLOW, vals, strings));
+		}
+	}
+
+	@Override
+	public void unfollow(Escort escort) {
+		// Loop through all units and check if they're a president
+		for (Unit unit : game.getGameData().getUnits().values()) {
+			if (unit.getUnitType() != Unit.PRESIDENT_TYPE) {
+				continue;
+			}
+			President president = (President) unit;
+			// Check if this president is following the escort
+			if (!president.isFollowing(escort)) {
+				continue;
+			}
+			// Unfollow the escort
+			president.unfollow();
+			escort.setIsFollower(false);
+			// Update all players that the president is no longer following
+			for (Player player : game.getPlayerMap().values()) {
+				player.getSender().put(new Message(Message.PRES_UNFOLLOW, new int[] { president.getUnitID() }, null));
 			}
+			return;
+		}
+	}
+
+	@Override
+	public void grenadeHeld(Unit unit) {
+		int grenadeID = ++game.grenadeIDCounter;
+		unit.createGrenade(grenadeID);
+		for (Player player : game.getInterest().audience(unit.getHeldGrenade())) {
+			player.getSender().put(new Message(Message.GRENADE_ID, new int[] { unit.getUnitID(), grenadeID }, null));
+		}
+		game.newGrenadeTimer(unit.getHeldGrenade());
+	}
+
+	@Override
+	public void grenadeReleased(Unit unit) {
+		if (!unit.hasHeldGrenade() || unit.getHeldGrenade() == null) {
+			return;
+		}
+		for (Player player : game.getInterest().audience(unit.getHeldGrenade())) {
+			player.getSender().put(new Message(Message.THROW_GRENADE, new int[] { unit.getUnitID() }, null));
+		}
+		// add grenade to server unit
+		unit.grenadeThrownSuccessful();
+	}
+
+	@Override
+	public void shootPistol(Unit unit) {
+		// check if the unit is using the correct weapon and has enough bullets
+		if (unit.getWeapon() != Unit.PISTOL || !unit.canShoot()) {
+			return;
+		}
+
+		int bulletID = ++game.bulletIDCounter;
+		Bullet bullet = new Bullet(game.getGameData(), unit, Pistol.BULLET_DAMAGE);
+		bullet.addListener(new BulletWrap(game, bullet));
+		unit.createPistolBullet(bullet);
+		for (Player player : game.getInterest().audience(unit)) {
+			player.getSender().put(new Message(Message.PISTOL_BULLET, new int[] { unit.getUnitID(), bulletID }));
+		}
+	}
+
+	@Override
+	public void shootMG(Unit unit) {
+		// check if the unit is using the correct weapon and has enough bullets
+		if (unit.getWeapon() != Unit.MACHINE_GUN || !unit.canShoot()) {
+			return;
+		}
+
+		int bulletID = ++game.bulletIDCounter;
+		Bullet bullet = new Bullet(game.getGameData(), unit, MachineGun.BULLET_DAMAGE);
+		bullet.addListener(new BulletWrap(game, bullet));
+		unit.createMGBullet(bullet);
+		for (Player player : game.getInterest().audience(unit)) {
+			player.getSender().put(new Message(Message.MG_BULLET, new int[] { unit.getUnitID(), bulletID }));
+		}
+	}
+
+	@Override
+	public void reload(Unit unit) {
+		if (unit.isBusy()) {
+			return;
+		}
+		unit.reload();
+
+		// send to other players
+		for (Player player : game.getPlayerMap().values()) {
+			player.getSender().put(new Message(Message.WEAPON_RELOAD_ACK, new int[] { unit.getUnitID() }, null));
+		}
+	}
+
+	@Override
+	public void switchWeapon(Unit unit, int weapon) {
+		if (unit.isBusy()) {
+			return;
+		}
+		unit.setWeapon(weapon);
+
+		// send to other players
+		for (Player player : game.getPlayerMap().values()) {
+			player.getSender().put(new Message(Message.WEAPON_SWITCH_ACK, new int[] { unit.getUnitID(), weapon }, null));
 		}
 	}
 
 	/**
-	 * Adds a message to the queue.
+	 * Adds a message to the queue. The message is dropped if the queue is
+	 * full.
 	 * 
 	 * @param msg
-	 *            The message to be added.
+	 *            The message to be added, the first int being the ID of the
+	 *            unit sending it.
+	 * @return False iff the unit has used up its budget of messages
 	 */
-	public void add(Message msg) {
+	public boolean add(Message msg) {
 		// Check if the game is started
 		if (!this.game.hasStarted()) {
-			return;
+			return true;
+		}
+
+		Budget budget = budgets.computeIfAbsent(msg.getInts()[0], id -> new Budget());
+		if (!budget.take(this.game.getGameData().getClock().getTick())) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		if (!queue.offer(msg)) {
+			dropped.incrementAndGet();
+		}
+		return true;
+	}
+
+	/**
+	 * Whether messages of a type are handled by the game
+	 * 
+	 * @param messageType
+	 *            The type of the message
+	 * @return True iff the messages are queued for the game logic
+	 */
+	public static boolean handles(int messageType) {
+		switch (messageType) {
+		case Message.UNIT_MOVED:
+		case Message.UNIT_FOLLOW:
+		case Message.UNIT_UNFOLLOW:
+		case Message.REQUEST_GRENADE_ID:
+		case Message.THROW_GRENADE:
+		case Message.REQUEST_PISTOL_BULLET:
+		case Message.REQUEST_MG_BULLET:
+		case Message.RELOAD:
+		case Message.UNIT_WEAPON_SWITCH:
+			return true;
+		default:
+			return false;
 		}
+	}
+
+	/**
+	 * Get the number of messages dropped, as their units were over budget or
+	 * the queue was full
+	 * 
+	 * @return The number of dropped messages
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
 
-		queue.offer(msg);
+	/**
+	 * A token bucket of the messages of one unit, refilled on every tick. The
+	 * tokens are counted in parts of a message, so that a fraction of a
+	 * message can be refilled per tick.
+	 */
+	private static final class Budget {
+
+		private static final long COST = SimulationClock.TICKS_PER_SECOND;
+		private static final long FULL = MAX_BURST * COST;
+
+		private long tokens = FULL;
+		private long tick = 0;
+
+		/**
+		 * Take the tokens of a message
+		 * 
+		 * @param now
+		 *            The current tick
+		 * @return True iff the unit had enough tokens
+		 */
+		private synchronized boolean take(long now) {
+			tokens = Math.min(FULL, tokens + (now - tick) * MAX_PER_SECOND);
+			tick = now;
+			if (tokens < COST) {
+				return false;
+			}
+			tokens -= COST;
+			return true;
+		}
 	}
 }
\ No newline at end of file
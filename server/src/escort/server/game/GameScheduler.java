@@ -0,0 +1,268 @@
+package escort.server.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import escort.common.systime.SimulationClock;
+
+/**
+ * Runs the ticks of every game of the server on a fixed pool of threads sized
+ * to the cores, instead of one sleeping thread per game. The games are spread
+ * over the slots of a timing wheel which turns once per tick, so their updates
+ * are staggered over the tick rather than all starting at once. A game is
+ * updated by one thread at a time: when its previous update is still running
+ * as the next tick is due, the tick is counted as an overrun and made up on
+ * the next turn, up to a limit, so a slow game cannot hold up the others.
+ */
+public class GameScheduler {
+
+	/**
+	 * The number of slots of the timing wheel
+	 */
+	public static final int SLOTS = 4;
+
+	/**
+	 * The maximum number of ticks a game runs in one go to catch up, any older
+	 * ticks are dropped
+	 */
+	public static final int MAX_CATCH_UP = 5;
+
+	private static GameScheduler shared;
+
+	private final ScheduledExecutorService wheel;
+	private final ExecutorService workers;
+	private final List<List<Task>> slots;
+	private final int[] rotations;
+	private int slot;
+
+	/**
+	 * Create a game scheduler
+	 *
+	 * @param threads
+	 *            The number of threads updating the games
+	 */
+	public GameScheduler(int threads) {
+		this.wheel = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "Game Scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "Game Worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.rotations = new int[SLOTS];
+		this.slots = new ArrayList<>();
+		for (int i = 0; i < SLOTS; i++) {
+			slots.add(new CopyOnWriteArrayList<>());
+		}
+		long nsPerSlot = 1000000000L / (SimulationClock.TICKS_PER_SECOND * SLOTS);
+		wheel.scheduleAtFixedRate(this::turn, nsPerSlot, nsPerSlot, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Get the scheduler shared by the games of the server, with a thread per
+	 * core
+	 *
+	 * @return The shared scheduler
+	 */
+	public static synchronized GameScheduler getShared() {
+		if (shared == null) {
+			shared = new GameScheduler(Runtime.getRuntime().availableProcessors());
+		}
+		return shared;
+	}
+
+	/**
+	 * Start running the ticks of a game, in the slot with the fewest games
+	 *
+	 * @param tick
+	 *            The update of a single tick
+	 * @param crashed
+	 *            Told of an error thrown by a tick, after which the game is no
+	 *            longer updated
+	 * @return The scheduled task, to be cancelled when the game ends
+	 */
+	public Task schedule(Runnable tick, Consumer<Throwable> crashed) {
+		Task task = create(tick, crashed);
+		task.start();
+		return task;
+	}
+
+	/**
+	 * Create the task of a game without running its ticks yet, so that the
+	 * game can keep the task before its first tick runs
+	 *
+	 * @param tick
+	 *            The update of a single tick
+	 * @param crashed
+	 *            Told of an error thrown by a tick, after which the game is no
+	 *            longer updated
+	 * @return The task, to be started and cancelled when the game ends
+	 */
+	public Task create(Runnable tick, Consumer<Throwable> crashed) {
+		return new Task(tick, crashed);
+	}
+
+	/**
+	 * Get the number of games being run
+	 *
+	 * @return The number of scheduled tasks
+	 */
+	public int size() {
+		int size = 0;
+		for (List<Task> games : slots) {
+			size += games.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Turn the wheel by one slot, starting the tick of each game of the slot.
+	 * The games of a slot are started from the next one each time the slot is
+	 * visited, so that none is always queued behind the others.
+	 */
+	private void turn() {
+		Task[] games = slots.get(slot).toArray(new Task[0]);
+		int rotation = rotations[slot]++;
+		slot = (slot + 1) % SLOTS;
+		for (int i = 0; i < games.length; i++) {
+			games[Math.floorMod(rotation + i, games.length)].due();
+		}
+	}
+
+	/**
+	 * The ticks of one game, with the accounting of its overruns
+	 */
+	public final class Task implements Runnable {
+
+		private final Runnable tick;
+		private final Consumer<Throwable> crashed;
+		private List<Task> slot;
+		private final AtomicBoolean running;
+		private final AtomicInteger owed;
+		private final AtomicLong ticks;
+		private final AtomicLong overruns;
+		private final AtomicLong dropped;
+		private volatile boolean cancelled;
+
+		private Task(Runnable tick, Consumer<Throwable> crashed) {
+			this.tick = tick;
+			this.crashed = crashed;
+			this.slot = null;
+			this.running = new AtomicBoolean(false);
+			this.owed = new AtomicInteger(0);
+			this.ticks = new AtomicLong(0);
+			this.overruns = new AtomicLong(0);
+			this.dropped = new AtomicLong(0);
+			this.cancelled = false;
+		}
+
+		/**
+		 * Start running the ticks of the game, in the slot with the fewest
+		 * games. Nothing is done if the task is already started or cancelled.
+		 */
+		public void start() {
+			synchronized (GameScheduler.this) {
+				if (slot != null || cancelled) {
+					return;
+				}
+				List<Task> emptiest = slots.get(0);
+				for (List<Task> games : slots) {
+					if (games.size() < emptiest.size()) {
+						emptiest = games;
+					}
+				}
+				slot = emptiest;
+				emptiest.add(this);
+			}
+		}
+
+		/**
+		 * A tick of the game is due, start it unless the last is still running
+		 */
+		private void due() {
+			owed.incrementAndGet();
+			if (running.compareAndSet(false, true)) {
+				workers.execute(this);
+			} else {
+				overruns.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Run the ticks owed to the game, called by a worker
+		 */
+		@Override
+		public void run() {
+			try {
+				int due = owed.getAndSet(0);
+				if (due > MAX_CATCH_UP) {
+					dropped.addAndGet(due - MAX_CATCH_UP);
+					due = MAX_CATCH_UP;
+				}
+				for (int i = 0; i < due && !cancelled; i++) {
+					tick.run();
+					ticks.incrementAndGet();
+				}
+			} catch (Throwable e) {
+				cancel();
+				crashed.accept(e);
+			} finally {
+				running.set(false);
+			}
+		}
+
+		/**
+		 * Stop running the ticks of the game. A tick already running is
+		 * finished.
+		 */
+		public void cancel() {
+			synchronized (GameScheduler.this) {
+				cancelled = true;
+				if (slot != null) {
+					slot.remove(this);
+				}
+			}
+		}
+
+		/**
+		 * @return True iff the game is no longer updated
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * @return The number of ticks run
+		 */
+		public long getTicks() {
+			return ticks.get();
+		}
+
+		/**
+		 * @return The number of ticks which were due while the previous was
+		 *         still running
+		 */
+		public long getOverruns() {
+			return overruns.get();
+		}
+
+		/**
+		 * @return The number of ticks dropped as the game fell too far behind
+		 */
+		public long getDroppedTicks() {
+			return dropped.get();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package escort.server.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import escort.common.game.entities.units.Unit;
+import escort.common.game.weapons.Grenade;
+import escort.server.network.Player;
+
+/**
+ * Decides which players are sent the updates of a unit, and how often, by the
+ * distance between the unit and the player's own unit. Units within sight of
+ * the player's camera are sent at the full rate, and units further away at a
+ * low rate. The radar of the client shows every unit on the map, so units
+ * beyond the low rate range are still sent at the radar rate, but their
+ * bullets and grenades are not sent. This keeps the traffic to each player
+ * from growing with the number of units in the game.
+ *
+ * Events which change the state a client keeps about a unit, such as weapon
+ * switches and respawns, are still sent to every player.
+ */
+public class InterestManager {
+
+	/**
+	 * The tier of units sent in every snapshot
+	 */
+	public static final int FULL_RATE = 0;
+
+	/**
+	 * The tier of units sent every LOW_RATE_INTERVAL snapshots
+	 */
+	public static final int LOW_RATE = 1;
+
+	/**
+	 * The tier of units only shown on the radar, sent every
+	 * RADAR_RATE_INTERVAL snapshots without their events
+	 */
+	public static final int RADAR_ONLY = 2;
+
+	/**
+	 * The distance in pixels within which units are sent at the full rate,
+	 * covering the camera with some margin
+	 */
+	public static final double FULL_RATE_RANGE = 480;
+
+	/**
+	 * The distance in pixels within which units are sent at the low rate, with
+	 * their events
+	 */
+	public static final double LOW_RATE_RANGE = 1600;
+
+	/**
+	 * The number of snapshots between the updates of low rate units
+	 */
+	public static final int LOW_RATE_INTERVAL = 4;
+
+	/**
+	 * The number of snapshots between the updates of units only shown on the
+	 * radar
+	 */
+	public static final int RADAR_RATE_INTERVAL = 10;
+
+	private final Game game;
+
+	/**
+	 * The players told about each grenade, by grenade ID
+	 */
+	private final Map<Integer, List<Player>> grenadeAudiences = new ConcurrentHashMap<>();
+
+	/**
+	 * Instantiates a new interest manager
+	 *
+	 * @param game
+	 *            The game whose players are considered
+	 */
+	public InterestManager(Game game) {
+		this.game = game;
+	}
+
+	/**
+	 * Get the tier of a unit for a player
+	 *
+	 * @param player
+	 *            The player
+	 * @param unit
+	 *            The unit
+	 * @return FULL_RATE, LOW_RATE or RADAR_ONLY
+	 */
+	public int tier(Player player, Unit unit) {
+		Unit own = game.getGameData().getUnits().get(player.getUnitID());
+		if (own == null || own == unit) {
+			return FULL_RATE;
+		}
+		double dx = unit.getCenterX() - own.getCenterX();
+		double dy = unit.getCenterY() - own.getCenterY();
+		double distanceSq = dx * dx + dy * dy;
+		if (distanceSq <= FULL_RATE_RANGE * FULL_RATE_RANGE) {
+			return FULL_RATE;
+		}
+		if (distanceSq <= LOW_RATE_RANGE * LOW_RATE_RANGE) {
+			return LOW_RATE;
+		}
+		return RADAR_ONLY;
+	}
+
+	/**
+	 * Whether a unit is sent in a snapshot to a player
+	 *
+	 * @param player
+	 *            The player
+	 * @param unit
+	 *            The unit
+	 * @param snapshotID
+	 *            The ID of the snapshot
+	 * @return True iff the unit is due to be sent
+	 */
+	public boolean isDue(Player player, Unit unit, int snapshotID) {
+		// spread the units sent less often over the snapshots
+		switch (tier(player, unit)) {
+		case FULL_RATE:
+			return true;
+		case LOW_RATE:
+			return (snapshotID + unit.getUnitID()) % LOW_RATE_INTERVAL == 0;
+		default:
+			return (snapshotID + unit.getUnitID()) % RADAR_RATE_INTERVAL == 0;
+		}
+	}
+
+	/**
+	 * Get the players who are sent the events of a unit
+	 *
+	 * @param unit
+	 *            The unit
+	 * @return The players for whom the unit is not only shown on the radar
+	 */
+	public List<Player> audience(Unit unit) {
+		List<Player> players = new ArrayList<>();
+		for (Player player : game.getPlayerMap().values()) {
+			if (tier(player, unit) != RADAR_ONLY) {
+				players.add(player);
+			}
+		}
+		return players;
+	}
+
+	/**
+	 * Get the players who are sent the events of a grenade, which are the
+	 * players told about it when it was taken out, so that no player is left
+	 * with a grenade which is never thrown or never explodes
+	 *
+	 * @param grenade
+	 *            The grenade
+	 * @return The players still in the game told about the grenade
+	 */
+	public List<Player> audience(Grenade grenade) {
+		List<Player> players = grenadeAudiences.get(grenade.getGrenadeID());
+		if (players == null) {
+			players = audience(grenade.getThrower());
+			grenadeAudiences.put(grenade.getGrenadeID(), players);
+			return players;
+		}
+		players.retainAll(game.getPlayerMap().values());
+		return players;
+	}
+
+	/**
+	 * Forget the players told about a grenade once it has exploded
+	 *
+	 * @param grenade
+	 *            The grenade
+	 */
+	public void grenadeExploded(Grenade grenade) {
+		grenadeAudiences.remove(grenade.getGrenadeID());
+	}
+}
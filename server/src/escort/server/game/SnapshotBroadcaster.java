@@ -0,0 +1,291 @@
+package escort.server.game;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import escort.common.game.entities.units.Unit;
+import escort.common.network.Message;
+import escort.server.network.Player;
+
+/**
+ * Builds a snapshot of every unit's movement state once per network tick and
+ * sends it to each player as a single message, delta encoded against the last
+ * snapshot that player acknowledged. This replaces forwarding every
+ * UNIT_MOVED message to every player. Each player is only sent the units the
+ * interest manager finds due for them, so far away units are sent less often.
+ *
+ * A snapshot message has ints [snapshotID, baseID, unitID...] and five doubles
+ * (x, y, dir, xVel, yVel) per listed unit. Units not listed are unchanged since
+ * the base snapshot, or not due for the player. A unit is only left out as
+ * unchanged if no snapshot sent since the base listed it with other values, so
+ * the values the client last received are still the base values. A base of -1
+ * means the snapshot has every unit due for the player.
+ */
+public class SnapshotBroadcaster {
+
+	/**
+	 * The number of game ticks between snapshots
+	 */
+	public static final int SNAPSHOT_INTERVAL = 3;
+
+	/**
+	 * The number of past snapshots kept to be used as delta bases
+	 */
+	public static final int HISTORY_SIZE = 32;
+
+	// x, y, dir, xVel, yVel
+	private static final int STRIDE = 5;
+
+	private final Game game;
+	private final int[] historyIDs = new int[HISTORY_SIZE];
+	private final double[][] history = new double[HISTORY_SIZE][];
+	private final Map<Integer, Integer> acknowledged = new ConcurrentHashMap<>();
+	/**
+	 * Which units each player knows the state of in each kept snapshot, by the
+	 * player's unit ID, as units which are not due are left out
+	 */
+	private final Map<Integer, boolean[][]> known = new ConcurrentHashMap<>();
+	/**
+	 * Which units were listed in each kept snapshot sent to each player, by the
+	 * player's unit ID
+	 */
+	private final Map<Integer, boolean[][]> listed = new ConcurrentHashMap<>();
+	private volatile int nextSnapshotID = 0;
+	private long tick = 0;
+
+	/**
+	 * Instantiates a new snapshot broadcaster
+	 *
+	 * @param game
+	 *            The game whose units are sent
+	 */
+	public SnapshotBroadcaster(Game game) {
+		this.game = game;
+		for (int i = 0; i < HISTORY_SIZE; i++) {
+			historyIDs[i] = -1;
+		}
+	}
+
+	/**
+	 * Called every game tick. Takes a snapshot and sends it to all players
+	 * every SNAPSHOT_INTERVAL ticks.
+	 */
+	public void update() {
+		if (++tick % SNAPSHOT_INTERVAL != 0) {
+			return;
+		}
+
+		int snapshotID = nextSnapshotID++;
+		double[] state = takeSnapshot(snapshotID);
+
+		for (Map.Entry<Integer, Player> entry : game.getPlayerMap().entrySet()) {
+			int baseID = acknowledged.getOrDefault(entry.getKey(), -1);
+			double[] base = getSnapshot(baseID);
+			boolean[][] playerKnown = known.computeIfAbsent(entry.getKey(), id -> new boolean[HISTORY_SIZE][]);
+			boolean[][] playerListed = listed.computeIfAbsent(entry.getKey(), id -> new boolean[HISTORY_SIZE][]);
+			if (base == null || base.length != state.length) {
+				baseID = -1;
+				base = null;
+			}
+
+			Message msg = createDelta(entry.getValue(), snapshotID, state, baseID, base, playerKnown, playerListed);
+			entry.getValue().getSender().put(msg);
+			if (!game.getPlayerMap().containsKey(entry.getKey())) {
+				// the player left while the snapshot was being sent
+				known.remove(entry.getKey());
+				listed.remove(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Record that a player has received a snapshot
+	 *
+	 * @param unitID
+	 *            The unit ID of the player
+	 * @param snapshotID
+	 *            The snapshot received
+	 * @return True iff the snapshot was sent and is newer than the one last
+	 *         acknowledged by the player
+	 */
+	public boolean acknowledge(int unitID, int snapshotID) {
+		if (snapshotID < 0 || snapshotID >= nextSnapshotID) {
+			return false;
+		}
+		Integer last = acknowledged.get(unitID);
+		if (last != null && snapshotID <= last) {
+			return false;
+		}
+		acknowledged.merge(unitID, snapshotID, Math::max);
+		return true;
+	}
+
+	/**
+	 * Forget what a player has received, when the player leaves
+	 *
+	 * @param unitID
+	 *            The unit ID of the player
+	 */
+	public void removePlayer(int unitID) {
+		acknowledged.remove(unitID);
+		known.remove(unitID);
+		listed.remove(unitID);
+	}
+
+	/**
+	 * Store the state of all units in the history ring
+	 *
+	 * @param snapshotID
+	 *            The ID of the new snapshot
+	 * @return The state
+	 */
+	private double[] takeSnapshot(int snapshotID) {
+		Map<Integer, Unit> units = game.getGameData().getUnits();
+		int slot = snapshotID % HISTORY_SIZE;
+		double[] state = history[slot];
+		if (state == null || state.length != units.size() * STRIDE) {
+			state = new double[units.size() * STRIDE];
+			history[slot] = state;
+		}
+
+		for (Unit unit : units.values()) {
+			int i = unit.getUnitID() * STRIDE;
+			state[i] = unit.getX();
+			state[i + 1] = unit.getY();
+			state[i + 2] = unit.getDir();
+			state[i + 3] = unit.getXVel();
+			state[i + 4] = unit.getYVel();
+		}
+		historyIDs[slot] = snapshotID;
+		return state;
+	}
+
+	/**
+	 * Get a snapshot from the history
+	 *
+	 * @param snapshotID
+	 *            The snapshot ID
+	 * @return The state, or null if it is no longer kept
+	 */
+	private double[] getSnapshot(int snapshotID) {
+		if (snapshotID < 0) {
+			return null;
+		}
+		int slot = snapshotID % HISTORY_SIZE;
+		if (historyIDs[slot] != snapshotID || nextSnapshotID - snapshotID >= HISTORY_SIZE) {
+			return null;
+		}
+		return history[slot];
+	}
+
+	/**
+	 * Create the snapshot message for a player containing the units due for
+	 * the player that changed since the base
+	 *
+	 * @param player
+	 *            The player
+	 * @param snapshotID
+	 *            The snapshot ID
+	 * @param state
+	 *            The current state
+	 * @param baseID
+	 *            The base snapshot ID, -1 for a complete snapshot
+	 * @param base
+	 *            The base state, null for a complete snapshot
+	 * @param playerKnown
+	 *            The units the player knows in each kept snapshot
+	 * @param playerListed
+	 *            The units listed in each kept snapshot sent to the player
+	 * @return The message
+	 */
+	private Message createDelta(Player player, int snapshotID, double[] state, int baseID, double[] base,
+			boolean[][] playerKnown, boolean[][] playerListed) {
+		Map<Integer, Unit> units = game.getGameData().getUnits();
+		InterestManager interest = game.getInterest();
+		int numUnits = state.length / STRIDE;
+		boolean[] baseKnown = base == null ? null : playerKnown[baseID % HISTORY_SIZE];
+		int slot = snapshotID % HISTORY_SIZE;
+		boolean[] nowKnown = playerKnown[slot];
+		if (nowKnown == null || nowKnown.length != numUnits) {
+			nowKnown = new boolean[numUnits];
+			playerKnown[slot] = nowKnown;
+		}
+
+		int changed = 0;
+		boolean[] include = new boolean[numUnits];
+		for (int u = 0; u < numUnits; u++) {
+			Unit unit = units.get(u);
+			// the player still has the base values of an unchanged unit
+			boolean unchanged = baseKnown != null && baseKnown.length == numUnits && baseKnown[u]
+					&& sameUnit(state, base, u * STRIDE)
+					&& !listedSinceBase(playerListed, baseID, snapshotID, base, u, numUnits);
+			include[u] = !unchanged && unit != null && interest.isDue(player, unit, snapshotID);
+			nowKnown[u] = unchanged || include[u];
+			if (include[u]) {
+				changed++;
+			}
+		}
+		playerListed[slot] = include;
+
+		int[] ints = new int[2 + changed];
+		double[] doubles = new double[changed * STRIDE];
+		ints[0] = snapshotID;
+		ints[1] = base == null ? -1 : baseID;
+		int n = 0;
+		for (int u = 0; u < numUnits; u++) {
+			if (include[u]) {
+				ints[2 + n] = u;
+				System.arraycopy(state, u * STRIDE, doubles, n * STRIDE, STRIDE);
+				n++;
+			}
+		}
+		return new Message(Message.WORLD_SNAPSHOT, ints, null, doubles);
+	}
+
+	/**
+	 * Whether a snapshot sent to a player after the base listed a unit with
+	 * values other than its base values. The player may have received it, so
+	 * the player may no longer have the base values.
+	 *
+	 * @param playerListed
+	 *            The units listed in each kept snapshot sent to the player
+	 * @param baseID
+	 *            The base snapshot ID
+	 * @param snapshotID
+	 *            The snapshot being created
+	 * @param base
+	 *            The base state
+	 * @param u
+	 *            The unit ID
+	 * @param numUnits
+	 *            The number of units
+	 * @return True iff the unit was listed with other values
+	 */
+	private boolean listedSinceBase(boolean[][] playerListed, int baseID, int snapshotID, double[] base, int u,
+			int numUnits) {
+		for (int id = baseID + 1; id < snapshotID; id++) {
+			int slot = id % HISTORY_SIZE;
+			boolean[] sent = playerListed[slot];
+			if (sent == null || sent.length != numUnits || historyIDs[slot] != id) {
+				// not known what was sent, so the values may have changed
+				return true;
+			}
+			if (sent[u] && !sameUnit(history[slot], base, u * STRIDE)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether a unit has the same values in two snapshots
+	 */
+	private static boolean sameUnit(double[] a, double[] b, int offset) {
+		for (int i = offset; i < offset + STRIDE; i++) {
+			if (a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -2,17 +2,20 @@ package escort.server.game.ai;
 
 import java.awt.Rectangle;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import escort.common.game.GameData;
 import escort.common.game.entities.Entity;
 import escort.common.game.entities.units.Unit;
 import escort.common.game.entities.units.UnitController;
 import escort.common.game.map.Tile;
+import escort.common.game.routePlanning.FlowField;
+import escort.common.game.routePlanning.FlowFieldService;
 import escort.common.game.routePlanning.RoutePlanner;
-import escort.common.systime.SystemTime;
+import escort.common.systime.SimulationClock;
 
 /**
  * A class that controls an AI unit.
@@ -25,10 +28,15 @@ public abstract class AIController implements UnitController {
 	protected Random r = new Random();
 	protected Rectangle targetTile;
 	private Rectangle previousFollowPos;
+	// the route of a single step read from a flow field
+	private final List<Rectangle> stepRoute = new ArrayList<>(1);
+	private final List<Unit> nearbyUnits = new ArrayList<>();
+	private RouteRequestService routeRequests;
+	private Future<List<Rectangle>> pendingRoute;
 	protected final GameData gameData;
 	public Unit target;
 	protected final long delayTimeMillis = 750;
-	protected long timeLastShot = SystemTime.milliTime();
+	protected long timeLastShot;
 	public static final double MAX_OFFSET = 0.6; // in radians
 
 	public static final int VISION_RANGE = 300;
@@ -46,6 +54,7 @@ public abstract class AIController implements UnitController {
 	 */
 	public AIController(GameData gameData, Unit unit, RoutePlanner planner) {
 		this.gameData = gameData;
+		this.timeLastShot = gameData.getClock().getTick();
 		this.unit = unit;
 		this.planner = planner;
 		currentRoute = new ArrayList<>();
@@ -68,7 +77,9 @@ public abstract class AIController implements UnitController {
 	 * @return The closest enemy as a Unit object.
 	 */
 	public Unit findClosestEnemy() {
-		Collection<Unit> units = gameData.getUnits().values();
+		// only units within the vision range can be targeted
+		List<Unit> units = gameData.getUnitGrid().queryRadius(unit.getX() + unit.getWidth() / 2.0,
+				unit.getY() + unit.getHeight() / 2.0, VISION_RANGE, nearbyUnits);
 
 		double distanceInSight = VISION_RANGE;
 		Unit targetInSight = null;
@@ -81,7 +92,8 @@ public abstract class AIController implements UnitController {
 			}
 			double dist = unit.distance(u);
 			if (dist < distanceInSight && unit.canTarget(u)
-					&& gameData.getMap().lineOfSight(unit.getHitbox(), u.getHitbox())) {
+					&& gameData.getMap().lineOfSight(unit.getCenterX(), unit.getCenterY(), u.getCenterX(),
+							u.getCenterY())) {
 				targetInSight = u;
 				distanceInSight = dist;
 			} else if (dist < distanceOutSight && unit.canTarget(u)) {
@@ -102,7 +114,7 @@ public abstract class AIController implements UnitController {
 	public void newRoute(Entity e) {
 		Rectangle currentPos = unit.getAbsoluteBoundsInTiles();
 		Rectangle moveToTile = e.getAbsoluteBoundsInTiles();
-		currentRoute = planner.route(currentPos, moveToTile);
+		requestRoute(currentPos, moveToTile);
 	}
 
 	/**
@@ -112,7 +124,87 @@ public abstract class AIController implements UnitController {
 	 *            The rectangle object.
 	 */
 	public void generateRoute(Rectangle rect) {
-		currentRoute = planner.route(unit.getAbsoluteBoundsInTiles(), rect);
+		requestRoute(unit.getAbsoluteBoundsInTiles(), rect);
+	}
+
+	/**
+	 * Set the service planning the routes of this controller off the game
+	 * thread. Without one, routes are planned when requested.
+	 * 
+	 * @param routeRequests
+	 *            The route request service of the game.
+	 */
+	public void setRouteRequests(RouteRequestService routeRequests) {
+		this.routeRequests = routeRequests;
+	}
+
+	/**
+	 * Plan a new route, replacing any route still being planned.
+	 * 
+	 * @param start
+	 *            The start position.
+	 * @param goal
+	 *            The goal position.
+	 */
+	private void requestRoute(Rectangle start, Rectangle goal) {
+		if (routeRequests == null) {
+			currentRoute = planner.route(start, goal);
+			return;
+		}
+		cancelRoute();
+		pendingRoute = routeRequests.submit(planner, start, goal);
+	}
+
+	/**
+	 * Cancel the route being planned, if any.
+	 */
+	private void cancelRoute() {
+		if (pendingRoute != null) {
+			pendingRoute.cancel(false);
+			pendingRoute = null;
+		}
+	}
+
+	/**
+	 * Whether a requested route has not been applied yet.
+	 * 
+	 * @return True if a route is being planned.
+	 */
+	public boolean isRoutePending() {
+		return pendingRoute != null;
+	}
+
+	/**
+	 * Apply the route being planned if it is ready and the budget of this
+	 * tick allows.
+	 */
+	private void collectRoute() {
+		if (pendingRoute != null && pendingRoute.isDone() && routeRequests.takeBudget()) {
+			applyRoute();
+		}
+	}
+
+	/**
+	 * Apply the route being planned, waiting for it if needed. The positions
+	 * the unit has already walked past while the route was being planned are
+	 * skipped.
+	 */
+	private void applyRoute() {
+		List<Rectangle> route;
+		try {
+			route = pendingRoute.get();
+		} catch (InterruptedException | ExecutionException e) {
+			route = null;
+		}
+		pendingRoute = null;
+		if (route == null) {
+			return;
+		}
+		int walked = route.indexOf(unit.getAbsoluteBoundsInTiles());
+		if (walked > 0) {
+			route = route.subList(walked, route.size());
+		}
+		currentRoute = new ArrayList<>(route);
 	}
 
 	/**
@@ -136,27 +228,31 @@ public abstract class AIController implements UnitController {
 	 * Walk a route.
 	 */
 	public void traverseRoute() {
+		collectRoute();
 		if (currentRoute.isEmpty()) {
 			return;
 		}
-		Rectangle currentPos = unit.getAbsoluteBoundsInTiles();
+		int tileX = unit.getTileX();
+		int tileY = unit.getTileY();
 		Rectangle moveTo = currentRoute.get(0);
-		if (moveTo.equals(currentPos)) {
+		if (moveTo.x == tileX && moveTo.y == tileY && moveTo.width == unit.getTileWidth()
+				&& moveTo.height == unit.getTileHeight()) {
 			currentRoute.remove(0);
 		} else {
-			Rectangle b = unit.getCollisionBounds();
-			int rightMostTile = ((int) Math.floor((unit.getX() + b.x + b.width) / Tile.TILE_WIDTH));
-			int bottomMostTile = ((int) Math.floor((unit.getY() + b.y + b.height) / Tile.TILE_HEIGHT));
+			int rightMostTile = ((int) Math
+					.floor((unit.getX() + unit.getCollisionX() + unit.getCollisionWidth()) / Tile.TILE_WIDTH));
+			int bottomMostTile = ((int) Math
+					.floor((unit.getY() + unit.getCollisionY() + unit.getCollisionHeight()) / Tile.TILE_HEIGHT));
 
-			if (moveTo.getX() > currentPos.getX()) {
+			if (moveTo.x > tileX) {
 				unit.setXVel(1);
-			} else if (rightMostTile > moveTo.getX() + moveTo.getWidth()) {
+			} else if (rightMostTile > moveTo.x + moveTo.width) {
 				unit.setXVel(-1);
 			}
 
-			if (moveTo.getY() > currentPos.getY()) {
+			if (moveTo.y > tileY) {
 				unit.setYVel(1);
-			} else if (bottomMostTile > moveTo.getY() + moveTo.getHeight()) {
+			} else if (bottomMostTile > moveTo.y + moveTo.height) {
 				unit.setYVel(-1);
 			}
 		}
@@ -173,20 +269,68 @@ public abstract class AIController implements UnitController {
 	 *            The unit to follow.
 	 */
 	public void followUnit(Unit u) {
-		Rectangle targetPos = u.getAbsoluteBoundsInTiles();
-		Rectangle unitPos = unit.getAbsoluteBoundsInTiles();
-
-		targetPos.width = unitPos.width;
-		targetPos.height = unitPos.height;
+		int targetX = u.getTileX();
+		int targetY = u.getTileY();
+		int width = unit.getTileWidth();
+		int height = unit.getTileHeight();
 
 		// If the escort position is not the same as last time, we need to
 		// calculate the path.
-		if (!targetPos.equals(previousFollowPos))
-			currentRoute = planner.route(unitPos, targetPos);
+		if (previousFollowPos == null || previousFollowPos.x != targetX || previousFollowPos.y != targetY
+				|| previousFollowPos.width != width || previousFollowPos.height != height) {
+			Rectangle targetPos = new Rectangle(targetX, targetY, width, height);
+			requestRoute(unit.getAbsoluteBoundsInTiles(), targetPos);
+
+			// Remember the last escort position, so next time we know if it's
+			// worth recalculating the path.
+			previousFollowPos = targetPos;
+		}
+	}
+
+	/**
+	 * Make this unit walk towards a unit which other units are heading for as
+	 * well, reading each step from the flow field they share.
+	 * 
+	 * @param u
+	 *            The unit to walk towards.
+	 */
+	public void followUnitByField(Unit u) {
+		FlowFieldService fields = gameData.getFlowFields();
+		if (fields == null) {
+			followUnit(u);
+			return;
+		}
+		Rectangle unitPos = unit.getAbsoluteBoundsInTiles();
+		stepAlong(fields.towards(u, unitPos.width, unitPos.height), unitPos);
+	}
 
-		// Remember the last escort position, so next time we know if it's worth
-		// recalculating the path.
-		previousFollowPos = targetPos;
+	/**
+	 * Make this unit walk to the nearest end zone, reading each step from the
+	 * flow field shared with other units.
+	 */
+	public void walkToEndZone() {
+		Rectangle unitPos = unit.getAbsoluteBoundsInTiles();
+		stepAlong(gameData.getFlowFields().towardsEndZones(unitPos.width, unitPos.height), unitPos);
+	}
+
+	/**
+	 * Set the route to the next step of a flow field
+	 * 
+	 * @param field
+	 *            The flow field
+	 * @param unitPos
+	 *            The position of this unit in tiles
+	 */
+	private void stepAlong(FlowField field, Rectangle unitPos) {
+		Rectangle next = field.next(unitPos);
+		cancelRoute();
+		stepRoute.clear();
+		if (next != null) {
+			stepRoute.add(next);
+		}
+		currentRoute = stepRoute;
+		// a route planned later must not be skipped
+		previousFollowPos = null;
 	}
 
 	/**
@@ -194,13 +338,15 @@ public abstract class AIController implements UnitController {
 	 */
 	public void followAndShootTarget() {
 		if (unit.distance(target) <= SHOOTING_RANGE
-				&& gameData.getMap().lineOfSight(unit.getHitbox(), target.getHitbox())) {
-			if (timeLastShot + delayTimeMillis < SystemTime.milliTime() || unit.getWeapon() == Unit.MACHINE_GUN) {
+				&& gameData.getMap().lineOfSight(unit.getCenterX(), unit.getCenterY(), target.getCenterX(),
+						target.getCenterY())) {
+			if (gameData.getClock().ticksSince(timeLastShot) > SimulationClock.toTicks(delayTimeMillis)
+					|| unit.getWeapon() == Unit.MACHINE_GUN) {
 				// random double between -maxOffset and maxOffset for the offset
 				double offset = (-MAX_OFFSET) + (2 * MAX_OFFSET) * r.nextDouble();
-				unit.setDir(unit.angleFromPoint(target.getCenterPoint()) + offset);
+				unit.setDir(unit.angleFromPoint(target.getCenterX(), target.getCenterY()) + offset);
 				unit.shoot();
-				timeLastShot = SystemTime.milliTime();
+				timeLastShot = gameData.getClock().getTick();
 			}
 		} else if (unit.distance(target) <= VISION_RANGE) {
 			followUnit(target);
@@ -221,9 +367,8 @@ public abstract class AIController implements UnitController {
 	public Rectangle randomRectNearUnit(Unit unit, int radius) {
 		int randomX = r.nextInt(radius * 2) - radius;
 		int randomY = r.nextInt(radius * 2) - radius;
-		Rectangle bounds = unit.getAbsoluteBoundsInTiles();
-		int x = Math.min(gameData.getMap().getWidthInTiles() - 1, Math.max(0, bounds.x + randomX));
-		int y = Math.min(gameData.getMap().getHeightInTiles() - 1, Math.max(0, bounds.y + randomY));
+		int x = Math.min(gameData.getMap().getWidthInTiles() - 1, Math.max(0, unit.getTileX() + randomX));
+		int y = Math.min(gameData.getMap().getHeightInTiles() - 1, Math.max(0, unit.getTileY() + randomY));
 		return new Rectangle(x, y, 0, 0);
 	}
 
@@ -251,11 +396,15 @@ public abstract class AIController implements UnitController {
 	}
 
 	/**
-	 * Get the currently active route.
+	 * Get the currently active route, waiting for a route still being
+	 * planned.
 	 * 
 	 * @return The currently active route.
 	 */
 	public List<Rectangle> getRoute() {
+		if (pendingRoute != null) {
+			applyRoute();
+		}
 		return currentRoute;
 	}
 
@@ -263,6 +412,7 @@ public abstract class AIController implements UnitController {
 	 * Carry out clean up for unit death.
 	 */
 	public void unitDied() {
+		cancelRoute();
 		this.currentRoute.clear();
 	}
 
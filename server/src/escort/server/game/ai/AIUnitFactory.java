@@ -1,5 +1,9 @@
 package escort.server.game.ai;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import escort.common.game.GameData;
 import escort.common.game.entities.units.Assassin;
 import escort.common.game.entities.units.Civilian;
@@ -7,9 +11,11 @@ import escort.common.game.entities.units.Escort;
 import escort.common.game.entities.units.Police;
 import escort.common.game.entities.units.President;
 import escort.common.game.entities.units.Unit;
-import escort.common.game.entities.units.UnitController;
-import escort.common.game.routePlanning.AStarSearch;
+import escort.common.game.map.GameMap;
+import escort.common.game.routePlanning.HierarchicalSearch;
+import escort.common.game.routePlanning.JumpPointSearch;
 import escort.common.game.routePlanning.PlanningMap;
+import escort.common.game.routePlanning.RouteCache;
 import escort.common.game.routePlanning.RoutePlanner;
 import escort.server.game.Game;
 
@@ -21,6 +27,14 @@ import escort.server.game.Game;
  */
 public class AIUnitFactory {
 
+	// maps with at least this many tiles are planned hierarchically, which is
+	// well above the shipped maps as hierarchical routes are not the shortest
+	private static final int HIERARCHICAL_MIN_TILES = 128 * 128;
+
+	// one planner is shared per map, with a cache of the routes asked for and
+	// the precomputed graphs of hierarchical planners
+	private static final Map<Integer, RouteCache> PLANNERS = new ConcurrentHashMap<>();
+
 	/**
 	 * Create a AI Uniy
 	 * @param game The game logic
@@ -59,11 +73,10 @@ public class AIUnitFactory {
 	 * @param unit The unit
 	 */
 	public static void takeOverUnit(Game game, Unit unit){
-		RoutePlanner planner = new AStarSearch();
-		planner.setMap(PlanningMap.createFromGameMap(game.getGameData().getMap()));
-		UnitController controller;
-		AISender sender = new AISender(game.getQueuer());
-		unit.setSender(sender);
+		RoutePlanner planner = createPlanner(game.getGameData().getMap());
+		AIController controller;
+		// the controller acts on the game directly rather than by messages
+		unit.setCommands(game.getQueuer());
 		GameData gameData = game.getGameData();
 		switch (unit.getUnitType()) {
 		case Unit.ASSASSIN_TYPE:
@@ -84,6 +97,37 @@ public class AIUnitFactory {
 		default:
 			return;
 		}
+		controller.setRouteRequests(game.getRouteRequests());
 		unit.setUnitController(controller);
 	}
+
+	/**
+	 * Get the route caches of the maps planned so far, to report how well they
+	 * are used
+	 * @return The route caches by map ID
+	 */
+	public static Map<Integer, RouteCache> getRouteCaches() {
+		return Collections.unmodifiableMap(PLANNERS);
+	}
+
+	/**
+	 * Get the route planner of a map, a hierarchical planner for large maps and
+	 * jump point search otherwise, behind a route cache shared by every unit
+	 * on the map
+	 * @param map The game map
+	 * @return The route planner
+	 */
+	public static RoutePlanner createPlanner(GameMap map) {
+		return PLANNERS.computeIfAbsent(map.getMapID(), id -> {
+			PlanningMap planningMap = PlanningMap.getShared(map);
+			RoutePlanner planner;
+			if (planningMap.getWidth() * planningMap.getHeight() >= HIERARCHICAL_MIN_TILES) {
+				planner = new HierarchicalSearch();
+			} else {
+				planner = new JumpPointSearch();
+			}
+			planner.setMap(planningMap);
+			return new RouteCache(planner);
+		});
+	}
 }
@@ -48,12 +48,14 @@ public class AssassinController extends AIController {
 		President pres = gameData.getPresident();
 
 		if (target == null || target.isDead()
-				|| !gameData.getMap().lineOfSight(pres.getHitbox(), assassin.getHitbox())) {
+				|| !gameData.getMap().lineOfSight(pres.getCenterX(), pres.getCenterY(), assassin.getCenterX(),
+						assassin.getCenterY())) {
 			target = findClosestEnemy();
 		}
 
 		if (target != null && target.getUnitType() != Unit.PRESIDENT_TYPE
-				&& gameData.getMap().lineOfSight(pres.getHitbox(), assassin.getHitbox())) {
+				&& gameData.getMap().lineOfSight(pres.getCenterX(), pres.getCenterY(), assassin.getCenterX(),
+						assassin.getCenterY())) {
 			target = pres;
 		}
 
@@ -64,7 +66,7 @@ public class AssassinController extends AIController {
 
 		// if we still don't have a target. go to the president
 		if (target == null) {
-			followUnit(unit.getGameData().getPresident());
+			followUnitByField(unit.getGameData().getPresident());
 		}
 
 		traverseRoute();
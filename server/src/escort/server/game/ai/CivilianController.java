@@ -73,7 +73,7 @@ public class CivilianController extends AIController {
 	 * @return True iff. the timer for finding a new route is up.
 	 */
 	public boolean timerUp() {
-		return timerTime <= System.nanoTime() - timerSetTime;
+		return timerTime <= gameData.getClock().ticksSince(timerSetTime);
 	}
 
 	/**
@@ -84,8 +84,8 @@ public class CivilianController extends AIController {
 	 */
 	public void setTimer(int timeInSeconds) {
 		timerSet = true;
-		timerSetTime = System.nanoTime();
-		timerTime = 0;// timeInSeconds * 1000000000;
+		timerSetTime = gameData.getClock().getTick();
+		timerTime = 0;// timeInSeconds * SimulationClock.TICKS_PER_SECOND;
 	}
 
 	/**
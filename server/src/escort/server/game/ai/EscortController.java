@@ -1,14 +1,11 @@
 package escort.server.game.ai;
 
 import java.awt.Rectangle;
-import java.util.Random;
 
 import escort.common.game.GameData;
 import escort.common.game.entities.units.Escort;
 import escort.common.game.entities.units.President;
-import escort.common.game.map.Tile;
 import escort.common.game.routePlanning.RoutePlanner;
-import escort.common.systime.SystemTime;
 
 /**
  * Escort AI controller
@@ -19,9 +16,8 @@ import escort.common.systime.SystemTime;
 public class EscortController extends AIController {
 
 	private final Escort escort;
-	private long timeSinceReset;
+	private long tickReset;
 	private static final long RESET_DURATION = 5000;
-	private final Random rand;
 
 	/**
 	 * Construct an escort controller
@@ -36,8 +32,7 @@ public class EscortController extends AIController {
 	public EscortController(GameData gameData, Escort escort, RoutePlanner planner) {
 		super(gameData, escort, planner);
 		this.escort = escort;
-		this.timeSinceReset = SystemTime.milliTime();
-		this.rand = new Random();
+		this.tickReset = gameData.getClock().getTick();
 	}
 
 	/**
@@ -56,7 +51,7 @@ public class EscortController extends AIController {
 
 		// Shoot enemy
 		if (target != null && unit.distance(target) <= SHOOTING_RANGE) {
-			escort.setDir(unit.angleFromPoint(target.getCenterPoint()));
+			escort.setDir(unit.angleFromPoint(target.getCenterX(), target.getCenterY()));
 			escort.shoot();
 			escort.unfollow();
 			return;
@@ -71,22 +66,18 @@ public class EscortController extends AIController {
 			escort.follow();
 		}
 
-		if (currentRoute.isEmpty() || SystemTime.milliTime() - timeSinceReset >= RESET_DURATION) {
+		if (escort.isFollower()) {
+			// go to the nearest endzone, along the field shared by all escorts
+			walkToEndZone();
+		} else if ((currentRoute.isEmpty() && !isRoutePending())
+				|| gameData.getClock().elapsed(tickReset, RESET_DURATION)) {
+			// should find president when not a follower
 			Rectangle rect;
-			if (!escort.isFollower()) {
-				// should find president when not a follower
-				do {
-					rect = randomRectNearUnit(gameData.getPresident(), 15);
-				} while (!gameData.getMap().walkableTile(rect.x, rect.y));
-			} else {
-				// otherwise should go to endzone
-				Rectangle[] endzones = gameData.getMap().getEndZones().toArray(new Rectangle[0]);
-				Rectangle endzone = endzones[this.rand.nextInt(endzones.length)];
-				// convert to tiles
-				rect = new Rectangle(endzone.x / Tile.TILE_WIDTH, endzone.y / Tile.TILE_HEIGHT, 0, 0);
-			}
+			do {
+				rect = randomRectNearUnit(gameData.getPresident(), 15);
+			} while (!gameData.getMap().walkableTile(rect.x, rect.y));
 			generateRoute(rect);
-			timeSinceReset = SystemTime.milliTime();
+			tickReset = gameData.getClock().getTick();
 		}
 
 		traverseRoute();
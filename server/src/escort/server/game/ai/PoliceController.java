@@ -5,7 +5,6 @@ import java.awt.Rectangle;
 import escort.common.game.GameData;
 import escort.common.game.entities.units.Police;
 import escort.common.game.routePlanning.RoutePlanner;
-import escort.common.systime.SystemTime;
 
 /**
  * An AIController implementation for Police
@@ -20,7 +19,7 @@ import escort.common.systime.SystemTime;
 public class PoliceController extends AIController {
 
 	// private Police police;
-	private long timeSinceReset;
+	private long tickReset;
 	private static final long RESET_DURATION = 5000;
 
 	/**
@@ -54,13 +53,14 @@ public class PoliceController extends AIController {
 			return;
 		}
 
-		if (currentRoute.isEmpty() || SystemTime.milliTime() - timeSinceReset >= RESET_DURATION) {
+		if ((currentRoute.isEmpty() && !isRoutePending())
+				|| gameData.getClock().elapsed(tickReset, RESET_DURATION)) {
 			Rectangle rect;
 			do {
 				rect = randomRectNearUnit(gameData.getPresident(), 15);
 			} while (!gameData.getMap().walkableTile(rect.x, rect.y));
 			generateRoute(rect);
-			timeSinceReset = SystemTime.milliTime();
+			tickReset = gameData.getClock().getTick();
 		}
 
 		traverseRoute();
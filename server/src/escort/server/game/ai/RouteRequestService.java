@@ -0,0 +1,73 @@
+package escort.server.game.ai;
+
+import java.awt.Rectangle;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import escort.common.game.routePlanning.RoutePlanner;
+
+/**
+ * Plans the routes of the AI controllers of a game on a pool of worker
+ * threads, so that a long search does not hold up the game loop. A controller
+ * submits a request and picks the route up on a later tick, and only a
+ * limited number of routes are applied per tick. The pool is shared by every
+ * game.
+ */
+public class RouteRequestService {
+
+	/**
+	 * The maximum number of planned routes applied by a game per tick
+	 */
+	public static final int ROUTES_PER_TICK = 8;
+
+	private static final ExecutorService WORKERS = Executors
+			.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), r -> {
+				Thread thread = new Thread(r, "Route Planner");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	private int applied;
+
+	/**
+	 * Construct the route request service of a game
+	 */
+	public RouteRequestService() {
+		this.applied = 0;
+	}
+
+	/**
+	 * Start a new tick, resetting the number of routes which can be applied
+	 */
+	public void startTick() {
+		this.applied = 0;
+	}
+
+	/**
+	 * Submit a route to be planned
+	 * @param planner The route planner
+	 * @param start The start position, copied
+	 * @param goal The goal position, copied
+	 * @return The pending route
+	 */
+	public Future<List<Rectangle>> submit(RoutePlanner planner, Rectangle start, Rectangle goal) {
+		Rectangle from = new Rectangle(start);
+		Rectangle to = new Rectangle(goal);
+		return WORKERS.submit(() -> planner.route(from, to));
+	}
+
+	/**
+	 * Take one of the routes which can be applied during this tick, called
+	 * from the game thread
+	 * @return True if a route can be applied, false if the budget of this tick is used up
+	 */
+	boolean takeBudget() {
+		if (this.applied >= ROUTES_PER_TICK) {
+			return false;
+		}
+		this.applied++;
+		return true;
+	}
+}
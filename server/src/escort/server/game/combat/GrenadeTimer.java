@@ -1,7 +1,7 @@
 package escort.server.game.combat;
 
 import escort.common.game.weapons.Grenade;
-import escort.common.systime.SystemTime;
+import escort.common.systime.SimulationClock;
 import escort.server.game.Game;
 
 /**
@@ -16,7 +16,7 @@ public class GrenadeTimer {
 	 * The fuse length of the grenade in milliseconds
 	 */
 	public final static int FUSE_TIME = 5000;
-	private final long msSinceCook;
+	private final long tickCooked;
 
 	private final Game game;
 	private final Grenade grenade;
@@ -32,14 +32,17 @@ public class GrenadeTimer {
 	public GrenadeTimer(Game game, Grenade grenade) {
 		this.game = game;
 		this.grenade = grenade;
-		msSinceCook = SystemTime.milliTime();
+		tickCooked = game.getGameData().getClock().getTick();
 	}
 
 	/**
 	 * Update the grenade timer to check if the grenade has exploded.
+	 * 
+	 * @param clock
+	 *            The clock of the game
 	 */
-	public void update() {
-		if (SystemTime.milliTime() - msSinceCook >= FUSE_TIME) {
+	public void update(SimulationClock clock) {
+		if (clock.elapsed(tickCooked, FUSE_TIME)) {
 			exploded();
 		}
 	}
@@ -0,0 +1,126 @@
+package escort.server.network;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import escort.common.network.CriticalCheck;
+import escort.common.network.Message;
+
+/**
+ * The outbound message queue of a player. A message carrying state that is
+ * still queued, for example the HP of a unit, is replaced in place by a newer
+ * message with the same state key, as only the newest state matters. Which
+ * messages can be superseded is decided by CriticalCheck.
+ */
+public final class CoalescingQueue {
+
+	private final ArrayDeque<Slot> slots;
+	private final Map<Key, Slot> queuedState;
+	private long superseded;
+
+	/**
+	 * Construct an empty queue
+	 */
+	public CoalescingQueue() {
+		this.slots = new ArrayDeque<Slot>();
+		this.queuedState = new HashMap<Key, Slot>();
+		this.superseded = 0;
+	}
+
+	/**
+	 * Add a message, replacing a queued message with the same state
+	 * @param msg The message
+	 */
+	public synchronized void offer(Message msg) {
+		int keyLength = CriticalCheck.getSupersedeKeyLength(msg);
+		if (keyLength == CriticalCheck.NEVER_SUPERSEDED) {
+			this.slots.add(new Slot(msg, null));
+			return;
+		}
+
+		Key key = new Key(msg, keyLength);
+		Slot slot = this.queuedState.get(key);
+		if (slot != null) {
+			// keep the place of the old message in the queue
+			slot.msg = msg;
+			this.superseded++;
+		} else {
+			slot = new Slot(msg, key);
+			this.slots.add(slot);
+			this.queuedState.put(key, slot);
+		}
+	}
+
+	/**
+	 * Remove the first message
+	 * @return The message, null if the queue is empty
+	 */
+	public synchronized Message poll() {
+		Slot slot = this.slots.poll();
+		if (slot == null) {
+			return null;
+		}
+		if (slot.key != null) {
+			this.queuedState.remove(slot.key);
+		}
+		return slot.msg;
+	}
+
+	/**
+	 * Get the number of queued messages
+	 * @return The queue size
+	 */
+	public synchronized int size() {
+		return this.slots.size();
+	}
+
+	/**
+	 * Get the number of messages dropped because a newer one replaced them
+	 * @return The number of superseded messages
+	 */
+	public synchronized long getSupersededCount() {
+		return this.superseded;
+	}
+
+	/**
+	 * A queued message
+	 */
+	private static final class Slot {
+		private Message msg;
+		private final Key key;
+
+		private Slot(Message msg, Key key) {
+			this.msg = msg;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * The state a message carries: its type and leading ints
+	 */
+	private static final class Key {
+		private final int messageType;
+		private final int[] ints;
+
+		private Key(Message msg, int keyLength) {
+			this.messageType = msg.messageType;
+			this.ints = keyLength == 0 ? new int[0] : Arrays.copyOf(msg.getInts(), keyLength);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return this.messageType == key.messageType && Arrays.equals(this.ints, key.ints);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.messageType + Arrays.hashCode(this.ints);
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package escort.server.network;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Runs the handling of received UDP packets on a fixed pool of worker
+ * threads. Each client has its own serial lane, so packets of different
+ * clients are decrypted in parallel while packets of one client are handled in
+ * the order they arrived.
+ */
+public class PacketDispatcher {
+
+	/**
+	 * The maximum number of packets waiting in one client's lane. Further
+	 * packets are dropped, as a UDP client has to cope with loss anyway.
+	 */
+	public static final int MAX_LANE_DEPTH = 64;
+
+	/**
+	 * The maximum number of packets handled from one lane before the worker
+	 * moves on to other lanes
+	 */
+	public static final int LANE_BATCH = 16;
+
+	private final ExecutorService workers;
+	private final Map<ClientInfo, Lane> lanes;
+	private final AtomicInteger queueDepth;
+	private final AtomicLong dropped;
+	private final AtomicLong handled;
+
+	/**
+	 * Construct a packet dispatcher
+	 *
+	 * @param threads
+	 *            The number of worker threads
+	 */
+	public PacketDispatcher(int threads) {
+		AtomicInteger count = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, "UDP Worker " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.lanes = new ConcurrentHashMap<ClientInfo, Lane>();
+		this.queueDepth = new AtomicInteger();
+		this.dropped = new AtomicLong();
+		this.handled = new AtomicLong();
+	}
+
+	/**
+	 * Construct a packet dispatcher with one worker per available processor
+	 */
+	public PacketDispatcher() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Queue a task on the lane of a client
+	 *
+	 * @param info
+	 *            The client the packet is from
+	 * @param task
+	 *            The task handling the packet
+	 * @return false if the lane is full or the dispatcher is shut down, and
+	 *         the task was dropped
+	 */
+	public boolean dispatch(ClientInfo info, Runnable task) {
+		while (true) {
+			Lane lane = this.lanes.computeIfAbsent(info, key -> new Lane());
+			int result = lane.offer(task);
+			if (result == Lane.ACCEPTED) {
+				return true;
+			} else if (result == Lane.FULL) {
+				this.dropped.incrementAndGet();
+				return false;
+			} else if (result == Lane.SHUT_DOWN) {
+				// counted as dropped by the lane
+				return false;
+			}
+			// lane was retired by purge, a new one will be created
+			this.lanes.remove(info, lane);
+		}
+	}
+
+	/**
+	 * Remove idle lanes of clients matching the predicate
+	 *
+	 * @param unused
+	 *            Whether the lane of a client is no longer needed
+	 */
+	public void purge(Predicate<ClientInfo> unused) {
+		Iterator<Map.Entry<ClientInfo, Lane>> it = this.lanes.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<ClientInfo, Lane> entry = it.next();
+			if (unused.test(entry.getKey()) && entry.getValue().retireIfIdle()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Stop the worker threads. Packets queued or dispatched afterwards are
+	 * dropped.
+	 */
+	public void shutdown() {
+		this.workers.shutdownNow();
+	}
+
+	/**
+	 * Get the number of packets waiting in all lanes
+	 *
+	 * @return The total queue depth
+	 */
+	public int getQueueDepth() {
+		return this.queueDepth.get();
+	}
+
+	/**
+	 * Get the number of packets waiting in the busiest lane
+	 *
+	 * @return The deepest lane
+	 */
+	public int getMaxLaneDepth() {
+		int max = 0;
+		for (Lane lane : this.lanes.values()) {
+			max = Math.max(max, lane.depth());
+		}
+		return max;
+	}
+
+	/**
+	 * Get the number of client lanes
+	 *
+	 * @return The number of lanes
+	 */
+	public int getLaneCount() {
+		return this.lanes.size();
+	}
+
+	/**
+	 * Get the number of packets dropped because a lane was full
+	 *
+	 * @return The number of dropped packets
+	 */
+	public long getDroppedCount() {
+		return this.dropped.get();
+	}
+
+	/**
+	 * Get the number of packets handled
+	 *
+	 * @return The number of handled packets
+	 */
+	public long getHandledCount() {
+		return this.handled.get();
+	}
+
+	/**
+	 * A serial queue of tasks for one client. At most one worker runs a lane
+	 * at a time.
+	 */
+	private final class Lane implements Runnable {
+
+		static final int ACCEPTED = 0;
+		static final int FULL = 1;
+		static final int RETIRED = 2;
+		static final int SHUT_DOWN = 3;
+
+		private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+		private boolean scheduled = false;
+		private boolean retired = false;
+
+		/**
+		 * Add a task and schedule the lane if it is not running
+		 */
+		int offer(Runnable task) {
+			synchronized (this) {
+				if (this.retired) {
+					return RETIRED;
+				}
+				if (this.tasks.size() >= MAX_LANE_DEPTH) {
+					return FULL;
+				}
+				this.tasks.add(task);
+				queueDepth.incrementAndGet();
+				if (this.scheduled) {
+					return ACCEPTED;
+				}
+				this.scheduled = true;
+			}
+			return this.schedule() ? ACCEPTED : SHUT_DOWN;
+		}
+
+		/**
+		 * Hand the lane to a worker. Once the workers are shut down, the
+		 * queued tasks are dropped and the lane is left unscheduled.
+		 *
+		 * @return false if the workers are shut down
+		 */
+		private boolean schedule() {
+			try {
+				workers.execute(this);
+				return true;
+			} catch (RejectedExecutionException e) {
+				synchronized (this) {
+					queueDepth.addAndGet(-this.tasks.size());
+					dropped.addAndGet(this.tasks.size());
+					this.tasks.clear();
+					this.scheduled = false;
+				}
+				return false;
+			}
+		}
+
+		/**
+		 * Retire the lane if nothing is queued or running
+		 */
+		synchronized boolean retireIfIdle() {
+			if (!this.scheduled && this.tasks.isEmpty()) {
+				this.retired = true;
+			}
+			return this.retired;
+		}
+
+		synchronized int depth() {
+			return this.tasks.size();
+		}
+
+		/**
+		 * Run a batch of tasks, then give the worker to other lanes
+		 */
+		@Override
+		public void run() {
+			for (int i = 0; i < LANE_BATCH; i++) {
+				Runnable task;
+				synchronized (this) {
+					task = this.tasks.poll();
+					if (task == null) {
+						this.scheduled = false;
+						return;
+					}
+				}
+				queueDepth.decrementAndGet();
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// a bad packet must not stop the lane
+				}
+				handled.incrementAndGet();
+			}
+			// more work may be left, requeue behind the other lanes
+			synchronized (this) {
+				if (this.tasks.isEmpty()) {
+					this.scheduled = false;
+					return;
+				}
+			}
+			this.schedule();
+		}
+	}
+}
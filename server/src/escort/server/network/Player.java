@@ -1,27 +1,34 @@
 package escort.server.network;
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import escort.common.game.lobby.LobbyMessageConstants;
 import escort.common.game.lobby.NameValidation;
 import escort.common.network.MalformedMessageException;
+import escort.common.network.ConnectionThreads;
 import escort.common.network.Message;
 import escort.common.network.MessageControl;
 import escort.common.systime.SystemTime;
 import escort.server.game.Game;
+import escort.server.game.GameMessageQueuer;
 import escort.server.lobby.LobbyConfiguration;
 
 /**
- * This thread handles a player
+ * This thread handles a player. The thread is a virtual thread when enabled
+ * in ConnectionThreads.
  * @author Kwong Hei Tsang
  */
-public class Player extends Thread {
+public class Player implements Runnable {
 	
+	private final Thread thread;
 	private final MessageControl control;
 	private final ServerSide ss;
 	private boolean initialized;
 	private int playerID;
 	private String playername;
 	private final PlayerSender sender;
+	private final Queue<Message> unbundled;
 	private int lobbyID;
 	private final Object gamestatusLock;
 	private Game game;
@@ -48,11 +55,12 @@ public class Player extends Thread {
 	 * @param ss The server side object for items shared among players
 	 */
 	public Player(MessageControl control, ServerSide ss) {
-		super("Player");
+		this.thread = ConnectionThreads.newThread("Player", this);
 		this.control = control;
 		this.ss = ss;
 		this.initialized = false;
 		this.sender = new PlayerSender(this);
+		this.unbundled = new ArrayDeque<Message>();
 		this.lobbyID = -1;
 		this.playerID = -1;
 		this.playername = null;
@@ -62,7 +70,7 @@ public class Player extends Thread {
 		//another session
 		this.anotherclient = null;
 		this.authkey = new byte[32];
-		this.refreshThread = new Thread(() -> refresh(), "Refreshing thread");
+		this.refreshThread = ConnectionThreads.newThread("Refreshing thread", () -> refresh());
 		
 		//initialize laststarttime and message count
 		this.laststarttime = SystemTime.milliTime();
@@ -73,6 +81,20 @@ public class Player extends Thread {
 		this.chatcount = 0;
 	}
 	
+	/**
+	 * Start the thread of the player
+	 */
+	public void start() {
+		this.thread.start();
+	}
+	
+	/**
+	 * Interrupt the thread of the player
+	 */
+	public void interrupt() {
+		this.thread.interrupt();
+	}
+	
 	/**
 	 * Get the message control
 	 * @return The message control
@@ -93,7 +115,7 @@ public class Player extends Thread {
 				// read the message
 				Message command = null;
 				try {
-					command = this.control.receiveMessage();
+					command = this.nextMessage();
 				} catch (MalformedMessageException e) {
 				}
 				
@@ -104,20 +126,32 @@ public class Player extends Thread {
 					break;
 				}
 				
-				// Get the time since last counting
-				long time = SystemTime.milliTime() - this.laststarttime;
-				if(time > 10000){
-					// restart the cycle
-					this.laststarttime = SystemTime.milliTime();
-					this.messagecount = 1;
-				}else if(++this.messagecount > MAX_MSG_IN_10_S){
-					// message is too frequent
-					this.getSender().put(new Message(Message.MESSAGE_TOO_FREQUENT, null, null));
-					this.getSender().put(new Message(Message.EXIT, null, null));
-					if(this.anotherclient != null){
-						// interrupt the other thread as well
-						this.anotherclient.interrupt();
+				// snapshot acknowledgements arrive with every snapshot and
+				// are not counted as player messages, unless they do not
+				// acknowledge a newer snapshot
+				if (command != null && command.messageType == Message.SNAPSHOT_ACK) {
+					if (!acknowledgeSnapshot(command) && !this.countMessage()) {
+						this.tooFrequent();
+						break;
+					}
+					continue;
+				}
+				
+				// game input is limited by the game when it is queued
+				if (command != null && this.getGame() != null
+						&& GameMessageQueuer.handles(command.messageType)) {
+					if (!this.passToGameLogic(command)) {
+						this.tooFrequent();
+						break;
 					}
+					if (this.thread.isInterrupted()) {
+						break;
+					}
+					continue;
+				}
+				
+				if(!this.countMessage()){
+					this.tooFrequent();
 					break;
 				}
 				
@@ -191,7 +225,7 @@ public class Player extends Thread {
 					//pass to game logic
 					passToGameLogic(command);
 				}
-				if (this.isInterrupted()) {
+				if (this.thread.isInterrupted()) {
 					break;
 				}
 			}
@@ -228,18 +262,88 @@ public class Player extends Thread {
 		// System.out.println("Player exited.");
 	}
 	
-	// pass command to game logic
-	private void passToGameLogic(Message command){
+	/**
+	 * Get the next message from the client. The messages of a bundle are
+	 * returned one by one, so each of them is throttled and handled as if
+	 * received on its own.
+	 * @return The message
+	 * @throws MalformedMessageException
+	 * @throws ClassNotFoundException
+	 * @throws IOException
+	 */
+	private Message nextMessage() throws MalformedMessageException, ClassNotFoundException, IOException {
+		while (this.unbundled.isEmpty()) {
+			Message msg = this.control.receiveMessage();
+			if (msg == null || msg.messageType != Message.BUNDLE) {
+				return msg;
+			}
+			if (msg.getBundle() != null) {
+				for (Message inner : msg.getBundle()) {
+					if (inner != null) {
+						this.unbundled.add(inner);
+					}
+				}
+			}
+		}
+		return this.unbundled.poll();
+	}
+	
+	// pass command to game logic, false if the unit is over its message budget
+	private boolean passToGameLogic(Message command){
 		if(command.getInts() == null || command.getInts().length == 0){
-			return;
+			return true;
 		}
 		
 		command.getInts()[0] = this.getUnitID();
 		// See if game is empty
 		Game game = this.getGame();
 		if (game != null) {
-			game.getQueuer().add(command);
+			return game.getQueuer().add(command);
+		}
+		return true;
+	}
+	
+	/**
+	 * Tell the client that it sends messages too frequently and disconnect
+	 * it, along with its other connection
+	 */
+	private void tooFrequent(){
+		this.getSender().put(new Message(Message.MESSAGE_TOO_FREQUENT, null, null));
+		this.getSender().put(new Message(Message.EXIT, null, null));
+		if(this.anotherclient != null){
+			// interrupt the other thread as well
+			this.anotherclient.interrupt();
+		}
+	}
+	
+	/**
+	 * Pass a snapshot acknowledgement to the game
+	 * @param command The SNAPSHOT_ACK message
+	 * @return Whether it acknowledged a snapshot sent after the one last acknowledged
+	 */
+	private boolean acknowledgeSnapshot(Message command){
+		Game game = this.getGame();
+		if(game == null || command.getInts() == null || command.getInts().length != 1){
+			return false;
+		}
+		return game.getSnapshots().acknowledge(this.getUnitID(), command.getInts()[0]);
+	}
+	
+	/**
+	 * Count a message against the flood limit
+	 * @return false if the player sent too many messages in the last 10 seconds
+	 */
+	private boolean countMessage(){
+		// Get the time since last counting
+		long time = SystemTime.milliTime() - this.laststarttime;
+		if(time > 10000){
+			// restart the cycle
+			this.laststarttime = SystemTime.milliTime();
+			this.messagecount = 1;
+		}else if(++this.messagecount > MAX_MSG_IN_10_S){
+			return false;
 		}
+		return true;
 	}
 	
 	/**
@@ -268,7 +372,7 @@ public class Player extends Thread {
 		this.playername = command.getStrings()[0];
 		this.playerID = result;
 		this.initialized = true;
-		this.setName("Player ID: " + this.playerID + ", Name: " + this.playername);
+		this.thread.setName("Player ID: " + this.playerID + ", Name: " + this.playername);
 		// notify the client
 		this.sender.put(new Message(Message.PLAYER_ACCEPT, new int[] { result }, new String[] { this.playername }));
 	}
@@ -364,6 +468,8 @@ public class Player extends Thread {
 				this.anotherclient.setGame(game);
 			}
 			this.game = game;
+			// in game, messages are sent once per game tick
+			this.sender.setTickDriven(game != null);
 		}
 	}
 	
@@ -1,59 +1,130 @@
 package escort.server.network;
 
 import java.io.IOException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import escort.common.network.ConnectionThreads;
 import escort.common.network.CriticalCheck;
 import escort.common.network.Message;
+import escort.common.network.MessageCodec;
 import escort.common.network.Sender;
 
 /**
- * Sever sender thread for each client
- * 
+ * Sever sender thread for each client. While the player is in a game, the
+ * messages queued during one game tick are sent together in BUNDLE messages
+ * when the game flushes the sender at the end of the tick. Critical and non
+ * critical messages are bundled separately, so a connection with a reliable
+ * channel never sends unit positions again after a loss.
+ *
  * @author Kwong Hei Tsang
  *
  */
-public class PlayerSender extends Thread implements Sender {
+public class PlayerSender implements Runnable, Sender {
+
+	/**
+	 * The maximum encoded size of the messages in one bundle, so that a bundle
+	 * fits into a single datagram below a typical MTU
+	 */
+	public static final int MAX_BUNDLE_SIZE = 1200;
 
+	private final Thread thread;
 	private final Player player;
-	private final Queue<Message> messages;
+	private final CoalescingQueue messages;
+	private final Bundle bundle;
+	private final Bundle unreliableBundle;
 	private PlayerSender anothersender;
+	// a lock instead of the monitor, so that a waiting virtual thread does
+	// not pin its carrier
+	private final ReentrantLock lock;
+	private final Condition flushed;
 	private boolean messageput;
+	private volatile boolean tickDriven;
 
 	/**
 	 * Construct a player sender object
 	 * @param player The receiving thread
 	 */
 	public PlayerSender(Player player) {
-		super("PlayerSender");
+		this.thread = ConnectionThreads.newThread("PlayerSender", this);
 		this.player = player;
-		this.messages = new ConcurrentLinkedDeque<Message>();
+		this.messages = new CoalescingQueue();
+		this.bundle = new Bundle();
+		this.unreliableBundle = new Bundle();
 		this.anothersender = null;
+		this.lock = new ReentrantLock();
+		this.flushed = this.lock.newCondition();
 		this.messageput = true;
+		this.tickDriven = false;
+	}
+
+	/**
+	 * Start the thread of the sender
+	 */
+	public void start() {
+		this.thread.start();
+	}
+
+	/**
+	 * Interrupt the thread of the sender
+	 */
+	public void interrupt() {
+		this.thread.interrupt();
+	}
+
+	/**
+	 * Check if the thread of the sender is interrupted
+	 * @return True iff interrupted
+	 */
+	public boolean isInterrupted() {
+		return this.thread.isInterrupted();
+	}
+
+	/**
+	 * Check if the thread of the sender is still running
+	 * @return True iff alive
+	 */
+	public boolean isAlive() {
+		return this.thread.isAlive();
 	}
 
 	/**
 	 * The statements run in this thread
 	 */
 	public void run() {
+		boolean forwarded = false;
 		try {
 			while (true) {
 				Message msg = this.messages.poll();
-				
+
 				//no more message to send
 				if (msg == null) {
-					synchronized(this){
+					//send what has been collected
+					this.sendBundle(this.bundle);
+					this.sendBundle(this.unreliableBundle);
+					if(forwarded){
+						this.anothersender.flush();
+						forwarded = false;
+					}
+					this.lock.lock();
+					try{
 						// wait for message
-						this.messageput = false;
 						while(!this.messageput){
-							this.wait();
+							this.flushed.await();
 						}
+						this.messageput = false;
+					}finally{
+						this.lock.unlock();
 					}
 				}else{
 					//has a message to send
 					if(this.anothersender != null && !CriticalCheck.isCritical(msg) && !this.anothersender.isInterrupted()){
 						this.anothersender.put(msg);
+						forwarded = true;
+					}else if(this.tickDriven){
+						this.addToBundle(CriticalCheck.isCritical(msg) ? this.bundle : this.unreliableBundle, msg);
 					}else{
 						this.player.getControl().sendMessage(msg);
 					}
@@ -64,6 +135,44 @@ public class PlayerSender extends Thread implements Sender {
 		}
 	}
 
+	/**
+	 * Add a message to a bundle, sending the bundle first if the message
+	 * does not fit
+	 * @param bundle The bundle
+	 * @param msg The message
+	 * @throws IOException
+	 */
+	private void addToBundle(Bundle bundle, Message msg) throws IOException {
+		int size = MessageCodec.encodedSize(msg);
+		if(bundle.size + size > MAX_BUNDLE_SIZE){
+			this.sendBundle(bundle);
+		}
+		bundle.messages.add(msg);
+		bundle.size += size;
+	}
+
+	/**
+	 * Send the collected messages, as a BUNDLE message if there is more than
+	 * one
+	 * @param bundle The bundle
+	 * @throws IOException
+	 */
+	private void sendBundle(Bundle bundle) throws IOException {
+		if(bundle.messages.isEmpty()){
+			return;
+		}
+		Message msg;
+		if(bundle.messages.size() == 1){
+			msg = bundle.messages.get(0);
+		}else{
+			msg = new Message(Message.BUNDLE, null, null);
+			msg.setBundle(bundle.messages.toArray(new Message[bundle.messages.size()]));
+		}
+		bundle.messages.clear();
+		bundle.size = 0;
+		this.player.getControl().sendMessage(msg);
+	}
+
 	/**
 	 * Configure another player sender
 	 * @param sender The other player sender
@@ -71,17 +180,60 @@ public class PlayerSender extends Thread implements Sender {
 	void setAnotherSender(PlayerSender sender){
 		this.anothersender = sender;
 	}
-	
+
+	/**
+	 * Set whether messages are only sent when the sender is flushed, which is
+	 * done by the game at the end of every tick
+	 * @param tickDriven Whether the player is in a game
+	 */
+	void setTickDriven(boolean tickDriven){
+		this.tickDriven = tickDriven;
+		if(!tickDriven){
+			// send anything still waiting for a tick
+			this.flush();
+		}
+	}
+
+	/**
+	 * Send all messages queued so far
+	 */
+	public void flush() {
+		this.lock.lock();
+		try {
+			this.messageput = true;
+			this.flushed.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the number of queued messages replaced by newer state before being
+	 * sent
+	 * @return The number of superseded messages
+	 */
+	public long getSupersededCount() {
+		return this.messages.getSupersededCount();
+	}
+
 	/**
-	 * Add a message to the queue to be sent to the player
+	 * Add a message to the queue to be sent to the player, replacing queued
+	 * older state of the same kind
 	 */
 	@Override
 	public void put(Message msg) {
-		// put message and wake this thread up
+		// put message and wake this thread up unless it waits for the tick
 		this.messages.offer(msg);
-		synchronized (this) {
-			this.messageput = true;
-			this.notifyAll();
+		if(!this.tickDriven){
+			this.flush();
 		}
 	}
+
+	/**
+	 * The messages collected for one BUNDLE message
+	 */
+	private static final class Bundle {
+		private final List<Message> messages = new ArrayList<Message>();
+		private int size = 0;
+	}
 }
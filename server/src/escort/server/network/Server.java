@@ -1,13 +1,12 @@
 package escort.server.network;
 
-import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.security.InvalidKeyException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -25,18 +24,15 @@ import java.util.Set;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import javax.net.ServerSocketFactory;
 import javax.net.ssl.SSLServerSocketFactory;
 import javax.net.ssl.SSLSocket;
 
-import escort.common.network.MalformedMessageException;
 import escort.common.network.Message;
 import escort.common.network.MessageControl;
 import escort.common.network.tcp.MessageControlTCP;
 import escort.common.network.udp.MessageControlUDP;
-import escort.common.network.udp.MessageStamp;
+import escort.common.network.udp.PacketBufferPool;
 import escort.common.network.udp.UDPConfig;
 import escort.common.systime.SystemTime;
 import escort.server.console.ServerConsole;
@@ -48,9 +44,12 @@ import escort.server.console.ServerConsole;
  */
 public final class Server {
 
+	// the number of pooled UDP receive buffers
+	private static final int RECEIVE_BUFFERS = 256;
+
 	private Thread tcpServer;
 	private ServerSocket tcpSocket;
-	private DatagramSocket udpSocket = null;
+	private DatagramChannel udpChannel = null;
 	private Thread udpServer;
 	private Thread udpClientsClearingThread;
 	private ServerSide ss;
@@ -63,6 +62,8 @@ public final class Server {
 	private final String key;
 	private final String keypassword;
 	private final ServerConsole console;
+	private final PacketDispatcher dispatcher;
+	private final PacketBufferPool bufferPool;
 	
 	private Cipher rsacipher = null;
 	private Certificate cert = null;
@@ -89,6 +90,8 @@ public final class Server {
 		this.tcpclientsLock = new Object();
 		this.tcpSocket = null;
 		this.tcpClients = new HashSet<>();
+		this.dispatcher = new PacketDispatcher();
+		this.bufferPool = new PacketBufferPool(RECEIVE_BUFFERS, UDPConfig.UDP_BUFFER_SIZE);
 		this.console = new ServerConsole(this.ss);
 		(new Thread(this.console, "ServerConsole")).start();
 
@@ -131,8 +134,11 @@ public final class Server {
 			}
 		}
 		
-		if(this.udpSocket != null){
-			this.udpSocket.close();
+		if(this.udpChannel != null){
+			try {
+				this.udpChannel.close();
+			} catch (IOException e) {
+			}
 		}
 		
 		try {
@@ -141,6 +147,7 @@ public final class Server {
 		} catch (InterruptedException e1) {
 			//won't happen anyway
 		}
+		this.dispatcher.shutdown();
 		
 		//close the connections
 		for(MessageControlTCP control : this.tcpClients){
@@ -216,6 +223,14 @@ public final class Server {
 		System.out.println("TCP server shut down.");
 	}
 	
+	/**
+	 * Get the dispatcher handling received UDP packets
+	 * @return The packet dispatcher
+	 */
+	public final PacketDispatcher getPacketDispatcher(){
+		return this.dispatcher;
+	}
+	
 	/**
 	 * Remove a specific TCP client
 	 * @param control
@@ -249,7 +264,8 @@ public final class Server {
 			this.rsacipher.init(Cipher.DECRYPT_MODE, privatekey);
 			
 			// try to listen to port
-			this.udpSocket = new DatagramSocket(this.port);
+			this.udpChannel = DatagramChannel.open();
+			this.udpChannel.bind(new InetSocketAddress(this.port));
 		} catch (Exception e) {
 			System.out.println("UDP Server failed initialize.");
 			System.out.println("Please check if your Java implementation supports RSA and port " + this.port + " is free on your server.");
@@ -259,34 +275,25 @@ public final class Server {
 		}
 		
 		while (true) {
+			// take a buffer from the pool, returned once the packet is handled
+			ByteBuffer buffer = this.bufferPool.acquire();
 			try {
-				// create buffer
-				byte[] buffer = new byte[UDPConfig.UDP_BUFFER_SIZE];
-
 				// receive packet
-				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-				//socket.setSoTimeout(UDPConfig.UDP_SERVER_RECEIVE_MAXTIME);
-				this.udpSocket.receive(packet);
+				InetSocketAddress sender = (InetSocketAddress) this.udpChannel.receive(buffer);
+				buffer.flip();
 
-				// check if client exists
-				ClientInfo info = new ClientInfo(packet.getAddress(), packet.getPort());
-				MessageControlUDP control;
-				synchronized (this.udpclientsLock) {
-					control = this.udpclients.get(info);
-				}
-				if (control != null) {
-					// client exists, decrypt message and put message
-					new Thread(() -> readMessage(control,packet),"Read Message UDP").start();
-				} else {
-					//client does not exist, add client
-					new Thread(() -> initializeClient(packet,info),"Initialize UDP Client").start();
+				// handle the packet on the lane of the client
+				ClientInfo info = new ClientInfo(sender.getAddress(), sender.getPort());
+				if (!this.dispatcher.dispatch(info, () -> handlePacket(buffer, sender, info))) {
+					this.bufferPool.release(buffer);
 				}
 			} catch (IOException e1) {
 				//e1.printStackTrace();
+				this.bufferPool.release(buffer);
 			}
 
 			// Check if current thread is interrupted
-			if (Thread.currentThread().isInterrupted()) {
+			if (Thread.currentThread().isInterrupted() || !this.udpChannel.isOpen()) {
 				break;
 			}
 		}
@@ -294,7 +301,10 @@ public final class Server {
 		// server shuts down
 		// interrupt the clearing thread
 		this.udpClientsClearingThread.interrupt();
-		this.udpSocket.close();
+		try {
+			this.udpChannel.close();
+		} catch (IOException e) {
+		}
 		System.out.println("UDP server shut down.");
 	}
 
@@ -330,6 +340,13 @@ public final class Server {
 					}
 				}
 				
+				// Remove the lanes of removed clients
+				this.dispatcher.purge(info -> {
+					synchronized (this.udpclientsLock) {
+						return !this.udpclients.containsKey(info);
+					}
+				});
+				
 				looptime = SystemTime.milliTime() - starttime;
 				if(UDPConfig.UDP_KEEPALIVE > looptime){
 					Thread.sleep(UDPConfig.UDP_KEEPALIVE - looptime);
@@ -347,56 +364,39 @@ public final class Server {
 	}
 
 	/**
-	 * Read message method and put message into message control
-	 * @param control
+	 * Handle a received packet, run on the lane of the client
 	 * @param packet
+	 * @param sender
+	 * @param info
 	 */
-	private final void readMessage(MessageControlUDP control, DatagramPacket packet){
+	private final void handlePacket(ByteBuffer packet, InetSocketAddress sender, ClientInfo info){
 		try{
-			//Get AES Key
-			SecretKeySpec aeskey = control.getAESKey();
-			
-			//Decrypt the message
-			//get the packet content
-			if(packet.getLength() < 32){
-				throw new MalformedMessageException();
-			}
-			byte[] iv = new byte[16];
-			byte[] authcode = new byte[16];
-			byte[] cipher = new byte[packet.getLength()-32];
-			byte[] buffer = packet.getData();
-			System.arraycopy(buffer, 0, iv, 0, 16);
-			System.arraycopy(buffer, 16, authcode, 0, 16);
-			System.arraycopy(buffer, 32, cipher, 0, packet.getLength()-32);
-			
-			//Decrypt the content
-			Cipher dec = Cipher.getInstance("AES/CBC/PKCS5Padding");
-			dec.init(Cipher.DECRYPT_MODE, aeskey, new IvParameterSpec(iv));
-			byte[] plain = dec.doFinal(cipher);
-			byte[] authcodecipher = control.getAuthCipher().doFinal(plain);
-			byte[] authcodecheck = new byte[16];
-			System.arraycopy(authcodecipher, authcodecipher.length-16, authcodecheck, 0, 16);
-			if(!Arrays.equals(authcode, authcodecheck)){
-				throw new MalformedMessageException();
+			// check if client exists
+			MessageControlUDP control;
+			synchronized (this.udpclientsLock) {
+				control = this.udpclients.get(info);
 			}
-			
-			// read message
-			ByteArrayInputStream byteStream = new ByteArrayInputStream(plain);
-			ObjectInputStream input = new ObjectInputStream(byteStream);
-			MessageStamp msg = null;
-			Object obj = input.readObject();
-			if(obj instanceof MessageStamp){
-				msg = (MessageStamp)obj;
-			}else{
-				throw new MalformedMessageException();
+			if (control != null) {
+				// client exists, decrypt message and put message
+				readMessage(control, packet);
+			} else {
+				//client does not exist, add client
+				initializeClient(packet, sender, info);
 			}
+		}finally{
+			this.bufferPool.release(packet);
+		}
+	}
 
-			// close streams
-			input.close();
-			byteStream.close();
-			
-			//Put the message
-			control.putMessage(msg);
+	/**
+	 * Read message method and put message into message control
+	 * @param control
+	 * @param packet
+	 */
+	private final void readMessage(MessageControlUDP control, ByteBuffer packet){
+		try{
+			//Decrypt the message in place and put message
+			control.receivePacket(packet);
 		}catch(Exception e){
 			//e.printStackTrace();
 		}
@@ -404,44 +404,54 @@ public final class Server {
 	
 	/**
 	 * The client is not yet in client list, initialize client
-	 * @param socket
 	 * @param packet
+	 * @param sender
 	 * @param info
 	 */
-	private final void initializeClient(DatagramPacket packet, ClientInfo info){
+	private final void initializeClient(ByteBuffer packet, InetSocketAddress sender, ClientInfo info){
 		try{
-			//copy encrypted AES key to new array
-			byte[] cipher = new byte[packet.getLength()];
-			byte[] buffer = packet.getData();
-			System.arraycopy(buffer,0,cipher,0,packet.getLength());
-			
-			if(cipher.length == 3){
+			if(packet.remaining() == 3){
 				//initial request
 				byte[] certbyte = this.cert.getEncoded();
-				DatagramPacket respacket = new DatagramPacket(certbyte,certbyte.length,packet.getAddress(),packet.getPort());
-				this.udpSocket.send(respacket);
+				this.udpChannel.send(ByteBuffer.wrap(certbyte), sender);
 				return;
 			}
 			
-			//decrypt AES key
-			byte[] aeskey = this.rsacipher.doFinal(cipher);
+			//decrypt AES key, the cipher is shared by the workers
+			byte[] keyblock;
+			synchronized (this.rsacipher) {
+				keyblock = this.rsacipher.doFinal(packet.array(), packet.arrayOffset() + packet.position(), packet.remaining());
+			}
 			
-			if(aeskey.length != 16){
+			//a legacy client sends the key only, a newer client appends the packet mode it wants
+			//and the options it supports
+			byte mode;
+			if(keyblock.length == 16){
+				mode = MessageControlUDP.MODE_CBC;
+			}else if(keyblock.length >= 17 && keyblock.length <= 18 && (keyblock[16] == MessageControlUDP.MODE_CBC || keyblock[16] == MessageControlUDP.MODE_GCM)){
+				mode = keyblock[16];
+			}else{
 				return;
 			}
+			byte options = keyblock.length == 18 ? (byte) (keyblock[17] & MessageControlUDP.OPTION_RELIABLE) : 0;
+			byte[] aeskey = Arrays.copyOf(keyblock, 16);
+			
 			// client does not exist, add client
-			MessageControlUDP newcontrol = new MessageControlUDP(this.udpSocket, packet.getAddress(), packet.getPort(), false, aeskey);
+			MessageControlUDP newcontrol = new MessageControlUDP(this.udpChannel, sender.getAddress(), sender.getPort(), false, aeskey, mode, options);
 			synchronized (this.udpclientsLock) {
 				this.udpclients.put(info, newcontrol);
 			}
 			Player player = new Player(newcontrol, ss);
 			player.start();
 			
-			//send acknowledge to client
-			byte[] ackbytes = new byte[3];
-			Arrays.fill(ackbytes, (byte)0);
-			DatagramPacket ackpacket = new DatagramPacket(ackbytes,ackbytes.length,packet.getAddress(),packet.getPort());
-			this.udpSocket.send(ackpacket);
+			//send acknowledge to client with the packet mode in use, and the
+			//options accepted if the client asked for any
+			byte[] ackbytes = new byte[keyblock.length == 18 ? 4 : 3];
+			ackbytes[2] = mode;
+			if(keyblock.length == 18){
+				ackbytes[3] = options;
+			}
+			this.udpChannel.send(ByteBuffer.wrap(ackbytes), sender);
 		}catch(Exception e){
 			//e.printStackTrace();
 		}
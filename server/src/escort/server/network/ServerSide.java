@@ -69,6 +69,14 @@ public class ServerSide {
 		}
 	}
 
+	/**
+	 * Get the server object managing the connections
+	 * @return The server, null if there is no network server
+	 */
+	public Server getServer() {
+		return this.server;
+	}
+
 	/**
 	 * Get Lobby management
 	 * @return the lobby management object